@@ -12,6 +12,10 @@ public class ServerConfig {
     @Value("${server.remote.port:${server.port:8080}}")
     private int serverPort;
 
+    // 2 = pedir el protocolo binario tras WELCOME (si el servidor no lo acepta se sigue en 1)
+    @Value("${app.protocol.version:2}")
+    private int protocolVersion;
+
     public String getServerIp() {
         return serverIp;
     }
@@ -19,4 +23,8 @@ public class ServerConfig {
     public int getServerPort() {
         return serverPort;
     }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
 }
@@ -45,30 +45,30 @@ public class MessageReceiver {
                     continue;
                 }
 
-                String line;
+                ProtocolMessage msg;
                 try {
-                    line = conn.readLine();
+                    msg = conn.readMessage();
                 } catch (IOException ioe) {
                     log.warn("IOException leyendo del socket: {}. Marcar desconectado y reintentar.", ioe.getMessage());
-                    // readLine() ya deja conn en estado desconectado cuando corresponde
+                    // readMessage() ya deja conn en estado desconectado cuando corresponde
                     Thread.sleep(1000);
                     continue;
                 }
 
-                if (line == null) {
+                if (msg == null) {
                     // conexión cerrada por el servidor; esperar reconexión manual
-                    log.info("readLine() devolvió null -> conexión cerrada por el servidor. Esperando reconexión.");
+                    log.info("readMessage() devolvió null -> conexión cerrada por el servidor. Esperando reconexión.");
                     Thread.sleep(500);
                     continue;
                 }
 
-                // Registrar la línea recibida (INFO para que sea visible)
-                log.info("Línea recibida del servidor: {}", line);
-                log.info("mensaje llega a funcion de MessageReceiver.runLoop correctamente. Pasando a MessageService.handleServerLine");
+                // Registrar el mensaje recibido (INFO para que sea visible)
+                log.info("Línea recibida del servidor: {}", msg);
+                log.info("mensaje llega a funcion de MessageReceiver.runLoop correctamente. Pasando a MessageService.handleServerMessage");
 
-                // manejar la línea recibida
+                // manejar el mensaje recibido
                 try {
-                    messageService.handleServerLine(line);
+                    messageService.handleServerMessage(msg);
                 } catch (Exception e) {
                     log.error("Error procesando línea del servidor: {}", e.toString(), e);
                 }
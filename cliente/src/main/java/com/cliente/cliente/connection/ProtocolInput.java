@@ -0,0 +1,91 @@
+package com.cliente.cliente.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lector de un socket bloqueante que sirve tanto líneas v1 como frames v2 sobre el mismo buffer,
+ * así el cambio de protocolo tras "PROTO 2" no pierde bytes ya leídos por adelantado.
+ */
+class ProtocolInput {
+
+    private final InputStream in;
+    private final byte[] buf = new byte[64 * 1024];
+    private int pos = 0;
+    private int lim = 0;
+
+    ProtocolInput(InputStream in) {
+        this.in = in;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < lim) return true;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        lim = n;
+        return true;
+    }
+
+    /**
+     * Lee una línea terminada en '\n' (sin '\r'). Devuelve null en fin de stream.
+     */
+    String readLine(int maxBytes) throws IOException {
+        byte[] line = null;
+        int len = 0;
+        while (true) {
+            if (!fill()) {
+                if (len == 0) return null;
+                break;
+            }
+            int start = pos;
+            int nl = -1;
+            for (int i = pos; i < lim; i++) {
+                if (buf[i] == '\n') { nl = i; break; }
+            }
+            int end = nl < 0 ? lim : nl;
+            int chunk = end - start;
+            if (len + chunk > maxBytes) throw new IOException("línea demasiado larga (> " + maxBytes + " bytes)");
+            if (line == null) line = new byte[Math.max(128, chunk)];
+            if (len + chunk > line.length) line = Arrays.copyOf(line, Math.min(maxBytes, Math.max(line.length * 2, len + chunk)));
+            System.arraycopy(buf, start, line, len, chunk);
+            len += chunk;
+            pos = nl < 0 ? lim : nl + 1;
+            if (nl >= 0) break;
+        }
+        if (len > 0 && line[len - 1] == '\r') len--;
+        return new String(line, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lee un frame v2 completo. Devuelve null en fin de stream.
+     */
+    ProtocolMessage readFrame(int maxBytes) throws IOException {
+        byte[] header = new byte[ProtocolMessage.V2_HEADER];
+        if (!readFully(header, true)) return null;
+        int type = header[0] & 0xFF;
+        int len = ByteBuffer.wrap(header, 1, 4).getInt();
+        if (len < 0 || len > maxBytes) throw new IOException("frame v2 demasiado grande (" + len + " bytes)");
+        byte[] payload = new byte[len];
+        readFully(payload, false);
+        return ProtocolMessage.decodeV2(type, ByteBuffer.wrap(payload));
+    }
+
+    private boolean readFully(byte[] dst, boolean eofAllowed) throws IOException {
+        int off = 0;
+        while (off < dst.length) {
+            if (!fill()) {
+                if (off == 0 && eofAllowed) return false;
+                throw new java.io.EOFException("frame v2 truncado");
+            }
+            int n = Math.min(dst.length - off, lim - pos);
+            System.arraycopy(buf, pos, dst, off, n);
+            pos += n;
+            off += n;
+        }
+        return true;
+    }
+}
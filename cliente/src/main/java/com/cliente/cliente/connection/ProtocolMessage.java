@@ -0,0 +1,283 @@
+package com.cliente.cliente.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mensaje del protocolo cliente/servidor, independiente de cómo viaja por el socket.
+ *
+ * v1 (texto, por defecto): una línea "VERBO campo1|campo2|...\n"; los campos binarios van en Base64.
+ * v2 (binario, se negocia con "PROTO 2" justo después de WELCOME):
+ * <pre>
+ *   [tipo u8][longitud int32][nCampos u8] { [longitud int32][bytes] } * nCampos
+ * </pre>
+ * Los campos de texto van en UTF-8 y los binarios (contenido de archivos) en crudo, sin Base64,
+ * de modo que ningún lado necesita split/regex para separar los campos.
+ *
+ * Debe mantenerse igual que com.proyecto.demo.server.ProtocolMessage del servidor (mismos códigos de tipo).
+ */
+public final class ProtocolMessage {
+
+    public static final int V1 = 1;
+    public static final int V2 = 2;
+
+    // cabecera v2: tipo (1) + longitud del payload (4)
+    static final int V2_HEADER = 5;
+
+    /**
+     * Verbos conocidos: código de tipo en v2, nº de campos en v1 (límite del split; el último campo
+     * puede contener '|') e índice del campo binario (-1 si no hay).
+     */
+    public enum Verb {
+        WELCOME(1, 0, -1),
+        PROTO(2, 1, -1),
+        // cliente -> servidor
+        REGISTER(10, 3, -1),
+        LOGIN(11, 3, -1),
+        MSG(12, 2, -1),
+        FILE(13, 3, 2),
+        FILE_HDR(14, 5, -1),
+        FILE_DATA(15, 3, 2),
+        QUIT(16, 0, -1),
+        FILE_CHUNK(17, 5, 3),
+        FILE_GET(18, 1, -1),
+        HISTORY(19, 4, -1),
+        SYNC(20, 1, -1),
+        // pide la lista completa de conectados (el cliente vio un salto en la versión de presencia)
+        USERS_GET(21, 0, -1),
+        // capacidades del cliente, "cap1,cap2" (antes de LOGIN); el servidor contesta con las que acepta
+        CAPS(22, 1, -1),
+        // servidor -> cliente
+        USERS(30, 1, -1),
+        MSGFROM(31, 3, -1),
+        MSG_ECHO(32, 3, -1),
+        HISTMSG(33, 4, -1),
+        FILEFROM(34, 3, 2),
+        HISTFILE(35, 5, 3),
+        FILE_STATUS(36, 3, -1),
+        FILE_HDR_STATUS(37, 5, -1),
+        LOGGED(38, 0, -1),
+        REGISTERED(39, 0, -1),
+        SENT(40, 1, -1),
+        BYE(41, 0, -1),
+        ERROR(42, 1, -1),
+        FILE_OFFSET(43, 3, -1),
+        HISTFILE_REF(44, 7, -1),
+        FILE_CONTENT(45, 3, 2),
+        HIST_PAGE(46, 5, -1),
+        HIST_ENTRY(47, 8, -1),
+        // presencia: "version|u1,u2,..." (lista completa, usuarios que entran, usuarios que salen)
+        USERS_SNAPSHOT(48, 2, -1),
+        USER_JOIN(49, 2, -1),
+        USER_LEAVE(50, 2, -1),
+        // límite de envío superado: "verbo|motivo|esperarMs" (el comando no se procesó)
+        SLOW_DOWN(51, 3, -1);
+
+        final int code;
+        final int arity;
+        final int binaryField;
+
+        Verb(int code, int arity, int binaryField) {
+            this.code = code;
+            this.arity = arity;
+            this.binaryField = binaryField;
+        }
+
+        private static final Verb[] BY_CODE = new Verb[256];
+        private static final Map<String, Verb> BY_NAME = new HashMap<>();
+        static {
+            for (Verb v : values()) {
+                BY_CODE[v.code] = v;
+                BY_NAME.put(v.name(), v);
+            }
+        }
+
+        static Verb byCode(int code) {
+            return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+
+        static Verb byName(String name) {
+            return BY_NAME.get(name);
+        }
+    }
+
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final Verb verb;
+    // nombre tal como llegó (para verbos desconocidos)
+    private final String name;
+    // cada campo es String o byte[]
+    private final Object[] fields;
+
+    // codificaciones cacheadas (carrera benigna: en el peor caso se codifica dos veces)
+    private ByteBuffer v1Frame;
+    private ByteBuffer v2Frame;
+
+    private ProtocolMessage(Verb verb, String name, Object[] fields) {
+        this.verb = verb;
+        this.name = name;
+        this.fields = fields;
+    }
+
+    /** Crea un mensaje; los campos pueden ser String, byte[] o cualquier objeto (se usa toString()). */
+    public static ProtocolMessage of(Verb verb, Object... fields) {
+        Object[] f = fields == null ? NO_FIELDS : fields.clone();
+        for (int i = 0; i < f.length; i++) {
+            if (f[i] == null) f[i] = "";
+            else if (!(f[i] instanceof String) && !(f[i] instanceof byte[])) f[i] = f[i].toString();
+        }
+        return new ProtocolMessage(verb, verb.name(), f);
+    }
+
+    public Verb verb() {
+        return verb;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    /** Campo como texto ("" si no existe). */
+    public String arg(int i) {
+        if (i < 0 || i >= fields.length) return "";
+        Object f = fields[i];
+        return f instanceof byte[] b ? new String(b, StandardCharsets.UTF_8) : (String) f;
+    }
+
+    /**
+     * Campo binario. En v1 llega en Base64 y se decodifica aquí (IllegalArgumentException si no es válido).
+     */
+    public byte[] bytes(int i) {
+        if (i < 0 || i >= fields.length) return new byte[0];
+        Object f = fields[i];
+        return f instanceof byte[] b ? b : Base64.getDecoder().decode((String) f);
+    }
+
+    /** Campo sin convertir (String o byte[]), para reenviarlo tal cual en otro mensaje. */
+    Object field(int i) {
+        return i >= 0 && i < fields.length ? fields[i] : "";
+    }
+
+    // ---- v1 (texto) ----
+
+    /**
+     * Interpreta una línea v1. Verbos desconocidos devuelven un mensaje con verb() == null.
+     */
+    public static ProtocolMessage parseV1(String line) {
+        if (line == null) return null;
+        int sp = line.indexOf(' ');
+        String name = sp < 0 ? line : line.substring(0, sp);
+        Verb v = Verb.byName(name);
+        if (v == null) return new ProtocolMessage(null, name, NO_FIELDS);
+        if (sp < 0 || v.arity == 0) return new ProtocolMessage(v, name, NO_FIELDS);
+        String rest = line.substring(sp + 1);
+        if (v.arity == 1) return new ProtocolMessage(v, name, new Object[]{rest});
+        return new ProtocolMessage(v, name, rest.split("\\|", v.arity));
+    }
+
+    public String toV1Line() {
+        StringBuilder sb = new StringBuilder(name.length() + 16 * fields.length);
+        sb.append(name);
+        if (fields.length > 0) {
+            sb.append(' ');
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) sb.append('|');
+                Object f = fields[i];
+                if (f instanceof byte[] b) sb.append(Base64.getEncoder().encodeToString(b));
+                else sb.append((String) f);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ---- v2 (binario) ----
+
+    private byte[] v2Field(int i) {
+        Object f = fields[i];
+        if (f instanceof byte[] b) return b;
+        // un campo binario que llegó por v1 sigue en Base64: se decodifica para enviarlo en crudo
+        if (verb != null && verb.binaryField == i) {
+            try {
+                return Base64.getDecoder().decode((String) f);
+            } catch (IllegalArgumentException ignored) {
+                // no era Base64: se envía como texto
+            }
+        }
+        return ((String) f).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodifica el payload de un frame v2 (sin la cabecera de 5 bytes).
+     */
+    public static ProtocolMessage decodeV2(int type, ByteBuffer payload) throws IOException {
+        Verb v = Verb.byCode(type);
+        String name = v == null ? "TIPO_" + type : v.name();
+        if (!payload.hasRemaining()) return new ProtocolMessage(v, name, NO_FIELDS);
+        int n = payload.get() & 0xFF;
+        Object[] f = new Object[n];
+        for (int i = 0; i < n; i++) {
+            if (payload.remaining() < 4) throw new IOException("frame v2 truncado");
+            int len = payload.getInt();
+            if (len < 0 || len > payload.remaining()) throw new IOException("campo v2 con longitud inválida: " + len);
+            byte[] b = new byte[len];
+            payload.get(b);
+            f[i] = (v != null && v.binaryField == i) ? b : new String(b, StandardCharsets.UTF_8);
+        }
+        return new ProtocolMessage(v, name, f);
+    }
+
+    /**
+     * Codificación lista para encolar (buffer de solo lectura compartido: usar duplicate() por destinatario).
+     */
+    public ByteBuffer encode(int version) {
+        if (version >= V2 && verb != null) {
+            ByteBuffer b = v2Frame;
+            if (b == null) {
+                byte[][] raw = new byte[fields.length][];
+                int payloadLen = 1;
+                for (int i = 0; i < fields.length; i++) {
+                    raw[i] = v2Field(i);
+                    payloadLen += 4 + raw[i].length;
+                }
+                ByteBuffer buf = ByteBuffer.allocate(V2_HEADER + payloadLen);
+                buf.put((byte) verb.code).putInt(payloadLen).put((byte) fields.length);
+                for (byte[] r : raw) buf.putInt(r.length).put(r);
+                buf.flip();
+                b = v2Frame = buf.asReadOnlyBuffer();
+            }
+            return b;
+        }
+        ByteBuffer b = v1Frame;
+        if (b == null) {
+            b = v1Frame = ByteBuffer.wrap((toV1Line() + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+        return b;
+    }
+
+    /** Representación para logs: como la línea v1 pero con los binarios resumidos y truncada. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i < fields.length; i++) {
+            sb.append(i == 0 ? ' ' : '|');
+            Object f = fields[i];
+            if (f instanceof byte[] b) sb.append('<').append(b.length).append(" bytes>");
+            else if (verb != null && verb.binaryField == i) sb.append("<base64 ").append(((String) f).length()).append(" chars>");
+            else sb.append((String) f);
+            if (sb.length() > 200) {
+                sb.setLength(200);
+                sb.append("...(trunc)");
+                break;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -5,9 +5,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import com.cliente.cliente.connection.ProtocolMessage.Verb;
+
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -18,14 +21,20 @@ public class TcpConnection {
 
     private final ServerConfig serverConfig;
     private Socket socket;
-    private BufferedReader in;
-    // usamos PrintWriter con autoFlush=true para evitar problemas de flush/buffering
-    private PrintWriter pw;
+    private ProtocolInput in;
+    // cada envío hace flush explícito (equivalente al antiguo PrintWriter con autoFlush)
+    private BufferedOutputStream out;
+    // versión negociada con el servidor tras WELCOME: 1 = líneas de texto, 2 = frames binarios
+    private volatile int protocolVersion = ProtocolMessage.V1;
     private final AtomicBoolean connected = new AtomicBoolean(false);
     // separate locks for read and write to avoid blocking send when a read is waiting
     private final Object readLock = new Object();
     private final Object writeLock = new Object();
 
+    // límites de lectura: HISTFILE/FILEFROM llevan archivos completos (en Base64 en v1)
+    private static final int MAX_FRAME_BYTES = 512 * 1024 * 1024;
+    private static final int MAX_LINE_BYTES = MAX_FRAME_BYTES / 3 * 4 + 64 * 1024;
+
     public TcpConnection(ServerConfig serverConfig) {
         this.serverConfig = serverConfig;
     }
@@ -42,11 +51,11 @@ public class TcpConnection {
             try { socket.setReuseAddress(true); } catch (Exception ignored) {}
             socket.connect(new InetSocketAddress(serverConfig.getServerIp(), serverConfig.getServerPort()), 5000);
             try { socket.setSoTimeout(60_000); } catch (Exception ignored) {}
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            // PrintWriter autoFlush garantiza que println() haga flush
-            pw = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in = new ProtocolInput(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            protocolVersion = negotiate();
             connected.set(true);
-            log.info("Conexión establecida correctamente con el servidor {}:{}", serverConfig.getServerIp(), serverConfig.getServerPort());
+            log.info("Conexión establecida correctamente con el servidor {}:{} (protocolo v{})", serverConfig.getServerIp(), serverConfig.getServerPort(), protocolVersion);
         } catch (IOException e) {
             try { if (socket != null) socket.close(); } catch (Exception ignored) {}
             connected.set(false);
@@ -55,6 +64,28 @@ public class TcpConnection {
         }
     }
 
+    /**
+     * Lee el WELCOME y, si app.protocol.version=2, pide "PROTO 2". Un servidor que no conoce el
+     * comando responde ERROR y la conexión sigue en v1.
+     */
+    private int negotiate() throws IOException {
+        String welcome = in.readLine(MAX_LINE_BYTES);
+        if (welcome == null) throw new EOFException("El servidor cerró la conexión antes de WELCOME");
+        if (!"WELCOME".equals(welcome)) log.warn("Saludo inesperado del servidor: {}", sanitizeLog(welcome));
+        if (serverConfig.getProtocolVersion() < ProtocolMessage.V2) return ProtocolMessage.V1;
+        writeFrame(ProtocolMessage.of(Verb.PROTO, "2").encode(ProtocolMessage.V1));
+        out.flush();
+        String reply = in.readLine(MAX_LINE_BYTES);
+        if (reply == null) throw new EOFException("El servidor cerró la conexión durante la negociación");
+        if ("PROTO 2".equals(reply)) return ProtocolMessage.V2;
+        log.info("Servidor sin soporte de protocolo v2 ({}); se usa v1", sanitizeLog(reply));
+        return ProtocolMessage.V1;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     public synchronized void disconnect() {
         if (!connected.get()) {
             log.debug("disconnect() llamado pero no había conexión");
@@ -64,8 +95,8 @@ public class TcpConnection {
             try {
                 // close output side if possible (best-effort)
                 synchronized (writeLock) {
-                    if (pw != null) {
-                        try { pw.println("QUIT"); pw.flush(); } catch (Exception ignored) {}
+                    if (out != null) {
+                        try { writeFrame(ProtocolMessage.of(Verb.QUIT).encode(protocolVersion)); out.flush(); } catch (Exception ignored) {}
                         try { socket.shutdownOutput(); } catch (Exception ignored) {}
                     }
                 }
@@ -74,71 +105,103 @@ public class TcpConnection {
         } finally {
             connected.set(false);
             in = null;
-            pw = null;
+            out = null;
             socket = null;
+            protocolVersion = ProtocolMessage.V1;
             log.info("Conexión cerrada y recursos liberados");
         }
     }
 
     /**
-     * Envío garantizado de una línea terminada en '\n' (usando println).
+     * Envía una línea de comando v1 ("VERBO a|b|c"). Si se negoció v2 se convierte a frame binario.
      */
     public void sendRaw(String line) throws IOException {
+        ProtocolMessage msg = ProtocolMessage.parseV1(line);
+        if (protocolVersion >= ProtocolMessage.V2 && msg != null && msg.verb() != null) {
+            send(msg);
+        } else {
+            // v1 (o verbo sin código v2): la línea se envía literal
+            write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)), sanitizeLog(line));
+        }
+    }
+
+    /**
+     * Envía un mensaje codificado en la versión negociada, con flush inmediato.
+     */
+    public void send(ProtocolMessage msg) throws IOException {
+        write(msg.encode(protocolVersion), msg);
+    }
+
+    private void write(ByteBuffer frame, Object logged) throws IOException {
         if (!isConnected()) {
             log.warn("Intento de envío sin conexión activa");
             throw new IllegalStateException("No conectado");
         }
         // traza de debug específica para seguimiento de flujo
-        log.info("mensaje llega a funcion de TcpConnection.sendRaw correctamente. Preparando a enviar literal de {} chars", line == null ? 0 : line.length());
+        log.info("mensaje llega a funcion de TcpConnection.send correctamente. Preparando a enviar {} bytes", frame.remaining());
         synchronized (writeLock) {
             try {
-                // registramos el literal exacto que vamos a mandar (sin newline visible)
-                log.debug("-> sendRaw() literal: [{}]", line.replace("\n","\\n"));
-                PrintWriter pwLocal = this.pw;
-                if (pwLocal == null) {
-                    log.error("sendRaw: PrintWriter es null al intentar enviar");
+                log.debug("-> send() literal: [{}]", logged);
+                if (this.out == null) {
+                    log.error("send: stream de salida es null al intentar enviar");
                     throw new IOException("No writer available");
                 }
-                pwLocal.println(line);
-                // println con autoFlush=true ya hace flush; registramos confirmación
-                log.info("Mensaje enviado (local): {}", sanitizeLog(line));
+                writeFrame(frame);
+                out.flush();
+                log.info("Mensaje enviado (local): {}", logged);
             } catch (Exception e) {
                 // si la escritura falla, marcamos desconectado y reenviamos la excepción como IOException
                 log.error("Error enviando mensaje (cerrando conexión): {}", e.toString(), e);
                 try { socket.close(); } catch (Exception ignored) {}
                 connected.set(false);
-                throw new IOException(e);
+                throw e instanceof IOException io ? io : new IOException(e);
             }
         }
     }
 
-    public String readLine() throws IOException {
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        ByteBuffer b = frame.duplicate();
+        if (b.hasArray()) {
+            out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        } else {
+            byte[] tmp = new byte[b.remaining()];
+            b.get(tmp);
+            out.write(tmp);
+        }
+    }
+
+    /**
+     * Lee el siguiente mensaje del servidor (línea v1 o frame v2). Devuelve null si el servidor cerró.
+     */
+    public ProtocolMessage readMessage() throws IOException {
         if (!isConnected()) {
             log.warn("Intento de lectura sin conexión activa");
             return null;
         }
         synchronized (readLock) {
             try {
-                BufferedReader inLocal = this.in;
+                ProtocolInput inLocal = this.in;
                 if (inLocal == null) {
-                    log.warn("readLine: reader es null");
+                    log.warn("readMessage: reader es null");
                     return null;
                 }
-                String line = inLocal.readLine();
-                if (line == null) {
-                    log.info("readLine() devolvió null -> cierre remoto");
+                ProtocolMessage msg = protocolVersion >= ProtocolMessage.V2
+                        ? inLocal.readFrame(MAX_FRAME_BYTES)
+                        : ProtocolMessage.parseV1(inLocal.readLine(MAX_LINE_BYTES));
+                if (msg == null) {
+                    log.info("readMessage() devolvió null -> cierre remoto");
                     try { socket.close(); } catch (Exception ignored) {}
                     connected.set(false);
                     return null;
                 }
-                log.info("Mensaje recibido: {}", sanitizeLog(line));
-                return line;
+                log.info("Mensaje recibido: {}", msg);
+                return msg;
             } catch (java.net.SocketTimeoutException ste) {
                 // Timeout de lectura. No considerarlo desconexión inmediata.
                 log.debug("Socket timeout leyendo (sin datos): {}", ste.getMessage());
                 throw ste;
             } catch (java.net.SocketException se) {
-                log.warn("SocketException en readLine(): {}. Cerrando conexión localmente.", se.getMessage());
+                log.warn("SocketException en readMessage(): {}. Cerrando conexión localmente.", se.getMessage());
                 try { socket.close(); } catch (Exception ignored) {}
                 connected.set(false);
                 throw se;
@@ -1,10 +1,20 @@
 package com.cliente.cliente.dto;
 
 public class FileDTO {
+
+    // carga diferida del contenido (archivos del historial: se piden al servidor con FILE_GET al descargarlos)
+    @FunctionalInterface
+    public interface ContentHandle {
+        byte[] load() throws Exception;
+    }
+
     private String sender;
     private String filename;
     private byte[] content;
     private long timestamp;
+    private long size = -1L;
+    private String sha256 = "";
+    private ContentHandle handle;
 
     public FileDTO() {}
 
@@ -13,6 +23,17 @@ public class FileDTO {
         this.filename = filename;
         this.content = content;
         this.timestamp = timestamp;
+        this.size = content == null ? -1L : content.length;
+    }
+
+    // referencia sin contenido: se carga con handle la primera vez que se pide
+    public FileDTO(String sender, String filename, long size, String sha256, long timestamp, ContentHandle handle) {
+        this.sender = sender;
+        this.filename = filename;
+        this.size = size;
+        this.sha256 = sha256 == null ? "" : sha256;
+        this.timestamp = timestamp;
+        this.handle = handle;
     }
 
     public String getSender() { return sender; }
@@ -21,8 +42,23 @@ public class FileDTO {
     public String getFilename() { return filename; }
     public void setFilename(String filename) { this.filename = filename; }
 
-    public byte[] getContent() { return content; }
-    public void setContent(byte[] content) { this.content = content; }
+    // puede bloquear (descarga desde el servidor): no llamar desde el hilo de Swing
+    public synchronized byte[] getContent() {
+        if (content == null && handle != null) {
+            try {
+                content = handle.load();
+            } catch (Exception e) {
+                throw new IllegalStateException("No se pudo descargar " + filename + ": " + e.getMessage(), e);
+            }
+        }
+        return content;
+    }
+    public synchronized void setContent(byte[] content) { this.content = content; }
+
+    public synchronized boolean isLoaded() { return content != null; }
+
+    public long getSize() { return size; }
+    public String getSha256() { return sha256; }
 
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
@@ -2,6 +2,8 @@ package com.cliente.cliente.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import com.cliente.cliente.connection.ProtocolMessage;
+import com.cliente.cliente.connection.ProtocolMessage.Verb;
 import com.cliente.cliente.connection.TcpConnection;
 import com.cliente.cliente.events.UiEventBus;
 import org.slf4j.Logger;
@@ -34,11 +36,11 @@ public class AuthClientService {
             log.info("Enviando REGISTER al servidor (masked): {}", regLiteral);
             // send the real password to the server; only mask it in logs
             try {
-                conn.sendRaw("REGISTER " + id + "|" + user + "|" + pass);
+                conn.send(ProtocolMessage.of(Verb.REGISTER, id, user, pass));
             } catch (IOException ioe) {
                 log.warn("Enviar REGISTER falló con IOException: {}. Intentando reconectar y reenviar...", ioe.getMessage());
                 // marcar desconectado y reintentar una vez
-                try { conn.connect(); conn.sendRaw("REGISTER " + id + "|" + user + "|" + pass); }
+                try { conn.connect(); conn.send(ProtocolMessage.of(Verb.REGISTER, id, user, pass)); }
                 catch (Exception retryEx) {
                     log.error("Reintento de REGISTER falló: {}", retryEx.getMessage(), retryEx);
                     throw retryEx;
@@ -67,10 +69,11 @@ public class AuthClientService {
                 clientState.setCurrentUser(user);
                 // notify UI that login was requested
                 bus.publish("LOGIN_REQUESTED", user);
-                conn.sendRaw("LOGIN " + id + "|" + user + "|" + pass);
+                sendCapabilities();
+                conn.send(ProtocolMessage.of(Verb.LOGIN, id, user, pass));
             } catch (IOException ioe) {
                 log.warn("Enviar LOGIN falló con IOException: {}. Intentando reconectar y reenviar...", ioe.getMessage());
-                try { conn.connect(); conn.sendRaw("LOGIN " + id + "|" + user + "|" + pass); }
+                try { conn.connect(); sendCapabilities(); conn.send(ProtocolMessage.of(Verb.LOGIN, id, user, pass)); }
                 catch (Exception retryEx) {
                     log.error("Reintento de LOGIN falló: {}", retryEx.getMessage(), retryEx);
                     throw retryEx;
@@ -84,6 +87,11 @@ public class AuthClientService {
         }
     }
 
+    // antes de LOGIN: este cliente lleva su cursor de mensajes (MSGFROM con id e historial por SYNC)
+    private void sendCapabilities() throws IOException {
+        conn.send(ProtocolMessage.of(Verb.CAPS, MessageService.CAP_MESSAGE_IDS));
+    }
+
     /**
      * Cerrar sesión: desconectar la conexión TCP, limpiar estado local y notificar la UI.
      */
@@ -15,6 +15,8 @@ import java.util.Set;
 public class LocalPersistenceService {
     private static final Logger log = LoggerFactory.getLogger(LocalPersistenceService.class);
     private static final Path LOG = Paths.get("cliente-mensajes.log");
+    // último id de mensaje del servidor visto por cada usuario (cursor de SYNC)
+    private static final Path SYNC = Paths.get("cliente-sync.properties");
 
     public synchronized void appendMessage(String line){
         try {
@@ -47,4 +49,34 @@ public class LocalPersistenceService {
             return java.util.Collections.emptyList();
         }
     }
+
+    /** Cursor de SYNC guardado para el usuario (0 si no hay). */
+    public synchronized long loadSyncCursor(String user) {
+        if (user == null || !Files.exists(SYNC)) return 0L;
+        java.util.Properties props = new java.util.Properties();
+        try (java.io.Reader r = Files.newBufferedReader(SYNC)) {
+            props.load(r);
+            return Long.parseLong(props.getProperty(user, "0").trim());
+        } catch (IOException | NumberFormatException e) {
+            log.warn("No se pudo leer el cursor de sincronización: {}", e.toString());
+            return 0L;
+        }
+    }
+
+    public synchronized void saveSyncCursor(String user, long id) {
+        if (user == null) return;
+        java.util.Properties props = new java.util.Properties();
+        try {
+            if (Files.exists(SYNC)) {
+                try (java.io.Reader r = Files.newBufferedReader(SYNC)) { props.load(r); }
+            }
+            props.setProperty(user, Long.toString(id));
+            // se escribe aparte y se renombra: un corte a mitad no deja el fichero a medias
+            Path tmp = SYNC.resolveSibling(SYNC.getFileName() + ".tmp");
+            try (java.io.Writer w = Files.newBufferedWriter(tmp)) { props.store(w, null); }
+            Files.move(tmp, SYNC, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("No se pudo guardar el cursor de sincronización: {}", e.toString());
+        }
+    }
 }
@@ -2,6 +2,8 @@ package com.cliente.cliente.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import com.cliente.cliente.connection.ProtocolMessage;
+import com.cliente.cliente.connection.ProtocolMessage.Verb;
 import com.cliente.cliente.connection.TcpConnection;
 import com.cliente.cliente.events.UiEventBus;
 import org.slf4j.Logger;
@@ -15,7 +17,6 @@ import com.cliente.cliente.dto.MessageDTO;
 import com.cliente.cliente.dto.FileDTO;
 import java.io.File;
 import java.nio.file.Files;
-import java.util.Base64;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
@@ -26,6 +27,9 @@ import java.util.concurrent.TimeUnit;
 public class MessageService {
     private static final Logger log = LoggerFactory.getLogger(MessageService.class);
 
+    // capacidad que se pide con CAPS antes de LOGIN: MSGFROM "id|sender|text" e historial por SYNC
+    static final String CAP_MESSAGE_IDS = "msgid";
+
     private final TcpConnection conn;
     private final LocalPersistenceService persistence;
     private final UiEventBus bus;
@@ -38,8 +42,33 @@ public class MessageService {
     private final ConcurrentHashMap<String, CompletableFuture<String>> pendingFileFutures = new ConcurrentHashMap<>();
     // Pending header futures (FILE_HDR) keyed by filename. Value is either "OK" or "ERROR|reason"
     private final ConcurrentHashMap<String, CompletableFuture<String>> pendingHdrFutures = new ConcurrentHashMap<>();
-    // recent sent messages fingerprints to avoid duplicate echo when server forwards our own message
-    private final ConcurrentHashMap<String, Long> recentSent = new ConcurrentHashMap<>();
+    // subidas por trozos que se pueden retomar: archivo (ruta|tamaño|fecha) -> transferId del servidor
+    private final ConcurrentHashMap<String, String> resumableTransfers = new ConcurrentHashMap<>();
+    // FILE_OFFSET recibidos: transferId -> byte desde el que el servidor pide reenviar
+    private final ConcurrentHashMap<String, Long> resyncOffsets = new ConcurrentHashMap<>();
+    private static final int MAX_RESYNCS = 5;
+    // historial por páginas (HISTORY): id más antiguo recibido por conversación, peticiones en curso y
+    // conversaciones sin más historial; historyCursorAtLogin = cursor para las que aún no tienen mensajes
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private final ConcurrentHashMap<String, Long> oldestIdByPeer = new ConcurrentHashMap<>();
+    private final java.util.Set<String> historyLoading = ConcurrentHashMap.newKeySet();
+    private final java.util.Set<String> historyExhausted = ConcurrentHashMap.newKeySet();
+    private volatile long historyCursorAtLogin = 0L;
+    private HistoryPage currentPage;
+    // descargas FILE_GET en curso: archivoId -> contenido (FILE_CONTENT) o error (FILE_STATUS id|ERROR)
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> pendingFetches = new ConcurrentHashMap<>();
+    // sincronización incremental (SYNC): mayor id de mensaje del servidor visto, guardado por usuario en
+    // LocalPersistenceService. Mientras llegan las páginas de SYNC, los ids recibidos en directo se apartan
+    // para no mostrar dos veces un mensaje que llegue por ambos caminos
+    private volatile long syncCursor = 0L;
+    private volatile boolean syncing = false;
+    private final java.util.Set<Long> liveIdsDuringSync = ConcurrentHashMap.newKeySet();
+    // presencia: versión de la última lista (USERS_SNAPSHOT) o cambio (USER_JOIN/USER_LEAVE) aplicado; -1 = aún
+    // sin lista. Ante un salto de versión se pide la lista completa una sola vez (USERS_GET) hasta que llegue
+    private volatile long presenceVersion = -1L;
+    private volatile boolean presenceResyncPending = false;
+    // SLOW_DOWN: hasta este instante (System.nanoTime) no se envían mensajes; el servidor los rechazaría
+    private volatile long slowDownUntil = 0L;
 
     // NOTE: validation is performed on the server side. The client will always send
     // the FILE_HDR and then the FILE_DATA; the server decides to accept or reject.
@@ -64,31 +93,31 @@ public class MessageService {
                 conn.connect();
             }
 
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(slowDownUntil - System.nanoTime());
+            if (waitMs > 0) {
+                bus.publish("SLOW_DOWN", "Envío demasiado rápido: espera " + waitMs + " ms y vuelve a intentarlo");
+                log.info("Envío retenido {} ms por SLOW_DOWN del servidor", waitMs);
+                return false;
+            }
+
             String to = (recipient == null || recipient.isEmpty()) ? "ALL" : recipient;
             String safeText = text == null ? "" : text;
-            String lineToSend = "MSG " + to + "|" + safeText;
+            ProtocolMessage toSend = ProtocolMessage.of(Verb.MSG, to, safeText);
 
             // trazas adicionales: antes de enviar y el literal que se envía
-            log.info("Preparando envío. isConnected={}, longitud={} chars", conn.isConnected(), lineToSend.length());
-            log.debug("Contenido literal a enviar (visible como raw): [{}]", lineToSend.replace("\n","\\n"));
+            log.info("Preparando envío. isConnected={}, longitud={} chars", conn.isConnected(), safeText.length());
+            log.debug("Contenido literal a enviar (visible como raw): [{}]", toSend);
 
             // intentar enviar y capturar cualquier excepción
             try {
-                conn.sendRaw(lineToSend);
-                log.info("sendRaw() completado sin excepción");
+                conn.send(toSend);
+                log.info("send() completado sin excepción");
             } catch (Exception e) {
                 // log detallado y re-lanzar para manejo exterior
-                log.error("Fallo en conn.sendRaw(): {}", e.toString(), e);
+                log.error("Fallo en conn.send(): {}", e.toString(), e);
                 throw e;
             }
 
-            // store fingerprint of recently sent message to avoid duplicate when server echoes our own message
-            try {
-                String who = clientState == null ? "" : (clientState.getCurrentUser() == null ? "" : clientState.getCurrentUser());
-                String key = who + "|" + (text == null ? "" : text).trim();
-                if (!key.isEmpty()) recentSent.put(key, System.currentTimeMillis());
-            } catch (Exception ignored) {}
-            log.debug("Message sent; stored fingerprint for dedupe: {}", (clientState==null?"":clientState.getCurrentUser()));
             return true;
         } catch (Exception e) {
             String err = "Error enviar: " + e.getMessage();
@@ -110,50 +139,97 @@ public class MessageService {
             }
             if (!conn.isConnected()) conn.connect();
             String to = (recipient == null || recipient.isEmpty()) ? "ALL" : recipient;
+            // el nombre viaja como campo de la cabecera: un '|' o un fin de línea moverían los campos (el
+            // servidor corta la conexión si llegan en v2)
+            String name = file.getName().replaceAll("[|\\r\\n]", "_");
 
             long size = Files.size(file.toPath());
+            // SHA-256 del archivo completo: el servidor lo comprueba al terminar la subida por trozos y, si ya
+            // tiene ese contenido, lo reutiliza sin que haya que subirlo
+            String sha256 = sha256Hex(file);
+            String resumeKey = file.getAbsolutePath() + "|" + size + "|" + file.lastModified();
 
             // Step 1: send header and wait for header acceptance (server will validate extension & size)
-            String hdrLine = "FILE_HDR " + to + "|" + file.getName() + "|" + size;
+            // si una subida anterior de este mismo archivo se cortó, se pide retomarla por su transferId
+            ProtocolMessage hdr = ProtocolMessage.of(Verb.FILE_HDR, to, name, size, sha256, resumableTransfers.getOrDefault(resumeKey, ""));
             CompletableFuture<String> hdrFut = new CompletableFuture<>();
-            pendingHdrFutures.put(file.getName(), hdrFut);
+            pendingHdrFutures.put(name, hdrFut);
+            // se registra ya: si el servidor tiene el contenido, FILE_STATUS llega justo tras la cabecera
+            CompletableFuture<String> fut = new CompletableFuture<>();
+            pendingFileFutures.put(name, fut);
+            // tamaño de trozo anunciado por el servidor ("OK|bytes|transferId|offset"); 0 = servidor sin FILE_CHUNK
+            int chunkSize = 0;
+            String transferId = "";
+            long startOffset = 0L;
             try {
-                conn.sendRaw(hdrLine);
+                conn.send(hdr);
                 String hdrResp = hdrFut.get(30, TimeUnit.SECONDS); // e.g. "OK" or "ERROR|reason"
                 if (hdrResp == null) {
+                    pendingFileFutures.remove(name);
                     String err = "Envio de archivo: timeout en etapa de cabecera";
                     persistence.appendMessage(err);
                     bus.publish("AUTH_ERROR", err);
                     return false;
                 }
                 if (!hdrResp.startsWith("OK")) {
+                    pendingFileFutures.remove(name);
                     String reason = hdrResp.contains("|") ? hdrResp.substring(hdrResp.indexOf('|')+1) : hdrResp;
                     String err = "Envio de archivo rechazado en cabecera: " + reason;
                     persistence.appendMessage(err);
                     bus.publish("AUTH_ERROR", err);
-                    log.warn("Archivo HEADER rechazado por servidor: {} -> {} reason={}", file.getName(), to, reason);
+                    log.warn("Archivo HEADER rechazado por servidor: {} -> {} reason={}", name, to, reason);
                     return false;
                 }
+                String[] ok = hdrResp.split("\\|", 4);
+                if (ok.length == 4) {
+                    try {
+                        chunkSize = Integer.parseInt(ok[1].trim());
+                        transferId = ok[2].trim();
+                        startOffset = Long.parseLong(ok[3].trim());
+                    } catch (NumberFormatException nfe) {
+                        chunkSize = 0;
+                    }
+                }
+                if (startOffset > 0 && !transferId.isEmpty()) log.info("Retomando envío de {} desde el byte {} de {}", name, startOffset, size);
+            } catch (Exception e) {
+                pendingFileFutures.remove(name);
+                throw e;
             } finally {
-                pendingHdrFutures.remove(file.getName());
+                pendingHdrFutures.remove(name);
             }
 
             // Step 2: server accepted header, now send payload and wait final FILE_STATUS
-            byte[] data = Files.readAllBytes(file.toPath());
-            String b64 = Base64.getEncoder().encodeToString(data);
-            String dataLine = "FILE_DATA " + to + "|" + file.getName() + "|" + b64;
-
-            CompletableFuture<String> fut = new CompletableFuture<>();
-            pendingFileFutures.put(file.getName(), fut);
+            // (en v2 el contenido viaja en crudo; en v1 ProtocolMessage lo codifica en Base64)
             try {
-                conn.sendRaw(dataLine);
-                // wait up to 30 seconds for server response
-                String resp = fut.get(30, TimeUnit.SECONDS);
+                String resp;
+                // sólo la subida en un FILE_DATA tiene el archivo entero en memoria
+                byte[] sent = null;
+                if (chunkSize > 0 && transferId.isEmpty() && startOffset == size) {
+                    // el servidor ya tiene este contenido (mismo SHA-256): no se envía nada, sólo se espera la confirmación
+                    log.info("El servidor ya tiene {} almacenado; no se reenvía el contenido", name);
+                    resumableTransfers.remove(resumeKey);
+                    resp = fut.get(30, TimeUnit.SECONDS);
+                } else if (chunkSize > 0 && !transferId.isEmpty()) {
+                    // si la conexión se corta aquí, el transferId queda guardado para retomar en el próximo envío
+                    resumableTransfers.put(resumeKey, transferId);
+                    resp = sendChunks(file, size, chunkSize, transferId, startOffset, fut);
+                    if (resp != null) resumableTransfers.remove(resumeKey);
+                } else {
+                    sent = Files.readAllBytes(file.toPath());
+                    conn.send(ProtocolMessage.of(Verb.FILE_DATA, to, name, sent));
+                    // wait up to 30 seconds for server response
+                    resp = fut.get(30, TimeUnit.SECONDS);
+                }
                 if (resp != null && resp.startsWith("OK")) {
-                    String stamped = "[" + LocalDateTime.now().format(fmt) + "] Yo -> " + to + ": (archivo) " + file.getName();
+                    String stamped = "[" + LocalDateTime.now().format(fmt) + "] Yo -> " + to + ": (archivo) " + name;
                     persistence.appendMessage(stamped);
                     // publish a dedicated event so the UI can add the file to the conversation
-                    com.cliente.cliente.dto.FileDTO fileDto = new FileDTO(clientState == null ? "Me" : clientState.getCurrentUser(), file.getName(), data, System.currentTimeMillis());
+                    // tras una subida por trozos el contenido no se vuelve a leer: se carga del disco si se guarda
+                    String me = clientState == null ? "Me" : clientState.getCurrentUser();
+                    java.nio.file.Path path = file.toPath();
+                    com.cliente.cliente.dto.FileDTO fileDto = sent != null
+                            ? new FileDTO(me, name, sent, System.currentTimeMillis())
+                            : new FileDTO(me, name, size, sha256, System.currentTimeMillis(), () -> Files.readAllBytes(path));
                     bus.publish("FILE_SENT", fileDto);
                     bus.publish("SERVER_LINE", stamped);
                     return true;
@@ -163,11 +239,11 @@ public class MessageService {
                     String err = "Envio de archivo rechazado: " + reason;
                     persistence.appendMessage(err);
                     bus.publish("AUTH_ERROR", err);
-                    log.warn("Archivo rechazado por servidor: {} -> {} reason={}", file.getName(), to, reason);
+                    log.warn("Archivo rechazado por servidor: {} -> {} reason={}", name, to, reason);
                     return false;
                 }
             } finally {
-                pendingFileFutures.remove(file.getName());
+                pendingFileFutures.remove(name);
             }
         } catch (Exception e) {
             String err = "Error enviar archivo: " + e.getMessage();
@@ -178,20 +254,106 @@ public class MessageService {
         }
     }
 
-    // MessageReceiver llamará a este método con cada línea cruda del servidor
+    // envía el archivo en trozos FILE_CHUNK transferId|offset|length|data|crc32c desde startOffset sin cargarlo
+    // entero en memoria; si el servidor rechaza un trozo (FILE_OFFSET) se reenvía desde donde indique.
+    // Devuelve la respuesta final de FILE_STATUS ("OK" / "ERROR|motivo") o null si no llega a tiempo.
+    private String sendChunks(File file, long size, int chunkSize, String transferId, long startOffset, CompletableFuture<String> fut) throws Exception {
+        try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.READ)) {
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(chunkSize);
+            java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+            long offset = startOffset;
+            boolean sentAny = false;
+            int resyncs = 0;
+            long deadline = System.currentTimeMillis() + 30_000L;
+            while (true) {
+                Long back = resyncOffsets.remove(transferId);
+                if (back != null) {
+                    if (++resyncs > MAX_RESYNCS) return "ERROR|demasiados_reintentos";
+                    log.warn("Servidor pide reenviar {} desde el byte {}", file.getName(), back);
+                    offset = back;
+                }
+                if (fut.isDone()) return fut.get();
+                if (offset < size || !sentAny) {
+                    buf.clear();
+                    buf.limit((int) Math.min(chunkSize, size - offset));
+                    while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) { }
+                    buf.flip();
+                    int n = buf.remaining();
+                    crc.reset();
+                    crc.update(buf.array(), 0, n);
+                    // send() codifica y escribe antes de volver, así que el buffer se puede reutilizar
+                    byte[] chunk = n == buf.capacity() ? buf.array() : java.util.Arrays.copyOf(buf.array(), n);
+                    conn.send(ProtocolMessage.of(Verb.FILE_CHUNK, transferId, offset, n, chunk, crc.getValue()));
+                    offset += n;
+                    sentAny = true;
+                    deadline = System.currentTimeMillis() + 30_000L;
+                    continue;
+                }
+                // todo enviado: esperar el FILE_STATUS final (o un FILE_OFFSET que obligue a reenviar)
+                try {
+                    return fut.get(200, TimeUnit.MILLISECONDS);
+                } catch (java.util.concurrent.TimeoutException te) {
+                    if (System.currentTimeMillis() > deadline) return null;
+                }
+            }
+        }
+    }
+
+    // descarga bajo demanda de un archivo del historial (FILE_GET archivoId); bloquea hasta recibirlo
+    private byte[] fetchFile(long archivoId, String expectedSha256) throws Exception {
+        String key = String.valueOf(archivoId);
+        CompletableFuture<byte[]> fut = pendingFetches.computeIfAbsent(key, k -> new CompletableFuture<>());
+        try {
+            if (!conn.isConnected()) conn.connect();
+            conn.send(ProtocolMessage.of(Verb.FILE_GET, archivoId));
+            byte[] data = fut.get(120, TimeUnit.SECONDS);
+            if (expectedSha256 != null && !expectedSha256.isEmpty()) {
+                String actual = java.util.HexFormat.of().formatHex(java.security.MessageDigest.getInstance("SHA-256").digest(data));
+                if (!actual.equalsIgnoreCase(expectedSha256)) throw new IllegalStateException("sha256 no coincide");
+            }
+            return data;
+        } catch (java.util.concurrent.ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause() == null ? ee.getMessage() : ee.getCause().getMessage());
+        } finally {
+            pendingFetches.remove(key, fut);
+        }
+    }
+
+    private static String sha256Hex(File file) throws Exception {
+        java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+        try (java.io.InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+        }
+        return java.util.HexFormat.of().formatHex(md.digest());
+    }
+
+    // compatibilidad: una línea cruda v1 del servidor
     public void handleServerLine(String line) {
         if (line == null) return;
-        String trimmed = line.trim();
-        log.debug("Procesando línea del servidor: {}", trimmed);
-        log.info("mensaje llega a funcion de MessageService.handleServerLine correctamente. Línea='{}'", trimmed);
+        handleServerMessage(ProtocolMessage.parseV1(line.trim()));
+    }
+
+    // MessageReceiver llamará a este método con cada mensaje del servidor (línea v1 o frame v2 ya separados en campos)
+    public void handleServerMessage(ProtocolMessage msg) {
+        if (msg == null) return;
+        log.debug("Procesando mensaje del servidor: {}", msg);
+        log.info("mensaje llega a funcion de MessageService.handleServerMessage correctamente. Mensaje='{}'", msg);
         // publicar la línea completa para que ChatPanel muestre
-    persistence.appendMessage("[SRV] " + trimmed);
-    // bus.publish("SERVER_LINE", "[SRV] " + trimmed); // evitar log global en UI
+    persistence.appendMessage("[SRV] " + msg);
+    // bus.publish("SERVER_LINE", "[SRV] " + msg); // evitar log global en UI
+
+        Verb verb = msg.verb();
+        if (verb == null) {
+            // otros casos desconocidos: ya se registraron arriba
+            return;
+        }
 
         // manejar respuestas de control
         // lista de usuarios conectados enviada por el servidor: "USERS user1,user2"
-        if (trimmed.startsWith("USERS ")) {
-            String payload = trimmed.length() > 6 ? trimmed.substring(6).trim() : "";
+        if (verb == Verb.USERS) {
+            String payload = msg.size() > 0 ? msg.arg(0).trim() : msg.name();
             List<String> users = new ArrayList<>();
             if (!payload.isEmpty()) {
                 for (String u : payload.split(",")) {
@@ -203,24 +365,32 @@ public class MessageService {
             return;
         }
 
-        // mensajes entrantes reenviados por el servidor: "MSGFROM sender|text"
-        if (trimmed.startsWith("MSGFROM ")) {
-            String payload = trimmed.length() > 8 ? trimmed.substring(8) : "";
-            String[] p = payload.split("\\|", 2);
-            String sender = p.length > 0 ? p[0] : "";
-            String text = p.length > 1 ? p[1] : "";
-            // deduplicate: if this message comes from myself and matches a recently-sent message, ignore it
-                try {
-                    String key = sender + "|" + (text == null ? "" : text).trim();
-                    Long t = recentSent.get(key);
-                    if (t != null && (System.currentTimeMillis() - t) < 5_000L) {
-                        recentSent.remove(key);
-                        log.debug("Ignorando echo de mensaje propio detectado (sender={}, text={})", sender, key);
-                        return;
-                    }
-                } catch (Exception ex) {
-                    // fall back to publishing
-                }
+        // lista completa con su versión: "USERS_SNAPSHOT version|user1,user2" (al entrar o tras USERS_GET)
+        if (verb == Verb.USERS_SNAPSHOT) {
+            long version = parseId(msg.arg(0));
+            List<String> users = splitUsers(msg.arg(1));
+            presenceVersion = version;
+            presenceResyncPending = false;
+            log.info("Recibida lista de usuarios v{}: {}", version, users);
+            bus.publish("USERS_LIST", users);
+            return;
+        }
+
+        // cambios de presencia: "USER_JOIN version|user1,user2" / "USER_LEAVE version|user1"
+        if (verb == Verb.USER_JOIN || verb == Verb.USER_LEAVE) {
+            onPresenceDelta(verb, parseId(msg.arg(0)), splitUsers(msg.arg(1)));
+            return;
+        }
+
+        // mensajes entrantes reenviados por el servidor: "MSGFROM id|sender|text" (id vacío si no se guardó)
+        if (verb == Verb.MSGFROM) {
+            String sender = msg.arg(1);
+            String text = msg.arg(2);
+            long id = parseId(msg.arg(0));
+            if (id > 0) {
+                oldestIdByPeer.merge(sender, id, Math::min);
+                onLiveId(id);
+            }
             MessageDTO dto = new MessageDTO(sender, text, System.currentTimeMillis());
             log.info("Mensaje entrante de {}: {}", sender, text);
             // publicar como mensaje entrante para que la UI lo ubique en la conversación correcta
@@ -229,11 +399,9 @@ public class MessageService {
         }
 
         // Echo for messages we sent, with receptor info: "MSG_ECHO sender|receptor|text"
-        if (trimmed.startsWith("MSG_ECHO ")) {
-            String payload = trimmed.length() > 9 ? trimmed.substring(9) : "";
-            String[] p = payload.split("\\|", 3);
-            String receptor = p.length > 1 ? p[1] : "";
-            String text = p.length > 2 ? p[2] : "";
+        if (verb == Verb.MSG_ECHO) {
+            String receptor = msg.arg(1);
+            String text = msg.arg(2);
             try {
                 // publish as outgoing so UI places it under the receptor conversation
                 MessageDTO dto = new MessageDTO("Yo", text, System.currentTimeMillis());
@@ -248,55 +416,17 @@ public class MessageService {
         }
 
         // historical messages from DB: "HISTMSG sender|receptor|content|timestamp"
-        if (trimmed.startsWith("HISTMSG ")) {
-            String payload = trimmed.length() > 8 ? trimmed.substring(8) : "";
-            String[] p = payload.split("\\|", 4);
-            String sender = p.length > 0 ? p[0] : "";
-            String receptor = p.length > 1 ? p[1] : "";
-            String text = p.length > 2 ? p[2] : "";
-            // deduplicate if this is our own recent message
-            try {
-                String me = clientState == null ? null : clientState.getCurrentUser();
-                String key = sender + "|" + (text == null ? "" : text).trim();
-                if (me != null && me.equals(sender)) {
-                    Long t = recentSent.get(key);
-                    if (t != null && (System.currentTimeMillis() - t) < 5_000L) {
-                        recentSent.remove(key);
-                        log.debug("Ignorando HISTMSG echo propio (sender={}, text={})", sender, key);
-                        return;
-                    }
-                }
-            } catch (Exception ex) {
-                // fallthrough to publish
-            }
-
-            String me = clientState == null ? null : clientState.getCurrentUser();
-            // If I'm the receptor -> incoming message, else if I'm the sender -> it's my historic sent message
-            if (me != null && me.equals(receptor)) {
-                MessageDTO dto = new MessageDTO(sender, text, System.currentTimeMillis());
-                bus.publish("INCOMING_MSG", dto);
-            } else if (me != null && me.equals(sender)) {
-                // historic message sent by me: publish a HIST_SENT event with receptor and dto
-                MessageDTO dto = new MessageDTO("Yo", text, System.currentTimeMillis());
-                Map<String, Object> m = new HashMap<>();
-                m.put("receptor", receptor == null ? "" : receptor);
-                m.put("dto", dto);
-                bus.publish("HIST_SENT", m);
-            } else {
-                // Not directly related to this client session (shouldn't happen), ignore
-            }
+        if (verb == Verb.HISTMSG) {
+            onHistoryMessage(msg.arg(0), msg.arg(1), msg.arg(2));
             return;
         }
 
         // archivos entrantes reenviados por el servidor: "FILEFROM sender|filename|base64"
-        if (trimmed.startsWith("FILEFROM ")) {
-            String payload = trimmed.length() > 9 ? trimmed.substring(9) : "";
-            String[] p = payload.split("\\|", 3);
-            String sender = p.length > 0 ? p[0] : "";
-            String filename = p.length > 1 ? p[1] : "";
-            String b64 = p.length > 2 ? p[2] : "";
+        if (verb == Verb.FILEFROM) {
+            String sender = msg.arg(0);
+            String filename = msg.arg(1);
             try {
-                byte[] data = Base64.getDecoder().decode(b64);
+                byte[] data = msg.bytes(2);
                 com.cliente.cliente.dto.FileDTO fileDto = new FileDTO(sender, filename, data, System.currentTimeMillis());
                 // If the FILEFROM comes from ourselves (the sender), ignore it to avoid duplicate entries
                 String me = clientState == null ? null : clientState.getCurrentUser();
@@ -312,15 +442,12 @@ public class MessageService {
         }
 
         // historical files from DB: "HISTFILE sender|receptor|filename|base64|timestamp"
-        if (trimmed.startsWith("HISTFILE ")) {
-            String payload = trimmed.length() > 9 ? trimmed.substring(9) : "";
-            String[] p = payload.split("\\|", 5);
-            String sender = p.length > 0 ? p[0] : "";
-            String receptor = p.length > 1 ? p[1] : "";
-            String filename = p.length > 2 ? p[2] : "";
-            String b64 = p.length > 3 ? p[3] : "";
+        if (verb == Verb.HISTFILE) {
+            String sender = msg.arg(0);
+            String receptor = msg.arg(1);
+            String filename = msg.arg(2);
             try {
-                byte[] data = Base64.getDecoder().decode(b64);
+                byte[] data = msg.bytes(3);
                 com.cliente.cliente.dto.FileDTO fileDto = new FileDTO(sender, filename, data, System.currentTimeMillis());
                 String me = clientState == null ? null : clientState.getCurrentUser();
                 if (me != null && me.equals(receptor)) {
@@ -343,13 +470,52 @@ public class MessageService {
             return;
         }
 
+        // referencia a un archivo del historial: "HISTFILE_REF emisor|receptor|archivoId|tamaño|sha256|timestamp|filename".
+        // El contenido no viaja en el login; se descarga con FILE_GET la primera vez que se pide (FileDTO.getContent)
+        if (verb == Verb.HISTFILE_REF) {
+            onHistoryFileRef(msg.arg(0), msg.arg(1), msg.arg(2), msg.arg(3), msg.arg(4), msg.arg(6));
+            return;
+        }
+
+        // cabecera de una página de historial: "HIST_PAGE peer|before/after/login|count|hasMore|cursor";
+        // le siguen count HIST_ENTRY
+        if (verb == Verb.HIST_PAGE) {
+            onHistoryPage(msg);
+            return;
+        }
+
+        // mensaje del historial: "HIST_ENTRY id|emisor|receptor|timestamp|archivoId|tamaño|sha256|contenido"
+        if (verb == Verb.HIST_ENTRY) {
+            onHistoryEntry(msg);
+            return;
+        }
+
+        // contenido pedido con FILE_GET: "FILE_CONTENT archivoId|filename|data"
+        if (verb == Verb.FILE_CONTENT) {
+            CompletableFuture<byte[]> fetch = pendingFetches.get(msg.arg(0));
+            if (fetch != null) {
+                try {
+                    fetch.complete(msg.bytes(2));
+                } catch (IllegalArgumentException iae) {
+                    fetch.completeExceptionally(iae);
+                }
+            } else {
+                log.debug("FILE_CONTENT recibido sin descarga pendiente: {}", msg.arg(0));
+            }
+            return;
+        }
+
         // FILE_STATUS filename|OK  OR FILE_STATUS filename|ERROR|reason
-        if (trimmed.startsWith("FILE_STATUS ")) {
-            String payload = trimmed.substring(12);
-            String[] parts = payload.split("\\|", 3);
-            String fname = parts.length > 0 ? parts[0] : "";
-            String status = parts.length > 1 ? parts[1] : "";
-            String reason = parts.length > 2 ? parts[2] : "";
+        if (verb == Verb.FILE_STATUS) {
+            String fname = msg.arg(0);
+            String status = msg.arg(1);
+            String reason = msg.arg(2);
+            // error de un FILE_GET (el servidor responde con el archivoId en lugar del nombre)
+            CompletableFuture<byte[]> fetch = pendingFetches.get(fname);
+            if (fetch != null && !"OK".equalsIgnoreCase(status)) {
+                fetch.completeExceptionally(new IllegalStateException(reason));
+                return;
+            }
             CompletableFuture<String> fut = pendingFileFutures.get(fname);
             if (fut != null) {
                 if ("OK".equalsIgnoreCase(status)) fut.complete("OK");
@@ -361,15 +527,14 @@ public class MessageService {
         }
 
         // FILE_HDR_STATUS filename|OK OR FILE_HDR_STATUS filename|ERROR|reason
-        if (trimmed.startsWith("FILE_HDR_STATUS ")) {
-            String payload = trimmed.substring(16);
-            String[] parts = payload.split("\\|", 3);
-            String fname = parts.length > 0 ? parts[0] : "";
-            String status = parts.length > 1 ? parts[1] : "";
-            String reason = parts.length > 2 ? parts[2] : "";
+        if (verb == Verb.FILE_HDR_STATUS) {
+            String fname = msg.arg(0);
+            String status = msg.arg(1);
+            String reason = msg.arg(2);
             CompletableFuture<String> hf = pendingHdrFutures.get(fname);
             if (hf != null) {
-                if ("OK".equalsIgnoreCase(status)) hf.complete("OK");
+                // OK|tamañoTrozo|transferId|offset cuando el servidor admite subida por trozos
+                if ("OK".equalsIgnoreCase(status)) hf.complete(msg.size() >= 5 ? "OK|" + msg.arg(2) + "|" + msg.arg(3) + "|" + msg.arg(4) : "OK");
                 else hf.complete("ERROR|" + reason);
             } else {
                 log.debug("FILE_HDR_STATUS recibido pero no hay futuro pendiente para {}: {}", fname, status);
@@ -377,31 +542,326 @@ public class MessageService {
             return;
         }
 
-        if ("LOGGED".equalsIgnoreCase(trimmed)) {
+        // FILE_OFFSET transferId|offset|motivo: un trozo fue rechazado (CRC u orden), reenviar desde offset
+        if (verb == Verb.FILE_OFFSET) {
+            try {
+                resyncOffsets.put(msg.arg(0), Long.parseLong(msg.arg(1)));
+            } catch (NumberFormatException nfe) {
+                log.debug("FILE_OFFSET con offset no válido: {}", msg);
+            }
+            return;
+        }
+
+        // "CAPS msgid": capacidades aceptadas; sin msgid el servidor envía el historial tras LOGIN por su cuenta
+        if (verb == Verb.CAPS) {
+            if (!java.util.Arrays.asList(msg.arg(0).split(",")).contains(CAP_MESSAGE_IDS)) {
+                log.warn("El servidor no acepta la capacidad {}: {}", CAP_MESSAGE_IDS, msg);
+            }
+            return;
+        }
+
+        // "SENT id": confirmación de un envío propio con el mayor id guardado
+        if (verb == Verb.SENT) {
+            long id = parseId(msg.arg(0));
+            if (id > 0) onLiveId(id);
+            return;
+        }
+
+        if (verb == Verb.LOGGED) {
             // mark logged in so the UI and services can enable sending
             loggedIn = true;
             log.info("Server reported LOGGED (user successfully logged in)");
             // publish username so UI can update title and other components
             String user = clientState == null ? null : clientState.getCurrentUser();
             bus.publish("USER_LOGGED", user);
-            // Note: Do not preload local persistence here. Server will send historical messages
-            // from the DB after login (MSGFROM/FILEFROM). This ensures UI reflects DB state.
+            // Note: Do not preload local persistence here. El historial se pide al servidor (SYNC) a partir
+            // del último id visto por este usuario: sólo llega lo que no se ha visto (todo lo anterior se
+            // pide con HISTORY al desplazarse)
+            startSync(user);
             return;
         }
-        if ("REGISTERED".equalsIgnoreCase(trimmed)) {
+        if (verb == Verb.REGISTERED) {
             log.info("Server reported REGISTERED (user successfully registered)");
             bus.publish("AUTH_INFO", "Registro exitoso");
             // publish a dedicated event so UI can clear registration fields
             bus.publish("REGISTERED_SUCCESS", null);
             return;
         }
-        if (trimmed.startsWith("ERROR")) {
-            log.warn("Server returned error: {}", trimmed);
+        // límite de envío superado: "SLOW_DOWN verbo|motivo|esperarMs"; el comando no se procesó
+        if (verb == Verb.SLOW_DOWN) {
+            long waitMs = parseId(msg.arg(2));
+            slowDownUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs);
+            log.warn("El servidor pide bajar el ritmo ({} por {}): esperar {} ms", msg.arg(0), msg.arg(1), waitMs);
+            String what = "MSG".equals(msg.arg(0)) ? "El mensaje" : "El archivo";
+            bus.publish("SLOW_DOWN", what + " no se entregó: límite de " + msg.arg(1) + " superado"
+                    + (waitMs > 0 ? ", espera " + waitMs + " ms" : ""));
+            return;
+        }
+
+        if (verb == Verb.ERROR) {
+            log.warn("Server returned error: {}", msg);
             // publish only the payload part after the 'ERROR ' prefix so UI dialogs don't duplicate 'Error:'
-            String payload = trimmed.length() > 6 ? trimmed.substring(6).trim() : trimmed;
+            String payload = msg.size() > 0 ? msg.arg(0).trim() : msg.name();
             bus.publish("AUTH_ERROR", payload);
             return;
         }
-        // otros casos: SENT, etc. ya se publicaron como SERVER_LINE
+        // otros casos ya se publicaron como SERVER_LINE
+    }
+
+    // mensaje histórico (HISTMSG o HIST_ENTRY de SYNC): a la conversación como entrante o como enviado por mí
+    private void onHistoryMessage(String sender, String receptor, String text) {
+        String me = clientState == null ? null : clientState.getCurrentUser();
+        // If I'm the receptor -> incoming message, else if I'm the sender -> it's my historic sent message
+        if (me != null && me.equals(receptor)) {
+            MessageDTO dto = new MessageDTO(sender, text, System.currentTimeMillis());
+            bus.publish("INCOMING_MSG", dto);
+        } else if (me != null && me.equals(sender)) {
+            // historic message sent by me: publish a HIST_SENT event with receptor and dto
+            MessageDTO dto = new MessageDTO("Yo", text, System.currentTimeMillis());
+            Map<String, Object> m = new HashMap<>();
+            m.put("receptor", receptor == null ? "" : receptor);
+            m.put("dto", dto);
+            bus.publish("HIST_SENT", m);
+        } else {
+            // Not directly related to this client session (shouldn't happen), ignore
+        }
+    }
+
+    // archivo histórico sin contenido (HISTFILE_REF o HIST_ENTRY de SYNC): FileDTO con descarga diferida
+    private void onHistoryFileRef(String sender, String receptor, String archivoIdStr, String sizeStr, String sha256, String filename) {
+        try {
+            long archivoId = Long.parseLong(archivoIdStr);
+            long size = Long.parseLong(sizeStr);
+            String me = clientState == null ? null : clientState.getCurrentUser();
+            if (me != null && me.equals(receptor)) {
+                bus.publish("INCOMING_FILE", new FileDTO(sender, filename, size, sha256, System.currentTimeMillis(), () -> fetchFile(archivoId, sha256)));
+            } else if (me != null && me.equals(sender)) {
+                Map<String, Object> fm = new HashMap<>();
+                fm.put("receptor", receptor == null ? "" : receptor);
+                fm.put("file", new FileDTO("Yo", filename, size, sha256, System.currentTimeMillis(), () -> fetchFile(archivoId, sha256)));
+                bus.publish("HIST_FILE_SENT", fm);
+            }
+        } catch (NumberFormatException nfe) {
+            log.debug("Referencia de archivo histórico no válida: {}|{}", archivoIdStr, sizeStr);
+        }
+    }
+
+    private void onHistoryPage(ProtocolMessage msg) {
+        int count;
+        long cursor;
+        try {
+            count = Integer.parseInt(msg.arg(2).trim());
+            cursor = msg.arg(4).isBlank() ? 0L : Long.parseLong(msg.arg(4).trim());
+        } catch (NumberFormatException nfe) {
+            log.debug("HIST_PAGE no válido: {}", msg);
+            return;
+        }
+        HistoryPage page = new HistoryPage(msg.arg(0), msg.arg(1), count, "true".equalsIgnoreCase(msg.arg(3)), cursor);
+        if (count <= 0) finishHistoryPage(page);
+        else currentPage = page;
+    }
+
+    private void onHistoryEntry(ProtocolMessage msg) {
+        String sender = msg.arg(1);
+        String receptor = msg.arg(2);
+        String me = clientState == null ? null : clientState.getCurrentUser();
+        long id = parseId(msg.arg(0));
+        if (id > 0) {
+            String peer = me != null && me.equals(sender) ? receptor : sender;
+            oldestIdByPeer.merge(peer, id, Math::min);
+        } else {
+            log.debug("HIST_ENTRY sin id válido: {}", msg);
+        }
+        HistoryPage page = currentPage;
+        if (page == null || "sync".equals(page.direction)) {
+            // mensajes no vistos (SYNC): se muestran igual que los mensajes en directo, en orden; si ya
+            // llegó en directo mientras se sincronizaba no se repite
+            if (id > 0 && liveIdsDuringSync.remove(id)) {
+                log.debug("HIST_ENTRY {} ya recibido en directo", id);
+            } else if (!msg.arg(4).isEmpty()) {
+                onHistoryFileRef(sender, receptor, msg.arg(4), msg.arg(5), msg.arg(6), msg.arg(7));
+                onHistoryMessage(sender, receptor, "(archivo) " + msg.arg(7));
+            } else {
+                onHistoryMessage(sender, receptor, msg.arg(7));
+            }
+        } else {
+            page.entries.add(msg);
+        }
+        if (page != null && ++page.received >= page.expected) {
+            currentPage = null;
+            finishHistoryPage(page);
+        }
+    }
+
+    // página de una conversación completa: se publica entera para que ChatPanel la anteponga a lo que ya muestra
+    private void finishHistoryPage(HistoryPage page) {
+        if ("sync".equals(page.direction)) {
+            finishSyncPage(page);
+            return;
+        }
+        historyLoading.remove(page.peer);
+        if (!page.hasMore && "before".equals(page.direction)) historyExhausted.add(page.peer);
+        String me = clientState == null ? null : clientState.getCurrentUser();
+        List<MessageDTO> messages = new ArrayList<>();
+        List<FileDTO> files = new ArrayList<>();
+        for (ProtocolMessage e : page.entries) {
+            String sender = e.arg(1);
+            String shownSender = me != null && me.equals(sender) ? "Yo" : sender;
+            long ts = parseTimestamp(e.arg(3));
+            String content = e.arg(7);
+            if (!e.arg(4).isEmpty()) {
+                try {
+                    long archivoId = Long.parseLong(e.arg(4));
+                    long size = Long.parseLong(e.arg(5));
+                    String sha256 = e.arg(6);
+                    files.add(new FileDTO(shownSender, content, size, sha256, ts, () -> fetchFile(archivoId, sha256)));
+                } catch (NumberFormatException nfe) {
+                    log.debug("Referencia de archivo histórico no válida: {}", e);
+                }
+                content = "(archivo) " + content;
+            }
+            messages.add(new MessageDTO(shownSender, content, ts));
+        }
+        Map<String, Object> m = new HashMap<>();
+        m.put("peer", page.peer);
+        m.put("messages", messages);
+        m.put("files", files);
+        m.put("hasMore", page.hasMore);
+        bus.publish("HIST_PAGE", m);
+    }
+
+    private static long parseTimestamp(String ts) {
+        try {
+            return LocalDateTime.parse(ts).atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    // tras LOGGED: pedir lo posterior al último id visto por este usuario
+    // aplica un USER_JOIN/USER_LEAVE si es justo el siguiente a la versión conocida; si falta alguno en
+    // medio (p. ej. la cola del servidor descartó mensajes) la lista local ya no es fiable y se pide entera
+    private void onPresenceDelta(Verb verb, long version, List<String> users) {
+        long current = presenceVersion;
+        if (current < 0 || version <= current) return;
+        if (version != current + 1) {
+            if (presenceResyncPending) return;
+            presenceResyncPending = true;
+            log.info("Salto en la presencia (v{} -> v{}); se pide la lista completa", current, version);
+            try {
+                conn.send(ProtocolMessage.of(Verb.USERS_GET));
+            } catch (Exception e) {
+                presenceResyncPending = false;
+                log.warn("No se pudo pedir USERS_GET: {}", e.getMessage());
+            }
+            return;
+        }
+        presenceVersion = version;
+        bus.publish(verb == Verb.USER_JOIN ? "USERS_JOINED" : "USERS_LEFT", users);
+    }
+
+    private static List<String> splitUsers(String csv) {
+        List<String> users = new ArrayList<>();
+        if (csv == null) return users;
+        for (String u : csv.split(",")) {
+            String t = u.trim();
+            if (!t.isEmpty()) users.add(t);
+        }
+        return users;
+    }
+
+    private void startSync(String user) {
+        historyLoading.clear();
+        liveIdsDuringSync.clear();
+        syncCursor = persistence.loadSyncCursor(user);
+        syncing = true;
+        try {
+            conn.send(ProtocolMessage.of(Verb.SYNC, syncCursor));
+        } catch (Exception e) {
+            syncing = false;
+            log.warn("No se pudo pedir SYNC desde {}: {}", syncCursor, e.getMessage());
+        }
+    }
+
+    // página de SYNC ya mostrada: pedir la siguiente o dar la sincronización por terminada
+    private void finishSyncPage(HistoryPage page) {
+        syncCursor = Math.max(syncCursor, page.cursor);
+        if (page.hasMore) {
+            try {
+                conn.send(ProtocolMessage.of(Verb.SYNC, page.cursor));
+                return;
+            } catch (Exception e) {
+                log.warn("No se pudo continuar SYNC desde {}: {}", page.cursor, e.getMessage());
+            }
+        }
+        syncing = false;
+        for (Long id : liveIdsDuringSync) syncCursor = Math.max(syncCursor, id);
+        liveIdsDuringSync.clear();
+        // las conversaciones sin mensajes cargados piden con HISTORY lo anterior a todo lo ya sincronizado
+        historyCursorAtLogin = syncCursor + 1;
+        String user = clientState == null ? null : clientState.getCurrentUser();
+        persistence.saveSyncCursor(user, syncCursor);
+        log.info("Sincronización terminada para {} (último id {})", user, syncCursor);
+    }
+
+    // id de un mensaje recibido en directo (MSGFROM) o confirmado (SENT): avanza el cursor de SYNC
+    private void onLiveId(long id) {
+        if (syncing) {
+            liveIdsDuringSync.add(id);
+            return;
+        }
+        if (id <= syncCursor) return;
+        syncCursor = id;
+        persistence.saveSyncCursor(clientState == null ? null : clientState.getCurrentUser(), id);
+    }
+
+    private static long parseId(String s) {
+        try {
+            return s == null || s.isBlank() ? 0L : Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Pide la página anterior del historial con peer (HISTORY peer|before|id|cantidad), a partir del mensaje más
+     * antiguo que ya se tiene. No bloquea: la página llega como evento HIST_PAGE. Devuelve false si no hay más
+     * historial, ya hay una petición en curso o no se pudo enviar.
+     */
+    public boolean requestOlderHistory(String peer) {
+        if (!loggedIn || peer == null || peer.isBlank() || "ALL".equalsIgnoreCase(peer)) return false;
+        if (historyExhausted.contains(peer) || !historyLoading.add(peer)) return false;
+        try {
+            long cursor = oldestIdByPeer.getOrDefault(peer, historyCursorAtLogin);
+            conn.send(ProtocolMessage.of(Verb.HISTORY, peer, "before", cursor, HISTORY_PAGE_SIZE));
+            return true;
+        } catch (Exception e) {
+            historyLoading.remove(peer);
+            log.warn("No se pudo pedir historial de {}: {}", peer, e.getMessage());
+            return false;
+        }
+    }
+
+    public boolean hasMoreHistory(String peer) {
+        return peer != null && !historyExhausted.contains(peer);
+    }
+
+    // página de historial en curso: HIST_PAGE seguida de expected HIST_ENTRY (sólo la usa el hilo receptor)
+    private static final class HistoryPage {
+        final String peer;
+        final String direction;
+        final int expected;
+        final boolean hasMore;
+        final long cursor;
+        final List<ProtocolMessage> entries = new ArrayList<>();
+        int received = 0;
+
+        HistoryPage(String peer, String direction, int expected, boolean hasMore, long cursor) {
+            this.peer = peer;
+            this.direction = direction;
+            this.expected = expected;
+            this.hasMore = hasMore;
+            this.cursor = cursor;
+        }
     }
-}
\ No newline at end of file
+}
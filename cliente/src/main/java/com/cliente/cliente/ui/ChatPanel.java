@@ -100,7 +100,14 @@ public class ChatPanel {
     controls.add(sendBtn);
     bottom.add(controls, BorderLayout.EAST);
 
-        panel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
+        JScrollPane chatScroll = new JScrollPane(chatArea);
+        // al llegar arriba del todo se pide la página anterior del historial de la conversación visible
+        chatScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (e.getValueIsAdjusting() || targetUser == null) return;
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (bar.getValue() == bar.getMinimum() && bar.getMaximum() > bar.getVisibleAmount()) requestOlderHistory(targetUser);
+        });
+        panel.add(chatScroll, BorderLayout.CENTER);
     panel.add(bottom, BorderLayout.SOUTH);
 
         // panel lateral con usuarios conectados
@@ -123,6 +130,9 @@ public class ChatPanel {
                     // refresh chat area with selected conversation
                     refreshChatFor(sel);
                     refreshFilesListFor(sel);
+                    // conversación sin mensajes en el historial del login: pedir su última página
+                    java.util.List<String> lines = conversations.get(sel);
+                    if (lines == null || lines.isEmpty()) requestOlderHistory(sel);
                 }
             }
         });
@@ -221,8 +231,12 @@ public class ChatPanel {
             int ret = saver.showSaveDialog(panel);
             if (ret == JFileChooser.APPROVE_OPTION) {
                 java.io.File out = saver.getSelectedFile();
-                try { java.nio.file.Files.write(out.toPath(), chosen.getContent()); SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel, "Archivo guardado: " + out.getAbsolutePath())); }
-                catch (Exception ex) { SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel, "Error guardando archivo: " + ex.getMessage())); }
+                final com.cliente.cliente.dto.FileDTO toSave = chosen;
+                // los archivos del historial se descargan del servidor al guardarlos: fuera del hilo de Swing
+                sendExec.submit(() -> {
+                    try { java.nio.file.Files.write(out.toPath(), toSave.getContent()); SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel, "Archivo guardado: " + out.getAbsolutePath())); }
+                    catch (Exception ex) { SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel, "Error guardando archivo: " + ex.getMessage())); }
+                });
             }
         });
 
@@ -305,6 +319,37 @@ public class ChatPanel {
             } catch (Exception ignored) {}
         });
 
+        // Página anterior del historial (HISTORY): payload es un Map con "peer", "messages" (MessageDTO) y "files" (FileDTO),
+        // en orden cronológico; se antepone a lo que ya hay en la conversación
+        bus.subscribe("HIST_PAGE", payload -> {
+            if (!(payload instanceof java.util.Map)) return;
+            try {
+                @SuppressWarnings("unchecked")
+                java.util.Map<String, Object> m = (java.util.Map<String, Object>) payload;
+                String peer = (String) m.get("peer");
+                if (peer == null) return;
+                @SuppressWarnings("unchecked")
+                java.util.List<com.cliente.cliente.dto.MessageDTO> messages = (java.util.List<com.cliente.cliente.dto.MessageDTO>) m.get("messages");
+                @SuppressWarnings("unchecked")
+                java.util.List<com.cliente.cliente.dto.FileDTO> files = (java.util.List<com.cliente.cliente.dto.FileDTO>) m.get("files");
+                java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                java.util.List<String> lines = new java.util.ArrayList<>();
+                for (com.cliente.cliente.dto.MessageDTO dto : messages) {
+                    lines.add(String.format("[%s] %s: %s", fmt.format(new java.util.Date(dto.getTimestamp())), dto.getSender(), dto.getContent()));
+                }
+                SwingUtilities.invokeLater(() -> {
+                    conversations.computeIfAbsent(peer, k -> new java.util.ArrayList<>()).addAll(0, lines);
+                    if (files != null && !files.isEmpty()) {
+                        filesPerConversation.computeIfAbsent(peer, k -> new java.util.ArrayList<>()).addAll(0, files);
+                    }
+                    if (peer.equals(targetUser)) {
+                        prependLinesToChat(lines);
+                        refreshFilesListFor(peer);
+                    }
+                });
+            } catch (Exception ignored) {}
+        });
+
         // Immediate outgoing messages echo: payload is Map with keys: "receptor" -> String, "dto" -> MessageDTO
         bus.subscribe("OUTGOING_MSG", payload -> {
             if (!(payload instanceof java.util.Map)) return;
@@ -339,6 +384,12 @@ public class ChatPanel {
             });
         });
 
+        // el servidor rechazó un envío por ir demasiado rápido (SLOW_DOWN): aviso en la conversación abierta
+        bus.subscribe("SLOW_DOWN", payload -> {
+            if (!(payload instanceof String)) return;
+            SwingUtilities.invokeLater(() -> appendLineToChat("[servidor] " + payload));
+        });
+
         // actualizar la lista de usuarios conectados
         bus.subscribe("USERS_LIST", payload -> {
             SwingUtilities.invokeLater(() -> {
@@ -355,6 +406,27 @@ public class ChatPanel {
             });
         });
 
+        // cambios de presencia: se tocan sólo las filas afectadas (la lista llega ordenada del servidor)
+        bus.subscribe("USERS_JOINED", payload -> {
+            if (!(payload instanceof List)) return;
+            SwingUtilities.invokeLater(() -> {
+                String me = clientState == null ? null : clientState.getCurrentUser();
+                for (Object o : (List<?>) payload) {
+                    String name = o == null ? "" : o.toString();
+                    if (name.isEmpty() || name.equals(me) || usersModel.contains(name)) continue;
+                    int at = 0;
+                    while (at < usersModel.size() && usersModel.get(at).compareTo(name) < 0) at++;
+                    usersModel.add(at, name);
+                }
+            });
+        });
+        bus.subscribe("USERS_LEFT", payload -> {
+            if (!(payload instanceof List)) return;
+            SwingUtilities.invokeLater(() -> {
+                for (Object o : (List<?>) payload) usersModel.removeElement(o == null ? "" : o.toString());
+            });
+        });
+
         // Procesar líneas crudas del servidor o histórico guardado
         bus.subscribe("SERVER_LINE", payload -> {
             if (!(payload instanceof String)) return;
@@ -369,6 +441,8 @@ public class ChatPanel {
                 // manejar MSGFROM (servidor) -> publicar como mensaje entrante
                 if (afterTs.startsWith("MSGFROM ")) {
                     String payloadStr = afterTs.substring(8);
+                    // "MSGFROM id|sender|text": el id (puede ir vacío) no se muestra
+                    if (payloadStr.matches("^\\d*\\|.*\\|.*")) payloadStr = payloadStr.substring(payloadStr.indexOf('|') + 1);
                     String[] p = payloadStr.split("\\|", 2);
                     String sender = p.length > 0 ? p[0] : "";
                     String text = p.length > 1 ? p[1] : "";
@@ -427,6 +501,20 @@ public class ChatPanel {
         chatArea.setCaretPosition(chatArea.getDocument().getLength());
     }
 
+    // antepone líneas sin mover la vista: el caret queda en el primer mensaje que ya se mostraba
+    private void prependLinesToChat(java.util.List<String> lines) {
+        if (lines.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        for (String l : lines) sb.append(l).append('\n');
+        chatArea.insert(sb.toString(), 0);
+        chatArea.setCaretPosition(Math.min(sb.length(), chatArea.getDocument().getLength()));
+    }
+
+    private void requestOlderHistory(String peer) {
+        if (!messageService.hasMoreHistory(peer)) return;
+        sendExec.submit(() -> messageService.requestOlderHistory(peer));
+    }
+
     private void refreshChatFor(String user) {
         chatArea.setText("");
         if (user == null) return; // no conversation selected
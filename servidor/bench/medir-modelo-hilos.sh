@@ -0,0 +1,78 @@
+#!/usr/bin/env bash
+# Compara los ejecutores de clientes del modo bloqueante (app.tcp.executor = cached, bounded, virtual):
+# arranca el servidor con cada uno, conecta SESIONES clientes casi inactivos con el LoadGenerator y mide
+# en el proceso del servidor los hilos, el RSS y el heap usado tras un GC, antes y con todas las sesiones
+# conectadas. La latencia de entrega es la que informa el LoadGenerator.
+#
+# Sin BD, en un solo proceso y con sesiones inactivas, la misma comparación la hace ModeloHilosHarness
+# (ver pom.xml). Este script necesita la BD de application.properties (los usuarios carga* se registran
+# solos) y los jar construidos:
+#   (cd ../demo && mvn -q package -DskipTests) && mvn -q package
+#
+# Uso: ./medir-modelo-hilos.sh [sesiones] [modos...]     p. ej. ./medir-modelo-hilos.sh 2000 cached virtual
+# Variables: PUERTO (9101), DURACION en s (60), RATE envíos/s por sesión (0.2), MAX_THREADS del modo
+# bounded (= sesiones; con menos, las conexiones que no caben en hilos ni en cola se cierran)
+set -euo pipefail
+cd "$(dirname "$0")"
+
+SESIONES=${1:-2000}
+shift || true
+MODOS=${*:-cached bounded virtual}
+PUERTO=${PUERTO:-9101}
+DURACION=${DURACION:-60}
+RATE=${RATE:-0.2}
+MAX_THREADS=${MAX_THREADS:-$SESIONES}
+SERVIDOR=$(ls ../demo/target/demo-*.jar | grep -v '\.original$' | head -1)
+BENCH=target/benchmarks.jar
+SALIDA=$(mktemp -d -t modelo-hilos-XXXX)
+
+# hilos, RSS (KB) y heap usado tras un GC (KB) del proceso
+muestra() {
+    local pid=$1 hilos rss heap
+    hilos=$(awk '/^Threads:/ {print $2}' /proc/"$pid"/status)
+    rss=$(awk '/^VmRSS:/ {print $2}' /proc/"$pid"/status)
+    jcmd "$pid" GC.run > /dev/null
+    heap=$(jcmd "$pid" GC.heap_info | grep -o 'used [0-9]*K' | head -1 | tr -dc '0-9')
+    echo "$hilos $rss $heap"
+}
+
+esperar_puerto() {
+    for _ in $(seq 1 120); do
+        (echo > /dev/tcp/127.0.0.1/"$PUERTO") 2> /dev/null && return 0
+        sleep 0.5
+    done
+    echo "El servidor no abrió el puerto $PUERTO" >&2
+    return 1
+}
+
+printf '%-8s %8s %10s %10s %12s %12s\n' modo hilos+ "RSS KB/c" "heap KB/c" "lat p50 ms" "lat p99 ms" > "$SALIDA/tabla"
+for modo in $MODOS; do
+    echo "== $modo ($SESIONES sesiones) =="
+    java -Djava.awt.headless=true -jar "$SERVIDOR" --server.port=0 --app.tcp.port="$PUERTO" \
+        --app.tcp.mode=blocking --app.tcp.executor="$modo" --app.tcp.executor.maxThreads="$MAX_THREADS" \
+        > "$SALIDA/servidor-$modo.log" 2>&1 &
+    pid=$!
+    trap 'kill $pid 2> /dev/null || true' EXIT
+    esperar_puerto
+    read -r h0 r0 m0 <<< "$(muestra $pid)"
+
+    java -cp "$BENCH" com.proyecto.bench.load.LoadGenerator port="$PUERTO" sessions="$SESIONES" \
+        rate="$RATE" warmup=10 duration="$DURACION" report="$SALIDA/carga-$modo.json" \
+        > "$SALIDA/carga-$modo.log" 2>&1 &
+    carga=$!
+    # a mitad de la medición todas las sesiones están conectadas y enviando
+    sleep $((10 + DURACION / 2))
+    read -r h1 r1 m1 <<< "$(muestra $pid)"
+    wait $carga || echo "LoadGenerator terminó con error (ver $SALIDA/carga-$modo.log)"
+
+    lat=$(grep 'desde el envío programado' "$SALIDA/carga-$modo.log" | awk '{print $(NF-4), $(NF-2)}')
+    printf '%-8s %8d %10d %10d %12s %12s\n' "$modo" $((h1 - h0)) $(((r1 - r0) / SESIONES)) \
+        $(((m1 - m0) / SESIONES)) ${lat:-- -} >> "$SALIDA/tabla"
+    kill $pid
+    wait $pid 2> /dev/null || true
+    trap - EXIT
+done
+
+echo
+cat "$SALIDA/tabla"
+echo "Registros en $SALIDA"
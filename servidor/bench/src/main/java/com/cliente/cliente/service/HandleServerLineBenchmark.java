@@ -0,0 +1,72 @@
+package com.cliente.cliente.service;
+
+import com.cliente.cliente.config.ServerConfig;
+import com.cliente.cliente.connection.TcpConnection;
+import com.cliente.cliente.events.UiEventBus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageService.handleServerLine en el cliente para lo que más llega: MSGFROM, MSG_ECHO y USERS con 100
+ * nombres. El bus tiene un suscriptor vacío por tema y la persistencia local no escribe en disco: se mide
+ * el análisis de la línea y el despacho, no Swing ni el archivo de log.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandleServerLineBenchmark {
+
+    @Param({"MSGFROM", "MSG_ECHO", "USERS"})
+    public String kind;
+
+    private MessageService service;
+    private String line;
+    private long id = 1;
+
+    @Setup
+    public void setup() {
+        UiEventBus bus = new UiEventBus();
+        for (String topic : new String[]{"USERS_LIST", "INCOMING_MSG", "OUTGOING_MSG"}) bus.subscribe(topic, p -> {});
+        ClientState state = new ClientState();
+        state.setCurrentUser("ana");
+        service = new MessageService(new TcpConnection(new ServerConfig()), new NoDiskPersistence(), bus, state);
+        line = switch (kind) {
+            case "MSGFROM" -> null; // id creciente en cada llamada (avanza el cursor de SYNC)
+            case "MSG_ECHO" -> "MSG_ECHO ana|luis|hola, ¿te llegó el informe?";
+            default -> {
+                StringJoiner csv = new StringJoiner(",");
+                for (int i = 0; i < 100; i++) csv.add("usuario" + i);
+                yield "USERS " + csv;
+            }
+        };
+    }
+
+    @Benchmark
+    public void handleServerLine() {
+        String l = line != null ? line : "MSGFROM " + (id++) + "|luis|hola, ¿te llegó el informe?";
+        service.handleServerLine(l);
+    }
+
+    static final class NoDiskPersistence extends LocalPersistenceService {
+        @Override
+        public void appendMessage(String line) {}
+
+        @Override
+        public void saveSyncCursor(String user, long id) {}
+    }
+}
@@ -0,0 +1,81 @@
+package com.proyecto.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compara dos resultados de JMH en JSON (-rf json) de dos ramas:
+ *
+ *   java -cp target/benchmarks.jar com.proyecto.bench.CompareResults base.json nuevo.json [umbral%]
+ *
+ * Imprime el cambio de cada benchmark (con sus parámetros) y termina con código 1 si alguno empeora más
+ * que el umbral (10% por defecto), para poder usarlo en CI. En modos de tiempo (avgt, sample, ss) empeorar
+ * es subir; en thrpt es bajar.
+ */
+public final class CompareResults {
+
+    private CompareResults() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: CompareResults base.json nuevo.json [umbral%]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, JsonNode> base = load(new File(args[0]));
+        Map<String, JsonNode> current = load(new File(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "base", "nuevo", "cambio");
+        for (Map.Entry<String, JsonNode> e : current.entrySet()) {
+            JsonNode now = e.getValue();
+            JsonNode before = base.get(e.getKey());
+            double score = now.path("primaryMetric").path("score").asDouble();
+            String unit = now.path("primaryMetric").path("scoreUnit").asText();
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s  %s%n", e.getKey(), "-", score, "nuevo", unit);
+                continue;
+            }
+            double old = before.path("primaryMetric").path("score").asDouble();
+            double change = old == 0 ? 0 : (score - old) / old * 100.0;
+            boolean higherIsWorse = !"thrpt".equals(now.path("mode").asText());
+            double worse = higherIsWorse ? change : -change;
+            boolean regression = worse > threshold;
+            if (regression) regressions++;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%  %s%s%n", e.getKey(), old, score, change, unit,
+                    regression ? "  EMPEORA" : "");
+        }
+        for (String key : base.keySet()) {
+            if (!current.containsKey(key)) System.out.printf("%-90s %14s%n", key, "(ya no existe)");
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) empeoran más de un %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    // benchmark + parámetros -> resultado
+    private static Map<String, JsonNode> load(File f) throws IOException {
+        Map<String, JsonNode> out = new LinkedHashMap<>();
+        for (JsonNode r : new ObjectMapper().readTree(f)) {
+            StringBuilder key = new StringBuilder(r.path("benchmark").asText());
+            JsonNode params = r.path("params");
+            if (params.isObject()) {
+                key.append(' ');
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> p = it.next();
+                    key.append(p.getKey()).append('=').append(p.getValue().asText());
+                    if (it.hasNext()) key.append(',');
+                }
+            }
+            out.put(key.toString(), r);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,220 @@
+package com.proyecto.bench.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proyecto.demo.server.LatencyHistogram;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Generador de carga sin interfaz: N clientes con el protocolo real (WELCOME/PROTO, LOGIN o REGISTER,
+ * MSG, FILE_HDR + FILE_CHUNK/FILE_DATA, QUIT) siguiendo un escenario (ver LoadScenario).
+ *
+ *   java -cp target/benchmarks.jar com.proyecto.bench.load.LoadGenerator sessions=1000 rate=0.5 duration=120
+ *
+ * Informa del rendimiento (envíos y entregas por segundo) y de la latencia de entrega de cada mensaje,
+ * desde su envío programado hasta que otra sesión recibe el MSGFROM, corregida por omisión coordinada
+ * (LoadStats). Todas las sesiones viven en este proceso: las marcas de tiempo viajan en el texto y se
+ * comparan con el mismo System.nanoTime(). El servidor debe arrancar sin entorno gráfico
+ * (-Djava.awt.headless=true) para que acepte las conexiones sin pedir aprobación.
+ */
+public final class LoadGenerator {
+
+    private static final long LOGIN_TIMEOUT_MS = 30_000L;
+    // tiempo para que lleguen las entregas de lo enviado al final de la ventana
+    private static final long DRAIN_MS = 5_000L;
+
+    private LoadGenerator() {}
+
+    public static void main(String[] args) throws Exception {
+        LoadScenario scenario = LoadScenario.parse(args);
+        System.out.println("Escenario: " + scenario);
+
+        LoadStats stats = new LoadStats();
+        ExecutorService receivers = Executors.newCachedThreadPool(threads("carga-rx-"));
+        ExecutorService files = Executors.newCachedThreadPool(threads("carga-file-"));
+        ScheduledThreadPoolExecutor senders = new ScheduledThreadPoolExecutor(scenario.senderThreads, threads("carga-tx-"));
+        Path tmpDir = Files.createTempDirectory("carga-");
+        List<LoadSession> online = new ArrayList<>();
+        try {
+            online = connectAll(scenario, stats, receivers, files, tmpDir);
+            if (online.isEmpty()) {
+                System.err.println("Ninguna sesión pudo conectarse");
+                System.exit(1);
+            }
+            String[] users = online.stream().map(LoadSession::user).toArray(String[]::new);
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(scenario.warmupSeconds);
+            long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(scenario.durationSeconds);
+            stats.window(measureFrom, measureUntil);
+            for (LoadSession s : online) s.start(senders, start, users);
+
+            report(scenario, stats, start, measureFrom, measureUntil);
+
+            for (LoadSession s : online) s.stop();
+            senders.shutdownNow();
+            Thread.sleep(DRAIN_MS);
+            Map<String, Object> summary = summary(scenario, online.size(), stats);
+            printSummary(summary);
+            if (scenario.report != null) {
+                new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(scenario.report), summary);
+                System.out.println("Resumen escrito en " + scenario.report);
+            }
+        } finally {
+            senders.shutdownNow();
+            for (LoadSession s : online) s.close();
+            files.shutdownNow();
+            receivers.shutdownNow();
+            try (Stream<Path> left = Files.walk(tmpDir)) {
+                left.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // conecta e inicia sesión con connectThreads a la vez; devuelve las que lo consiguieron
+    private static List<LoadSession> connectAll(LoadScenario scenario, LoadStats stats, ExecutorService receivers,
+                                                ExecutorService files, Path tmpDir) throws InterruptedException {
+        long t0 = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(scenario.connectThreads, threads("carga-login-"));
+        List<LoadSession> sessions = new ArrayList<>(scenario.sessions);
+        List<Future<?>> pending = new ArrayList<>(scenario.sessions);
+        for (int i = 0; i < scenario.sessions; i++) {
+            LoadSession s = new LoadSession(scenario, i, stats, receivers, files, tmpDir);
+            sessions.add(s);
+            pending.add(pool.submit(() -> {
+                s.connect(LOGIN_TIMEOUT_MS);
+                return null;
+            }));
+        }
+        List<LoadSession> online = new ArrayList<>(sessions.size());
+        int failed = 0;
+        String firstError = null;
+        for (int i = 0; i < sessions.size(); i++) {
+            try {
+                pending.get(i).get();
+                online.add(sessions.get(i));
+            } catch (java.util.concurrent.ExecutionException e) {
+                failed++;
+                if (firstError == null) firstError = String.valueOf(e.getCause());
+                sessions.get(i).close();
+            }
+        }
+        pool.shutdown();
+        System.out.printf("Conectadas %d de %d sesiones en %.1f s%s%n", online.size(), sessions.size(),
+                (System.nanoTime() - t0) / 1e9, failed == 0 ? "" : " (primer fallo: " + firstError + ")");
+        return online;
+    }
+
+    // una línea cada reportEvery segundos hasta el final de la ventana de medición
+    private static void report(LoadScenario scenario, LoadStats stats, long start, long measureFrom, long measureUntil) throws InterruptedException {
+        long sentBefore = 0;
+        long deliveredBefore = 0;
+        long last = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= measureUntil) break;
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(scenario.reportEvery), Math.max(1, (measureUntil - now) / 1_000_000)));
+            now = System.nanoTime();
+            double secs = (now - last) / 1e9;
+            last = now;
+            long sent = stats.directSent.sum() + stats.broadcastSent.sum();
+            long delivered = stats.delivered.sum();
+            LatencyHistogram h = stats.takeInterval();
+            System.out.printf("[%5.0f s]%s envíos/s=%.0f entregas/s=%.0f p50=%.1f ms p99=%.1f ms max=%.1f ms errores=%d archivos=%d%n",
+                    (now - start) / 1e9, now < measureFrom ? " (calentando)" : "",
+                    (sent - sentBefore) / secs, (delivered - deliveredBefore) / secs,
+                    LoadStats.millis(h.percentile(0.50)), LoadStats.millis(h.percentile(0.99)), LoadStats.millis(h.maxNanos()),
+                    stats.sendErrors.sum(), stats.filesOk.sum());
+            sentBefore = sent;
+            deliveredBefore = delivered;
+        }
+    }
+
+    private static Map<String, Object> summary(LoadScenario scenario, int online, LoadStats stats) {
+        double secs = scenario.durationSeconds;
+        long direct = stats.directSent.sum();
+        long broadcast = stats.broadcastSent.sum();
+        long delivered = stats.delivered.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("scenario", scenario.toString());
+        out.put("sessions", online);
+        out.put("durationSeconds", scenario.durationSeconds);
+
+        Map<String, Object> traffic = new LinkedHashMap<>();
+        traffic.put("directSent", direct);
+        traffic.put("broadcastSent", broadcast);
+        traffic.put("sendErrors", stats.sendErrors.sum());
+        traffic.put("sentPerSec", Math.round((direct + broadcast) / secs));
+        traffic.put("expectedDeliveries", stats.expectedDeliveries.sum());
+        traffic.put("delivered", delivered);
+        traffic.put("deliveredPerSec", Math.round(delivered / secs));
+        traffic.put("missing", Math.max(0, stats.expectedDeliveries.sum() - delivered));
+        out.put("traffic", traffic);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("corrected", LoadStats.percentilesMillis(stats.delivery));
+        latency.put("uncorrected", LoadStats.percentilesMillis(stats.deliveryUncorrected));
+        out.put("deliveryLatencyMs", latency);
+
+        if (scenario.fileRatio > 0) {
+            Map<String, Object> filesOut = new LinkedHashMap<>();
+            filesOut.put("ok", stats.filesOk.sum());
+            filesOut.put("failed", stats.filesFailed.sum());
+            filesOut.put("bytesPerSec", Math.round(stats.fileBytes.sum() / secs));
+            filesOut.put("delivered", stats.filesDelivered.sum());
+            filesOut.put("transferMs", LoadStats.percentilesMillis(stats.fileTransfer));
+            out.put("files", filesOut);
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void printSummary(Map<String, Object> summary) {
+        System.out.println();
+        System.out.println("== Resumen (" + summary.get("sessions") + " sesiones, " + summary.get("durationSeconds") + " s medidos) ==");
+        Map<String, Object> traffic = (Map<String, Object>) summary.get("traffic");
+        System.out.printf("enviados: %s directos + %s a ALL (%s/s), errores %s%n", traffic.get("directSent"),
+                traffic.get("broadcastSent"), traffic.get("sentPerSec"), traffic.get("sendErrors"));
+        System.out.printf("entregas: %s de %s esperadas (%s/s), sin llegar %s%n", traffic.get("delivered"),
+                traffic.get("expectedDeliveries"), traffic.get("deliveredPerSec"), traffic.get("missing"));
+        Map<String, Object> latency = (Map<String, Object>) summary.get("deliveryLatencyMs");
+        System.out.println("latencia de entrega (ms)       p50      p90      p99    p99.9      max");
+        printRow("  desde el envío programado", (Map<String, Object>) latency.get("corrected"));
+        printRow("  desde el envío real", (Map<String, Object>) latency.get("uncorrected"));
+        Map<String, Object> files = (Map<String, Object>) summary.get("files");
+        if (files != null) {
+            System.out.printf("archivos: %s ok, %s fallidos, %s B/s, %s entregados%n", files.get("ok"), files.get("failed"),
+                    files.get("bytesPerSec"), files.get("delivered"));
+            printRow("  duración de la subida", (Map<String, Object>) files.get("transferMs"));
+        }
+    }
+
+    private static void printRow(String label, Map<String, Object> p) {
+        System.out.printf("%-29s %8s %8s %8s %8s %8s%n", label, p.get("p50"), p.get("p90"), p.get("p99"), p.get("p999"), p.get("max"));
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            // pila pequeña: hay un hilo lector por sesión
+            Thread t = new Thread(null, r, prefix + n.incrementAndGet(), 256 * 1024);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package com.proyecto.bench.load;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Parámetros de una prueba de carga, como clave=valor en la línea de órdenes (o en un .properties con
+ * config=ruta; lo que venga en la línea de órdenes manda):
+ *
+ *   host, port           servidor (127.0.0.1:8080)
+ *   protocol             1 = líneas de texto, 2 = frames binarios (2)
+ *   sessions             clientes simultáneos (100)
+ *   connectThreads       conexiones + LOGIN en paralelo durante el arranque (32)
+ *   warmup, duration     segundos de calentamiento (no se miden) y de medición (10 / 60)
+ *   rate                 envíos por segundo de cada sesión (1.0)
+ *   broadcastRatio       fracción de los mensajes que van a ALL; el resto a otra sesión al azar (0.1)
+ *   fileRatio            fracción de los envíos que son archivos (0)
+ *   fileSizes            mezcla tamaño:peso, con sufijos k/m ("1k:70,64k:25,1m:5")
+ *   textBytes            relleno de cada mensaje de chat (64)
+ *   userPrefix, idBase   usuarios userPrefix0..N-1 con ids idBase..idBase+N-1 (carga / 900000)
+ *   password             contraseña común; si el usuario no existe se registra (carga-pass)
+ *   senderThreads        hilos que disparan los envíos programados (2 x núcleos)
+ *   reportEvery          segundos entre líneas de progreso (5)
+ *   report               ruta de un JSON con el resumen final (ninguno)
+ */
+final class LoadScenario {
+
+    final String host;
+    final int port;
+    final int protocol;
+    final int sessions;
+    final int connectThreads;
+    final int warmupSeconds;
+    final int durationSeconds;
+    final double rate;
+    final double broadcastRatio;
+    final double fileRatio;
+    final long[] fileSizes;
+    final int[] fileWeights;
+    final int textBytes;
+    final String userPrefix;
+    final long idBase;
+    final String password;
+    final int senderThreads;
+    final int reportEvery;
+    final String report;
+
+    private LoadScenario(Properties p) {
+        host = p.getProperty("host", "127.0.0.1");
+        port = intProp(p, "port", 8080, 1);
+        protocol = intProp(p, "protocol", 2, 1);
+        sessions = intProp(p, "sessions", 100, 1);
+        connectThreads = intProp(p, "connectThreads", 32, 1);
+        warmupSeconds = intProp(p, "warmup", 10, 0);
+        durationSeconds = intProp(p, "duration", 60, 1);
+        rate = ratio(p, "rate", 1.0, Double.MAX_VALUE);
+        broadcastRatio = ratio(p, "broadcastRatio", 0.1, 1.0);
+        fileRatio = ratio(p, "fileRatio", 0.0, 1.0);
+        textBytes = intProp(p, "textBytes", 64, 0);
+        userPrefix = p.getProperty("userPrefix", "carga");
+        idBase = Long.parseLong(p.getProperty("idBase", "900000").trim());
+        password = p.getProperty("password", "carga-pass");
+        senderThreads = intProp(p, "senderThreads", 2 * Runtime.getRuntime().availableProcessors(), 1);
+        reportEvery = intProp(p, "reportEvery", 5, 1);
+        report = p.getProperty("report");
+
+        String[] mix = p.getProperty("fileSizes", "1k:70,64k:25,1m:5").split(",");
+        fileSizes = new long[mix.length];
+        fileWeights = new int[mix.length];
+        for (int i = 0; i < mix.length; i++) {
+            String[] sw = mix[i].trim().split(":", 2);
+            fileSizes[i] = parseSize(sw[0]);
+            fileWeights[i] = sw.length > 1 ? Integer.parseInt(sw[1].trim()) : 1;
+            if (fileSizes[i] <= 0 || fileWeights[i] < 0) throw new IllegalArgumentException("fileSizes no válido: " + mix[i]);
+        }
+        if (rate <= 0) throw new IllegalArgumentException("rate debe ser mayor que 0");
+    }
+
+    static LoadScenario parse(String[] args) throws IOException {
+        Properties cli = new Properties();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("argumento sin formato clave=valor: " + a);
+            cli.setProperty(a.substring(0, eq).trim(), a.substring(eq + 1).trim());
+        }
+        Properties all = new Properties();
+        String config = cli.getProperty("config");
+        if (config != null) {
+            try (Reader r = Files.newBufferedReader(Path.of(config))) {
+                all.load(r);
+            }
+        }
+        all.putAll(cli);
+        return new LoadScenario(all);
+    }
+
+    String user(int i) {
+        return userPrefix + i;
+    }
+
+    // tamaño de archivo según la mezcla configurada
+    long pickFileSize() {
+        int total = 0;
+        for (int w : fileWeights) total += w;
+        int r = ThreadLocalRandom.current().nextInt(Math.max(1, total));
+        for (int i = 0; i < fileSizes.length; i++) {
+            r -= fileWeights[i];
+            if (r < 0) return fileSizes[i];
+        }
+        return fileSizes[fileSizes.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return "sesiones=" + sessions + " protocolo=v" + protocol + " rate=" + rate + "/s por sesión broadcast=" + broadcastRatio
+                + " archivos=" + fileRatio + " servidor=" + host + ":" + port + " calentamiento=" + warmupSeconds + "s duración=" + durationSeconds + "s";
+    }
+
+    private static long parseSize(String s) {
+        String t = s.trim().toLowerCase();
+        long mult = 1;
+        if (t.endsWith("k")) {
+            mult = 1024;
+            t = t.substring(0, t.length() - 1);
+        } else if (t.endsWith("m")) {
+            mult = 1024 * 1024;
+            t = t.substring(0, t.length() - 1);
+        }
+        return Long.parseLong(t) * mult;
+    }
+
+    private static int intProp(Properties p, String key, int def, int min) {
+        String v = p.getProperty(key);
+        int n = v == null ? def : Integer.parseInt(v.trim());
+        if (n < min) throw new IllegalArgumentException(key + " debe ser al menos " + min);
+        return n;
+    }
+
+    private static double ratio(Properties p, String key, double def, double max) {
+        String v = p.getProperty(key);
+        double d = v == null ? def : Double.parseDouble(v.trim());
+        if (d < 0 || d > max) throw new IllegalArgumentException(key + " fuera de rango: " + d);
+        return d;
+    }
+}
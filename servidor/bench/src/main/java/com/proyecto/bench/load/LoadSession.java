@@ -0,0 +1,242 @@
+package com.proyecto.bench.load;
+
+import com.cliente.cliente.config.ServerConfig;
+import com.cliente.cliente.connection.MessageReceiver;
+import com.cliente.cliente.connection.TcpConnection;
+import com.cliente.cliente.dto.MessageDTO;
+import com.cliente.cliente.events.UiEventBus;
+import com.cliente.cliente.service.AuthClientService;
+import com.cliente.cliente.service.ClientState;
+import com.cliente.cliente.service.MessageService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Un cliente simulado: la misma TcpConnection, AuthClientService, MessageService y MessageReceiver que
+ * usa el cliente Swing, sin ventana. Los eventos que la UI pintaría (INCOMING_MSG, USER_LOGGED...) se
+ * escuchan en el UiEventBus de la sesión para medir.
+ *
+ * Los envíos siguen un calendario fijo (un envío cada 1/rate s desde un desfase al azar): si uno sale
+ * tarde, el siguiente no se retrasa con él, y cada mensaje lleva el instante programado y el real
+ * ("carga programado enviado relleno") para que quien lo reciba calcule las dos latencias.
+ */
+final class LoadSession {
+
+    private static final String TAG = "carga ";
+
+    private final LoadScenario scenario;
+    private final int index;
+    private final String user;
+    private final LoadStats stats;
+    private final ExecutorService fileExec;
+    private final Path tmpDir;
+
+    private final TcpConnection conn;
+    private final MessageService messages;
+    private final AuthClientService auth;
+    private final MessageReceiver receiver;
+    private final String padding;
+
+    // respuesta pendiente de LOGIN / REGISTER ("LOGGED", "REGISTERED" o "ERROR|motivo")
+    private volatile CompletableFuture<String> pendingAuth;
+    private volatile boolean running;
+    // usuarios de las sesiones que llegaron a conectarse (destinatarios posibles)
+    private String[] online = new String[0];
+    private long nextIntended;
+    // archivos de esta sesión, uno tras otro (como el cliente real)
+    private CompletableFuture<Void> fileLane = CompletableFuture.completedFuture(null);
+
+    LoadSession(LoadScenario scenario, int index, LoadStats stats, ExecutorService receivers, ExecutorService fileExec, Path tmpDir) {
+        this.scenario = scenario;
+        this.index = index;
+        this.user = scenario.user(index);
+        this.stats = stats;
+        this.fileExec = fileExec;
+        this.tmpDir = tmpDir;
+        this.padding = "x".repeat(scenario.textBytes);
+
+        ServerConfig config = new ServerConfig() {
+            @Override
+            public String getServerIp() {
+                return scenario.host;
+            }
+
+            @Override
+            public int getServerPort() {
+                return scenario.port;
+            }
+
+            @Override
+            public int getProtocolVersion() {
+                return scenario.protocol;
+            }
+        };
+        UiEventBus bus = new UiEventBus();
+        ClientState state = new ClientState();
+        conn = new TcpConnection(config);
+        messages = new MessageService(conn, new MemoryPersistence(), bus, state);
+        auth = new AuthClientService(conn, state, bus);
+        receiver = new MessageReceiver(conn, messages, receivers);
+
+        bus.subscribe("USER_LOGGED", p -> completeAuth("LOGGED"));
+        bus.subscribe("REGISTERED_SUCCESS", p -> completeAuth("REGISTERED"));
+        bus.subscribe("AUTH_ERROR", p -> completeAuth("ERROR|" + p));
+        bus.subscribe("INCOMING_MSG", p -> onIncoming((MessageDTO) p, System.nanoTime()));
+        bus.subscribe("INCOMING_FILE", p -> stats.filesDelivered.increment());
+    }
+
+    String user() {
+        return user;
+    }
+
+    /**
+     * Conecta, inicia sesión y, si el usuario no existe todavía, lo registra y vuelve a intentarlo.
+     */
+    void connect(long timeoutMs) throws Exception {
+        receiver.start();
+        String id = Long.toString(scenario.idBase + index);
+        String r = authenticate(() -> auth.login(id, user, scenario.password), timeoutMs);
+        if (r.startsWith("ERROR")) {
+            String reg = authenticate(() -> auth.register(id, user, scenario.password), timeoutMs);
+            if (reg.startsWith("ERROR")) throw new IOException("REGISTER de " + user + " rechazado: " + reg.substring(6));
+            r = authenticate(() -> auth.login(id, user, scenario.password), timeoutMs);
+        }
+        if (!"LOGGED".equals(r)) throw new IOException("LOGIN de " + user + " rechazado: " + r);
+    }
+
+    private String authenticate(java.util.function.BooleanSupplier send, long timeoutMs) throws Exception {
+        CompletableFuture<String> f = new CompletableFuture<>();
+        pendingAuth = f;
+        try {
+            if (!send.getAsBoolean()) throw new IOException("no se pudo enviar a " + scenario.host + ":" + scenario.port);
+            return f.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            pendingAuth = null;
+        }
+    }
+
+    private void completeAuth(String result) {
+        CompletableFuture<String> f = pendingAuth;
+        if (f != null) f.complete(result);
+    }
+
+    /** Empieza a enviar según el calendario; el primer envío cae al azar dentro del primer intervalo. */
+    void start(ScheduledExecutorService senders, long startNanos, String[] online) {
+        this.online = online;
+        long interval = intervalNanos();
+        nextIntended = startNanos + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+        running = true;
+        scheduleNext(senders);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    void close() {
+        running = false;
+        try { conn.disconnect(); } catch (Exception ignored) {}
+    }
+
+    private long intervalNanos() {
+        return (long) (1_000_000_000L / scenario.rate);
+    }
+
+    private void scheduleNext(ScheduledExecutorService senders) {
+        if (!running) return;
+        long delay = Math.max(0L, nextIntended - System.nanoTime());
+        try {
+            senders.schedule(() -> tick(senders), delay, TimeUnit.NANOSECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            running = false;
+        }
+    }
+
+    private void tick(ScheduledExecutorService senders) {
+        long intended = nextIntended;
+        nextIntended += intervalNanos();
+        try {
+            if (!running) return;
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            boolean broadcast = online.length < 2 || rnd.nextDouble() < scenario.broadcastRatio;
+            String to = broadcast ? null : peer(rnd);
+            if (scenario.fileRatio > 0 && rnd.nextDouble() < scenario.fileRatio) {
+                fileLane = fileLane.thenRunAsync(() -> sendFile(to, intended), fileExec);
+            } else {
+                sendChat(to, intended);
+            }
+        } finally {
+            scheduleNext(senders);
+        }
+    }
+
+    // otra sesión conectada al azar (nunca esta misma)
+    private String peer(ThreadLocalRandom rnd) {
+        String other;
+        do {
+            other = online[rnd.nextInt(online.length)];
+        } while (other.equals(user));
+        return other;
+    }
+
+    private void sendChat(String to, long intended) {
+        long sent = System.nanoTime();
+        if (messages.sendMessage(to, TAG + intended + " " + sent + " " + padding)) {
+            stats.sent(intended, to == null, to == null ? online.length - 1 : 1);
+        } else if (stats.measured(intended)) {
+            stats.sendErrors.increment();
+        }
+    }
+
+    private void sendFile(String to, long intended) {
+        long size = scenario.pickFileSize();
+        Path file = null;
+        boolean ok = false;
+        try {
+            // contenido distinto en cada envío: con el mismo SHA-256 el servidor no pediría los datos
+            file = Files.createTempFile(tmpDir, user + "-", ".bin");
+            writeRandom(file, size);
+            ok = messages.sendFile(to, file.toFile());
+        } catch (IOException e) {
+            ok = false;
+        } finally {
+            stats.file(intended, size, ok, System.nanoTime());
+            if (file != null) {
+                try { Files.deleteIfExists(file); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static void writeRandom(Path file, long size) throws IOException {
+        byte[] buf = new byte[(int) Math.min(size, 64 * 1024)];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long left = size; left > 0; left -= buf.length) {
+                ThreadLocalRandom.current().nextBytes(buf);
+                out.write(buf, 0, (int) Math.min(left, buf.length));
+            }
+        }
+    }
+
+    private void onIncoming(MessageDTO dto, long receivedNanos) {
+        String text = dto.getContent();
+        if (text == null || !text.startsWith(TAG)) return;
+        int a = TAG.length();
+        int b = text.indexOf(' ', a);
+        int c = b < 0 ? -1 : text.indexOf(' ', b + 1);
+        if (c < 0) return;
+        try {
+            long intended = Long.parseLong(text, a, b, 10);
+            long sent = Long.parseLong(text, b + 1, c, 10);
+            stats.delivered(intended, sent, receivedNanos);
+        } catch (NumberFormatException ignored) {
+        }
+    }
+}
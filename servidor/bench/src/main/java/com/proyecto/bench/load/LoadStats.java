@@ -0,0 +1,93 @@
+package com.proyecto.bench.load;
+
+import com.proyecto.demo.server.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores y latencias de una prueba de carga. Sólo cuenta lo programado dentro de la ventana de
+ * medición [measureFrom, measureUntil): lo del calentamiento se envía igual pero no se anota.
+ *
+ * La latencia de entrega se mide desde el instante en que el envío estaba PROGRAMADO, no desde que salió:
+ * si el servidor (o el propio socket) retrasa los envíos, ese retraso forma parte de la latencia en lugar de
+ * desaparecer de la muestra (omisión coordinada). La medida sin corregir (desde la salida real) se guarda
+ * aparte para ver la diferencia.
+ */
+final class LoadStats {
+
+    final LongAdder directSent = new LongAdder();
+    final LongAdder broadcastSent = new LongAdder();
+    final LongAdder sendErrors = new LongAdder();
+    final LongAdder expectedDeliveries = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder filesOk = new LongAdder();
+    final LongAdder filesFailed = new LongAdder();
+    final LongAdder fileBytes = new LongAdder();
+    final LongAdder filesDelivered = new LongAdder();
+
+    final LatencyHistogram delivery = new LatencyHistogram();
+    final LatencyHistogram deliveryUncorrected = new LatencyHistogram();
+    final LatencyHistogram fileTransfer = new LatencyHistogram();
+    // entregas desde la última línea de progreso
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureUntil = Long.MAX_VALUE;
+
+    void window(long fromNanos, long untilNanos) {
+        measureFrom = fromNanos;
+        measureUntil = untilNanos;
+    }
+
+    boolean measured(long intendedNanos) {
+        return intendedNanos >= measureFrom && intendedNanos < measureUntil;
+    }
+
+    void sent(long intendedNanos, boolean broadcast, int recipients) {
+        if (!measured(intendedNanos)) return;
+        (broadcast ? broadcastSent : directSent).increment();
+        expectedDeliveries.add(recipients);
+    }
+
+    void delivered(long intendedNanos, long sentNanos, long receivedNanos) {
+        if (!measured(intendedNanos)) return;
+        delivered.increment();
+        delivery.record(receivedNanos - intendedNanos);
+        deliveryUncorrected.record(receivedNanos - sentNanos);
+        interval.get().record(receivedNanos - intendedNanos);
+    }
+
+    void file(long intendedNanos, long size, boolean ok, long doneNanos) {
+        if (!measured(intendedNanos)) return;
+        if (!ok) {
+            filesFailed.increment();
+            return;
+        }
+        filesOk.increment();
+        fileBytes.add(size);
+        fileTransfer.record(doneNanos - intendedNanos);
+    }
+
+    /** Entregas desde la llamada anterior (y empieza un intervalo nuevo). */
+    LatencyHistogram takeInterval() {
+        return interval.getAndSet(new LatencyHistogram());
+    }
+
+    static Map<String, Object> percentilesMillis(LatencyHistogram h) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("count", h.count());
+        out.put("p50", millis(h.percentile(0.50)));
+        out.put("p90", millis(h.percentile(0.90)));
+        out.put("p99", millis(h.percentile(0.99)));
+        out.put("p999", millis(h.percentile(0.999)));
+        out.put("max", millis(h.maxNanos()));
+        return out;
+    }
+
+    static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
@@ -0,0 +1,35 @@
+package com.proyecto.bench.load;
+
+import com.cliente.cliente.service.LocalPersistenceService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistencia local de cada sesión simulada: el cursor de SYNC en memoria y sin log de mensajes. Miles
+ * de sesiones escribiendo cliente-mensajes.log medirían el disco de la máquina de carga, no el servidor.
+ */
+final class MemoryPersistence extends LocalPersistenceService {
+
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+
+    @Override
+    public void appendMessage(String line) {}
+
+    @Override
+    public List<String> readAllMessages() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public long loadSyncCursor(String user) {
+        return user == null ? 0L : cursors.getOrDefault(user, 0L);
+    }
+
+    @Override
+    public void saveSyncCursor(String user, long id) {
+        if (user != null) cursors.put(user, id);
+    }
+}
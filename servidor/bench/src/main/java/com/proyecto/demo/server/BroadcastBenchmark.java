@@ -0,0 +1,93 @@
+package com.proyecto.demo.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reparto en ConnectedClients con 10, 1000 y 10000 sesiones: un MSGFROM a todos (recorrido del snapshot,
+ * codificación única y encolado por sesión) y el alta + baja de una sesión (reconstrucción del snapshot y
+ * la presencia que provoca: USERS_SNAPSHOT + USER_JOIN + USER_LEAVE en modo delta, dos USERS completos en
+ * modo full).
+ *
+ * Cada sesión drena su cola en el mismo hilo que encola (sin sockets): se mide el trabajo del servidor,
+ * no la red. La presencia se publica sin ventana de debounce para que cada alta y baja pague su reparto.
+ * En modo full el montaje de 10000 sesiones tarda decenas de segundos: cada alta reparte el USERS completo
+ * a todas las anteriores (coste cuadrático en el número de sesiones).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    private static final int DRAIN_BATCH = 64;
+
+    @Param({"10", "1000", "10000"})
+    public int sessions;
+
+    @Param({"1", "2"})
+    public int protocolVersion;
+
+    @Param({"delta", "full"})
+    public String presence;
+
+    private ConnectedClients clients;
+    private int next;
+
+    @Setup
+    public void setup() {
+        clients = new ConnectedClients(presence, 0);
+        for (int i = 0; i < sessions; i++) {
+            String ip = "10.0." + (i >> 8) + "." + (i & 255);
+            clients.register("user" + i, (long) i, newSession(ip), ip);
+        }
+        next = sessions;
+    }
+
+    // sesión con una cola que se vacía en cuanto se le encola algo
+    private ClientSession newSession(String remote) {
+        OutboundQueue q = new OutboundQueue("bench-" + remote, 1024, OutboundQueue.OverflowPolicy.DROP, 0);
+        List<ByteBuffer> sink = new ArrayList<>(DRAIN_BATCH);
+        q.bind(() -> {
+            do {
+                q.drainTo(sink, DRAIN_BATCH);
+                sink.clear();
+            } while (q.finishDrain());
+        }, q::close);
+        ClientSession s = new ClientSession(remote, q, q::close, true);
+        s.setProtocolVersion(protocolVersion);
+        return s;
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        clients.broadcast(ProtocolMessage.of(ProtocolMessage.Verb.MSGFROM, "123456", "user0", "hola a todos"), "MSG");
+    }
+
+    @Benchmark
+    public void registerUnregister() {
+        int i = next++;
+        String user = "extra" + i;
+        String ip = "10.1." + ((i >> 8) & 255) + "." + (i & 255);
+        clients.register(user, (long) i, newSession(ip), ip);
+        clients.unregister(user, ip);
+    }
+}
@@ -0,0 +1,72 @@
+package com.proyecto.demo.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contenido de archivos: Base64 suelto (lo que cuesta cada FILE/FILE_DATA/FILEFROM en v1) y el viaje
+ * completo de un FILE_DATA (codificar + leer la línea/frame + bytes()) en v1 frente a v2 (campo en crudo).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilePayloadBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] data;
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encoded = Base64.getEncoder().encodeToString(data);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @Benchmark
+    public byte[] base64Decode() {
+        return Base64.getDecoder().decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] fileDataRoundTripV1() {
+        ByteBuffer frame = ProtocolMessage.of(ProtocolMessage.Verb.FILE_DATA, "ana", "datos.bin", data).encode(ProtocolMessage.V1);
+        // como ProtocolInput.readLine: bytes de la línea sin '\n' a String (el buffer es de solo lectura)
+        byte[] raw = new byte[frame.remaining() - 1];
+        frame.duplicate().get(raw);
+        String line = new String(raw, StandardCharsets.UTF_8);
+        return ProtocolMessage.parseV1(line).bytes(2);
+    }
+
+    @Benchmark
+    public byte[] fileDataRoundTripV2() throws Exception {
+        ByteBuffer frame = ProtocolMessage.of(ProtocolMessage.Verb.FILE_DATA, "ana", "datos.bin", data).encode(ProtocolMessage.V2);
+        int type = frame.get(0) & 0xFF;
+        return ProtocolMessage.decodeV2(type, frame.duplicate().position(ProtocolMessage.V2_HEADER).slice()).bytes(2);
+    }
+}
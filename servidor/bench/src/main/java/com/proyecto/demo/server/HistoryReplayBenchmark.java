@@ -0,0 +1,236 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.auth.UserDao;
+import com.proyecto.demo.auth.UserDto;
+import com.proyecto.demo.dao.ArchivoDao;
+import com.proyecto.demo.model.MessageRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una página de SYNC / HISTORY (50 o 200 filas, una de cada diez con archivo) convertida en HIST_ENTRY y
+ * codificada en v1 y v2, con las búsquedas por lotes de HistoryEntries y, para comparar, con la búsqueda
+ * por fila de antes (emisor, receptor y archivo: 105 consultas para 50 filas, 420 para 200).
+ *
+ * Los DAO son mapas en memoria que cuentan sus consultas y esperan roundTripMicros en cada una, como un
+ * viaje a la BD: con 0 se mide sólo la construcción de la página. Al final de cada prueba se imprimen las
+ * consultas por página.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryReplayBenchmark {
+
+    private static final String SHA = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Param({"50", "200"})
+    public int pageSize;
+
+    // latencia simulada de cada consulta (0 = DAO en memoria; ~100 µs es una BD en la misma red)
+    @Param({"0", "100"})
+    public long roundTripMicros;
+
+    private List<MessageRecord> page;
+    private final MemoryUserDao users = new MemoryUserDao();
+    private final MemoryArchivoDao archivos = new MemoryArchivoDao();
+    private long pages;
+
+    @Setup
+    public void setup() {
+        users.roundTripNanos = archivos.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+        for (long id = 1; id <= 20; id++) users.put(new UserDto(id, "usuario" + id, "x"));
+        page = new ArrayList<>(pageSize);
+        LocalDateTime t0 = LocalDateTime.of(2024, 5, 1, 12, 0);
+        for (int i = 0; i < pageSize; i++) {
+            MessageRecord mr = new MessageRecord();
+            mr.setId(100_000L + i);
+            mr.setEmisorId(1L + i % 20);
+            mr.setReceptorId(1L + (i + 7) % 20);
+            mr.setCreadoEn(t0.plusSeconds(i));
+            if (i % 10 == 9) {
+                long archivoId = archivos.insertArchivo("adjunto" + i + ".pdf", "contenido/9f/86/" + SHA, 250_000L + i, mr.getEmisorId());
+                mr.setTipoMensaje("ARCHIVO");
+                mr.setArchivoId(archivoId);
+            } else {
+                mr.setTipoMensaje("TEXTO");
+                mr.setContenido("mensaje de prueba número " + i + " con algo de texto para que no sea trivial");
+            }
+            page.add(mr);
+        }
+        // las inserciones de arriba no cuentan
+        users.queries = archivos.queries = 0;
+    }
+
+    @TearDown
+    public void report() {
+        if (pages == 0) return;
+        System.out.printf("%n%d filas: %.1f consultas por página (%d de usuarios, %d de archivos en %d páginas)%n",
+                pageSize, (double) (users.queries + archivos.queries) / pages, users.queries, archivos.queries, pages);
+    }
+
+    @Benchmark
+    public void buildAndEncodeV1(Blackhole bh) {
+        pages++;
+        for (ProtocolMessage m : HistoryEntries.build(page, users, archivos)) {
+            ByteBuffer b = m.encode(ProtocolMessage.V1);
+            bh.consume(b);
+        }
+    }
+
+    @Benchmark
+    public void buildAndEncodeV2(Blackhole bh) {
+        pages++;
+        for (ProtocolMessage m : HistoryEntries.build(page, users, archivos)) {
+            ByteBuffer b = m.encode(ProtocolMessage.V2);
+            bh.consume(b);
+        }
+    }
+
+    // la misma página resuelta fila a fila, como ClientWorker.sendHistoryEntry antes de HistoryEntries
+    @Benchmark
+    public void perRowAndEncodeV1(Blackhole bh) {
+        pages++;
+        for (MessageRecord mr : page) {
+            ByteBuffer b = perRowEntry(mr).encode(ProtocolMessage.V1);
+            bh.consume(b);
+        }
+    }
+
+    private ProtocolMessage perRowEntry(MessageRecord mr) {
+        String sender = usernameOf(mr.getEmisorId());
+        String receptor = usernameOf(mr.getReceptorId());
+        String ts = mr.getCreadoEn() == null ? java.time.Instant.now().toString() : mr.getCreadoEn().toString();
+        if ("ARCHIVO".equalsIgnoreCase(mr.getTipoMensaje()) && mr.getArchivoId() != null) {
+            ArchivoDao.ArchivoInfo ainfo = archivos.findById(mr.getArchivoId());
+            if (ainfo != null) {
+                return ProtocolMessage.of(ProtocolMessage.Verb.HIST_ENTRY, mr.getId(), sender, receptor, ts, ainfo.id, ainfo.size, ContentStore.hashOf(ainfo.path), ainfo.filename);
+            }
+        }
+        String content = mr.getContenido() == null ? "" : mr.getContenido();
+        return ProtocolMessage.of(ProtocolMessage.Verb.HIST_ENTRY, mr.getId(), sender, receptor, ts, "", "", "", content);
+    }
+
+    private String usernameOf(Long userId) {
+        if (userId == null) return "";
+        return users.findById(userId).map(UserDto::getUsername).orElse(String.valueOf(userId));
+    }
+
+    // espera activa: sleep/parkNanos no bajan de decenas de µs y falsearían los viajes cortos
+    private static void roundTrip(long nanos) {
+        if (nanos <= 0) return;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0) Thread.onSpinWait();
+    }
+
+    // cada método es una consulta: un viaje de roundTripNanos y queries++
+    static final class MemoryUserDao implements UserDao {
+        private final Map<Long, UserDto> byId = new HashMap<>();
+        long roundTripNanos;
+        long queries;
+
+        void put(UserDto u) {
+            byId.put(u.getId(), u);
+        }
+
+        @Override
+        public Optional<UserDto> findByUsername(String username) {
+            queries++;
+            roundTrip(roundTripNanos);
+            return byId.values().stream().filter(u -> u.getUsername().equals(username)).findFirst();
+        }
+
+        @Override
+        public Optional<UserDto> findById(Long id) {
+            queries++;
+            roundTrip(roundTripNanos);
+            return Optional.ofNullable(byId.get(id));
+        }
+
+        // como JdbcUserDao: un IN (...) para todos los ids
+        @Override
+        public Map<Long, String> findUsernamesByIds(java.util.Collection<Long> ids) {
+            queries++;
+            roundTrip(roundTripNanos);
+            Map<Long, String> out = new HashMap<>();
+            for (Long id : ids) {
+                UserDto u = byId.get(id);
+                if (u != null) out.put(id, u.getUsername());
+            }
+            return out;
+        }
+
+        @Override
+        public boolean createUser(Long id, String username, String passwordHash) {
+            if (id == null || byId.containsKey(id)) return false;
+            byId.put(id, new UserDto(id, username, passwordHash));
+            return true;
+        }
+    }
+
+    static final class MemoryArchivoDao implements ArchivoDao {
+        private final Map<Long, ArchivoInfo> byId = new HashMap<>();
+        long roundTripNanos;
+        long queries;
+
+        @Override
+        public long insertArchivo(String filename, String path, long size, Long propietarioId) {
+            ArchivoInfo a = new ArchivoInfo();
+            a.id = byId.size() + 1L;
+            a.filename = filename;
+            a.path = path;
+            a.size = size;
+            a.creadoEn = LocalDateTime.now();
+            byId.put(a.id, a);
+            return a.id;
+        }
+
+        @Override
+        public ArchivoInfo findById(long id) {
+            queries++;
+            roundTrip(roundTripNanos);
+            return byId.get(id);
+        }
+
+        @Override
+        public Map<Long, ArchivoInfo> findByIds(java.util.Collection<Long> ids) {
+            queries++;
+            roundTrip(roundTripNanos);
+            Map<Long, ArchivoInfo> out = new HashMap<>();
+            for (Long id : ids) {
+                ArchivoInfo a = id == null ? null : byId.get(id);
+                if (a != null) out.put(id, a);
+            }
+            return out;
+        }
+
+        @Override
+        public long countByPath(String path) {
+            queries++;
+            roundTrip(roundTripNanos);
+            return byId.values().stream().filter(a -> a.path.equals(path)).count();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.auth.AuthService;
+import com.proyecto.demo.auth.UserDao;
+import com.proyecto.demo.auth.UserDto;
+import com.proyecto.demo.config.ServerInfrastructureConfig;
+import com.proyecto.demo.dao.ArchivoDao;
+import com.proyecto.demo.dao.MessageDao;
+import com.proyecto.demo.model.MessageRecord;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compara en un solo proceso, sin BD, los ejecutores de clientes del modo bloqueante (app.tcp.executor =
+ * cached, bounded, virtual). Arranca las piezas reales del servidor (ServerInfrastructureConfig,
+ * ClientSessionFactory, ConnectedClients, MessageWriter, ClientWorker...) con DAOs en memoria y acepta por
+ * loopback como TcpServer (sin ConnectionAdmission). Después:
+ *  - conecta SESIONES clientes que reciben el WELCOME y se quedan inactivos (un ClientWorker bloqueado en
+ *    lectura por conexión) y mide hilos, RSS y heap usado tras un GC, antes y después;
+ *  - con todas conectadas, una sesión autenticada se envía MSG a sí misma y mide el tiempo hasta el SENT
+ *    (ida y vuelta completa: lectura, persistencia en lote, entrega y respuesta).
+ *
+ *   java -Djava.awt.headless=true -cp target/benchmarks.jar com.proyecto.demo.server.ModeloHilosHarness modo=virtual sesiones=2000
+ *
+ * Un modo por proceso: el RSS no vuelve a bajar al cambiar de ejecutor. Cliente y servidor comparten
+ * proceso, así que hilos, RSS y heap incluyen también los sockets del lado cliente (iguales en los tres
+ * modos). El ejecutor de escritura sigue al de clientes, como en el servidor.
+ */
+public final class ModeloHilosHarness {
+
+    private ModeloHilosHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> a = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) a.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        String modo = a.getOrDefault("modo", "cached");
+        int sesiones = Integer.parseInt(a.getOrDefault("sesiones", "2000"));
+        int idas = Integer.parseInt(a.getOrDefault("idas", "5000"));
+        int calentamiento = Integer.parseInt(a.getOrDefault("calentamiento", "1000"));
+
+        Path store = Files.createTempDirectory("modelo-hilos-");
+        Map<String, Object> props = new LinkedHashMap<>();
+        props.put("app.tcp.executor", modo);
+        // en bounded cada conexión ocupa un hilo: con menos, las que no caben se rechazan
+        props.put("app.tcp.executor.maxThreads", a.getOrDefault("maxThreads", String.valueOf(sesiones + 16)));
+        props.put("app.upload.storeDir", store.toString());
+
+        try (AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext()) {
+            ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("harness", props));
+            ctx.registerBean(MessageDao.class, MemoryMessageDao::new);
+            ctx.registerBean(ArchivoDao.class, MemoryArchivoDao::new);
+            ctx.register(ServerInfrastructureConfig.class, ClientSessionFactory.class, ConnectedClients.class,
+                    PartialUploads.class, CommandStats.class, ServerMetrics.class, MessageWriter.class,
+                    ContentStore.class, ClientWorker.class);
+            ctx.refresh();
+            run(ctx, modo, sesiones, idas, calentamiento);
+        }
+    }
+
+    private static void run(AnnotationConfigApplicationContext ctx, String modo, int sesiones, int idas, int calentamiento) throws Exception {
+        ExecutorService executor = ctx.getBean("executorService", ExecutorService.class);
+        ClientSessionFactory sessions = ctx.getBean(ClientSessionFactory.class);
+        ConnectedClients connected = ctx.getBean(ConnectedClients.class);
+        MessageDao messageDao = ctx.getBean(MessageDao.class);
+        ArchivoDao archivoDao = ctx.getBean(ArchivoDao.class);
+        AuthService auth = new AuthService() {
+            @Override
+            public boolean register(String id, String usuario, String password) { return false; }
+
+            @Override
+            public boolean login(String id, String usuario, String password) { return true; }
+        };
+        UserDao users = new UserDao() {
+            @Override
+            public Optional<UserDto> findByUsername(String username) { return Optional.empty(); }
+
+            @Override
+            public Optional<UserDto> findById(Long id) { return Optional.empty(); }
+
+            @Override
+            public boolean createUser(Long id, String username, String passwordHash) { return false; }
+        };
+
+        ServerSocket server = java.nio.channels.ServerSocketChannel.open().socket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket s = server.accept();
+                    ClientWorker worker = ctx.getBean(ClientWorker.class, s, auth, null, connected, messageDao, archivoDao, users, null);
+                    ClientSession session = sessions.forSocket(s);
+                    worker.setSession(session);
+                    try {
+                        executor.submit(worker);
+                    } catch (RejectedExecutionException e) {
+                        session.close();
+                    }
+                } catch (IOException e) {
+                    if (!server.isClosed()) e.printStackTrace();
+                }
+            }
+        }, "harness-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        int port = server.getLocalPort();
+
+        // la sesión que mide la ida y vuelta
+        Socket medidor = new Socket("127.0.0.1", port);
+        medidor.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(medidor.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = medidor.getOutputStream();
+        expect(in, "WELCOME");
+        send(out, "LOGIN 1|medidor|x");
+        expect(in, "LOGGED");
+
+        long[] antes = sample();
+        List<Socket> inactivos = new ArrayList<>(sesiones);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < sesiones; i++) {
+            Socket s = new Socket("127.0.0.1", port);
+            inactivos.add(s);
+            // con el WELCOME recibido el worker ya corre y está bloqueado leyendo
+            if (!readLine(s).startsWith("WELCOME")) throw new IllegalStateException("sin WELCOME en la sesión " + i);
+        }
+        long conectarMs = (System.nanoTime() - t0) / 1_000_000;
+        long[] despues = sample();
+
+        LatencyHistogram idaVuelta = new LatencyHistogram();
+        for (int i = 0; i < calentamiento + idas; i++) {
+            long start = System.nanoTime();
+            send(out, "MSG medidor|m" + i);
+            expect(in, "SENT");
+            if (i >= calentamiento) idaVuelta.record(System.nanoTime() - start);
+        }
+
+        System.out.printf("modo=%s sesiones=%d conectar=%d ms%n", modo, sesiones, conectarMs);
+        System.out.printf("  hilos:  %d -> %d (+%d)%n", antes[0], despues[0], despues[0] - antes[0]);
+        System.out.printf("  RSS:    %d -> %d MB (%d KB/conexión)%n", antes[1] / 1024, despues[1] / 1024, (despues[1] - antes[1]) / sesiones);
+        System.out.printf("  heap:   %d -> %d MB (%d KB/conexión)%n", antes[2] / 1024, despues[2] / 1024, (despues[2] - antes[2]) / sesiones);
+        System.out.printf("  ida y vuelta MSG->SENT (%d): p50 %d us, p99 %d us, máx %d us%n", idaVuelta.count(),
+                idaVuelta.percentile(0.50) / 1000, idaVuelta.percentile(0.99) / 1000, idaVuelta.maxNanos() / 1000);
+
+        send(out, "QUIT");
+        for (Socket s : inactivos) s.close();
+        medidor.close();
+        server.close();
+    }
+
+    // hilos del proceso, RSS (KB) y heap usado tras un GC (KB)
+    private static long[] sample() throws Exception {
+        System.gc();
+        Thread.sleep(200);
+        long hilos = 0, rss = 0;
+        for (String l : Files.readAllLines(Path.of("/proc/self/status"))) {
+            if (l.startsWith("Threads:")) hilos = Long.parseLong(l.substring(8).trim());
+            if (l.startsWith("VmRSS:")) rss = Long.parseLong(l.substring(6).replace("kB", "").trim());
+        }
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024;
+        return new long[]{hilos, rss, heap};
+    }
+
+    private static void send(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // descarta lo que llegue antes (MSGFROM, USERS...) hasta la línea con ese verbo
+    private static void expect(BufferedReader in, String verb) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(verb) || line.startsWith(verb + " ")) return;
+            if (line.startsWith("ERROR")) throw new IllegalStateException("esperando " + verb + ": " + line);
+        }
+        throw new IOException("conexión cerrada esperando " + verb);
+    }
+
+    // una línea sin BufferedReader: las sesiones inactivas no guardan más estado que el socket
+    private static String readLine(Socket s) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = s.getInputStream().read()) >= 0 && b != '\n') sb.append((char) b);
+        return sb.toString();
+    }
+
+    /** Filas de mensajes en memoria: sólo ids crecientes. */
+    static final class MemoryMessageDao implements MessageDao {
+        private final AtomicLong ids = new AtomicLong();
+
+        @Override
+        public long insertMessage(MessageRecord m) { return ids.incrementAndGet(); }
+
+        @Override
+        public List<MessageRecord> findBetweenUsers(long userAId, long userBId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findForUser(long userId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findConversationBefore(long userId, long peerId, long beforeId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findConversationAfter(long userId, long peerId, long afterId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findForUserAfter(long userId, long afterId, int limit) { return List.of(); }
+
+        @Override
+        public boolean hasArchivoAccess(long userId, long archivoId) { return false; }
+
+        @Override
+        public void ensureTables() {}
+    }
+
+    /** Sin archivos: el harness no sube ninguno. */
+    static final class MemoryArchivoDao implements ArchivoDao {
+        @Override
+        public long insertArchivo(String filename, String path, long size, Long propietarioId) { return -1L; }
+
+        @Override
+        public ArchivoInfo findById(long id) { return null; }
+
+        @Override
+        public long countByPath(String path) { return 0L; }
+    }
+}
@@ -0,0 +1,85 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.server.ProtocolMessage.Verb;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lectura de un comando del cliente: la cadena de startsWith + split("\\|", 3) que usaba ClientWorker
+ * frente a ProtocolMessage.parseV1 + búsqueda en la tabla de verbos (lo que hace hoy), y decodeV2 para
+ * el mismo mensaje llegado como frame binario.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolParseBenchmark {
+
+    @Param({"MSG", "LOGIN", "FILE_HDR", "HISTORY"})
+    public String command;
+
+    private String line;
+    private int v2Type;
+    private ByteBuffer v2Payload;
+    // misma forma que ClientWorker.COMMANDS
+    private final Map<Verb, Integer> commands = new EnumMap<>(Verb.class);
+
+    @Setup
+    public void setup() throws Exception {
+        line = switch (command) {
+            case "MSG" -> "MSG ALL|hola a todos, ¿qué tal va la prueba de carga? | con barra";
+            case "LOGIN" -> "LOGIN 42|usuario_prueba|e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+            case "FILE_HDR" -> "FILE_HDR ana|informe final.pdf|1048576|9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08|";
+            default -> "HISTORY ana|before|123456|50";
+        };
+        for (Verb v : Verb.values()) commands.put(v, v.ordinal());
+        ByteBuffer frame = ProtocolMessage.parseV1(line).encode(ProtocolMessage.V2);
+        v2Type = frame.get(0) & 0xFF;
+        v2Payload = frame.duplicate().position(ProtocolMessage.V2_HEADER).slice();
+        ProtocolMessage check = ProtocolMessage.decodeV2(v2Type, v2Payload.duplicate());
+        if (check.verb() == null || !check.name().equals(command)) throw new IllegalStateException("frame v2 mal construido: " + check);
+    }
+
+    @Benchmark
+    public Object legacySplitDispatch() {
+        String l = line;
+        if (l.startsWith("REGISTER ")) return l.substring(9).split("\\|", 3);
+        if (l.startsWith("LOGIN ")) return l.substring(6).split("\\|", 3);
+        if (l.startsWith("MSG ")) return l.substring(4).split("\\|", 2);
+        if (l.startsWith("FILE ")) return l.substring(5).split("\\|", 3);
+        if (l.startsWith("FILE_HDR ")) return l.substring(9).split("\\|", 5);
+        if (l.startsWith("FILE_DATA ")) return l.substring(10).split("\\|", 3);
+        if (l.startsWith("FILE_CHUNK ")) return l.substring(11).split("\\|", 5);
+        if (l.startsWith("HISTORY ")) return l.substring(8).split("\\|", 4);
+        if (l.startsWith("SYNC ")) return l.substring(5);
+        return null;
+    }
+
+    @Benchmark
+    public Integer parseV1Dispatch() {
+        ProtocolMessage m = ProtocolMessage.parseV1(line);
+        return m.verb() == null ? null : commands.get(m.verb());
+    }
+
+    @Benchmark
+    public Integer decodeV2Dispatch() throws Exception {
+        ProtocolMessage m = ProtocolMessage.decodeV2(v2Type, v2Payload.duplicate());
+        return m.verb() == null ? null : commands.get(m.verb());
+    }
+}
@@ -1,6 +1,7 @@
 package com.proyecto.demo;
 
 import com.proyecto.demo.auth.AuthService;
+import com.proyecto.demo.server.NioTcpServer;
 import com.proyecto.demo.server.TcpServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +24,9 @@ public class DemoApplication implements CommandLineRunner {
 	@Autowired(required = false)
 	private TcpServer tcpServer;
 
+	@Autowired(required = false)
+	private NioTcpServer nioTcpServer;
+
 	@Autowired(required = false)
 	private AuthService authService;
 
@@ -116,6 +120,8 @@ public class DemoApplication implements CommandLineRunner {
 
 		if (tcpServer != null) {
 			log.info("Componente TcpServer activo");
+		} else if (nioTcpServer != null) {
+			log.info("Componente NioTcpServer activo (app.tcp.mode=nio)");
 		} else {
 			log.warn("Componente TcpServer no inyectado");
 		}
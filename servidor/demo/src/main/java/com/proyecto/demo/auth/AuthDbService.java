@@ -6,6 +6,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 @Component
 @Primary
 public class AuthDbService implements AuthService {
@@ -13,16 +15,17 @@ public class AuthDbService implements AuthService {
     private static final Logger log = LoggerFactory.getLogger(AuthDbService.class);
 
     private final UserDao userDao;
+    // serializa sólo la secuencia comprobar-existe + insertar del registro. ReentrantLock en lugar de
+    // synchronized para no fijar (pin) el hilo portador cuando se ejecuta en hilos virtuales.
+    private final ReentrantLock registerLock = new ReentrantLock();
 
     public AuthDbService(UserDao userDao) {
         this.userDao = userDao;
     }
 
     @Override
-    public synchronized boolean register(String id, String usuario, String password) throws Exception {
+    public boolean register(String id, String usuario, String password) throws Exception {
         if (usuario == null || password == null) return false;
-        var existing = userDao.findByUsername(usuario);
-        if (existing.isPresent()) return false;
         String hash = DigestUtils.sha256Hex(password);
         Long lid = null;
         try {
@@ -31,14 +34,23 @@ public class AuthDbService implements AuthService {
             log.warn("ID de registro no numérico: {}", id);
             return false;
         }
-        boolean ok = userDao.createUser(lid, usuario, hash);
-        if (ok) log.info("Usuario '{}' (id={}) registrado en DB", usuario, lid);
-        else log.warn("Fallo al insertar usuario '{}' en DB", usuario);
-        return ok;
+        registerLock.lock();
+        try {
+            var existing = userDao.findByUsername(usuario);
+            if (existing.isPresent()) return false;
+            boolean ok = userDao.createUser(lid, usuario, hash);
+            // el "no existe" de la comprobación anterior (o de un login previo con ese id) ya no vale
+            userDao.invalidate(lid, usuario);
+            if (ok) log.info("Usuario '{}' (id={}) registrado en DB", usuario, lid);
+            else log.warn("Fallo al insertar usuario '{}' en DB", usuario);
+            return ok;
+        } finally {
+            registerLock.unlock();
+        }
     }
 
     @Override
-    public synchronized boolean login(String id, String usuario, String password) throws Exception {
+    public boolean login(String id, String usuario, String password) throws Exception {
         if (id == null || usuario == null || password == null) return false;
         Long lid = null;
         try { lid = Long.parseLong(id); } catch (NumberFormatException nfe) { log.warn("Login intent with non-numeric id: {}", id); return false; }
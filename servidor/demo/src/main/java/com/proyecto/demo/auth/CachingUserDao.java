@@ -0,0 +1,324 @@
+package com.proyecto.demo.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Directorio de usuarios en memoria delante de JdbcUserDao: cada MSG, archivo o página de historial
+ * resuelve nombres e ids, y con la caché caliente un mensaje normal no consulta la BD.
+ *
+ * Índice en los dos sentidos (id -> usuario y nombre -> id) con tamaño máximo (app.users.cache.maxEntries,
+ * se expulsa el menos usado) y caducidad (app.users.cache.ttlSeconds). Los nombres e ids que no existen
+ * se recuerdan durante app.users.cache.negativeTtlSeconds para que un destinatario mal escrito no vaya
+ * a la BD en cada mensaje; register() los invalida con invalidate() al crear el usuario.
+ */
+@Repository
+@Primary
+public class CachingUserDao implements UserDao {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserDao.class);
+
+    @Value("${app.users.cache.maxEntries:10000}")
+    private int maxEntries = 10000;
+
+    @Value("${app.users.cache.ttlSeconds:600}")
+    private long ttlSeconds = 600;
+
+    @Value("${app.users.cache.negativeTtlSeconds:30}")
+    private long negativeTtlSeconds = 30;
+
+    private final UserDao delegate;
+    private final LongSupplier clock;
+
+    // usuario cacheado; full = false si sólo se conoce el nombre (vino de findUsernamesByIds, sin hash).
+    // names: claves de idByName que apuntan a esta entrada, para quitarlas al expulsarla
+    private record Entry(UserDto user, boolean full, long expiresAt, List<String> names) {}
+
+    // LinkedHashMap en orden de acceso: el primero es el menos usado. Todo bajo lock (ReentrantLock y no
+    // synchronized para no fijar hilos virtuales); las consultas a la BD se hacen fuera.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry> byId = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, Long> idByName = new HashMap<>();
+    // búsquedas sin resultado -> instante en que caducan
+    private final LinkedHashMap<String, Long> missingNames = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<Long, Long> missingIds = new LinkedHashMap<>(64, 0.75f, true);
+    // sube en cada invalidación: un "no existe" leído antes no se guarda después
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @Autowired
+    public CachingUserDao(@Qualifier("jdbcUserDao") UserDao delegate) {
+        this(delegate, System::currentTimeMillis);
+    }
+
+    CachingUserDao(UserDao delegate, LongSupplier clock) {
+        this.delegate = delegate;
+        this.clock = clock;
+    }
+
+    CachingUserDao(UserDao delegate, LongSupplier clock, int maxEntries, long ttlSeconds, long negativeTtlSeconds) {
+        this(delegate, clock);
+        this.maxEntries = maxEntries;
+        this.ttlSeconds = ttlSeconds;
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    @Override
+    public Optional<UserDto> findByUsername(String username) {
+        if (username == null) return Optional.empty();
+        long gen;
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            Long id = idByName.get(username);
+            Entry e = id == null ? null : live(id, now);
+            if (e != null && e.full()) {
+                hits.increment();
+                return Optional.of(copy(e.user()));
+            }
+            Long until = missingNames.get(username);
+            if (until != null) {
+                if (until > now) {
+                    negativeHits.increment();
+                    return Optional.empty();
+                }
+                missingNames.remove(username);
+            }
+            misses.increment();
+            gen = generation;
+        } finally {
+            lock.unlock();
+        }
+        Optional<UserDto> found = delegate.findByUsername(username);
+        lock.lock();
+        try {
+            if (found.isPresent()) {
+                put(found.get(), true, username);
+            } else if (gen == generation) {
+                missingNames.put(username, clock.getAsLong() + negativeTtlSeconds * 1000L);
+                trim(missingNames);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return found.map(CachingUserDao::copy);
+    }
+
+    @Override
+    public Optional<UserDto> findById(Long id) {
+        if (id == null) return Optional.empty();
+        long gen;
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            Entry e = live(id, now);
+            if (e != null && e.full()) {
+                hits.increment();
+                return Optional.of(copy(e.user()));
+            }
+            Long until = missingIds.get(id);
+            if (until != null) {
+                if (until > now) {
+                    negativeHits.increment();
+                    return Optional.empty();
+                }
+                missingIds.remove(id);
+            }
+            misses.increment();
+            gen = generation;
+        } finally {
+            lock.unlock();
+        }
+        Optional<UserDto> found = delegate.findById(id);
+        lock.lock();
+        try {
+            if (found.isPresent()) {
+                put(found.get(), true, null);
+            } else if (gen == generation) {
+                missingIds.put(id, clock.getAsLong() + negativeTtlSeconds * 1000L);
+                trim(missingIds);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return found.map(CachingUserDao::copy);
+    }
+
+    @Override
+    public Map<Long, String> findUsernamesByIds(Collection<Long> ids) {
+        Map<Long, String> out = new HashMap<>();
+        java.util.Set<Long> pending = new java.util.LinkedHashSet<>();
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            for (Long id : ids) {
+                if (id == null || out.containsKey(id)) continue;
+                Entry e = live(id, now);
+                if (e != null) {
+                    hits.increment();
+                    out.put(id, e.user().getUsername());
+                } else {
+                    Long until = missingIds.get(id);
+                    if (until != null && until > now) {
+                        negativeHits.increment();
+                        continue;
+                    }
+                    misses.increment();
+                    pending.add(id);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (pending.isEmpty()) return out;
+        // los que faltan, en una sola consulta; se guardan sin hash (findById los completará si hace falta)
+        Map<Long, String> loaded = delegate.findUsernamesByIds(pending);
+        lock.lock();
+        try {
+            for (Map.Entry<Long, String> e : loaded.entrySet()) {
+                Entry current = byId.get(e.getKey());
+                if (current == null || !current.full()) put(new UserDto(e.getKey(), e.getValue(), null), false, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+        out.putAll(loaded);
+        return out;
+    }
+
+    @Override
+    public boolean createUser(Long id, String username, String passwordHash) {
+        return delegate.createUser(id, username, passwordHash);
+    }
+
+    @Override
+    public void invalidate(Long id, String username) {
+        lock.lock();
+        try {
+            generation++;
+            if (username != null) {
+                missingNames.remove(username);
+                Long cached = idByName.get(username);
+                if (cached != null) remove(cached);
+            }
+            if (id != null) {
+                missingIds.remove(id);
+                remove(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+        invalidations.increment();
+        log.debug("Caché de usuarios: invalidado id={} usuario='{}'", id, username);
+    }
+
+    // entrada vigente (la caducada se quita); con lock
+    private Entry live(Long id, long now) {
+        Entry e = byId.get(id);
+        if (e == null) return null;
+        if (e.expiresAt() > now) return e;
+        remove(id);
+        return null;
+    }
+
+    // con lock
+    private void put(UserDto user, boolean full, String requestedName) {
+        if (user.getId() == null) return;
+        List<String> names = new ArrayList<>(2);
+        if (user.getUsername() != null) names.add(user.getUsername());
+        // la BD puede comparar sin distinguir mayúsculas: el nombre pedido también apunta al usuario
+        if (requestedName != null && !names.contains(requestedName)) names.add(requestedName);
+        Entry old = byId.get(user.getId());
+        if (old != null && user.getUsername() != null && user.getUsername().equals(old.user().getUsername())) {
+            for (String alias : old.names()) if (!names.contains(alias)) names.add(alias);
+        }
+        remove(user.getId());
+        byId.put(user.getId(), new Entry(copy(user), full, clock.getAsLong() + ttlSeconds * 1000L, names));
+        for (String name : names) {
+            idByName.put(name, user.getId());
+            missingNames.remove(name);
+        }
+        missingIds.remove(user.getId());
+        Iterator<Map.Entry<Long, Entry>> it = byId.entrySet().iterator();
+        while (byId.size() > Math.max(1, maxEntries) && it.hasNext()) {
+            Map.Entry<Long, Entry> eldest = it.next();
+            it.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+            evictions.increment();
+        }
+    }
+
+    // con lock
+    private void remove(Long id) {
+        Entry e = byId.remove(id);
+        if (e != null) unindex(id, e);
+    }
+
+    // quita del índice de nombres lo que apunta a ese id (incluidos los alias pedidos)
+    private void unindex(Long id, Entry e) {
+        for (String name : e.names()) idByName.remove(name, id);
+    }
+
+    private <K> void trim(LinkedHashMap<K, Long> negatives) {
+        Iterator<K> it = negatives.keySet().iterator();
+        while (negatives.size() > Math.max(1, maxEntries) && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static UserDto copy(UserDto u) {
+        return new UserDto(u.getId(), u.getUsername(), u.getPasswordHash());
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
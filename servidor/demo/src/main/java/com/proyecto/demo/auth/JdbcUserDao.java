@@ -11,6 +11,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Optional;
 import java.sql.ResultSetMetaData;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Repository
 public class JdbcUserDao implements UserDao {
@@ -19,6 +20,17 @@ public class JdbcUserDao implements UserDao {
 
     private final JdbcTemplate jdbc;
 
+    // latencia por operación (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private com.proyecto.demo.dao.DaoStats daoStats;
+
+    private void timed(String op, long t0) {
+        if (daoStats != null) daoStats.record(op, System.nanoTime() - t0);
+    }
+
+    // ids por consulta IN (...)
+    private static final int IN_BATCH = 500;
+
     public JdbcUserDao(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
@@ -48,9 +60,20 @@ public class JdbcUserDao implements UserDao {
 
     // revisa 'nombre' o 'nombre_usuario'
     private volatile String usernameColumn = null;
+    private final ReentrantLock detectLock = new ReentrantLock();
 
-    private synchronized void detectUsernameColumn() {
+    private void detectUsernameColumn() {
+        // camino rápido sin lock: se llama en cada búsqueda de usuario
         if (usernameColumn != null) return;
+        detectLock.lock();
+        try {
+            if (usernameColumn == null) detectUsernameColumnLocked();
+        } finally {
+            detectLock.unlock();
+        }
+    }
+
+    private void detectUsernameColumnLocked() {
         try {
             jdbc.query(conn -> conn.prepareStatement("SELECT * FROM usuarios LIMIT 1"), (ResultSet rs) -> {
                 ResultSetMetaData md = rs.getMetaData();
@@ -70,6 +93,15 @@ public class JdbcUserDao implements UserDao {
 
     @Override
     public Optional<UserDto> findByUsername(String username) {
+        long t0 = System.nanoTime();
+        try {
+            return queryByUsername(username);
+        } finally {
+            timed("UserDao.findByUsername", t0);
+        }
+    }
+
+    private Optional<UserDto> queryByUsername(String username) {
         detectUsernameColumn();
         String col = usernameColumn;
         String sql = "SELECT id, " + col + " as uname, contrasena_hash FROM usuarios WHERE " + col + " = ?";
@@ -114,6 +146,15 @@ public class JdbcUserDao implements UserDao {
     
     @Override
     public Optional<UserDto> findById(Long id) {
+        long t0 = System.nanoTime();
+        try {
+            return queryById(id);
+        } finally {
+            timed("UserDao.findById", t0);
+        }
+    }
+
+    private Optional<UserDto> queryById(Long id) {
         detectUsernameColumn();
         String col = usernameColumn;
         String sql = "SELECT id, " + col + " as uname, contrasena_hash FROM usuarios WHERE id = ?";
@@ -151,8 +192,47 @@ public class JdbcUserDao implements UserDao {
         }
     }
 
+    @Override
+    public java.util.Map<Long, String> findUsernamesByIds(java.util.Collection<Long> ids) {
+        long t0 = System.nanoTime();
+        try {
+            return queryUsernamesByIds(ids);
+        } finally {
+            timed("UserDao.findUsernamesByIds", t0);
+        }
+    }
+
+    private java.util.Map<Long, String> queryUsernamesByIds(java.util.Collection<Long> ids) {
+        java.util.Map<Long, String> out = new java.util.HashMap<>();
+        java.util.List<Long> all = new java.util.ArrayList<>(new java.util.LinkedHashSet<>(ids));
+        all.remove(null);
+        detectUsernameColumn();
+        // por bloques para no pasar del límite de parámetros del driver
+        for (int from = 0; from < all.size(); from += IN_BATCH) {
+            java.util.List<Long> part = all.subList(from, Math.min(all.size(), from + IN_BATCH));
+            String marks = String.join(",", java.util.Collections.nCopies(part.size(), "?"));
+            try {
+                jdbc.query("SELECT id, " + usernameColumn + " as uname FROM usuarios WHERE id IN (" + marks + ")",
+                        (ResultSet rs) -> { out.put(rs.getLong("id"), rs.getString("uname")); }, part.toArray());
+            } catch (Exception e) {
+                log.warn("JdbcUserDao.findUsernamesByIds: fallo usando '{}' - {}; se resuelven uno a uno", usernameColumn, e.getMessage());
+                for (Long id : part) queryById(id).ifPresent(u -> out.put(id, u.getUsername()));
+            }
+        }
+        return out;
+    }
+
     @Override
     public boolean createUser(Long id, String username, String passwordHash) {
+        long t0 = System.nanoTime();
+        try {
+            return insertUser(id, username, passwordHash);
+        } finally {
+            timed("UserDao.createUser", t0);
+        }
+    }
+
+    private boolean insertUser(Long id, String username, String passwordHash) {
         try {
             detectUsernameColumn();
             String col = usernameColumn == null ? "nombre" : usernameColumn;
@@ -5,6 +5,20 @@ import java.util.Optional;
 public interface UserDao {
     Optional<UserDto> findByUsername(String username);
     Optional<UserDto> findById(Long id);
+    /**
+     * Nombres de varios usuarios de una vez (id -> nombre); los ids que no existen no aparecen.
+     * Por defecto uno a uno: las implementaciones con BD lo resuelven en una sola consulta.
+     */
+    default java.util.Map<Long, String> findUsernamesByIds(java.util.Collection<Long> ids) {
+        java.util.Map<Long, String> out = new java.util.HashMap<>();
+        for (Long id : ids) findById(id).ifPresent(u -> out.put(id, u.getUsername()));
+        return out;
+    }
+    /**
+     * Olvida lo que se tenga guardado de ese id o nombre (p. ej. un "no existe") tras crear o cambiar un usuario.
+     * Sólo hace algo en las implementaciones con caché.
+     */
+    default void invalidate(Long id, String username) {}
     /**
      * Crea un usuario con un id opcional (si id es null se debe fallar en este proyecto porque no queremos auto_increment).
      */
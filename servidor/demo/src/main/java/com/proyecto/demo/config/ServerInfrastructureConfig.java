@@ -1,10 +1,23 @@
 package com.proyecto.demo.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Configuración de beans de infraestructura para el servidor TCP.
@@ -13,12 +26,82 @@ import java.util.concurrent.Executors;
 @Configuration
 public class ServerInfrastructureConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(ServerInfrastructureConfig.class);
+
+    // cached = pool de plataforma que crece sin límite (comportamiento original)
+    // bounded = pool de plataforma fijo (app.tcp.executor.maxThreads) con una cola de queueCapacity tareas;
+    //           lo que no cabe se rechaza y quien lo envió cierra su conexión (TcpServer, NioConnection)
+    // virtual = un hilo virtual por tarea (Java 21)
+    @Value("${app.tcp.executor:cached}")
+    private String executorType;
+
+    @Value("${app.tcp.executor.maxThreads:200}")
+    private int maxThreads;
+
+    // tareas que esperan hilo en modo bounded (0 = ninguna). En modo blocking cada conexión ocupa un hilo
+    // mientras dura: la que espera en cola no recibe ni el WELCOME hasta que otra se desconecta
+    @Value("${app.tcp.executor.queueCapacity:100}")
+    private int queueCapacity;
+
     /**
-     * Crea un ExecutorService con un pool de threads que crece dinámicamente.
-     * Se usa para manejar las conexiones de clientes de forma concurrente.
+     * Crea el ExecutorService que atiende a los clientes (un ClientWorker por conexión en modo bloqueante,
+     * o las líneas recibidas en modo NIO). La estrategia se elige con app.tcp.executor.
      */
     @Bean(destroyMethod = "shutdown")
+    @Primary
     public ExecutorService executorService() {
-        return Executors.newCachedThreadPool();
+        String type = executorType == null ? "cached" : executorType.trim().toLowerCase();
+        switch (type) {
+            case "virtual":
+                log.info("Executor de clientes: hilos virtuales (uno por tarea)");
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cliente-vt-", 0).factory());
+            case "bounded": {
+                int n = Math.max(1, maxThreads);
+                log.info("Executor de clientes: pool de plataforma acotado ({} hilos, cola de {})", n, Math.max(0, queueCapacity));
+                BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+                ThreadPoolExecutor tpe = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS,
+                        queue, namedFactory("cliente-worker-"), rejectAndLog());
+                tpe.allowCoreThreadTimeOut(true);
+                return tpe;
+            }
+            case "cached":
+                log.info("Executor de clientes: pool de plataforma cacheado (sin límite)");
+                return Executors.newCachedThreadPool(namedFactory("cliente-worker-"));
+            default:
+                log.warn("app.tcp.executor='{}' no reconocido; usando 'cached'", executorType);
+                return Executors.newCachedThreadPool(namedFactory("cliente-worker-"));
+        }
+    }
+
+    /**
+     * Executor de las tareas que vacían las colas de salida en modo bloqueante (ver ClientSessionFactory).
+     * Sigue la misma estrategia de hilos: virtuales con app.tcp.executor=virtual, de plataforma en otro caso.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService outboundExecutor() {
+        if ("virtual".equalsIgnoreCase(executorType == null ? "" : executorType.trim())) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cliente-writer-vt-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(namedFactory("cliente-writer-"));
+    }
+
+    // avisa una vez por rechazo y lanza RejectedExecutionException: la conexión la cierra quien envió la tarea
+    private static RejectedExecutionHandler rejectAndLog() {
+        return (task, pool) -> {
+            if (!pool.isShutdown()) {
+                log.warn("Pool de clientes lleno ({} hilos ocupados, {} en cola): se rechaza una tarea",
+                        pool.getActiveCount(), pool.getQueue().size());
+            }
+            throw new RejectedExecutionException("pool de clientes lleno");
+        };
+    }
+
+    private static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        };
     }
 }
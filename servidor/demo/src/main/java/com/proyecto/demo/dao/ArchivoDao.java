@@ -3,6 +3,22 @@ package com.proyecto.demo.dao;
 public interface ArchivoDao {
     long insertArchivo(String filename, String path, long size, Long propietarioId);
     ArchivoInfo findById(long id);
+    // varios archivos de una vez (id -> info); por defecto uno a uno
+    default java.util.Map<Long, ArchivoInfo> findByIds(java.util.Collection<Long> ids) {
+        java.util.Map<Long, ArchivoInfo> out = new java.util.HashMap<>();
+        for (Long id : ids) {
+            ArchivoInfo a = id == null ? null : findById(id);
+            if (a != null) out.put(id, a);
+        }
+        return out;
+    }
+    // filas que apuntan a esa ruta (si es 0, un contenido del ContentStore sin enviar puede borrarse)
+    long countByPath(String path);
+    // si el usuario subió, envió o recibió algún archivo guardado en esa ruta (permiso para reutilizar el
+    // contenido sin subirlo); por defecto no, y se pide la subida
+    default boolean hasAccessByPath(long userId, String path) {
+        return false;
+    }
 
     public static class ArchivoInfo {
         public long id;
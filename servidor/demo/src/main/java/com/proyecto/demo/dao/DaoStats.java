@@ -0,0 +1,30 @@
+package com.proyecto.demo.dao;
+
+import com.proyecto.demo.server.LatencyHistogram;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencia de las operaciones de los DAO JDBC (mensajes, archivos, usuarios, sesiones), un histograma
+ * por operación ("MessageDao.insertMessages", "UserDao.findById"...). Cada operación crea su histograma
+ * la primera vez; después record() es una lectura del mapa y un incremento atómico.
+ */
+@Component
+public class DaoStats {
+
+    private final Map<String, LatencyHistogram> byOp = new ConcurrentHashMap<>();
+
+    public void record(String op, long nanos) {
+        LatencyHistogram h = byOp.get(op);
+        if (h == null) h = byOp.computeIfAbsent(op, k -> new LatencyHistogram());
+        h.record(nanos);
+    }
+
+    /** Operación -> histograma, en orden alfabético. */
+    public Map<String, LatencyHistogram> histograms() {
+        return new TreeMap<>(byOp);
+    }
+}
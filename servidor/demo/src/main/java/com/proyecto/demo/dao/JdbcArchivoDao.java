@@ -14,6 +14,16 @@ import org.springframework.dao.DataAccessException;
 public class JdbcArchivoDao implements ArchivoDao {
     private final JdbcTemplate jdbc;
     private static final Logger log = LoggerFactory.getLogger(JdbcArchivoDao.class);
+    // ids por consulta IN (...)
+    private static final int IN_BATCH = 500;
+
+    // latencia por operación (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private DaoStats daoStats;
+
+    private void timed(String op, long t0) {
+        if (daoStats != null) daoStats.record(op, System.nanoTime() - t0);
+    }
 
     public JdbcArchivoDao(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
@@ -58,6 +68,15 @@ public class JdbcArchivoDao implements ArchivoDao {
 
     @Override
     public long insertArchivo(String filename, String path, long size, Long propietarioId) {
+        long t0 = System.nanoTime();
+        try {
+            return insertWithDetectedColumns(filename, path, size, propietarioId);
+        } finally {
+            timed("ArchivoDao.insertArchivo", t0);
+        }
+    }
+
+    private long insertWithDetectedColumns(String filename, String path, long size, Long propietarioId) {
         // Try the detected column names first, then fall back to known variants if insert fails.
         String[] filenameCandidates = new String[] { filenameColumn, "nombre", "nombre_original" };
         String[] pathCandidates = new String[] { pathColumn, "ruta", "nombre_almacenado" };
@@ -97,8 +116,29 @@ public class JdbcArchivoDao implements ArchivoDao {
         return -1L;
     }
 
+    private final org.springframework.jdbc.core.RowMapper<ArchivoInfo> infoMapper = (rs, rn) -> {
+        ArchivoInfo a = new ArchivoInfo();
+        a.id = rs.getLong("id");
+        try { a.filename = rs.getString("filename"); } catch (Exception ign) { a.filename = null; }
+        try { a.path = rs.getString("path"); } catch (Exception ign) { a.path = null; }
+        try { a.size = rs.getLong("size"); } catch (Exception ign) { a.size = 0L; }
+        java.sql.Timestamp ts = null;
+        try { ts = rs.getTimestamp("creado_en"); } catch (Exception ignore) { ts = null; }
+        if (ts != null) a.creadoEn = ts.toLocalDateTime();
+        return a;
+    };
+
     @Override
     public ArchivoInfo findById(long id) {
+        long t0 = System.nanoTime();
+        try {
+            return selectById(id);
+        } finally {
+            timed("ArchivoDao.findById", t0);
+        }
+    }
+
+    private ArchivoInfo selectById(long id) {
         // Try a couple of SELECT variants to support schema differences (creado_en vs subido_en, filename/path column names)
         String[] selects = new String[] {
                 "SELECT id, " + filenameColumn + " as filename, " + pathColumn + " as path, tamano as size, COALESCE(creado_en, subido_en) AS creado_en FROM archivos WHERE id = ?",
@@ -110,17 +150,7 @@ public class JdbcArchivoDao implements ArchivoDao {
                 return jdbc.queryForObject(
                         select,
                         new Object[]{id},
-                        (rs, rn) -> {
-                            ArchivoInfo a = new ArchivoInfo();
-                            a.id = rs.getLong("id");
-                            try { a.filename = rs.getString("filename"); } catch (Exception ign) { a.filename = null; }
-                            try { a.path = rs.getString("path"); } catch (Exception ign) { a.path = null; }
-                            try { a.size = rs.getLong("size"); } catch (Exception ign) { a.size = 0L; }
-                            java.sql.Timestamp ts = null;
-                            try { ts = rs.getTimestamp("creado_en"); } catch (Exception ignore) { ts = null; }
-                            if (ts != null) a.creadoEn = ts.toLocalDateTime();
-                            return a;
-                        }
+                        infoMapper
                 );
             } catch (Exception e) {
                 log.debug("findById: select failed with SQL [{}]: {}", select, e.getMessage());
@@ -128,4 +158,63 @@ public class JdbcArchivoDao implements ArchivoDao {
         }
         return null;
     }
+
+    @Override
+    public java.util.Map<Long, ArchivoInfo> findByIds(java.util.Collection<Long> ids) {
+        long t0 = System.nanoTime();
+        try {
+            return selectByIds(ids);
+        } finally {
+            timed("ArchivoDao.findByIds", t0);
+        }
+    }
+
+    private java.util.Map<Long, ArchivoInfo> selectByIds(java.util.Collection<Long> ids) {
+        java.util.Map<Long, ArchivoInfo> out = new java.util.HashMap<>();
+        java.util.List<Long> all = new java.util.ArrayList<>(new java.util.LinkedHashSet<>(ids));
+        all.remove(null);
+        for (int from = 0; from < all.size(); from += IN_BATCH) {
+            java.util.List<Long> part = all.subList(from, Math.min(all.size(), from + IN_BATCH));
+            String where = " FROM archivos WHERE id IN (" + String.join(",", java.util.Collections.nCopies(part.size(), "?")) + ")";
+            // mismas variantes de esquema que findById
+            String[] selects = new String[] {
+                    "SELECT id, " + filenameColumn + " as filename, " + pathColumn + " as path, tamano as size, COALESCE(creado_en, subido_en) AS creado_en" + where,
+                    "SELECT id, " + filenameColumn + " as filename, " + pathColumn + " as path, tamano as size, creado_en" + where,
+                    "SELECT id, " + filenameColumn + " as filename, " + pathColumn + " as path, tamano as size" + where
+            };
+            for (String select : selects) {
+                try {
+                    for (ArchivoInfo a : jdbc.query(select, infoMapper, part.toArray())) out.put(a.id, a);
+                    break;
+                } catch (Exception e) {
+                    log.debug("findByIds: select failed with SQL [{}]: {}", select, e.getMessage());
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public long countByPath(String path) {
+        long t0 = System.nanoTime();
+        try {
+            Long n = jdbc.queryForObject("SELECT COUNT(*) FROM archivos WHERE " + pathColumn + " = ?", Long.class, path);
+            return n == null ? 0L : n;
+        } finally {
+            timed("ArchivoDao.countByPath", t0);
+        }
+    }
+
+    @Override
+    public boolean hasAccessByPath(long userId, String path) {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT COUNT(*) FROM archivos a WHERE a." + pathColumn + " = ? AND (a.propietario_id = ?"
+                    + " OR EXISTS (SELECT 1 FROM mensajes m WHERE m.archivo_id = a.id AND (m.emisor_id = ? OR m.receptor_id = ?)))";
+            Long n = jdbc.queryForObject(sql, Long.class, path, userId, userId, userId);
+            return n != null && n > 0;
+        } finally {
+            timed("ArchivoDao.hasAccessByPath", t0);
+        }
+    }
 }
@@ -16,6 +16,15 @@ import org.springframework.dao.DataAccessException;
 public class JdbcMessageDao implements MessageDao {
 
     private final JdbcTemplate jdbc;
+
+    // latencia por operación (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private DaoStats daoStats;
+
+    private void timed(String op, long t0) {
+        if (daoStats != null) daoStats.record(op, System.nanoTime() - t0);
+    }
+
     private static final Logger log = LoggerFactory.getLogger(JdbcMessageDao.class);
 
     public JdbcMessageDao(JdbcTemplate jdbc) {
@@ -81,26 +90,45 @@ public class JdbcMessageDao implements MessageDao {
         }
     }
 
+    // filas por INSERT multi-fila (6 parámetros cada una: muy por debajo del límite de los drivers)
+    private static final int ROWS_PER_INSERT = 500;
+
+    // INSERT de rows filas: "VALUES (...),(...),..."
+    private String insertSql(int rows) {
+        String cols = hasSesionColumn ? "emisor_id,receptor_id," + tipoColumn + ",contenido,archivo_id,sesion_id" : "emisor_id,receptor_id," + tipoColumn + ",contenido,archivo_id";
+        String row = hasSesionColumn ? "(?,?,?,?,?,?)" : "(?,?,?,?,?)";
+        return "INSERT INTO mensajes (" + cols + ") VALUES " + String.join(",", java.util.Collections.nCopies(rows, row));
+    }
+
+    // parámetros de una fila a partir de idx; devuelve el siguiente índice libre
+    private int bindInsert(java.sql.PreparedStatement ps, int idx, MessageRecord m) throws SQLException {
+        ps.setLong(idx++, m.getEmisorId());
+        ps.setLong(idx++, m.getReceptorId());
+        ps.setString(idx++, m.getTipoMensaje() == null ? "TEXTO" : m.getTipoMensaje());
+        if (m.getContenido() != null) ps.setString(idx++, m.getContenido()); else ps.setNull(idx++, Types.VARCHAR);
+        if (m.getArchivoId() != null) ps.setLong(idx++, m.getArchivoId()); else ps.setNull(idx++, Types.BIGINT);
+        if (hasSesionColumn) {
+            if (m.getSesionId() != null) ps.setString(idx++, m.getSesionId()); else ps.setNull(idx++, Types.VARCHAR);
+        }
+        return idx;
+    }
+
     @Override
     public long insertMessage(MessageRecord m) {
-        String sql;
-        if (hasSesionColumn) {
-            sql = "INSERT INTO mensajes (emisor_id,receptor_id," + tipoColumn + ",contenido,archivo_id,sesion_id) VALUES (?,?,?,?,?,?)";
-        } else {
-            sql = "INSERT INTO mensajes (emisor_id,receptor_id," + tipoColumn + ",contenido,archivo_id) VALUES (?,?,?,?,?)";
+        long t0 = System.nanoTime();
+        try {
+            return insertOne(m);
+        } finally {
+            timed("MessageDao.insertMessage", t0);
         }
+    }
+
+    private long insertOne(MessageRecord m) {
+        String sql = insertSql(1);
         var keyHolder = new org.springframework.jdbc.support.GeneratedKeyHolder();
         org.springframework.jdbc.core.PreparedStatementCreator psc = conn -> {
             var ps = conn.prepareStatement(sql, new String[]{"id"});
-            int idx = 1;
-            ps.setLong(idx++, m.getEmisorId());
-            ps.setLong(idx++, m.getReceptorId());
-            ps.setString(idx++, m.getTipoMensaje() == null ? "TEXTO" : m.getTipoMensaje());
-            if (m.getContenido() != null) ps.setString(idx++, m.getContenido()); else ps.setNull(idx++, Types.VARCHAR);
-            if (m.getArchivoId() != null) ps.setLong(idx++, m.getArchivoId()); else ps.setNull(idx++, Types.BIGINT);
-            if (hasSesionColumn) {
-                if (m.getSesionId() != null) ps.setString(idx++, m.getSesionId()); else ps.setNull(idx++, Types.VARCHAR);
-            }
+            bindInsert(ps, 1, m);
             return ps;
         };
         try {
@@ -114,6 +142,61 @@ public class JdbcMessageDao implements MessageDao {
         }
     }
 
+    @Override
+    public long[] insertMessages(List<MessageRecord> batch) {
+        long t0 = System.nanoTime();
+        try {
+            return insertBatch(batch);
+        } finally {
+            timed("MessageDao.insertMessages", t0);
+        }
+    }
+
+    private long[] insertBatch(List<MessageRecord> batch) {
+        long[] ids = new long[batch.size()];
+        java.util.Arrays.fill(ids, -1L);
+        if (batch.isEmpty()) return ids;
+        if (batch.size() == 1) {
+            ids[0] = insertOne(batch.get(0));
+            return ids;
+        }
+        try {
+            // un INSERT multi-fila por cada ROWS_PER_INSERT filas y un único commit: executeBatch sin
+            // rewriteBatchedStatements seguiría siendo un viaje a la BD por fila
+            jdbc.execute((org.springframework.jdbc.core.ConnectionCallback<Void>) conn -> {
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    for (int from = 0; from < batch.size(); from += ROWS_PER_INSERT) {
+                        int to = Math.min(batch.size(), from + ROWS_PER_INSERT);
+                        try (var ps = conn.prepareStatement(insertSql(to - from), new String[]{"id"})) {
+                            int idx = 1;
+                            for (int i = from; i < to; i++) idx = bindInsert(ps, idx, batch.get(i));
+                            ps.executeUpdate();
+                            // ids en el orden de las filas (MySQL: consecutivos desde el primero; Postgres: RETURNING)
+                            try (ResultSet keys = ps.getGeneratedKeys()) {
+                                for (int i = from; i < to && keys.next(); i++) ids[i] = keys.getLong(1);
+                            }
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+                return null;
+            });
+            return ids;
+        } catch (DataAccessException dae) {
+            // una fila inválida no debe perder el resto del lote: se reintenta uno a uno
+            log.error("Error insertando lote de {} mensajes; se reintenta uno a uno: {}", batch.size(), dae.getMessage());
+            for (int i = 0; i < ids.length; i++) ids[i] = insertOne(batch.get(i));
+            return ids;
+        }
+    }
+
     @Override
     public List<MessageRecord> findBetweenUsers(long userAId, long userBId, int limit) {
         String sql = "SELECT m.* FROM mensajes m WHERE (m.emisor_id = ? AND m.receptor_id = ?) OR (m.emisor_id = ? AND m.receptor_id = ?) ORDER BY m.creado_en ASC LIMIT ?";
@@ -122,7 +205,80 @@ public class JdbcMessageDao implements MessageDao {
 
     @Override
     public List<MessageRecord> findForUser(long userId, int limit) {
-        String sql = "SELECT m.* FROM mensajes m WHERE m.emisor_id = ? OR m.receptor_id = ? ORDER BY m.creado_en ASC LIMIT ?";
-        return jdbc.query(sql, new Object[]{userId, userId, limit}, mapper);
+        long t0 = System.nanoTime();
+        try {
+            // los más recientes (no los más antiguos): cada rama usa su índice y sólo lee limit filas
+            String sql = "SELECT * FROM ("
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? ORDER BY m.id DESC LIMIT ?)"
+                    + " UNION "
+                    + "(SELECT m.* FROM mensajes m WHERE m.receptor_id = ? ORDER BY m.id DESC LIMIT ?)"
+                    + ") t ORDER BY t.id DESC LIMIT ?";
+            return ascending(jdbc.query(sql, mapper, userId, limit, userId, limit, limit));
+        } finally {
+            timed("MessageDao.findForUser", t0);
+        }
+    }
+
+    @Override
+    public List<MessageRecord> findConversationBefore(long userId, long peerId, long beforeId, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT * FROM ("
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? AND m.receptor_id = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?)"
+                    + " UNION "
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? AND m.receptor_id = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?)"
+                    + ") t ORDER BY t.id DESC LIMIT ?";
+            return ascending(jdbc.query(sql, mapper, userId, peerId, beforeId, limit, peerId, userId, beforeId, limit, limit));
+        } finally {
+            timed("MessageDao.findConversationBefore", t0);
+        }
+    }
+
+    @Override
+    public List<MessageRecord> findConversationAfter(long userId, long peerId, long afterId, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT * FROM ("
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? AND m.receptor_id = ? AND m.id > ? ORDER BY m.id ASC LIMIT ?)"
+                    + " UNION "
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? AND m.receptor_id = ? AND m.id > ? ORDER BY m.id ASC LIMIT ?)"
+                    + ") t ORDER BY t.id ASC LIMIT ?";
+            return jdbc.query(sql, mapper, userId, peerId, afterId, limit, peerId, userId, afterId, limit, limit);
+        } finally {
+            timed("MessageDao.findConversationAfter", t0);
+        }
+    }
+
+    @Override
+    public List<MessageRecord> findForUserAfter(long userId, long afterId, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            // sólo lo posterior al cursor del cliente: cada rama recorre (receptor_id, id) / (emisor_id, id)
+            String sql = "SELECT * FROM ("
+                    + "(SELECT m.* FROM mensajes m WHERE m.receptor_id = ? AND m.id > ? ORDER BY m.id ASC LIMIT ?)"
+                    + " UNION "
+                    + "(SELECT m.* FROM mensajes m WHERE m.emisor_id = ? AND m.id > ? ORDER BY m.id ASC LIMIT ?)"
+                    + ") t ORDER BY t.id ASC LIMIT ?";
+            return jdbc.query(sql, mapper, userId, afterId, limit, userId, afterId, limit, limit);
+        } finally {
+            timed("MessageDao.findForUserAfter", t0);
+        }
+    }
+
+    private static List<MessageRecord> ascending(List<MessageRecord> newestFirst) {
+        java.util.Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    @Override
+    public boolean hasArchivoAccess(long userId, long archivoId) {
+        long t0 = System.nanoTime();
+        try {
+            String sql = "SELECT COUNT(*) FROM mensajes m WHERE m.archivo_id = ? AND (m.emisor_id = ? OR m.receptor_id = ?)";
+            Long n = jdbc.queryForObject(sql, Long.class, archivoId, userId, userId);
+            return n != null && n > 0;
+        } finally {
+            timed("MessageDao.hasArchivoAccess", t0);
+        }
     }
 }
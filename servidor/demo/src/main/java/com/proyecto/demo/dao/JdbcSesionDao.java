@@ -14,6 +14,14 @@ import java.util.UUID;
 public class JdbcSesionDao {
     private final JdbcTemplate jdbc;
 
+    // latencia por operación (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private DaoStats daoStats;
+
+    private void timed(String op, long t0) {
+        if (daoStats != null) daoStats.record(op, System.nanoTime() - t0);
+    }
+
     public JdbcSesionDao(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
         // Do not execute DDL at runtime; assume DB schema is managed externally
@@ -27,16 +35,26 @@ public class JdbcSesionDao {
     }
 
     public String createSession(long usuarioId, String ip, String token) {
-        String id = UUID.randomUUID().toString();
-        String sql = "INSERT INTO sesiones (id,usuario_id,token,ip) VALUES (?,?,?,?)";
-        jdbc.update(sql, id, usuarioId, token, ip);
-        return id;
+        long t0 = System.nanoTime();
+        try {
+            String id = UUID.randomUUID().toString();
+            String sql = "INSERT INTO sesiones (id,usuario_id,token,ip) VALUES (?,?,?,?)";
+            jdbc.update(sql, id, usuarioId, token, ip);
+            return id;
+        } finally {
+            timed("SesionDao.createSession", t0);
+        }
     }
 
     public void closeSession(String sessionId, Timestamp desconectadoEn, String estado) {
         if (sessionId == null) return;
-        String sql = "UPDATE sesiones SET fecha_fin = ?, estado = ? WHERE id = ?";
-        jdbc.update(sql, desconectadoEn, estado, sessionId);
+        long t0 = System.nanoTime();
+        try {
+            String sql = "UPDATE sesiones SET fecha_fin = ?, estado = ? WHERE id = ?";
+            jdbc.update(sql, desconectadoEn, estado, sessionId);
+        } finally {
+            timed("SesionDao.closeSession", t0);
+        }
     }
 
     public List<SessionInfo> findActiveSessionsByUser(long usuarioId) {
@@ -5,7 +5,21 @@ import java.util.List;
 
 public interface MessageDao {
     long insertMessage(MessageRecord m);
+    // varios mensajes en una sola transacción; ids en el mismo orden (-1 los que no se pudieron guardar)
+    default long[] insertMessages(List<MessageRecord> batch) {
+        long[] ids = new long[batch.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = insertMessage(batch.get(i));
+        return ids;
+    }
     List<MessageRecord> findBetweenUsers(long userAId, long userBId, int limit);
+    // los limit mensajes más recientes en los que participa el usuario, en orden ascendente de id
     List<MessageRecord> findForUser(long userId, int limit);
+    // páginas de la conversación entre dos usuarios por cursor de id (keyset), en orden ascendente de id
+    List<MessageRecord> findConversationBefore(long userId, long peerId, long beforeId, int limit);
+    List<MessageRecord> findConversationAfter(long userId, long peerId, long afterId, int limit);
+    // mensajes del usuario (enviados o recibidos) con id > afterId, en orden ascendente de id (SYNC)
+    List<MessageRecord> findForUserAfter(long userId, long afterId, int limit);
+    // si el usuario envió o recibió algún mensaje con ese archivo (permiso para FILE_GET)
+    boolean hasArchivoAccess(long userId, long archivoId);
     void ensureTables();
 }
@@ -6,6 +6,8 @@ import java.sql.SQLException;
 public interface DatabaseAdapter {
     Connection getConnection() throws SQLException;
     void initDatabase();
+    // crea los índices que falten en una base ya existente (no borra nada); devuelve los creados
+    java.util.List<String> ensureIndexes();
     String getDatabaseType();
     String getServerTime();
 }
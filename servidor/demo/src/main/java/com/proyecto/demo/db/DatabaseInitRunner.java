@@ -83,6 +83,12 @@ public class DatabaseInitRunner {
             } else {
                 UiServerWindow.publishMessageToUi("app.db.initOnStartup=false -> no se ejecuta initDatabase() (previene borrado de tablas)");
             }
+            // bases creadas antes de que existieran algunos índices: se añaden los que falten (no borra nada)
+            var created = adapter.ensureIndexes();
+            if (!created.isEmpty()) {
+                logger.info("Índices creados en la BD existente: {}", created);
+                UiServerWindow.publishMessageToUi("Índices creados: " + String.join(", ", created));
+            }
         } catch (Exception e) {
             logger.error("Error during DB inspection/init: {}", e.getMessage(), e);
             UiServerWindow.publishMessageToUi("No se pudo abrir conexión para inspección: " + e.getMessage());
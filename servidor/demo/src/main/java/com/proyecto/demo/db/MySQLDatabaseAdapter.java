@@ -1,11 +1,31 @@
 package com.proyecto.demo.db;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MySQLDatabaseAdapter implements DatabaseAdapter {
+    private static final Logger log = LoggerFactory.getLogger(MySQLDatabaseAdapter.class);
+
+    // índices añadidos después del esquema inicial (tabla, nombre, columnas): initDatabase los crea con las
+    // tablas, ensureIndexes en bases que ya existían
+    private static final String[][] INDEXES = {
+            {"archivos", "idx_archivos_ruta", "ruta(255)"},
+            {"mensajes", "idx_mensajes_emisor_receptor_id", "emisor_id, receptor_id, id"},
+            {"mensajes", "idx_mensajes_receptor_id", "receptor_id, id"},
+            {"mensajes", "idx_mensajes_emisor_id", "emisor_id, id"},
+    };
+    // ER_DUP_KEYNAME: otro arranque lo creó entre la comprobación y el CREATE INDEX
+    private static final int ER_DUP_KEYNAME = 1061;
+
     private final String url;
     private final String user;
     private final String password;
@@ -33,15 +53,44 @@ public class MySQLDatabaseAdapter implements DatabaseAdapter {
 
             stmt.execute("CREATE TABLE IF NOT EXISTS sesiones (id CHAR(36) PRIMARY KEY, usuario_id BIGINT NOT NULL, token VARCHAR(1024), ip VARCHAR(45) NOT NULL, fecha_inicio DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6), fecha_fin DATETIME(6), estado VARCHAR(20) NOT NULL DEFAULT 'ACTIVA', INDEX idx_sesiones_usuario_ip (usuario_id, ip), CONSTRAINT fk_sesiones_usuario FOREIGN KEY (usuario_id) REFERENCES usuarios(id) ON DELETE CASCADE) ENGINE=InnoDB");
 
-            stmt.execute("CREATE TABLE IF NOT EXISTS archivos (id BIGINT AUTO_INCREMENT PRIMARY KEY, propietario_id BIGINT, nombre VARCHAR(1000) NOT NULL, ruta VARCHAR(2000) NOT NULL, tipo_mime VARCHAR(255), tamano BIGINT, creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6), INDEX idx_archivos_propietario (propietario_id), CONSTRAINT fk_archivos_propietario FOREIGN KEY (propietario_id) REFERENCES usuarios(id) ON DELETE SET NULL) ENGINE=InnoDB");
+            stmt.execute("CREATE TABLE IF NOT EXISTS archivos (id BIGINT AUTO_INCREMENT PRIMARY KEY, propietario_id BIGINT, nombre VARCHAR(1000) NOT NULL, ruta VARCHAR(2000) NOT NULL, tipo_mime VARCHAR(255), tamano BIGINT, creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6), INDEX idx_archivos_propietario (propietario_id), INDEX idx_archivos_ruta (ruta(255)), CONSTRAINT fk_archivos_propietario FOREIGN KEY (propietario_id) REFERENCES usuarios(id) ON DELETE SET NULL) ENGINE=InnoDB");
 
-            stmt.execute("CREATE TABLE IF NOT EXISTS mensajes (id BIGINT AUTO_INCREMENT PRIMARY KEY, emisor_id BIGINT NOT NULL, receptor_id BIGINT NOT NULL, tipo ENUM('TEXTO','ARCHIVO') NOT NULL DEFAULT 'TEXTO', contenido TEXT, archivo_id BIGINT, sesion_id CHAR(36), creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6), INDEX idx_mensajes_emisor_receptor_creado (emisor_id, receptor_id, creado_en), INDEX idx_mensajes_receptor_creado (receptor_id, creado_en), INDEX idx_mensajes_sesion (sesion_id), CONSTRAINT fk_mensajes_emisor FOREIGN KEY (emisor_id) REFERENCES usuarios(id) ON DELETE CASCADE, CONSTRAINT fk_mensajes_receptor FOREIGN KEY (receptor_id) REFERENCES usuarios(id) ON DELETE CASCADE, CONSTRAINT fk_mensajes_archivo FOREIGN KEY (archivo_id) REFERENCES archivos(id) ON DELETE SET NULL, CONSTRAINT fk_mensajes_sesion FOREIGN KEY (sesion_id) REFERENCES sesiones(id) ON DELETE SET NULL) ENGINE=InnoDB");
+            stmt.execute("CREATE TABLE IF NOT EXISTS mensajes (id BIGINT AUTO_INCREMENT PRIMARY KEY, emisor_id BIGINT NOT NULL, receptor_id BIGINT NOT NULL, tipo ENUM('TEXTO','ARCHIVO') NOT NULL DEFAULT 'TEXTO', contenido TEXT, archivo_id BIGINT, sesion_id CHAR(36), creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6), INDEX idx_mensajes_emisor_receptor_creado (emisor_id, receptor_id, creado_en), INDEX idx_mensajes_emisor_receptor_id (emisor_id, receptor_id, id), INDEX idx_mensajes_receptor_creado (receptor_id, creado_en), INDEX idx_mensajes_receptor_id (receptor_id, id), INDEX idx_mensajes_emisor_id (emisor_id, id), INDEX idx_mensajes_sesion (sesion_id), CONSTRAINT fk_mensajes_emisor FOREIGN KEY (emisor_id) REFERENCES usuarios(id) ON DELETE CASCADE, CONSTRAINT fk_mensajes_receptor FOREIGN KEY (receptor_id) REFERENCES usuarios(id) ON DELETE CASCADE, CONSTRAINT fk_mensajes_archivo FOREIGN KEY (archivo_id) REFERENCES archivos(id) ON DELETE SET NULL, CONSTRAINT fk_mensajes_sesion FOREIGN KEY (sesion_id) REFERENCES sesiones(id) ON DELETE SET NULL) ENGINE=InnoDB");
 
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * MySQL no tiene CREATE INDEX IF NOT EXISTS: cada índice se crea sólo si no aparece en
+     * information_schema.statistics, y un 1061 (ya existe) se da por bueno.
+     */
+    @Override
+    public List<String> ensureIndexes() {
+        List<String> created = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement exists = conn.prepareStatement("SELECT 1 FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? LIMIT 1");
+             Statement stmt = conn.createStatement()) {
+            for (String[] idx : INDEXES) {
+                exists.setString(1, idx[0]);
+                exists.setString(2, idx[1]);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (rs.next()) continue;
+                }
+                try {
+                    stmt.execute("CREATE INDEX " + idx[1] + " ON " + idx[0] + " (" + idx[2] + ")");
+                    created.add(idx[1]);
+                } catch (SQLException e) {
+                    if (e.getErrorCode() != ER_DUP_KEYNAME) log.warn("No se pudo crear el índice {} en {}: {}", idx[1], idx[0], e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("No se pudieron comprobar los índices: {}", e.getMessage());
+        }
+        return created;
+    }
+
     @Override
     public String getDatabaseType() {
         return "MySQL";
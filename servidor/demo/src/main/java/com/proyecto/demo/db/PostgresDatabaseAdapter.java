@@ -1,11 +1,31 @@
 package com.proyecto.demo.db;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PostgresDatabaseAdapter implements DatabaseAdapter {
+    private static final Logger log = LoggerFactory.getLogger(PostgresDatabaseAdapter.class);
+
+    // índices añadidos después del esquema inicial (tabla, nombre, columnas)
+    private static final String[][] INDEXES = {
+            // el ContentStore comprueba si alguna fila apunta a un contenido antes de borrarlo
+            {"archivos", "idx_archivos_ruta", "ruta"},
+            // historial por conversación paginado por id (HISTORY)
+            {"mensajes", "idx_mensajes_emisor_receptor_id", "emisor_id, receptor_id, id"},
+            // sincronización incremental por cursor de id (SYNC)
+            {"mensajes", "idx_mensajes_receptor_id", "receptor_id, id"},
+            {"mensajes", "idx_mensajes_emisor_id", "emisor_id, id"},
+    };
+
     private final String url;
     private final String user;
     private final String password;
@@ -40,6 +60,31 @@ public class PostgresDatabaseAdapter implements DatabaseAdapter {
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        ensureIndexes();
+    }
+
+    @Override
+    public List<String> ensureIndexes() {
+        List<String> created = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement exists = conn.prepareStatement("SELECT 1 FROM pg_indexes WHERE schemaname = current_schema() AND indexname = ?");
+             Statement stmt = conn.createStatement()) {
+            for (String[] idx : INDEXES) {
+                exists.setString(1, idx[1]);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (rs.next()) continue;
+                }
+                try {
+                    stmt.execute("CREATE INDEX IF NOT EXISTS " + idx[1] + " ON " + idx[0] + " (" + idx[2] + ")");
+                    created.add(idx[1]);
+                } catch (SQLException e) {
+                    log.warn("No se pudo crear el índice {} en {}: {}", idx[1], idx[0], e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("No se pudieron comprobar los índices: {}", e.getMessage());
+        }
+        return created;
     }
 
     @Override
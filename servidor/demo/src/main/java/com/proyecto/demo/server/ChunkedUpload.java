@@ -0,0 +1,162 @@
+package com.proyecto.demo.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Subida de archivo por trozos (FILE_HDR seguido de FILE_CHUNK transferId|offset|length|data|crc32c).
+ *
+ * Cada trozo se comprueba con CRC32C y se escribe directamente en un archivo temporal ".part" del
+ * ContentStore, así la memoria usada por transferencia no pasa del tamaño de un trozo.
+ * El SHA-256 del archivo se calcula a medida que llegan los trozos y, al recibir el último byte
+ * declarado, se compara con el de la cabecera y el temporal pasa al almacén bajo ese hash.
+ *
+ * La subida sobrevive a la conexión (la guarda PartialUploads por transferId): un cliente que se
+ * reconecta la retoma desde received() sin reenviar lo que ya llegó.
+ */
+class ChunkedUpload {
+
+    private final String transferId;
+    private final String owner;
+    private final String recipient;
+    private final String filename;
+    private final long size;
+    // SHA-256 declarado por el cliente en FILE_HDR (hex, minúsculas); vacío si no lo envió
+    private final String sha256;
+    private final Path temp;
+    private final MessageDigest digest;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private long received = 0L;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    ChunkedUpload(String transferId, String owner, String recipient, String filename, long size, String sha256, Path temp) {
+        this.transferId = transferId;
+        this.owner = owner;
+        this.recipient = recipient;
+        this.filename = filename;
+        this.size = size;
+        this.sha256 = sha256 == null ? "" : sha256.trim().toLowerCase();
+        this.temp = temp;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String transferId() {
+        return transferId;
+    }
+
+    String owner() {
+        return owner;
+    }
+
+    String recipient() {
+        return recipient;
+    }
+
+    String filename() {
+        return filename;
+    }
+
+    long size() {
+        return size;
+    }
+
+    String sha256() {
+        return sha256;
+    }
+
+    long received() {
+        return received;
+    }
+
+    long lastActivity() {
+        return lastActivity;
+    }
+
+    boolean isComplete() {
+        return received == size;
+    }
+
+    /**
+     * Escribe un trozo. Los trozos deben llegar en orden (offset == bytes ya recibidos), sin pasar
+     * del tamaño declarado y con el CRC32C correcto; si no, IllegalArgumentException con el motivo.
+     * Un trozo rechazado no altera lo ya recibido: el cliente puede reenviarlo desde received().
+     */
+    void write(long offset, byte[] data, long crc32c) throws IOException {
+        lock.lock();
+        try {
+            lastActivity = System.currentTimeMillis();
+            if (offset != received) throw new IllegalArgumentException("offset_invalido");
+            if (received + data.length > size) throw new IllegalArgumentException("tamano_excedido");
+            CRC32C crc = new CRC32C();
+            crc.update(data);
+            if (crc.getValue() != crc32c) throw new IllegalArgumentException("crc_invalido");
+            if (channel == null) {
+                // se crea en el primer trozo: un cliente que sigue usando FILE_DATA nunca deja temporales
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long pos = offset;
+            while (buf.hasRemaining()) {
+                pos += channel.write(buf, pos);
+            }
+            digest.update(data);
+            received += data.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra el temporal, comprueba el SHA-256 declarado y lo entrega al almacén (en uso hasta
+     * store.release()). Devuelve la ruta final; IllegalArgumentException("sha256_invalido") si no coincide.
+     */
+    Path commit(ContentStore store) throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                // archivo vacío: no llegó ningún byte
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            channel.force(false);
+            channel.close();
+            channel = null;
+            String actual = HexFormat.of().formatHex(digest.digest());
+            if (!sha256.isEmpty() && !sha256.equals(actual)) {
+                throw new IllegalArgumentException("sha256_invalido");
+            }
+            return store.put(temp, actual);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Descarta la subida y borra el temporal. */
+    void abort() {
+        lock.lock();
+        try {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {}
+            channel = null;
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {}
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.proyecto.demo.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Conexión de un cliente tal como la ve el resto del servidor: dirección remota y cola de salida.
+ *
+ * Todo lo que se envía al cliente (respuestas del propio ClientWorker, mensajes reenviados, USERS...)
+ * pasa por la misma OutboundQueue, así que ningún emisor escribe directamente en el socket ni espera
+ * a que un cliente lento lea. Las instancias se crean en ClientSessionFactory según el modo (bloqueante o NIO).
+ */
+public class ClientSession {
+
+    private final String remote;
+    private final OutboundQueue outbound;
+    private final Runnable closer;
+    // si el servidor acepta "PROTO 2" (app.protocol.v2.enabled)
+    private final boolean v2Allowed;
+    // versión de codificación de salida: 1 = líneas de texto, 2 = frames binarios
+    private volatile int protocolVersion = ProtocolMessage.V1;
+    // el cliente pidió la capacidad "msgid" (CAPS): MSGFROM con id, historial por SYNC y sin eco de ALL
+    private volatile boolean messageIds;
+    // asignados por ConnectedClients al registrar tras el LOGIN
+    private volatile String user;
+    private volatile String ip;
+
+    ClientSession(String remote, OutboundQueue outbound, Runnable closer, boolean v2Allowed) {
+        this.remote = remote;
+        this.outbound = outbound;
+        this.closer = closer;
+        this.v2Allowed = v2Allowed;
+    }
+
+    public int protocolVersion() {
+        return protocolVersion;
+    }
+
+    void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public boolean messageIds() {
+        return messageIds;
+    }
+
+    void setMessageIds(boolean messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    boolean v2Allowed() {
+        return v2Allowed;
+    }
+
+    public OutboundQueue outbound() {
+        return outbound;
+    }
+
+    public String remote() {
+        return remote;
+    }
+
+    void bindUser(String user, String ip) {
+        this.user = user;
+        this.ip = ip;
+    }
+
+    public String user() {
+        return user;
+    }
+
+    public String ip() {
+        return ip;
+    }
+
+    /** Encola un frame ya codificado. No bloquea (salvo política BLOCK). */
+    public OutboundQueue.Result send(ByteBuffer frame) {
+        return outbound.offer(frame);
+    }
+
+    /**
+     * Encola un mensaje codificado en la versión de protocolo de esta sesión. El mensaje cachea su
+     * codificación, así que enviarlo a muchas sesiones no lo vuelve a codificar.
+     */
+    public OutboundQueue.Result send(ProtocolMessage msg) {
+        ByteBuffer[] shared = msg.encodeFrames(protocolVersion);
+        if (shared.length == 1) return outbound.offer(shared[0].duplicate());
+        ByteBuffer[] mine = new ByteBuffer[shared.length];
+        for (int i = 0; i < shared.length; i++) mine[i] = shared[i].duplicate();
+        return outbound.offer(mine);
+    }
+
+    /** Cierra la conexión descartando lo pendiente. */
+    public void close() {
+        outbound.close();
+        try { closer.run(); } catch (Exception ignored) {}
+    }
+
+    /** Cierra la conexión tras dar hasta timeoutMs para vaciar la cola (p.ej. BYE tras QUIT). */
+    void closeAfterFlush(long timeoutMs) {
+        outbound.awaitDrained(timeoutMs);
+        close();
+    }
+
+    @Override
+    public String toString() {
+        return "ClientSession[" + remote + ", pendientes=" + outbound.size() + "]";
+    }
+}
@@ -0,0 +1,161 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Crea la ClientSession de cada conexión con su cola de salida configurada
+ * (app.outbound.queueCapacity, app.outbound.overflowPolicy, app.outbound.blockTimeoutMs).
+ *
+ * Modo bloqueante: el drenado corre como tarea en el executor de escritura y vuelca todos los frames
+ * pendientes con una escritura agrupada sobre el SocketChannel (o al stream con un único flush si el
+ * socket no tiene canal). Modo NIO: el drenado lo hace el reactor de la conexión.
+ */
+@Component
+public class ClientSessionFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientSessionFactory.class);
+
+    // frames por tanda de escritura antes de hacer flush
+    private static final int DRAIN_BATCH = 64;
+
+    @Value("${app.outbound.queueCapacity:1024}")
+    private int queueCapacity;
+
+    @Value("${app.outbound.overflowPolicy:disconnect}")
+    private String overflowPolicy;
+
+    @Value("${app.outbound.blockTimeoutMs:2000}")
+    private long blockTimeoutMs;
+
+    // permite a los clientes negociar el protocolo binario v2 tras WELCOME
+    @Value("${app.protocol.v2.enabled:true}")
+    private boolean v2Enabled;
+
+    private final ExecutorService outboundExecutor;
+
+    // mensajes y bytes de salida (los cuenta cada OutboundQueue al drenarse)
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private ServerMetrics metrics;
+
+    public ClientSessionFactory(@Qualifier("outboundExecutor") ExecutorService outboundExecutor) {
+        this.outboundExecutor = outboundExecutor;
+    }
+
+    private OutboundQueue newQueue(String remote) {
+        return new OutboundQueue(remote, queueCapacity, OutboundQueue.parsePolicy(overflowPolicy), blockTimeoutMs);
+    }
+
+    /**
+     * Sesión para un socket bloqueante (TcpServer).
+     */
+    public ClientSession forSocket(Socket socket) throws IOException {
+        String remote = String.valueOf(socket.getRemoteSocketAddress());
+        OutboundQueue queue = newQueue(remote);
+        ClientSession session = new ClientSession(remote, queue, () -> {
+            try { socket.close(); } catch (IOException ignored) {}
+        }, v2Enabled);
+        // con canal (TcpServer acepta desde un ServerSocketChannel) los buffers directos/mapeados
+        // se escriben sin copiarlos al heap
+        Runnable drainer = socket.getChannel() != null
+                ? new ChannelDrainer(queue, socket.getChannel(), session)
+                : new SocketDrainer(queue, new BufferedOutputStream(socket.getOutputStream(), 16 * 1024), session);
+        queue.bind(() -> outboundExecutor.execute(drainer), session::close, metrics);
+        return session;
+    }
+
+    /**
+     * Sesión para una conexión del modo NIO: el drenado se pide al reactor de la conexión.
+     */
+    ClientSession forNio(NioConnection conn) {
+        String remote = String.valueOf(conn.remoteAddress());
+        OutboundQueue queue = newQueue(remote);
+        ClientSession session = new ClientSession(remote, queue, conn::close, v2Enabled);
+        queue.bind(conn::requestFlush, conn::close, metrics);
+        return session;
+    }
+
+    /**
+     * Tarea de drenado del modo bloqueante sobre un SocketChannel en modo bloqueante: escritura agrupada
+     * de todo lo pendiente. Sólo hay una en vuelo por conexión (la garantiza OutboundQueue).
+     */
+    private static final class ChannelDrainer implements Runnable {
+        private final OutboundQueue queue;
+        private final SocketChannel channel;
+        private final ClientSession session;
+
+        ChannelDrainer(OutboundQueue queue, SocketChannel channel, ClientSession session) {
+            this.queue = queue;
+            this.channel = channel;
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            List<ByteBuffer> batch = new ArrayList<>(DRAIN_BATCH);
+            try {
+                do {
+                    while (queue.drainTo(batch, DRAIN_BATCH) > 0) {
+                        ByteBuffer[] srcs = batch.toArray(new ByteBuffer[0]);
+                        ByteBuffer last = srcs[srcs.length - 1];
+                        while (last.hasRemaining()) channel.write(srcs);
+                        batch.clear();
+                    }
+                } while (queue.finishDrain());
+            } catch (IOException e) {
+                log.debug("Error escribiendo a {}: {}", session.remote(), e.toString());
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Tarea de drenado del modo bloqueante para sockets sin canal. Sólo hay una en vuelo por conexión.
+     */
+    private static final class SocketDrainer implements Runnable {
+        private final OutboundQueue queue;
+        private final BufferedOutputStream stream;
+        private final WritableByteChannel channel;
+        private final ClientSession session;
+
+        SocketDrainer(OutboundQueue queue, BufferedOutputStream stream, ClientSession session) {
+            this.queue = queue;
+            this.stream = stream;
+            this.channel = Channels.newChannel(stream);
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            List<ByteBuffer> batch = new ArrayList<>(DRAIN_BATCH);
+            try {
+                do {
+                    while (queue.drainTo(batch, DRAIN_BATCH) > 0) {
+                        for (ByteBuffer b : batch) {
+                            while (b.hasRemaining()) channel.write(b);
+                        }
+                        batch.clear();
+                        stream.flush();
+                    }
+                } while (queue.finishDrain());
+            } catch (IOException e) {
+                log.debug("Error escribiendo a {}: {}", session.remote(), e.toString());
+                session.close();
+            }
+        }
+    }
+}
@@ -11,10 +11,10 @@ import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import com.proyecto.demo.server.ProtocolMessage.Verb;
 // removed unused collections imports after tightening file-extension policy
 import java.io.*;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.Instant;
@@ -37,6 +37,25 @@ public class ClientWorker implements Runnable {
     // configurable limits (injected from application.properties)
     @Value("${app.upload.maxSizeMb:200}")
     private long maxSizeMb;
+    // máximo de un comando sin archivo (MSG, LOGIN, HISTORY...): payload de un frame v2 o línea v1
+    @Value("${app.protocol.maxCommandBytes:1048576}")
+    private int maxCommandBytes = 1024 * 1024;
+
+    // tamaño máximo de cada FILE_CHUNK; se anuncia al cliente en FILE_HDR_STATUS
+    @Value("${app.upload.chunkSizeKb:256}")
+    private int chunkSizeKb;
+
+    // mensajes del historial enviados tras el LOGIN; el resto se pide por páginas con HISTORY
+    private static final int LOGIN_HISTORY = 200;
+    // capacidad (CAPS) de los clientes que llevan su propio cursor de mensajes: MSGFROM id|emisor|texto,
+    // historial con SYNC en vez de la página de LOGIN y sin eco de sus mensajes a ALL
+    static final String CAP_MESSAGE_IDS = "msgid";
+    // pausa máxima por FILE_CHUNK al frenar una subida (el resto de la deuda se paga en los siguientes)
+    private static final long MAX_CHUNK_PAUSE_MS = 1_000L;
+    @Value("${app.history.pageSize:50}")
+    private int historyPageSize = 50;
+    @Value("${app.history.maxPageSize:200}")
+    private int historyMaxPageSize = 200;
 
     @Value("${app.upload.blockedExtensions:exe,dll,bat,sh,jar,msi,com,scr}")
     private String blockedExtensionsProp;
@@ -63,9 +82,39 @@ public class ClientWorker implements Runnable {
         return allowedExtensionsSet.contains(ext.toLowerCase());
     }
     private String authenticatedUser = null;
+    // id verificado en el LOGIN (AuthService comprueba que id y usuario coinciden)
+    private Long authenticatedUserId = null;
     private String authenticatedUserIp = null;
     private final DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private String sessionId = null;
+    private int commandsSeen = 0;
+    // subidas por trozos preparadas en esta conexión, por nombre de archivo (tal como lo envió el cliente
+    // en FILE_HDR); el registro global (y reanudable) es PartialUploads
+    private final java.util.Map<String, ChunkedUpload> uploads = new java.util.HashMap<>();
+    // transferencias a las que ya se pidió reenviar desde FILE_OFFSET: se ignoran trozos fuera de orden
+    private final java.util.Set<String> resyncing = new java.util.HashSet<>();
+
+    @org.springframework.beans.factory.annotation.Autowired
+    private PartialUploads partialUploads;
+    // latencia por comando (/api/commands)
+    @org.springframework.beans.factory.annotation.Autowired
+    private CommandStats commandStats;
+    // conexiones, mensajes y bytes de entrada (/api/metrics)
+    @org.springframework.beans.factory.annotation.Autowired
+    private ServerMetrics metrics;
+    // guarda las filas de `mensajes` en lotes fuera del hilo de lectura del cliente
+    @org.springframework.beans.factory.annotation.Autowired
+    private MessageWriter messageWriter;
+    // archivos guardados por SHA-256 (una copia por contenido)
+    @org.springframework.beans.factory.annotation.Autowired
+    private ContentStore contentStore;
+    // límites de envío por usuario e IP; null = sin límites
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private RateLimiter rateLimiter;
+    // conexión con su cola de salida; la asigna TcpServer / NioTcpServer antes de arrancar
+    private ClientSession session;
+    // sólo en modo NIO (NioTcpServer); null = hilo propio de la conexión, paceChunk duerme
+    private java.util.function.LongConsumer readPause;
 
     public ClientWorker(Socket socket, AuthService authService, JdbcTemplate jdbc, ConnectedClients connectedClients,
                         MessageDao messageDao, ArchivoDao archivoDao, UserDao userDao, com.proyecto.demo.dao.JdbcSesionDao sesionDao) {
@@ -79,113 +128,298 @@ public class ClientWorker implements Runnable {
         this.sesionDao = sesionDao;
     }
 
+    void setSession(ClientSession session) {
+        this.session = session;
+    }
+
+    // modo NIO: parar la lectura de la conexión (NioConnection.pauseReading) en vez de dormir el worker
+    void setReadPause(java.util.function.LongConsumer readPause) {
+        this.readPause = readPause;
+    }
+
     @Override
     public void run() {
-       try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-           BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
-
-            out.write("WELCOME\n");
-            out.flush();
-            log.info("Cliente {} conectado y saludado.", socket.getRemoteSocketAddress());
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.startsWith("REGISTER ")) {
-                    handleRegister(line, out);
-                    continue;
-                }
-                if (line.startsWith("LOGIN ")) {
-                    handleLogin(line, out);
-                    continue;
-                }
-                if (line.startsWith("MSG ")) {
-                    handleMessage(line, out);
-                    continue;
-                }
-                if (line.startsWith("FILE ")) {
-                    // legacy single-step file transfer (payload included)
-                    handleFile(line, out);
-                    continue;
-                }
-                if (line.startsWith("FILE_HDR ")) {
-                    // new two-step: header first (recipient|filename|size)
-                    handleFileHeader(line, out);
-                    continue;
-                }
-                if (line.startsWith("FILE_DATA ")) {
-                    // new two-step: actual payload (recipient|filename|base64)
-                    handleFileData(line, out);
-                    continue;
-                }
-                if (line.equals("QUIT")) {
-                    out.write("BYE\n");
-                    out.flush();
-                    break;
-                }
+       try {
+            // no se cierra aquí: cerrar el stream cerraría el socket antes de vaciar la cola de salida
+            ProtocolInput in = new ProtocolInput(socket.getInputStream(), this::bytesRead);
+            onConnect();
 
-                out.write("ERROR comando_desconocido\n");
-                out.flush();
+            while (true) {
+                ProtocolMessage msg;
+                if (session.protocolVersion() >= ProtocolMessage.V2) {
+                    msg = in.readFrame(this::maxFrameBytes);
+                } else {
+                    String line = in.readLine(this::maxLineBytes);
+                    msg = line == null ? null : ProtocolMessage.parseV1(line);
+                }
+                if (msg == null || !handle(msg)) break;
             }
 
         } catch (Exception e) {
             log.error("Error en worker para cliente {}: {}", socket.getRemoteSocketAddress(), e.toString());
         } finally {
-            try { socket.close(); } catch (IOException ignored) {}
-            if (authenticatedUser != null) {
-                log.info("Usuario '{}' desconectado.", authenticatedUser);
-                // remove from registry and notify others (use saved IP)
-                try { connectedClients.unregister(authenticatedUser, authenticatedUserIp); } catch (Exception ignored) {}
-                // close DB session if present
-                try {
-                    if (sessionId != null) {
-                        sesionDao.closeSession(sessionId, Timestamp.from(Instant.now()), "CERRADA");
-                    }
-                } catch (Exception ignored) {}
-            } else {
-                log.info("Cliente {} desconectado sin autenticarse.", socket.getRemoteSocketAddress());
-            }
+            // dar margen a que salga lo pendiente (p.ej. BYE) antes de cerrar el socket
+            session.closeAfterFlush(2000);
+            onDisconnect();
+        }
+    }
+
+    // una línea FILE_DATA v1 lleva el archivo completo en base64 (~4/3 del tamaño)
+    int maxLineBytes() {
+        long max = Math.max(1L, maxSizeMb) * 1024L * 1024L * 4L / 3L + 64 * 1024L;
+        return (int) Math.min(Integer.MAX_VALUE - 8, max);
+    }
+
+    /**
+     * Máximo de una línea v1 según su verbo: el de un archivo en Base64 sólo para FILE, FILE_DATA y FILE_CHUNK;
+     * el resto (y una línea cuyo verbo aún no se ha visto, verb null) no pasa de app.protocol.maxCommandBytes.
+     */
+    int maxLineBytes(String verbName) {
+        Verb verb = verbName == null ? null : Verb.byName(verbName);
+        if (verb != null && verb.binaryField >= 0) return maxLineBytes();
+        return Math.min(maxLineBytes(), maxCommandBytes());
+    }
+
+    private int maxCommandBytes() {
+        return Math.max(1024, maxCommandBytes);
+    }
+
+    /**
+     * Bytes recibidos y aún sin procesar que admite una conexión NIO antes de dejar de leerla: unos pocos
+     * trozos de subida. Un solo comando mayor (FILE_DATA) se admite igualmente, pero se deja de leer hasta
+     * procesarlo.
+     */
+    long maxPendingBytes() {
+        return 4L * chunkBytes();
+    }
+
+    int maxFrameBytes() {
+        long max = Math.max(1L, maxSizeMb) * 1024L * 1024L + 64 * 1024L;
+        return (int) Math.min(Integer.MAX_VALUE - 8, max);
+    }
+
+    /**
+     * Máximo del payload de un frame v2 de este tipo: el de un archivo sólo para los verbos con campo binario
+     * (FILE, FILE_DATA, FILE_CHUNK); el resto de comandos no pasa de app.protocol.maxCommandBytes.
+     */
+    int maxFrameBytes(int type) {
+        Verb verb = Verb.byCode(type);
+        if (verb != null && verb.binaryField >= 0) return maxFrameBytes();
+        return Math.min(maxFrameBytes(), maxCommandBytes());
+    }
+
+    /**
+     * Saludo inicial al cliente. Lo usan tanto el modo bloqueante (run) como el modo NIO (NioConnection).
+     */
+    void onConnect() throws IOException {
+        if (metrics != null) metrics.connectionOpened();
+        reply(Verb.WELCOME);
+        log.info("Cliente {} conectado y saludado.", socket.getRemoteSocketAddress());
+    }
+
+    /** Bytes leídos del socket de esta conexión (ProtocolInput en modo bloqueante, NioConnection en NIO). */
+    void bytesRead(long n) {
+        if (metrics != null) metrics.bytesIn(n);
+    }
+
+    /**
+     * Procesa una línea del protocolo de texto (v1).
+     */
+    boolean handleLine(String line) throws Exception {
+        return handle(ProtocolMessage.parseV1(line));
+    }
+
+    // handler de un comando; devuelve false si hay que cerrar la conexión
+    @FunctionalInterface
+    private interface Command {
+        boolean run(ClientWorker w, ProtocolMessage msg, boolean first) throws Exception;
+    }
+
+    // tabla de despacho compartida por todas las conexiones: el verbo ya viene resuelto al parsear
+    private static final java.util.Map<Verb, Command> COMMANDS = new java.util.EnumMap<>(Verb.class);
+    static {
+        COMMANDS.put(Verb.PROTO, (w, m, first) -> { w.handleProto(m, first); return true; });
+        COMMANDS.put(Verb.CAPS, (w, m, first) -> { w.handleCaps(m); return true; });
+        COMMANDS.put(Verb.REGISTER, (w, m, first) -> { w.handleRegister(m); return true; });
+        COMMANDS.put(Verb.LOGIN, (w, m, first) -> { w.handleLogin(m); return true; });
+        COMMANDS.put(Verb.MSG, (w, m, first) -> { w.handleMessage(m); return true; });
+        // legacy single-step file transfer (payload included)
+        COMMANDS.put(Verb.FILE, (w, m, first) -> { w.handleFile(m); return true; });
+        // new two-step: header first (recipient|filename|size)
+        COMMANDS.put(Verb.FILE_HDR, (w, m, first) -> { w.handleFileHeader(m); return true; });
+        // new two-step: actual payload (recipient|filename|data)
+        COMMANDS.put(Verb.FILE_DATA, (w, m, first) -> { w.handleFileData(m); return true; });
+        // chunked payload after FILE_HDR (filename|offset|length|data)
+        COMMANDS.put(Verb.FILE_CHUNK, (w, m, first) -> { w.handleFileChunk(m); return true; });
+        // página de historial de una conversación (peer|before/after|id|cantidad)
+        COMMANDS.put(Verb.HISTORY, (w, m, first) -> { w.handleHistory(m); return true; });
+        // mensajes posteriores al último id que vio el cliente
+        COMMANDS.put(Verb.SYNC, (w, m, first) -> { w.handleSync(m); return true; });
+        // contenido de un archivo del historial (archivoId)
+        COMMANDS.put(Verb.FILE_GET, (w, m, first) -> { w.handleFileGet(m); return true; });
+        // lista completa de conectados (el cliente vio un salto en la versión de presencia)
+        COMMANDS.put(Verb.USERS_GET, (w, m, first) -> { w.handleUsersGet(); return true; });
+        COMMANDS.put(Verb.QUIT, (w, m, first) -> { w.reply(Verb.BYE); return false; });
+    }
+
+    /**
+     * Procesa un mensaje ya separado en campos (llegue como línea v1 o como frame v2).
+     * Devuelve false cuando la conexión debe cerrarse (QUIT).
+     */
+    boolean handle(ProtocolMessage msg) throws Exception {
+        boolean first = commandsSeen++ == 0;
+        if (metrics != null) metrics.messageIn();
+        Verb verb = msg.verb();
+        Command command = verb == null ? null : COMMANDS.get(verb);
+        if (command == null) {
+            reply(Verb.ERROR, "comando_desconocido");
+            return true;
+        }
+        // sin el contenido: puede llevar contraseñas o payloads
+        if (log.isDebugEnabled()) log.debug("{} de {} ({} campos)", verb, authenticatedUser == null ? socket.getRemoteSocketAddress() : authenticatedUser, msg.size());
+        long t0 = System.nanoTime();
+        try {
+            return command.run(this, msg, first);
+        } finally {
+            if (commandStats != null) commandStats.record(verb, System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Indica si la línea pide pasar a v2 y el servidor lo acepta: sólo como primer comando tras WELCOME.
+     * NioConnection usa la misma regla para cambiar su parser en el hilo del reactor.
+     */
+    static boolean isV2Request(String line, boolean first, ClientSession session) {
+        return first && session.v2Allowed() && "PROTO 2".equals(line);
+    }
+
+    private void handleProto(ProtocolMessage msg, boolean first) throws IOException {
+        if (!isV2Request(msg.toV1Line(), first, session) || session.protocolVersion() != ProtocolMessage.V1) {
+            reply(Verb.ERROR, "protocolo_no_soportado");
+            return;
+        }
+        // la respuesta sale aún en texto; todo lo posterior (en ambos sentidos) va en frames v2
+        reply(Verb.PROTO, "2");
+        session.setProtocolVersion(ProtocolMessage.V2);
+        log.info("Cliente {} negoció protocolo binario v2", socket.getRemoteSocketAddress());
+    }
+
+    private void handleCaps(ProtocolMessage msg) throws IOException {
+        // Format: CAPS cap1,cap2 -> CAPS aceptadas (las desconocidas se ignoran; sin CAPS, formato de siempre)
+        java.util.List<String> accepted = new java.util.ArrayList<>();
+        for (String cap : msg.arg(0).split(",")) {
+            if (CAP_MESSAGE_IDS.equalsIgnoreCase(cap.trim()) && !accepted.contains(CAP_MESSAGE_IDS)) accepted.add(CAP_MESSAGE_IDS);
+        }
+        session.setMessageIds(accepted.contains(CAP_MESSAGE_IDS));
+        reply(Verb.CAPS, String.join(",", accepted));
+    }
+
+    /**
+     * Encola una respuesta para este cliente en su versión de protocolo.
+     */
+    private void reply(Verb verb, Object... fields) throws IOException {
+        if (session.send(ProtocolMessage.of(verb, fields)) == OutboundQueue.Result.CLOSED) {
+            throw new IOException("conexión cerrada");
+        }
+    }
+
+    /**
+     * Limpieza al cerrar la conexión: sale del registro de conectados y cierra la sesión en BD.
+     */
+    void onDisconnect() {
+        if (metrics != null) metrics.connectionClosed();
+        for (ChunkedUpload u : uploads.values()) {
+            // se conserva en PartialUploads para que el cliente la retome al reconectar
+            if (!u.isComplete()) log.info("Subida incompleta pendiente de reanudar: {} ({}/{} bytes, id={})", u.filename(), u.received(), u.size(), u.transferId());
+        }
+        if (rateLimiter != null) {
+            for (int i = 0; i < uploads.size(); i++) rateLimiter.endTransfer(authenticatedUser, authenticatedUserIp);
+        }
+        uploads.clear();
+        if (authenticatedUser != null) {
+            log.info("Usuario '{}' desconectado.", authenticatedUser);
+            // remove from registry and notify others (use saved IP)
+            try { connectedClients.unregister(authenticatedUser, authenticatedUserIp); } catch (Exception ignored) {}
+            // close DB session if present
+            try {
+                if (sessionId != null) {
+                    sesionDao.closeSession(sessionId, Timestamp.from(Instant.now()), "CERRADA");
+                }
+            } catch (Exception ignored) {}
+        } else {
+            log.info("Cliente {} desconectado sin autenticarse.", socket.getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * Límite de mensajes y bytes del usuario y de su IP (RateLimiter) para un comando que guarda y reparte.
+     * Si no pasa se contesta SLOW_DOWN verbo|motivo|esperarMs y el comando se descarta.
+     */
+    private boolean withinLimits(Verb verb, long bytes) throws IOException {
+        RateLimiter.Denied denied = rateLimiter == null ? null : rateLimiter.tryMessage(authenticatedUser, authenticatedUserIp, bytes);
+        if (denied == null) return true;
+        reply(Verb.SLOW_DOWN, verb.name(), denied.reason(), denied.retryAfterMs());
+        return false;
+    }
+
+    // deja de leer el socket mientras los trozos de esta subida superan los bytes por segundo permitidos
+    private void paceChunk(long bytes) {
+        long wait = rateLimiter == null ? 0L : rateLimiter.reserveBytes(authenticatedUser, authenticatedUserIp, bytes);
+        if (wait <= 0) return;
+        long pause = Math.min(wait, MAX_CHUNK_PAUSE_MS);
+        if (readPause != null) {
+            // NIO: el worker es del pool compartido; dormirlo frenaría a otras conexiones
+            readPause.accept(pause);
+            return;
         }
+        // modo bloqueante: el hilo (de plataforma o virtual) es sólo de esta conexión
+        try {
+            Thread.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // subida por trozos preparada: ocupa una transferencia del usuario y de su IP hasta que sale del mapa
+    private void trackUpload(String filename, ChunkedUpload upload) {
+        if (uploads.put(filename, upload) != null && rateLimiter != null) rateLimiter.endTransfer(authenticatedUser, authenticatedUserIp);
+    }
+
+    private ChunkedUpload untrackUpload(String filename) {
+        ChunkedUpload u = uploads.remove(filename);
+        if (u != null && rateLimiter != null) rateLimiter.endTransfer(authenticatedUser, authenticatedUserIp);
+        return u;
     }
 
-    private void handleFile(String line, BufferedWriter out) throws IOException {
+    private void handleFile(ProtocolMessage msg) throws IOException {
         // Format: FILE recipient|filename|<base64payload>
-        log.info("mensaje llega a funcion de ClientWorker.handleFile correctamente. Raw='{}'", line);
         if (authenticatedUser == null) {
-            out.write("ERROR no_autenticado\n");
-            out.flush();
+            reply(Verb.ERROR, "no_autenticado");
             return;
         }
-        String payload = line.substring(5);
-        String[] parts = payload.split("\\|", 3);
-        if (parts.length < 3) {
-            out.write("ERROR formato FILE recipient|filename|base64\n");
-            out.flush();
+        if (msg.size() < 3) {
+            reply(Verb.ERROR, "formato FILE recipient|filename|base64");
             return;
         }
-        String recipient = parts[0];
-        String filename = parts[1];
-        String base64 = parts[2];
+        String recipient = msg.arg(0);
+        String filename = msg.arg(1);
 
-        // ensure Archivos_enviados directory exists (centralized storage for accepted files)
-        java.nio.file.Path uploadsDir = java.nio.file.Paths.get("Archivos_enviados");
-        try {
-            if (!java.nio.file.Files.exists(uploadsDir)) {
-                java.nio.file.Files.createDirectories(uploadsDir);
-            }
-        } catch (Exception e) {
-            log.error("No se pudo crear uploads dir: {}", e.toString(), e);
+        // el límite va antes de decodificar y de anunciar nada: un envío rechazado no cuesta copias ni logs
+        if (!withinLimits(Verb.FILE, msg.byteLength(2))) {
+            // el cliente espera el FILE_STATUS de este archivo
+            reply(Verb.FILE_STATUS, filename, "ERROR", "limite_envio");
+            return;
         }
 
-        // decode and save file on server (prefix with sender and timestamp to avoid collisions)
+        // decode and save file on server (en el ContentStore, una sola copia por contenido)
         byte[] data;
         try {
-            data = java.util.Base64.getDecoder().decode(base64);
+            data = msg.bytes(2);
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Intento de envío de archivo: " + authenticatedUser + " -> " + recipient + " : " + filename + " (" + data.length + " bytes)"); } catch (Exception ignored) {}
         } catch (IllegalArgumentException iae) {
             String reason = "base64_invalido";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
 
@@ -195,8 +429,7 @@ public class ClientWorker implements Runnable {
             String reason = "tamano_excedido";
             log.warn("Rechazando archivo grande de {} bytes desde {} (límite {})", data.length, socket.getRemoteSocketAddress(), MAX_BYTES);
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
 
@@ -215,138 +448,71 @@ public class ClientWorker implements Runnable {
             String reason = "ext_no_permitida";
             log.warn("Rechazando archivo por extensión no permitida (.{}) nombre='{}' desde {}", ext, filename, socket.getRemoteSocketAddress());
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
 
         // At this point extension is .txt or .bin. For .txt we prefer text MIME, but we accept as requested.
         try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Archivo recibido y aceptado para guardado: " + filename + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
 
-        String safeName = java.time.Instant.now().toEpochMilli() + "_" + authenticatedUser + "_" + filename;
-        java.nio.file.Path target = uploadsDir.resolve(safeName);
+        java.nio.file.Path target = null;
+        long archivoId = -1L;
+        java.util.Map<String, Long> ids = new java.util.LinkedHashMap<>();
         try {
-            java.nio.file.Files.write(target, data);
+            target = contentStore.put(data);
             log.info("Archivo recibido guardado en {}", target.toString());
             // Inform sender of success
-            out.write("FILE_STATUS " + filename + "|OK\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "OK");
             // persist archivo and mensaje
-            try {
-                var senderOpt = userDao.findByUsername(authenticatedUser);
-                Long senderId = senderOpt.isPresent() ? senderOpt.get().getId() : null;
-                long archivoId = archivoDao.insertArchivo(filename, target.toString(), data.length, senderId);
-                if (archivoId <= 0) {
-                    log.warn("insertArchivo devolvió id no válido ({}) para archivo {}", archivoId, filename);
-                }
-                if (senderId != null) {
-                    if ("ALL".equalsIgnoreCase(recipient)) {
-                        for (String r : connectedClients.getConnectedUsers()) {
-                            if (r.equalsIgnoreCase(authenticatedUser)) continue;
-                            var recipOpt = userDao.findByUsername(r);
-                            if (recipOpt.isPresent()) {
-                                MessageRecord mr = new MessageRecord();
-                                mr.setEmisorId(senderId);
-                                mr.setReceptorId(recipOpt.get().getId());
-                                mr.setTipoMensaje("ARCHIVO");
-                                mr.setContenido(filename);
-                                mr.setArchivoId(archivoId);
-                                mr.setSesionId(sessionId);
-                                log.debug("Persistiendo mensaje archivo: emisorId={} receptorId={} archivoId={} sesionId={}", senderId, recipOpt.get().getId(), archivoId, sessionId);
-                                long mid = messageDao.insertMessage(mr);
-                                if (mid <= 0) log.warn("insertMessage devolvió id no válido ({}) para mensaje archivo (archivoId={})", mid, archivoId);
-                            }
-                        }
-                    } else {
-                        var recipOpt = userDao.findByUsername(recipient);
-                        if (recipOpt.isPresent()) {
-                            MessageRecord mr = new MessageRecord();
-                            mr.setEmisorId(senderId);
-                            mr.setReceptorId(recipOpt.get().getId());
-                            mr.setTipoMensaje("ARCHIVO");
-                            mr.setContenido(filename);
-                            mr.setArchivoId(archivoId);
-                            mr.setSesionId(sessionId);
-                            log.debug("Persistiendo mensaje archivo: emisorId={} receptorId={} archivoId={} sesionId={}", senderId, recipOpt.get().getId(), archivoId, sessionId);
-                            long mid = messageDao.insertMessage(mr);
-                            if (mid <= 0) log.warn("insertMessage devolvió id no válido ({}) para mensaje archivo (archivoId={})", mid, archivoId);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                log.error("No se pudo persistir archivo/mensaje en BD", e);
-            }
+            archivoId = persistFileMessages(recipient, filename, target, data.length, ids);
         } catch (Exception e) {
             log.error("Error guardando archivo: {}", e.toString(), e);
             String reason = "save_error";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
+        } finally {
+            if (target != null) contentStore.release(target, archivoId > 0);
         }
 
-        // forward to recipient(s): send FILEFROM sender|filename|base64
-        String forward = "FILEFROM " + authenticatedUser + "|" + filename + "|" + base64 + "\n";
-            if ("ALL".equalsIgnoreCase(recipient)) {
-            connectedClients.broadcastMessage(authenticatedUser, "(archivo) " + filename);
-            // broadcast the file itself
-            connectedClients.broadcastRaw(forward);
-        } else {
-            boolean sent = connectedClients.sendTo(recipient, forward);
-            if (!sent) {
-                log.warn("No se pudo entregar archivo a {} (no conectado)", recipient);
-            }
-            // Also send a textual notification MSGFROM so the recipient sees a chat line like "(archivo) filename"
-            try {
-                String note = "MSGFROM " + authenticatedUser + "|" + "(archivo) " + filename + "\n";
-                boolean noteSent = connectedClients.sendTo(recipient, note);
-                if (noteSent) {
-                    log.debug("Sent file notification MSGFROM to {} for file {}", recipient, filename);
-                } else {
-                    log.debug("Could not send file notification MSGFROM to {}", recipient);
-                }
-            } catch (Exception e) {
-                log.warn("Error sending file notification to {}: {}", recipient, e.getMessage());
-            }
+        // forward to recipient(s): send FILEFROM sender|filename|data (se reenvía el campo tal como llegó:
+        // Base64 si vino por v1, bytes si vino por v2; cada destinatario lo recibe en su versión)
+        forwardFile(recipient, filename, msg.field(2), ids);
+        if (!"ALL".equalsIgnoreCase(recipient)) {
             // send an immediate echo to the sender so their UI shows the outgoing file line
             try {
-                String echo = "MSG_ECHO " + authenticatedUser + "|" + recipient + "|" + "(archivo) " + filename + "\n";
-                out.write(echo);
-                out.flush();
+                reply(Verb.MSG_ECHO, authenticatedUser, recipient, "(archivo) " + filename);
             } catch (Exception ee) {
                 log.warn("No se pudo enviar echo de archivo al emisor {}: {}", authenticatedUser, ee.getMessage());
             }
         }
 
-        out.write("SENT\n");
-        out.flush();
+        reply(Verb.SENT, lastId(ids));
     }
 
-    private void handleFileHeader(String line, BufferedWriter out) throws IOException {
+    private void handleFileHeader(ProtocolMessage msg) throws IOException {
         // Format: FILE_HDR recipient|filename|sizeBytes
-        log.info("mensaje llega a funcion de ClientWorker.handleFileHeader. Raw='{}'", line);
         if (authenticatedUser == null) {
-            out.write("ERROR no_autenticado\n");
-            out.flush();
+            reply(Verb.ERROR, "no_autenticado");
             return;
         }
-        String payload = line.substring(9);
-        String[] parts = payload.split("\\|", 3);
-        if (parts.length < 3) {
-            out.write("FILE_HDR_STATUS " + "|ERROR|formato_hdr_invalido\n");
-            out.flush();
+        if (msg.size() < 3) {
+            reply(Verb.FILE_HDR_STATUS, "", "ERROR", "formato_hdr_invalido");
             return;
         }
-        String recipient = parts[0];
-        String filename = parts[1];
-        String sizeStr = parts[2];
+        String recipient = msg.arg(0);
+        String filename = msg.arg(1);
+        String sizeStr = msg.arg(2);
     log.debug("FILE_HDR parsed recipient='{}' filename='{}' size='{}'", recipient, filename, sizeStr);
         long declaredSize = 0L;
         try {
             declaredSize = Long.parseLong(sizeStr);
         } catch (NumberFormatException nfe) {
-            out.write("FILE_HDR_STATUS " + filename + "|ERROR|size_no_valido\n");
-            out.flush();
+            declaredSize = -1L;
+        }
+        // un tamaño negativo pasaría el tope y dejaría la subida por trozos sin final
+        if (declaredSize < 0) {
+            reply(Verb.FILE_HDR_STATUS, filename, "ERROR", "size_no_valido");
             return;
         }
 
@@ -362,8 +528,7 @@ public class ClientWorker implements Runnable {
         if (!allowedByExt) {
             String reason = "ext_no_permitida";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado HDR: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_HDR_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_HDR_STATUS, filename, "ERROR", reason);
             return;
         }
 
@@ -371,54 +536,218 @@ public class ClientWorker implements Runnable {
         if (declaredSize > MAX_BYTES) {
             String reason = "tamano_excedido";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado HDR: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_HDR_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_HDR_STATUS, filename, "ERROR", reason);
+            return;
+        }
+
+        if (!withinLimits(Verb.FILE_HDR, 0L)) {
+            reply(Verb.FILE_HDR_STATUS, filename, "ERROR", "limite_envio");
             return;
         }
 
-        try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("HDR aceptado: " + filename + " size=" + declaredSize + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-        out.write("FILE_HDR_STATUS " + filename + "|OK\n");
-        out.flush();
+        String sha256 = msg.arg(3);
+        String resumeId = msg.arg(4);
+        // mismo contenido (SHA-256 y tamaño) ya almacenado: no hace falta subirlo. Se responde con offset
+        // igual al tamaño y sin transferId, y se registra y entrega directamente desde el almacén
+        java.nio.file.Path stored = contentStore.find(sha256, declaredSize);
+        if (stored != null && !mayReuse(stored)) {
+            // conocer el hash no basta: quien no tiene ya ese contenido lo sube entero
+            contentStore.release(stored, false);
+            stored = null;
+        }
+        if (stored != null) {
+            ChunkedUpload previous = untrackUpload(filename);
+            if (previous != null) partialUploads.discard(previous);
+            ChunkedUpload interrupted = resumeId.isBlank() ? null : partialUploads.get(resumeId, authenticatedUser);
+            if (interrupted != null) partialUploads.discard(interrupted);
+            log.info("Archivo {} de {} ya almacenado ({}): se omite la subida", filename, authenticatedUser, stored.getFileName());
+            try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("HDR duplicado: " + filename + " size=" + declaredSize + " desde " + socket.getRemoteSocketAddress() + " (contenido ya almacenado)"); } catch (Exception ignored) {}
+            try {
+                reply(Verb.FILE_HDR_STATUS, filename, "OK", chunkBytes(), "", declaredSize);
+            } catch (IOException e) {
+                contentStore.release(stored, false);
+                throw e;
+            }
+            reply(Verb.SENT, lastId(deliverStored(recipient, filename, stored, declaredSize)));
+            return;
+        }
+
+        // subida por trozos: se retoma la indicada (5º campo) o se prepara una nueva; el temporal se crea
+        // con el primer FILE_CHUNK. Cuenta como transferencia en curso del usuario y de su IP
+        ChunkedUpload previous = untrackUpload(filename);
+        if (rateLimiter != null && !rateLimiter.tryStartTransfer(authenticatedUser, authenticatedUserIp)) {
+            if (previous != null) partialUploads.discard(previous);
+            reply(Verb.SLOW_DOWN, Verb.FILE_HDR.name(), "transferencias", 0);
+            reply(Verb.FILE_HDR_STATUS, filename, "ERROR", "limite_transferencias");
+            return;
+        }
+        ChunkedUpload upload = resumeId.isBlank() ? null : partialUploads.resume(resumeId, authenticatedUser, filename, declaredSize, sha256);
+        if (upload == null) {
+            if (previous != null) partialUploads.discard(previous);
+            upload = partialUploads.create(authenticatedUser, recipient, filename, declaredSize, sha256, contentStore.tempDir());
+        } else {
+            log.info("Reanudando subida {} de {} desde el byte {} de {}", filename, authenticatedUser, upload.received(), declaredSize);
+        }
+        trackUpload(filename, upload);
+        resyncing.remove(upload.transferId());
+
+        try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("HDR aceptado: " + filename + " size=" + declaredSize + " desde " + socket.getRemoteSocketAddress() + (upload.received() > 0 ? " (reanuda en " + upload.received() + ")" : "")); } catch (Exception ignored) {}
+        // campos extra: tamaño de trozo, transferId y bytes ya confirmados (desde donde seguir);
+        // clientes antiguos los ignoran y mandan FILE_DATA
+        reply(Verb.FILE_HDR_STATUS, filename, "OK", chunkBytes(), upload.transferId(), upload.received());
     }
 
-    private void handleFileData(String line, BufferedWriter out) throws IOException {
-        // Format: FILE_DATA recipient|filename|<base64payload>
-        log.info("mensaje llega a funcion de ClientWorker.handleFileData. Raw='{}'", line);
+    // sólo quien ya tiene el contenido (lo subió, lo envió o lo recibió) se ahorra la subida: si no, cualquiera
+    // que conociera el SHA-256 obtendría el archivo de otro sin pasar por hasArchivoAccess
+    private boolean mayReuse(java.nio.file.Path stored) {
+        if (authenticatedUserId == null) return false;
+        try {
+            return archivoDao.hasAccessByPath(authenticatedUserId, stored.toString());
+        } catch (Exception e) {
+            log.warn("No se pudo comprobar el acceso de {} a {}: {}", authenticatedUser, stored.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private int chunkBytes() {
+        return Math.max(4, chunkSizeKb) * 1024;
+    }
+
+    private void handleFileChunk(ProtocolMessage msg) throws IOException {
+        // Format: FILE_CHUNK transferId|offset|length|<base64payload>|crc32c (v2: bytes en crudo)
+        log.debug("FILE_CHUNK recibido: {}", msg);
         if (authenticatedUser == null) {
-            out.write("ERROR no_autenticado\n");
-            out.flush();
+            reply(Verb.ERROR, "no_autenticado");
             return;
         }
-        String payload = line.substring(10);
-        String[] parts = payload.split("\\|", 3);
-        if (parts.length < 3) {
-            out.write("ERROR formato FILE_DATA recipient|filename|base64\n");
-            out.flush();
+        String transferId = msg.arg(0);
+        ChunkedUpload upload = partialUploads.get(transferId, authenticatedUser);
+        if (msg.size() < 5 || upload == null) {
+            // sin subida no hay nombre de archivo con el que responder; se usa el id
+            reply(Verb.FILE_STATUS, transferId, "ERROR", msg.size() < 5 ? "formato_chunk_invalido" : "sin_cabecera");
             return;
         }
-        String recipient = parts[0];
-        String filename = parts[1];
-        String base64 = parts[2];
-        // ensure Archivos_enviados directory exists (centralized storage for accepted files)
-        java.nio.file.Path uploadsDir = java.nio.file.Paths.get("Archivos_enviados");
+        String filename = upload.filename();
+        String reason = null;
+        long offset = -1L;
+        int length = -1;
+        long crc = -1L;
         try {
-            if (!java.nio.file.Files.exists(uploadsDir)) {
-                java.nio.file.Files.createDirectories(uploadsDir);
+            offset = Long.parseLong(msg.arg(1));
+            length = Integer.parseInt(msg.arg(2));
+            crc = Long.parseLong(msg.arg(4));
+        } catch (NumberFormatException nfe) {
+            reason = "formato_chunk_invalido";
+        }
+        if (reason == null && offset != upload.received() && resyncing.contains(transferId)) {
+            // trozo ya en vuelo antes de que el cliente viera FILE_OFFSET: se descarta sin responder
+            return;
+        }
+        byte[] data = null;
+        if (reason == null && (length < 0 || length > chunkBytes())) reason = "chunk_demasiado_grande";
+        if (reason == null) {
+            try {
+                data = msg.bytes(3);
+                if (data.length != length) reason = "longitud_invalida";
+            } catch (IllegalArgumentException iae) {
+                reason = "base64_invalido";
             }
-        } catch (Exception e) {
-            log.error("No se pudo crear uploads dir: {}", e.toString(), e);
+        }
+        if (reason == null) paceChunk(data.length);
+        try {
+            if (reason == null) upload.write(offset, data, crc);
+        } catch (IllegalArgumentException iae) {
+            // offset fuera de orden, CRC incorrecto o más bytes de los declarados
+            reason = iae.getMessage();
+        } catch (IOException ioe) {
+            log.error("Error escribiendo trozo de {}: {}", filename, ioe.toString(), ioe);
+            reason = "save_error";
+        }
+        if ("crc_invalido".equals(reason) || "offset_invalido".equals(reason)) {
+            // recuperable: lo ya confirmado sigue siendo válido; el cliente reenvía desde ahí
+            log.warn("Trozo rechazado ({}) en {} offset={}: se pide reenviar desde {}", reason, filename, offset, upload.received());
+            resyncing.add(transferId);
+            reply(Verb.FILE_OFFSET, transferId, upload.received(), reason);
+            return;
+        }
+        resyncing.remove(transferId);
+        if (reason != null) {
+            untrackUpload(filename);
+            partialUploads.discard(upload);
+            try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado CHUNK: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
+            return;
+        }
+        if (!upload.isComplete()) return;
+
+        untrackUpload(filename);
+        partialUploads.remove(upload);
+        java.nio.file.Path target;
+        try {
+            target = upload.commit(contentStore);
+        } catch (IOException | IllegalArgumentException e) {
+            reason = e instanceof IllegalArgumentException ? e.getMessage() : "save_error";
+            log.error("Error guardando archivo por trozos {}: {}", filename, e.toString());
+            upload.abort();
+            try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado CHUNK: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
+            return;
+        }
+        log.info("Archivo recibido por trozos guardado en {} ({} bytes)", target, upload.size());
+        try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Archivo DATA recibido: " + authenticatedUser + " -> " + upload.recipient() + " : " + filename + " (" + upload.size() + " bytes)"); } catch (Exception ignored) {}
+        reply(Verb.SENT, lastId(deliverStored(upload.recipient(), filename, target, upload.size())));
+    }
+
+    /**
+     * Confirma, registra y entrega un archivo que ya está en el ContentStore (recién subido por trozos o
+     * detectado como duplicado en FILE_HDR). Cada envío añade su fila en `archivos` apuntando al mismo
+     * contenido; al terminar se libera el uso que dejó find()/commit(). Devuelve los ids de los mensajes.
+     */
+    private java.util.Map<String, Long> deliverStored(String recipient, String filename, java.nio.file.Path stored, long size) throws IOException {
+        long archivoId = -1L;
+        java.util.Map<String, Long> ids = new java.util.LinkedHashMap<>();
+        try {
+            reply(Verb.FILE_STATUS, filename, "OK");
+            String storedName = filename.replaceAll("[\\\\/]+", "_");
+            archivoId = persistFileMessages(recipient, storedName, stored, size, ids);
+            // entrega desde disco: en v2 el archivo mapeado va directo al socket sin pasar por el heap
+            forwardFile(recipient, storedName, ProtocolMessage.FileContent.map(stored), ids);
+        } finally {
+            contentStore.release(stored, archivoId > 0);
+        }
+        return ids;
+    }
+
+    private void handleFileData(ProtocolMessage msg) throws IOException {
+        // Format: FILE_DATA recipient|filename|<base64payload> (v2: bytes en crudo)
+        if (authenticatedUser == null) {
+            reply(Verb.ERROR, "no_autenticado");
+            return;
+        }
+        if (msg.size() < 3) {
+            reply(Verb.ERROR, "formato FILE_DATA recipient|filename|base64");
+            return;
+        }
+        String recipient = msg.arg(0);
+        String filename = msg.arg(1);
+        // el cliente eligió el envío en un solo mensaje: se descarta la subida por trozos preparada en FILE_HDR
+        ChunkedUpload pending = untrackUpload(filename);
+        if (pending != null) partialUploads.discard(pending);
+
+        if (!withinLimits(Verb.FILE_DATA, msg.byteLength(2))) {
+            reply(Verb.FILE_STATUS, filename, "ERROR", "limite_envio");
+            return;
         }
 
         // decode and save file on server
         byte[] data;
         try {
-            data = java.util.Base64.getDecoder().decode(base64);
+            data = msg.bytes(2);
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Archivo DATA recibido: " + authenticatedUser + " -> " + recipient + " : " + filename + " (" + data.length + " bytes)" ); } catch (Exception ignored) {}
         } catch (IllegalArgumentException iae) {
             String reason = "base64_invalido";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado DATA: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
 
@@ -428,80 +757,86 @@ public class ClientWorker implements Runnable {
             String reason = "tamano_excedido";
             log.warn("Rechazando archivo grande de {} bytes desde {} (límite {})", data.length, socket.getRemoteSocketAddress(), MAX_BYTES);
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado DATA: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
 
         // Sanitize filename to avoid path traversal
         filename = filename.replaceAll("[\\\\/]+", "_");
-        // save
-        String safeName = java.time.Instant.now().toEpochMilli() + "_" + authenticatedUser + "_" + filename;
-        java.nio.file.Path target = uploadsDir.resolve(safeName);
+        // save (en el ContentStore: si el contenido ya estaba no se vuelve a escribir)
+        java.nio.file.Path target;
         try {
-            java.nio.file.Files.write(target, data);
+            target = contentStore.put(data);
             log.info("Archivo DATA recibido guardado en {}", target.toString());
-            // Inform sender of success (final)
-            out.write("FILE_STATUS " + filename + "|OK\n");
-            out.flush();
-            // persist archivo and mensaje
-            try {
-                var senderOpt = userDao.findByUsername(authenticatedUser);
-                Long senderId = senderOpt.isPresent() ? senderOpt.get().getId() : null;
-                long archivoId = archivoDao.insertArchivo(filename, target.toString(), data.length, senderId);
-                if (archivoId <= 0) {
-                    log.warn("insertArchivo devolvió id no válido ({}) para archivo {}", archivoId, filename);
-                }
-                if (senderId != null) {
-                    if ("ALL".equalsIgnoreCase(recipient)) {
-                        for (String r : connectedClients.getConnectedUsers()) {
-                            if (r.equalsIgnoreCase(authenticatedUser)) continue;
-                            var recipOpt = userDao.findByUsername(r);
-                            if (recipOpt.isPresent()) {
-                                MessageRecord mr = new MessageRecord();
-                                mr.setEmisorId(senderId);
-                                mr.setReceptorId(recipOpt.get().getId());
-                                mr.setTipoMensaje("ARCHIVO");
-                                mr.setContenido(filename);
-                                mr.setArchivoId(archivoId);
-                                log.debug("Persistiendo mensaje archivo (DATA): emisorId={} receptorId={} archivoId={}", senderId, recipOpt.get().getId(), archivoId);
-                                long mid = messageDao.insertMessage(mr);
-                                if (mid <= 0) log.warn("insertMessage devolvió id no válido ({}) para mensaje archivo (archivoId={})", mid, archivoId);
-                            }
-                        }
-                    } else {
-                        var recipOpt = userDao.findByUsername(recipient);
-                        if (recipOpt.isPresent()) {
-                            MessageRecord mr = new MessageRecord();
-                            mr.setEmisorId(senderId);
-                            mr.setReceptorId(recipOpt.get().getId());
-                            mr.setTipoMensaje("ARCHIVO");
-                            mr.setContenido(filename);
-                            mr.setArchivoId(archivoId);
-                            log.debug("Persistiendo mensaje archivo (DATA): emisorId={} receptorId={} archivoId={}", senderId, recipOpt.get().getId(), archivoId);
-                            long mid = messageDao.insertMessage(mr);
-                            if (mid <= 0) log.warn("insertMessage devolvió id no válido ({}) para mensaje archivo (archivoId={})", mid, archivoId);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                log.error("No se pudo persistir archivo/mensaje en BD", e);
-            }
         } catch (Exception e) {
             log.error("Error guardando archivo DATA: {}", e.toString(), e);
             String reason = "save_error";
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Rechazado DATA: " + filename + " motivo: " + reason + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("FILE_STATUS " + filename + "|ERROR|" + reason + "\n");
-            out.flush();
+            reply(Verb.FILE_STATUS, filename, "ERROR", reason);
             return;
         }
+        long archivoId = -1L;
+        java.util.Map<String, Long> ids = new java.util.LinkedHashMap<>();
+        try {
+            // Inform sender of success (final)
+            reply(Verb.FILE_STATUS, filename, "OK");
+            archivoId = persistFileMessages(recipient, filename, target, data.length, ids);
+
+            // forward to recipient(s): send FILEFROM sender|filename|data (se reenvía el campo tal como llegó:
+            // Base64 si vino por v1, bytes si vino por v2; cada destinatario lo recibe en su versión)
+            forwardFile(recipient, filename, msg.field(2), ids);
+        } finally {
+            contentStore.release(target, archivoId > 0);
+        }
+
+        reply(Verb.SENT, lastId(ids));
+    }
+
+    /**
+     * Registra el archivo y un mensaje ARCHIVO por destinatario (todos los conectados si es ALL), anotando en
+     * ids el id del mensaje de cada uno. Devuelve el id de la fila en `archivos` (<= 0 si no se pudo crear).
+     */
+    private long persistFileMessages(String recipient, String filename, java.nio.file.Path target, long size, java.util.Map<String, Long> ids) {
+        long archivoId = -1L;
+        try {
+            Long senderId = senderId();
+            archivoId = archivoDao.insertArchivo(filename, target.toString(), size, senderId);
+            if (archivoId <= 0) {
+                log.warn("insertArchivo devolvió id no válido ({}) para archivo {}", archivoId, filename);
+            }
+            if (senderId != null) {
+                java.util.Map<String, Long> targets = recipientIds(recipient);
+                java.util.List<MessageRecord> records = new java.util.ArrayList<>(targets.size());
+                for (Long receptorId : targets.values()) {
+                    MessageRecord mr = new MessageRecord();
+                    mr.setEmisorId(senderId);
+                    mr.setReceptorId(receptorId);
+                    mr.setTipoMensaje("ARCHIVO");
+                    mr.setContenido(filename);
+                    mr.setArchivoId(archivoId);
+                    mr.setSesionId(sessionId);
+                    records.add(mr);
+                }
+                log.debug("Persistiendo mensaje archivo (DATA): emisorId={} destinatarios={} archivoId={}", senderId, records.size(), archivoId);
+                collectIds(new java.util.ArrayList<>(targets.keySet()), messageWriter.persist(records), ids);
+            }
+        } catch (Exception e) {
+            log.error("No se pudo persistir archivo/mensaje en BD", e);
+        }
+        return archivoId;
+    }
 
-        // forward to recipient(s): send FILEFROM sender|filename|base64
-        String forward = "FILEFROM " + authenticatedUser + "|" + filename + "|" + base64 + "\n";
+    /**
+     * Entrega FILEFROM al destinatario (o a todos) más la línea "(archivo) nombre" en el chat, con el id
+     * de su mensaje (deliverText).
+     * content es el campo binario: String Base64 (llegó por v1), byte[] o FileContent (archivo ya guardado).
+     */
+    private void forwardFile(String recipient, String filename, Object content, java.util.Map<String, Long> ids) {
+        ProtocolMessage forward = ProtocolMessage.of(Verb.FILEFROM, authenticatedUser, filename, content);
         if ("ALL".equalsIgnoreCase(recipient)) {
-            connectedClients.broadcastMessage(authenticatedUser, "(archivo) " + filename);
             // broadcast the file itself
-            connectedClients.broadcastRaw(forward);
+            connectedClients.broadcast(forward, "FILEFROM");
+            deliverText(recipient, "(archivo) " + filename, ids);
         } else {
             boolean sent = connectedClients.sendTo(recipient, forward);
             if (!sent) {
@@ -509,47 +844,110 @@ public class ClientWorker implements Runnable {
             }
             // Also send a textual notification MSGFROM so the recipient sees a chat line like "(archivo) filename"
             try {
-                String note = "MSGFROM " + authenticatedUser + "|" + "(archivo) " + filename + "\n";
-                boolean noteSent = connectedClients.sendTo(recipient, note);
-                if (!noteSent) {
+                if (!deliverText(recipient, "(archivo) " + filename, ids)) {
                     log.debug("Could not send file notification MSGFROM to {}", recipient);
                 }
             } catch (Exception e) {
                 log.warn("Error sending file notification to {}: {}", recipient, e.getMessage());
             }
         }
+    }
 
-        out.write("SENT\n");
-        out.flush();
+    private void handleFileGet(ProtocolMessage msg) throws IOException {
+        // Format: FILE_GET archivoId -> FILE_CONTENT archivoId|filename|data  o  FILE_STATUS archivoId|ERROR|motivo
+        if (authenticatedUser == null) {
+            reply(Verb.ERROR, "no_autenticado");
+            return;
+        }
+        String idStr = msg.arg(0);
+        long archivoId;
+        try {
+            archivoId = Long.parseLong(idStr.trim());
+        } catch (NumberFormatException nfe) {
+            reply(Verb.FILE_STATUS, idStr, "ERROR", "id_no_valido");
+            return;
+        }
+        ArchivoDao.ArchivoInfo ainfo = null;
+        try {
+            var uOpt = userDao.findByUsername(authenticatedUser);
+            // sólo quien envió o recibió el archivo puede descargarlo
+            if (uOpt.isPresent() && messageDao.hasArchivoAccess(uOpt.get().getId(), archivoId)) {
+                ainfo = archivoDao.findById(archivoId);
+            }
+        } catch (Exception e) {
+            log.warn("No se pudo comprobar el archivo {} para {}: {}", archivoId, authenticatedUser, e.getMessage());
+        }
+        java.nio.file.Path path = ainfo == null ? null : resolveArchivoPath(ainfo);
+        if (path == null) {
+            reply(Verb.FILE_STATUS, idStr, "ERROR", "no_encontrado");
+            return;
+        }
+        try {
+            // región mapeada: los clientes v2 la reciben sin copiarla al heap
+            reply(Verb.FILE_CONTENT, archivoId, ainfo.filename, ProtocolMessage.FileContent.map(path));
+        } catch (IOException e) {
+            log.warn("No se pudo leer archivo {} desde path {}: {}", ainfo.filename, path, e.getMessage());
+            reply(Verb.FILE_STATUS, idStr, "ERROR", "no_encontrado");
+        }
     }
 
-    private void handleRegister(String line, BufferedWriter out) throws Exception {
-        log.info("mensaje llega a funcion de ClientWorker.handleRegister correctamente. Raw='{}'", line);
-        String payload = line.substring(9);
-        String[] p = payload.split("\\|", 3);
-        if (p.length < 3) {
-            out.write("ERROR formato REGISTER id|usuario|password\n");
-            out.flush();
+    /**
+     * Ruta en disco de un archivo registrado: la guardada en BD (almacén por contenido o ruta antigua),
+     * relativa a Archivos_enviados, o buscando por nombre en ese directorio. null si no está.
+     */
+    private java.nio.file.Path resolveArchivoPath(ArchivoDao.ArchivoInfo ainfo) {
+        java.nio.file.Path pathCandidate = null;
+        try {
+            if (ainfo.path != null && !ainfo.path.isBlank()) {
+                pathCandidate = java.nio.file.Paths.get(ainfo.path);
+                if (!java.nio.file.Files.exists(pathCandidate)) {
+                    // try relative uploads dir
+                    pathCandidate = java.nio.file.Paths.get("Archivos_enviados").resolve(ainfo.path);
+                    if (!java.nio.file.Files.exists(pathCandidate)) pathCandidate = null;
+                }
+            }
+            if (pathCandidate == null && ainfo.filename != null) {
+                // try to find file in uploads dir by pattern
+                java.nio.file.Path uploads = java.nio.file.Paths.get("Archivos_enviados");
+                if (java.nio.file.Files.exists(uploads) && java.nio.file.Files.isDirectory(uploads)) {
+                    try (java.util.stream.Stream<java.nio.file.Path> s = java.nio.file.Files.list(uploads)) {
+                        java.util.Optional<java.nio.file.Path> found = s.filter(pp -> pp.getFileName().toString().endsWith("_" + ainfo.filename) || pp.getFileName().toString().equals(ainfo.filename)).findFirst();
+                        if (found.isPresent()) pathCandidate = found.get();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("No se pudo localizar archivo {} ({}): {}", ainfo.filename, ainfo.path, e.getMessage());
+            return null;
+        }
+        if (pathCandidate == null) {
+            log.warn("Archivo no encontrado en FS para archivo id={} nombre='{}'", ainfo.id, ainfo.filename);
+        }
+        return pathCandidate;
+    }
+
+    private void handleRegister(ProtocolMessage msg) throws Exception {
+        if (msg.size() < 3) {
+            reply(Verb.ERROR, "formato REGISTER id|usuario|password");
             return;
         }
 
-        String id = p[0];
-        String usuario = p[1];
-        String password = p[2];
+        String id = msg.arg(0);
+        String usuario = msg.arg(1);
+        String password = msg.arg(2);
 
         boolean ok = authService.register(id, usuario, password);
         if (ok) {
             log.info("Registro exitoso de usuario '{}' (id={}) desde {}", usuario, id, socket.getRemoteSocketAddress());
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Registro exitoso: " + usuario + " (id=" + id + ") desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("REGISTERED\n");
-
+            reply(Verb.REGISTERED);
             // perform DB sanity check (count users) if jdbc available
             try {
                 if (jdbc != null) {
                     Long count = jdbc.queryForObject("SELECT COUNT(*) FROM usuarios", Long.class);
-                    String msg = "Post-register DB check: usuarios count = " + (count == null ? 0 : count);
-                    log.info(msg);
-                    try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi(msg); } catch (Exception ignored) {}
+                    String check = "Post-register DB check: usuarios count = " + (count == null ? 0 : count);
+                    log.info(check);
+                    try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi(check); } catch (Exception ignored) {}
                 }
             } catch (Exception dbEx) {
                 log.warn("Post-register DB check failed: {}", dbEx.getMessage());
@@ -559,18 +957,14 @@ public class ClientWorker implements Runnable {
         } else {
             log.warn("Registro fallido (usuario existente o error): '{}' (id={}) desde {}", usuario, id, socket.getRemoteSocketAddress());
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Registro fallido (usuario existente o error): " + usuario + " (id=" + id + ") desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("ERROR usuario_existente\n");
+            reply(Verb.ERROR, "usuario_existente");
         }
-        out.flush();
     }
 
-    private void handleLogin(String line, BufferedWriter out) throws Exception {
-        log.info("mensaje llega a funcion de ClientWorker.handleLogin correctamente. Raw='{}'", line);
-        String payload = line.substring(6);
-        String[] p = payload.split("\\|", 3);
-        if (p.length < 3) {
-            out.write("ERROR formato LOGIN id|usuario|password\n");
-            out.flush();
+    private void handleLogin(ProtocolMessage msg) throws Exception {
+        String[] p = {msg.arg(0), msg.arg(1), msg.arg(2)};
+        if (msg.size() < 3) {
+            reply(Verb.ERROR, "formato LOGIN id|usuario|password");
             return;
         }
 
@@ -582,14 +976,16 @@ public class ClientWorker implements Runnable {
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Login exitoso: " + user + " (id=" + p[0] + ") desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
             // attempt to register the authenticated user so we can broadcast connected users
             try {
-                String regErr = connectedClients.register(user, out, remoteIp);
+                Long userId = null;
+                try { userId = Long.parseLong(p[0].trim()); } catch (NumberFormatException ignored) {}
+                String regErr = connectedClients.register(user, userId, session, remoteIp);
                 if (regErr != null) {
                     log.warn("Registro rechazado para usuario '{}' desde {} motivo={}", user, remoteIp, regErr);
-                    out.write("ERROR " + regErr + "\n");
-                    out.flush();
+                    reply(Verb.ERROR, regErr);
                     return;
                 }
                 authenticatedUser = user;
+                authenticatedUserId = userId;
                 authenticatedUserIp = remoteIp;
                 // create a DB session row and store sessionId
                 try {
@@ -606,148 +1002,186 @@ public class ClientWorker implements Runnable {
             } catch (Exception e) {
                 log.warn("Error registrando usuario en ConnectedClients: {}", e.getMessage());
             }
-            out.write("LOGGED\n");
-                out.flush();
-                // After login, attempt to load recent messages for this user from DB and send them
-                try {
-                    var uOpt = userDao.findByUsername(user);
-                    if (uOpt.isPresent()) {
-                        Long uid = uOpt.get().getId();
-                        // fetch up to 200 recent messages involving this user
-                        java.util.List<com.proyecto.demo.model.MessageRecord> recent = messageDao.findForUser(uid, 200);
-                        if (recent != null && !recent.isEmpty()) {
-                            log.info("Enviando {} mensajes históricos desde BD a {}", recent.size(), user);
-                            // Determine last closed session end time for this user (to avoid resending messages
-                            // that the client already received during the previous session).
-                            java.time.LocalDateTime lastLogout = null;
-                            try {
-                                var sessions = sesionDao.findActiveSessionsByUser(uid);
-                                if (sessions != null && !sessions.isEmpty()) {
-                                    for (var s : sessions) {
-                                        if (s.desconectadoEn != null) {
-                                            lastLogout = s.desconectadoEn.toLocalDateTime();
-                                            break;
-                                        }
-                                    }
-                                }
-                            } catch (Exception sessEx) {
-                                log.debug("No se pudo determinar última sesión cerrada para usuario {}: {}", user, sessEx.getMessage());
-                            }
-                            if (lastLogout != null) {
-                                log.info("Se omitirá historial creado hasta {} para evitar duplicados al usuario {}", lastLogout, user);
-                            }
-                            for (com.proyecto.demo.model.MessageRecord mr : recent) {
-                                try {
-                                    // If we determined a lastLogout time, skip messages created at or before that time
-                                    if (lastLogout != null && mr.getCreadoEn() != null && !mr.getCreadoEn().isAfter(lastLogout)) {
-                                        // skip this message because it was likely already delivered in previous session
-                                        continue;
-                                    }
-                                    // get sender username via JDBC (handle nombre/nombre_usuario)
-                                    String sender = null;
-                                    try {
-                                        var senderOpt = userDao.findById(mr.getEmisorId());
-                                        if (senderOpt.isPresent()) sender = senderOpt.get().getUsername(); else sender = String.valueOf(mr.getEmisorId());
-                                    } catch (Exception exu) {
-                                        try { sender = String.valueOf(mr.getEmisorId()); } catch (Exception ign) { sender = "?"; }
-                                    }
-                                    // resolve receptor username (prefer readable name over numeric id)
-                                    String receptor = "";
-                                    try {
-                                        if (mr.getReceptorId() != null) {
-                                            var recipOpt = userDao.findById(mr.getReceptorId());
-                                            if (recipOpt.isPresent()) receptor = recipOpt.get().getUsername();
-                                            else receptor = String.valueOf(mr.getReceptorId());
-                                        }
-                                    } catch (Exception exr) {
-                                        try { receptor = mr.getReceptorId() == null ? "" : String.valueOf(mr.getReceptorId()); } catch (Exception ign) { receptor = ""; }
-                                    }
-
-                                    if ("ARCHIVO".equalsIgnoreCase(mr.getTipoMensaje()) && mr.getArchivoId() != null) {
-                                        var ainfo = archivoDao.findById(mr.getArchivoId());
-                                        if (ainfo != null) {
-                                            java.nio.file.Path pathCandidate = null;
-                                            try {
-                                                if (ainfo.path != null && !ainfo.path.isBlank()) {
-                                                    pathCandidate = java.nio.file.Paths.get(ainfo.path);
-                                                    if (!java.nio.file.Files.exists(pathCandidate)) {
-                                                        // try relative uploads dir
-                                                        pathCandidate = java.nio.file.Paths.get("Archivos_enviados").resolve(ainfo.path);
-                                                        if (!java.nio.file.Files.exists(pathCandidate)) pathCandidate = null;
-                                                    }
-                                                }
-                                                if (pathCandidate == null && ainfo.filename != null) {
-                                                    // try to find file in uploads dir by pattern
-                                                    java.nio.file.Path uploads = java.nio.file.Paths.get("Archivos_enviados");
-                                                    if (java.nio.file.Files.exists(uploads) && java.nio.file.Files.isDirectory(uploads)) {
-                                                        try (java.util.stream.Stream<java.nio.file.Path> s = java.nio.file.Files.list(uploads)) {
-                                                            java.util.Optional<java.nio.file.Path> found = s.filter(pp -> pp.getFileName().toString().endsWith("_" + ainfo.filename) || pp.getFileName().toString().equals(ainfo.filename)).findFirst();
-                                                            if (found.isPresent()) pathCandidate = found.get();
-                                                        }
-                                                    }
-                                                }
-                                                if (pathCandidate != null) {
-                                                    byte[] content = java.nio.file.Files.readAllBytes(pathCandidate);
-                                                    String b64 = java.util.Base64.getEncoder().encodeToString(content);
-                                                    // Send HISTFILE with emisor|receptor|filename|base64|timestamp
-                                                    String ts = mr.getCreadoEn() == null ? java.time.Instant.now().toString() : mr.getCreadoEn().toString();
-                                                    out.write("HISTFILE " + sender + "|" + receptor + "|" + ainfo.filename + "|" + b64 + "|" + ts + "\n");
-                                                    out.flush();
-                                                    // Also send a historical textual notification so the client shows a chat line like '(archivo) filename'
-                                                    out.write("HISTMSG " + sender + "|" + receptor + "|" + "(archivo) " + ainfo.filename + "|" + ts + "\n");
-                                                    out.flush();
-                                                } else {
-                                                    log.warn("Archivo histórico no encontrado en FS para archivo id={} nombre='{}'", ainfo.id, ainfo.filename);
-                                                }
-                                            } catch (Exception re) {
-                                                log.warn("No se pudo leer archivo histórico {} desde path {}: {}", ainfo.filename, ainfo.path, re.getMessage());
-                                            }
-                                        }
-                                    } else {
-                                        String content = mr.getContenido() == null ? "" : mr.getContenido();
-                                        // Send HISTMSG with emisor|receptor|content|timestamp
-                                        String ts = mr.getCreadoEn() == null ? java.time.Instant.now().toString() : mr.getCreadoEn().toString();
-                                        out.write("HISTMSG " + sender + "|" + receptor + "|" + content + "|" + ts + "\n");
-                                        out.flush();
-                                    }
-                                } catch (Exception inner) {
-                                    log.warn("Error enviando mensaje histórico al cliente {}: {}", user, inner.getMessage());
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    log.warn("No se pudo enviar historial de mensajes desde BD tras login para user {}: {}", user, e.getMessage());
-                }
+            reply(Verb.LOGGED);
+            // con la capacidad msgid el cliente pide con SYNC lo posterior a su último id visto; al resto se
+            // le envía aquí la página más reciente, como siempre
+            if (!session.messageIds()) sendLoginHistory(user);
         } else {
             log.warn("Login fallido: usuario='{}' desde {}", p[0], socket.getRemoteSocketAddress());
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Login fallido: " + p[0] + " desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("ERROR credenciales\n");
+            reply(Verb.ERROR, "credenciales");
+        }
+    }
+
+    /**
+     * Historial tras LOGIN para clientes sin cursor propio: la página más reciente (HIST_PAGE *|login + HIST_ENTRY),
+     * sin lo creado hasta el cierre de su última sesión (ya lo recibió en directo). Lo anterior lo pide con HISTORY.
+     */
+    private void sendLoginHistory(String user) {
+        try {
+            var uOpt = userDao.findByUsername(user);
+            if (uOpt.isEmpty()) return;
+            Long uid = uOpt.get().getId();
+            java.util.List<MessageRecord> recent = messageDao.findForUser(uid, LOGIN_HISTORY);
+            if (recent == null) recent = new java.util.ArrayList<>();
+            // cursor para HISTORY de conversaciones sin mensajes en esta página: todo lo anterior al login
+            long loginCursor = recent.isEmpty() ? 1L : recent.get(recent.size() - 1).getId() + 1;
+            java.time.LocalDateTime lastLogout = null;
+            try {
+                var sessions = sesionDao.findActiveSessionsByUser(uid);
+                if (sessions != null) {
+                    for (var s : sessions) {
+                        if (s.desconectadoEn != null) {
+                            lastLogout = s.desconectadoEn.toLocalDateTime();
+                            break;
+                        }
+                    }
+                }
+            } catch (Exception sessEx) {
+                log.debug("No se pudo determinar última sesión cerrada para usuario {}: {}", user, sessEx.getMessage());
+            }
+            if (lastLogout != null) {
+                log.info("Se omitirá historial creado hasta {} para evitar duplicados al usuario {}", lastLogout, user);
+                final java.time.LocalDateTime cutoff = lastLogout;
+                recent = new java.util.ArrayList<>(recent);
+                recent.removeIf(mr -> mr.getCreadoEn() != null && !mr.getCreadoEn().isAfter(cutoff));
+            }
+            log.info("Enviando {} mensajes históricos desde BD a {}", recent.size(), user);
+            reply(Verb.HIST_PAGE, "*", "login", recent.size(), "false", loginCursor);
+            sendHistoryEntries(recent);
+        } catch (Exception e) {
+            log.warn("No se pudo enviar historial de mensajes desde BD tras login para user {}: {}", user, e.getMessage());
+        }
+    }
+
+    private void handleUsersGet() throws IOException {
+        // Format: USERS_GET -> USERS_SNAPSHOT version|u1,u2,...
+        if (authenticatedUser == null) {
+            reply(Verb.ERROR, "no_autenticado");
+            return;
+        }
+        connectedClients.sendPresenceSnapshot(session);
+    }
+
+    private void handleSync(ProtocolMessage msg) throws IOException {
+        // Format: SYNC ultimoIdVisto (0 = sin cursor guardado)
+        //   -> HIST_PAGE *|sync|count|hasMore|cursor + count x HIST_ENTRY en orden de id; con hasMore el cliente
+        //      repite SYNC con el cursor recibido, así cada reconexión sólo cuesta lo que no ha visto y la cola
+        //      de salida nunca recibe más de una página de golpe
+        if (authenticatedUser == null) {
+            reply(Verb.ERROR, "no_autenticado");
+            return;
+        }
+        long cursor;
+        try {
+            cursor = msg.arg(0).isBlank() ? 0L : Long.parseLong(msg.arg(0).trim());
+        } catch (NumberFormatException nfe) {
+            reply(Verb.ERROR, "formato SYNC id");
+            return;
+        }
+        java.util.List<MessageRecord> page = java.util.Collections.emptyList();
+        boolean hasMore = false;
+        try {
+            var uOpt = userDao.findByUsername(authenticatedUser);
+            if (uOpt.isPresent()) {
+                long uid = uOpt.get().getId();
+                if (cursor <= 0) {
+                    // primera vez en este equipo: sólo la última página; lo anterior se pide con HISTORY
+                    page = messageDao.findForUser(uid, LOGIN_HISTORY);
+                } else {
+                    page = messageDao.findForUserAfter(uid, cursor, historyMaxPageSize + 1);
+                    if (page.size() > historyMaxPageSize) {
+                        hasMore = true;
+                        page = page.subList(0, historyMaxPageSize);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("No se pudo leer historial desde {} para {}: {}", cursor, authenticatedUser, e.getMessage());
+        }
+        long next = page.isEmpty() ? Math.max(0L, cursor) : page.get(page.size() - 1).getId();
+        log.info("SYNC de {} desde {}: {} mensajes{}", authenticatedUser, cursor, page.size(), hasMore ? " (continúa)" : "");
+        reply(Verb.HIST_PAGE, "*", "sync", page.size(), hasMore ? "true" : "false", next);
+        sendHistoryEntries(page);
+    }
+
+    private void handleHistory(ProtocolMessage msg) throws IOException {
+        // Format: HISTORY peer|before o after|cursorId|pageSize
+        //   -> HIST_PAGE peer|dir|count|hasMore|siguienteCursor + count x HIST_ENTRY
+        if (authenticatedUser == null) {
+            reply(Verb.ERROR, "no_autenticado");
+            return;
+        }
+        String peer = msg.arg(0);
+        String direction = "after".equalsIgnoreCase(msg.arg(1)) ? "after" : "before";
+        long cursor;
+        int pageSize;
+        try {
+            cursor = msg.arg(2).isBlank() ? 0L : Long.parseLong(msg.arg(2).trim());
+            pageSize = msg.arg(3).isBlank() ? historyPageSize : Integer.parseInt(msg.arg(3).trim());
+        } catch (NumberFormatException nfe) {
+            reply(Verb.ERROR, "formato HISTORY peer|before/after|id|cantidad");
+            return;
+        }
+        pageSize = Math.max(1, Math.min(pageSize, historyMaxPageSize));
+        java.util.List<MessageRecord> page = java.util.Collections.emptyList();
+        boolean hasMore = false;
+        try {
+            var meOpt = userDao.findByUsername(authenticatedUser);
+            var peerOpt = userDao.findByUsername(peer);
+            if (meOpt.isPresent() && peerOpt.isPresent()) {
+                long me = meOpt.get().getId();
+                long other = peerOpt.get().getId();
+                // se pide uno de más para saber si queda otra página
+                page = "after".equals(direction)
+                        ? messageDao.findConversationAfter(me, other, cursor, pageSize + 1)
+                        : messageDao.findConversationBefore(me, other, cursor <= 0 ? Long.MAX_VALUE : cursor, pageSize + 1);
+                if (page.size() > pageSize) {
+                    hasMore = true;
+                    // before: sobra el más antiguo (el primero); after: el más nuevo (el último)
+                    page = "after".equals(direction) ? page.subList(0, pageSize) : page.subList(1, page.size());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("No se pudo leer historial {} con {} para {}: {}", direction, peer, authenticatedUser, e.getMessage());
         }
-        out.flush();
+        long next = page.isEmpty() ? cursor : ("after".equals(direction) ? page.get(page.size() - 1).getId() : page.get(0).getId());
+        reply(Verb.HIST_PAGE, peer, direction, page.size(), hasMore ? "true" : "false", next);
+        sendHistoryEntries(page);
     }
 
-    private void handleMessage(String line, BufferedWriter out) throws IOException {
-        log.info("mensaje llega a funcion de ClientWorker.handleMessage correctamente. Raw='{}'", line);
+    /**
+     * Envía una página del historial como HIST_ENTRY id|emisor|receptor|timestamp|archivoId|tamaño|sha256|contenido.
+     * Para archivos sólo va la referencia (el contenido se pide con FILE_GET) y contenido es el nombre.
+     * Usuarios y archivos se resuelven en bloque para toda la página (HistoryEntries).
+     */
+    private void sendHistoryEntries(java.util.List<MessageRecord> page) throws IOException {
+        for (ProtocolMessage entry : HistoryEntries.build(page, userDao, archivoDao)) {
+            if (session.send(entry) == OutboundQueue.Result.CLOSED) {
+                throw new IOException("conexión cerrada");
+            }
+        }
+    }
+
+    private void handleMessage(ProtocolMessage msg) throws IOException {
         if (authenticatedUser == null) {
             log.warn("Intento de envío sin autenticación desde {}", socket.getRemoteSocketAddress());
             try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("Intento de mensaje sin autenticacion desde " + socket.getRemoteSocketAddress()); } catch (Exception ignored) {}
-            out.write("ERROR no_autenticado\n");
-            out.flush();
+            reply(Verb.ERROR, "no_autenticado");
             return;
         }
-        String payload = line.substring(4);
         String recipient = "";
         String messageText = "";
-        String[] parts = payload.split("\\|", 2);
-        if (parts.length >= 2) {
-            recipient = parts[0];
-            messageText = parts[1];
+        if (msg.size() >= 2) {
+            recipient = msg.arg(0);
+            messageText = msg.arg(1);
         } else {
             // fallback: no recipient included
             recipient = "ALL";
-            messageText = payload;
+            messageText = msg.arg(0);
         }
+        // antes de registrar, guardar o repartir nada: un cliente que inunda no llega a la BD ni al resto
+        if (!withinLimits(Verb.MSG, messageText.getBytes(java.nio.charset.StandardCharsets.UTF_8).length)) return;
 
         String hora = LocalDateTime.now().format(fmt);
         // Log in required format
@@ -757,69 +1191,111 @@ public class ClientWorker implements Runnable {
         System.out.println("[MSG] " + hora + " " + registro + " (desde " + socket.getRemoteSocketAddress() + ")");
         try { com.proyecto.demo.ui.UiServerWindow.publishMessageToUi("[MSG] " + hora + " " + registro + " (desde " + socket.getRemoteSocketAddress() + ")"); } catch (Exception ignored) {}
 
-        // Deliver message: if recipient == ALL => broadcast; else send only to recipient (if connected)
-        String forwardLine = "MSGFROM " + authenticatedUser + "|" + messageText + "\n";
-        if ("ALL".equalsIgnoreCase(recipient)) {
-            connectedClients.broadcastMessage(authenticatedUser, messageText);
-        } else {
-            boolean sent = connectedClients.sendTo(recipient, forwardLine);
+        // persist message(s) to DB first: cada destinatario recibe el id de su fila para avanzar su cursor de SYNC
+        java.util.Map<String, Long> ids = persistTextMessages(recipient, messageText);
+
+        // Deliver message: if recipient == ALL => every connected user; else send only to recipient (if connected)
+        boolean sent = deliverText(recipient, messageText, ids);
+        if (!"ALL".equalsIgnoreCase(recipient)) {
             if (!sent) {
                 log.warn("No se pudo entregar mensaje a {} (no conectado)", recipient);
             }
             // ensure the sender also receives an echo with recipient info so their UI can show the sent message
             try {
-                String echo = "MSG_ECHO " + authenticatedUser + "|" + recipient + "|" + messageText + "\n";
-                out.write(echo);
-                out.flush();
+                reply(Verb.MSG_ECHO, authenticatedUser, recipient, messageText);
             } catch (Exception ew) {
                 log.warn("No se pudo enviar echo de mensaje al emisor {}: {}", authenticatedUser, ew.getMessage());
             }
         }
 
-        // persist message(s) to DB (best-effort, non-blocking for the protocol)
+        reply(Verb.SENT, lastId(ids));
+        System.out.println("[RESP] SENT -> " + authenticatedUser + " (" + socket.getRemoteSocketAddress() + ")");
+    }
+
+    /**
+     * Guarda un mensaje TEXTO por destinatario (todos los conectados salvo el emisor si es ALL).
+     * Devuelve usuario -> id de su fila; sin entrada si no se pudo guardar o aún no se conoce (durabilidad enqueue).
+     */
+    private java.util.Map<String, Long> persistTextMessages(String recipient, String messageText) {
+        java.util.Map<String, Long> ids = new java.util.LinkedHashMap<>();
         try {
-            var senderOpt = userDao.findByUsername(authenticatedUser);
-            if (senderOpt.isPresent()) {
-                Long senderId = senderOpt.get().getId();
-                if ("ALL".equalsIgnoreCase(recipient)) {
-                    for (String r : connectedClients.getConnectedUsers()) {
-                        if (r.equalsIgnoreCase(authenticatedUser)) continue;
-                        var recipOpt = userDao.findByUsername(r);
-                        if (recipOpt.isPresent()) {
-                            MessageRecord mr = new MessageRecord();
-                            mr.setEmisorId(senderId);
-                            mr.setReceptorId(recipOpt.get().getId());
-                            mr.setTipoMensaje("TEXTO");
-                            mr.setContenido(messageText);
-                            mr.setArchivoId(null);
-                            mr.setSesionId(sessionId);
-                            log.debug("Persistiendo mensaje: emisorId={} receptorId={} sesionId={} contenido='{}'", senderId, recipOpt.get().getId(), sessionId, messageText);
-                            messageDao.insertMessage(mr);
-                        }
-                    }
-                } else {
-                    var recipOpt = userDao.findByUsername(recipient);
-                    if (recipOpt.isPresent()) {
-                        MessageRecord mr = new MessageRecord();
-                        mr.setEmisorId(senderId);
-                        mr.setReceptorId(recipOpt.get().getId());
-                        mr.setTipoMensaje("TEXTO");
-                        mr.setContenido(messageText);
-                        mr.setArchivoId(null);
-                        mr.setSesionId(sessionId);
-                        log.debug("Persistiendo mensaje: emisorId={} receptorId={} sesionId={} contenido='{}'", senderId, recipOpt.get().getId(), sessionId, messageText);
-                        messageDao.insertMessage(mr);
-                    }
+            Long senderId = senderId();
+            if (senderId != null) {
+                java.util.Map<String, Long> targets = recipientIds(recipient);
+                java.util.List<MessageRecord> records = new java.util.ArrayList<>(targets.size());
+                for (Long receptorId : targets.values()) {
+                    MessageRecord mr = new MessageRecord();
+                    mr.setEmisorId(senderId);
+                    mr.setReceptorId(receptorId);
+                    mr.setTipoMensaje("TEXTO");
+                    mr.setContenido(messageText);
+                    mr.setArchivoId(null);
+                    mr.setSesionId(sessionId);
+                    records.add(mr);
                 }
+                log.debug("Persistiendo mensaje: emisorId={} destinatarios={} sesionId={} contenido='{}'", senderId, records.size(), sessionId, messageText);
+                collectIds(new java.util.ArrayList<>(targets.keySet()), messageWriter.persist(records), ids);
             } else {
                 log.warn("No se encontró usuario emisor en BD para persistencia: {}", authenticatedUser);
             }
         } catch (Exception e) {
             log.error("Error guardando mensaje en BD", e);
         }
+        return ids;
+    }
 
-        out.write("SENT\n");
-        out.flush();
-        System.out.println("[RESP] SENT -> " + authenticatedUser + " (" + socket.getRemoteSocketAddress() + ")");
+    // id del usuario autenticado: el del LOGIN, o buscándolo si no se conoce
+    private Long senderId() {
+        if (authenticatedUserId != null) return authenticatedUserId;
+        var senderOpt = userDao.findByUsername(authenticatedUser);
+        return senderOpt.isPresent() ? senderOpt.get().getId() : null;
+    }
+
+    /**
+     * Destinatarios con su id de usuario: el indicado, o todos los conectados salvo el emisor si es ALL.
+     * Los ids de los conectados salen del registro (guardados en su LOGIN): un ALL no hace una consulta por
+     * destinatario. Sólo se buscan los que no estén conectados o no lo tengan; los que no existen no aparecen.
+     */
+    private java.util.Map<String, Long> recipientIds(String recipient) {
+        java.util.Map<String, Long> out = new java.util.LinkedHashMap<>();
+        java.util.Map<String, Long> known = "ALL".equalsIgnoreCase(recipient) ? connectedClients.getConnectedUserIds() : java.util.Collections.singletonMap(recipient, connectedClients.getUserId(recipient));
+        for (var e : known.entrySet()) {
+            String r = e.getKey();
+            if ("ALL".equalsIgnoreCase(recipient) && r.equalsIgnoreCase(authenticatedUser)) continue;
+            Long id = e.getValue();
+            if (id == null) {
+                var recipOpt = userDao.findByUsername(r);
+                if (recipOpt.isEmpty()) continue;
+                id = recipOpt.get().getId();
+            }
+            out.put(r, id);
+        }
+        return out;
+    }
+
+    // usuario -> id de su fila; sin entrada si no se conoce (durabilidad enqueue o error)
+    private static void collectIds(java.util.List<String> names, long[] rowIds, java.util.Map<String, Long> ids) {
+        for (int i = 0; i < names.size(); i++) {
+            if (rowIds[i] > 0) ids.put(names.get(i), rowIds[i]);
+        }
+    }
+
+    /**
+     * Entrega el mensaje al destinatario en el formato de cada sesión (ConnectedClients.sendMessageTo). Un ALL
+     * se reparte como un único mensaje compartido que lleva el mayor id de sus filas: cada destinatario tiene la
+     * suya, siempre menor o igual, así que su cursor de SYNC queda por delante de ella. Devuelve si llegó a
+     * alguna sesión.
+     */
+    private boolean deliverText(String recipient, String text, java.util.Map<String, Long> ids) {
+        if ("ALL".equalsIgnoreCase(recipient)) {
+            Long id = ids.isEmpty() ? null : java.util.Collections.max(ids.values());
+            return connectedClients.broadcastMessage(authenticatedUser, text, id);
+        }
+        return connectedClients.sendMessageTo(recipient, authenticatedUser, text, ids.get(recipient));
+    }
+
+    // mayor id guardado en esta petición (va en SENT para el cursor de SYNC del emisor); "" si ninguno
+    private static String lastId(java.util.Map<String, Long> ids) {
+        return ids.isEmpty() ? "" : String.valueOf(java.util.Collections.max(ids.values()));
     }
 }
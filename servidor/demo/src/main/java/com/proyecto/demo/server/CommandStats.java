@@ -0,0 +1,44 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.server.ProtocolMessage.Verb;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tiempo de atención de cada comando del cliente (desde que se despacha hasta que su handler termina,
+ * incluidas BD y encolado de respuestas), un histograma por verbo. Lo alimenta ClientWorker y se consulta
+ * en /api/commands.
+ */
+@Component
+public class CommandStats {
+
+    private final Map<Verb, LatencyHistogram> byVerb = new EnumMap<>(Verb.class);
+
+    public CommandStats() {
+        // todos creados de antemano: record() no reserva memoria ni toma locks
+        for (Verb v : Verb.values()) byVerb.put(v, new LatencyHistogram());
+    }
+
+    void record(Verb verb, long nanos) {
+        byVerb.get(verb).record(nanos);
+    }
+
+    /** Verbo -> count, mean/p50/p99/p999/max en microsegundos; sólo los comandos recibidos alguna vez. */
+    public Map<String, Map<String, Long>> snapshot() {
+        Map<String, Map<String, Long>> out = new LinkedHashMap<>();
+        for (var e : histograms().entrySet()) out.put(e.getKey(), e.getValue().summaryMicros());
+        return out;
+    }
+
+    /** Los histogramas con alguna muestra, por verbo (para /api/metrics/prometheus). */
+    public Map<String, LatencyHistogram> histograms() {
+        Map<String, LatencyHistogram> out = new LinkedHashMap<>();
+        for (var e : byVerb.entrySet()) {
+            if (e.getValue().count() > 0) out.put(e.getKey().name(), e.getValue());
+        }
+        return out;
+    }
+}
@@ -5,16 +5,32 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
-import java.io.BufferedWriter;
-import java.io.IOException;
+import jakarta.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Registro simple de usuarios autenticados conectados.
  * Usado por cada ClientWorker para publicar la lista a todos los clientes.
+ *
+ * Los envíos sólo encolan en la OutboundQueue de cada ClientSession: un cliente lento nunca bloquea
+ * al emisor ni al resto de destinatarios (ver app.outbound.overflowPolicy).
+ *
+ * Presencia (app.presence.mode=delta): cada sesión recibe la lista completa una vez, al hacer LOGIN
+ * (USERS_SNAPSHOT version|lista), y después sólo los cambios (USER_JOIN / USER_LEAVE version|usuarios).
+ * Los cambios de una ventana de app.presence.debounceMs se publican juntos: lo que se reparte es la
+ * diferencia entre lo ya publicado y el registro, así que quien entra y sale dentro de la ventana no
+ * genera nada. Un cliente que ve un salto de versión (p. ej. si su cola descartó mensajes) pide la lista
+ * con USERS_GET. Con app.presence.mode=full se envía el USERS completo en cada cambio, como antes.
  */
 @Component
 public class ConnectedClients {
@@ -23,13 +39,51 @@ public class ConnectedClients {
     // Instancia estática para acceso desde código UI que no está en el contexto de Spring
     private static ConnectedClients instance;
 
-    // Map: username -> (ip -> BufferedWriter)
-    private final ConcurrentHashMap<String, ConcurrentHashMap<String, BufferedWriter>> clients = new ConcurrentHashMap<>();
+    // Map: username -> (ip -> ClientSession)
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ClientSession>> clients = new ConcurrentHashMap<>();
+    // username -> id en `usuarios` (se conoce al hacer LOGIN): un ALL no tiene que buscar a cada destinatario
+    private final ConcurrentHashMap<String, Long> userIds = new ConcurrentHashMap<>();
+    // copia inmutable de todas las sesiones para los broadcasts; se rehace sólo al (des)registrar
+    private volatile ClientSession[] snapshot = new ClientSession[0];
+    // serializa los cambios del registro y la reconstrucción del snapshot
+    private final ReentrantLock registryLock = new ReentrantLock();
+
+    // envíos de USERS (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private ServerMetrics metrics;
 
     // max distinct IP connections per username
     @org.springframework.beans.factory.annotation.Value("${app.user.maxConnections:3}")
     private int maxConnectionsPerUser = 3;
 
+    // delta = USERS_SNAPSHOT al entrar + USER_JOIN/USER_LEAVE; full = USERS completo en cada cambio
+    @org.springframework.beans.factory.annotation.Value("${app.presence.mode:delta}")
+    private String presenceMode = "delta";
+
+    // ventana en la que se juntan los cambios de presencia; 0 = publicar en el mismo hilo que registra
+    @org.springframework.beans.factory.annotation.Value("${app.presence.debounceMs:50}")
+    private long presenceDebounceMs = 50;
+
+    // usuarios publicados hasta presenceVersion; todo con presenceLock tomado
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private final TreeSet<String> publishedUsers = new TreeSet<>();
+    private long presenceVersion;
+    private boolean flushScheduled;
+    private ScheduledExecutorService presenceTimer;
+    // repartos de presencia ya numerados, en orden de versión: se añaden con presenceLock tomado y se
+    // encolan a las sesiones fuera de él (deliverPresence), de uno en uno aunque los pidan varios hilos
+    private final ConcurrentLinkedQueue<Runnable> presenceOut = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean deliveringPresence = new AtomicBoolean();
+
+    public ConnectedClients() {
+    }
+
+    // tests y benchmarks: modo de presencia y ventana sin Spring
+    ConnectedClients(String presenceMode, long presenceDebounceMs) {
+        this.presenceMode = presenceMode;
+        this.presenceDebounceMs = presenceDebounceMs;
+    }
+
     @PostConstruct
     public void init() {
         instance = this;
@@ -42,31 +96,55 @@ public class ConnectedClients {
         return instance;
     }
 
+    @PreDestroy
+    public void stopPresenceTimer() {
+        presenceLock.lock();
+        try {
+            if (presenceTimer != null) presenceTimer.shutdownNow();
+            presenceTimer = null;
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
     /**
      * Register a connection for a username coming from a specific IP.
-     * Returns true if registration accepted; false if rejected (same IP already connected or limit exceeded).
+     * Returns null if accepted; otherwise returns an error code string describing the rejection.
      */
+    public String register(String user, ClientSession out, String ip) {
+        return register(user, null, out, ip);
+    }
+
     /**
-     * Register a connection for a username coming from a specific IP.
-     * Returns null if accepted; otherwise returns an error code string describing the rejection.
+     * Como register(user, out, ip) guardando además el id del usuario (ver getConnectedUserIds()).
      */
-    public String register(String user, BufferedWriter out, String ip) {
+    public String register(String user, Long userId, ClientSession out, String ip) {
         if (user == null || out == null || ip == null) return "invalid_params";
-        clients.putIfAbsent(user, new ConcurrentHashMap<>());
-        var map = clients.get(user);
-        // same IP already connected => reject (do not close previous connection)
-        if (map.containsKey(ip)) {
-            log.info("Rechazando registro para usuario '{}' desde la misma IP {} (ya conectado)", user, ip);
-            return "Error: Limite de ips excedido, no puede ingresar en este equipo";
-        }
-        // enforce max distinct IPs per user
-        if (map.size() >= maxConnectionsPerUser) {
-            log.info("Rechazando registro para usuario '{}' desde {} (limite {} conexiones)", user, ip, maxConnectionsPerUser);
-            return "Error: Limite de ips excedido, no puede ingresar en este equipo";
-        }
-        map.put(ip, out);
-        log.info("Usuario registrado para broadcast: {} (user-conns={})", user, map.size());
-        broadcastUserList();
+        int conns;
+        registryLock.lock();
+        try {
+            var map = clients.computeIfAbsent(user, k -> new ConcurrentHashMap<>());
+            // same IP already connected => reject (do not close previous connection)
+            if (map.containsKey(ip)) {
+                log.info("Rechazando registro para usuario '{}' desde la misma IP {} (ya conectado)", user, ip);
+                return "Error: Limite de ips excedido, no puede ingresar en este equipo";
+            }
+            // enforce max distinct IPs per user
+            if (map.size() >= maxConnectionsPerUser) {
+                log.info("Rechazando registro para usuario '{}' desde {} (limite {} conexiones)", user, ip, maxConnectionsPerUser);
+                return "Error: Limite de ips excedido, no puede ingresar en este equipo";
+            }
+            out.bindUser(user, ip);
+            map.put(ip, out);
+            if (userId != null) userIds.put(user, userId);
+            conns = map.size();
+            rebuildSnapshot();
+        } finally {
+            registryLock.unlock();
+        }
+        log.info("Usuario registrado para broadcast: {} (user-conns={})", user, conns);
+        if (deltaPresence()) sendPresenceSnapshot(out);
+        presenceChanged();
         return null;
     }
 
@@ -75,105 +153,291 @@ public class ConnectedClients {
      */
     public void unregister(String user, String ip) {
         if (user == null || ip == null) return;
-        var map = clients.get(user);
-        if (map == null) return;
-        var removed = map.remove(ip);
+        ClientSession removed;
+        int conns;
+        registryLock.lock();
+        try {
+            var map = clients.get(user);
+            if (map == null) return;
+            removed = map.remove(ip);
+            if (map.isEmpty()) {
+                clients.remove(user);
+                userIds.remove(user);
+            }
+            conns = map.size();
+            rebuildSnapshot();
+        } finally {
+            registryLock.unlock();
+        }
         try { if (removed != null) removed.close(); } catch (Exception ignored) {}
-        if (map.isEmpty()) {
-            clients.remove(user);
+        log.info("Usuario {} desconectado desde {} (user-conns={})", user, ip, conns);
+        presenceChanged();
+    }
+
+    /**
+     * Quita del registro una sesión cuya cola ya está cerrada (cliente lento desconectado o socket caído).
+     */
+    private void evict(ClientSession s, String what) {
+        log.warn("Failed to send {} to {}@{}: conexión cerrada. Removing.", what, s.user(), s.ip());
+        registryLock.lock();
+        try {
+            var map = clients.get(s.user());
+            if (map == null || !map.remove(s.ip(), s)) return;
+            if (map.isEmpty()) {
+                clients.remove(s.user());
+                userIds.remove(s.user());
+            }
+            rebuildSnapshot();
+        } finally {
+            registryLock.unlock();
         }
-        log.info("Usuario {} desconectado desde {} (user-conns={})", user, ip, map == null ? 0 : map.size());
-        broadcastUserList();
+        // en modo full no: el USERS completo repartiría a su vez y podría volver a desalojar
+        if (deltaPresence()) presenceChanged();
     }
 
-    public void broadcastUserList() {
+    // sólo con registryLock tomado
+    private void rebuildSnapshot() {
+        List<ClientSession> all = new ArrayList<>();
+        for (var ipMap : clients.values()) all.addAll(ipMap.values());
+        snapshot = all.toArray(new ClientSession[0]);
+    }
+
+    /**
+     * Entrega el mismo mensaje a todas las sesiones registradas. El mensaje se codifica como mucho una vez
+     * por versión de protocolo y cada destinatario recibe un duplicate() del mismo buffer de solo lectura:
+     * el coste de codificar no depende del número de clientes.
+     */
+    public void broadcast(ProtocolMessage msg, String what) {
+        broadcast(snapshot, msg, what);
+    }
+
+    private void broadcast(ClientSession[] recipients, ProtocolMessage msg, String what) {
+        for (ClientSession s : recipients) {
+            if (s.send(msg) == OutboundQueue.Result.CLOSED) evict(s, what);
+        }
+    }
+
+    private boolean deltaPresence() {
+        return !"full".equalsIgnoreCase(presenceMode);
+    }
+
+    /**
+     * Hubo un alta o una baja: en modo full se reparte ya el USERS completo; en modo delta se publica la
+     * diferencia al cerrar la ventana de debounce (o ahora mismo si es 0).
+     */
+    private void presenceChanged() {
+        if (!deltaPresence()) {
+            broadcastUserList();
+            return;
+        }
+        if (presenceDebounceMs <= 0) {
+            flushPresence();
+            return;
+        }
+        presenceLock.lock();
+        try {
+            if (flushScheduled) return;
+            if (presenceTimer == null) {
+                presenceTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "presencia");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            presenceTimer.schedule(this::flushPresence, presenceDebounceMs, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            log.debug("Temporizador de presencia parado; no se publican cambios");
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    /**
+     * Publica lo que cambió desde la última versión: un USER_JOIN con los que entraron y un USER_LEAVE
+     * con los que salieron, cada uno con su número de versión. Con presenceLock sólo se calcula la
+     * diferencia y se fijan versión y destinatarios; el reparto va después, fuera del lock.
+     */
+    void flushPresence() {
+        presenceLock.lock();
+        try {
+            flushScheduled = false;
+            Set<String> online = new TreeSet<>(clients.keySet());
+            List<String> joined = new ArrayList<>();
+            for (String u : online) {
+                if (!publishedUsers.contains(u)) joined.add(u);
+            }
+            List<String> left = new ArrayList<>();
+            for (String u : publishedUsers) {
+                if (!online.contains(u)) left.add(u);
+            }
+            if (!joined.isEmpty()) {
+                publishedUsers.addAll(joined);
+                publishDelta(ProtocolMessage.Verb.USER_JOIN, joined);
+            }
+            if (!left.isEmpty()) {
+                publishedUsers.removeAll(left);
+                publishDelta(ProtocolMessage.Verb.USER_LEAVE, left);
+            }
+        } catch (Exception e) {
+            log.error("Error publicando cambios de presencia: {}", e.toString(), e);
+        } finally {
+            presenceLock.unlock();
+        }
+        deliverPresence();
+    }
+
+    // sólo con presenceLock tomado: numera el cambio y lo deja listo para deliverPresence
+    private void publishDelta(ProtocolMessage.Verb verb, List<String> users) {
+        long version = ++presenceVersion;
+        ClientSession[] recipients = snapshot;
+        ProtocolMessage msg = ProtocolMessage.of(verb, version, String.join(",", users));
+        presenceOut.add(() -> {
+            log.debug("{} v{} a {} sesiones: {}", verb, version, recipients.length, users);
+            broadcast(recipients, msg, verb.name());
+            if (metrics != null) metrics.presenceBroadcast(recipients.length);
+        });
+    }
+
+    /**
+     * Lista completa publicada y su versión a una sola sesión (al hacer LOGIN o si pide USERS_GET). Va por
+     * la misma cola que los cambios: ningún USER_JOIN/USER_LEAVE posterior puede adelantarla.
+     */
+    public void sendPresenceSnapshot(ClientSession session) {
+        if (session == null) return;
+        presenceLock.lock();
+        try {
+            ProtocolMessage msg = ProtocolMessage.of(ProtocolMessage.Verb.USERS_SNAPSHOT, presenceVersion, String.join(",", publishedUsers));
+            presenceOut.add(() -> {
+                session.send(msg);
+                if (metrics != null) metrics.presenceSnapshot();
+            });
+        } finally {
+            presenceLock.unlock();
+        }
+        deliverPresence();
+    }
+
+    /**
+     * Encola a las sesiones los repartos pendientes, en orden. Si otro hilo ya lo está haciendo se encarga
+     * él de los nuevos; un evict durante el reparto sólo añade su cambio a la cola.
+     */
+    private void deliverPresence() {
+        while (!presenceOut.isEmpty() && deliveringPresence.compareAndSet(false, true)) {
             try {
-                List<String> users = new ArrayList<>(clients.keySet()).stream().sorted().collect(Collectors.toList());
-            String csv = String.join(",", users);
-            String line = "USERS " + csv + "\n";
-            log.info("Broadcasting USERS list to {} clients: {}", clients.size(), csv);
-
-            // iterate over a snapshot of entries to avoid concurrent modification issues
-            // iterate over all writers for all users
-            for (var userEntry : new ArrayList<>(clients.entrySet())) {
-                String u = userEntry.getKey();
-                var ipMap = userEntry.getValue();
-                for (var e2 : new ArrayList<>(ipMap.entrySet())) {
-                    BufferedWriter w = e2.getValue();
+                Runnable delivery;
+                while ((delivery = presenceOut.poll()) != null) {
                     try {
-                        w.write(line);
-                        w.flush();
-                    } catch (IOException ioe) {
-                        log.warn("Failed to send USERS to {}@{}: {}. Removing.", u, e2.getKey(), ioe.getMessage());
-                        try { w.close(); } catch (Exception ignored) {}
-                        ipMap.remove(e2.getKey());
+                        delivery.run();
+                    } catch (Exception e) {
+                        log.error("Error repartiendo presencia: {}", e.toString(), e);
                     }
                 }
-                if (ipMap.isEmpty()) clients.remove(u);
+            } finally {
+                deliveringPresence.set(false);
             }
+        }
+    }
+
+    /** Versión de presencia publicada (la del último USER_JOIN/USER_LEAVE). */
+    public long getPresenceVersion() {
+        presenceLock.lock();
+        try {
+            return presenceVersion;
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    public void broadcastUserList() {
+        try {
+            List<String> users = new ArrayList<>(clients.keySet());
+            users.sort(null);
+            String csv = String.join(",", users);
+            log.info("Broadcasting USERS list to {} clients: {}", users.size(), csv);
+            ClientSession[] recipients = snapshot;
+            broadcast(ProtocolMessage.of(ProtocolMessage.Verb.USERS, csv), "USERS");
+            if (metrics != null) metrics.presenceBroadcast(recipients.length);
         } catch (Exception e) {
             log.error("Error broadcasting user list: {}", e.toString(), e);
         }
     }
 
+    public boolean sendTo(String user, ProtocolMessage msg) {
+        if (msg == null) return false;
+        return sendTo(user, s -> msg);
+    }
+
+    // a cada sesión de user, el mensaje en el formato que le corresponda
+    private boolean sendTo(String user, java.util.function.Function<ClientSession, ProtocolMessage> forSession) {
+        if (user == null) return false;
+        var map = clients.get(user);
+        if (map == null || map.isEmpty()) return false;
+        boolean atLeastOne = false;
+        for (ClientSession s : map.values()) {
+            OutboundQueue.Result r = s.send(forSession.apply(s));
+            if (r == OutboundQueue.Result.QUEUED) {
+                atLeastOne = true;
+            } else if (r == OutboundQueue.Result.CLOSED) {
+                evict(s, "message");
+            }
+        }
+        return atLeastOne;
+    }
+
+    /** Variante con una línea de texto v1 (se interpreta y se recodifica según la sesión). */
     public boolean sendTo(String user, String line) {
-        if (user == null || line == null) return false;
-            if (user == null || line == null) return false;
-            var map = clients.get(user);
-            if (map == null || map.isEmpty()) return false;
-            boolean atLeastOne = false;
-            for (var entry : new ArrayList<>(map.entrySet())) {
-                try {
-                    entry.getValue().write(line);
-                    entry.getValue().flush();
-                    atLeastOne = true;
-                } catch (IOException e) {
-                    log.warn("Failed to send message to {}@{}: {}. Removing.", user, entry.getKey(), e.getMessage());
-                    try { entry.getValue().close(); } catch (Exception ignored) {}
-                    map.remove(entry.getKey());
-                }
+        if (line == null) return false;
+        return sendTo(user, ProtocolMessage.parseV1(line.endsWith("\n") ? line.substring(0, line.length() - 1) : line));
+    }
+
+    /**
+     * Mensaje de chat para user: "MSGFROM id|emisor|texto" a sus sesiones con la capacidad msgid y
+     * "MSGFROM emisor|texto" (el formato de siempre) al resto. id null = sin fila en BD (id vacío).
+     */
+    public boolean sendMessageTo(String user, String sender, String text, Long id) {
+        ProtocolMessage plain = plainMessage(sender, text);
+        ProtocolMessage withId = messageWithId(sender, text, id);
+        return sendTo(user, s -> s.messageIds() ? withId : plain);
+    }
+
+    /**
+     * Mensaje de chat a todos los conectados con un único mensaje compartido por formato (cada uno se codifica
+     * como mucho una vez por versión de protocolo): "emisor|texto" a las sesiones sin la capacidad msgid,
+     * incluidas las del emisor como eco, e "id|emisor|texto" a las que la tienen salvo las del emisor.
+     * Devuelve si llegó a alguna sesión.
+     */
+    public boolean broadcastMessage(String sender, String text, Long id) {
+        ProtocolMessage plain = plainMessage(sender, text);
+        ProtocolMessage withId = messageWithId(sender, text, id);
+        boolean any = false;
+        for (ClientSession s : snapshot) {
+            ProtocolMessage msg = plain;
+            if (s.messageIds()) {
+                if (sender != null && sender.equalsIgnoreCase(s.user())) continue;
+                msg = withId;
             }
-            if (map.isEmpty()) clients.remove(user);
-            return atLeastOne;
-    }
-
-    public void broadcastMessage(String sender, String text) {
-        String payload = "MSGFROM " + sender + "|" + (text == null ? "" : text) + "\n";
-        for (var userEntry : new ArrayList<>(clients.entrySet())) {
-            String u = userEntry.getKey();
-            var ipMap = userEntry.getValue();
-            for (var e2 : new ArrayList<>(ipMap.entrySet())) {
-                try {
-                    e2.getValue().write(payload);
-                    e2.getValue().flush();
-                } catch (IOException ioe) {
-                    log.warn("Failed to broadcast MSG to {}@{}: {}. Removing.", u, e2.getKey(), ioe.getMessage());
-                    try { e2.getValue().close(); } catch (Exception ignored) {}
-                    ipMap.remove(e2.getKey());
-                }
+            OutboundQueue.Result r = s.send(msg);
+            if (r == OutboundQueue.Result.QUEUED) {
+                any = true;
+            } else if (r == OutboundQueue.Result.CLOSED) {
+                evict(s, "MSG");
             }
-            if (ipMap.isEmpty()) clients.remove(u);
         }
+        return any;
+    }
+
+    private static ProtocolMessage plainMessage(String sender, String text) {
+        return ProtocolMessage.of(ProtocolMessage.Verb.MSGFROM, sender, text == null ? "" : text);
+    }
+
+    private static ProtocolMessage messageWithId(String sender, String text, Long id) {
+        return ProtocolMessage.of(ProtocolMessage.Verb.MSGFROM, id == null ? "" : id, sender, text == null ? "" : text);
     }
 
     public void broadcastRaw(String line) {
         if (line == null) return;
-        String payload = line.endsWith("\n") ? line : line + "\n";
-        for (var userEntry : new ArrayList<>(clients.entrySet())) {
-            String u = userEntry.getKey();
-            var ipMap = userEntry.getValue();
-            for (var e2 : new ArrayList<>(ipMap.entrySet())) {
-                try {
-                    e2.getValue().write(payload);
-                    e2.getValue().flush();
-                } catch (IOException ioe) {
-                    log.warn("Failed to broadcast raw to {}@{}: {}. Removing.", u, e2.getKey(), ioe.getMessage());
-                    try { e2.getValue().close(); } catch (Exception ignored) {}
-                    ipMap.remove(e2.getKey());
-                }
-            }
-            if (ipMap.isEmpty()) clients.remove(u);
-        }
+        broadcast(ProtocolMessage.parseV1(line.endsWith("\n") ? line.substring(0, line.length() - 1) : line), "raw");
     }
 
     /**
@@ -183,6 +447,25 @@ public class ConnectedClients {
         return new ArrayList<>(clients.keySet());
     }
 
+    /**
+     * Usuarios conectados con su id (null si se registraron sin él), sin consultar la BD.
+     */
+    public java.util.Map<String, Long> getConnectedUserIds() {
+        var out = new java.util.LinkedHashMap<String, Long>();
+        for (String user : clients.keySet()) out.put(user, userIds.get(user));
+        return out;
+    }
+
+    /** Id de un usuario conectado; null si no está conectado o se registró sin él. */
+    public Long getUserId(String user) {
+        return user == null ? null : userIds.get(user);
+    }
+
+    /** Todas las sesiones registradas (p.ej. para ver la cola de salida de cada una). */
+    public List<ClientSession> getSessions() {
+        return List.of(snapshot);
+    }
+
     /**
      * Return a map username -> list of active IPs for that user.
      */
@@ -0,0 +1,247 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.ui.UiServerWindow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admisión de conexiones nuevas, separada del bucle de accept: TcpServer y NioTcpServer entregan cada
+ * socket aceptado a admit() y siguen aceptando.
+ *
+ * Se aprueban sin preguntar las conexiones sin entorno gráfico (como antes), las de una subred de
+ * app.admission.allow y las de una IP que el operador aprobó hace menos de app.admission.rememberMinutes.
+ * El resto espera en una cola de hasta app.admission.maxPending conexiones mientras el diálogo (no modal,
+ * varios a la vez; uno solo por IP) decide; sin respuesta en app.admission.timeoutSeconds se rechaza.
+ * Las esperas y decisiones se llevan en el hilo "admision": el de accept nunca espera a la UI.
+ */
+@Component
+public class ConnectionAdmission {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionAdmission.class);
+
+    // arranque del ClientWorker de una conexión aprobada
+    @FunctionalInterface
+    public interface Handoff {
+        void start() throws Exception;
+    }
+
+    // subredes que entran sin diálogo: "192.168.1.0/24,10.0.0.5" (vacío = ninguna)
+    @Value("${app.admission.allow:}")
+    private String allow = "";
+
+    // minutos que se recuerda una IP aprobada a mano (0 = preguntar siempre)
+    @Value("${app.admission.rememberMinutes:480}")
+    private long rememberMinutes = 480;
+
+    @Value("${app.admission.timeoutSeconds:60}")
+    private long timeoutSeconds = 60;
+
+    @Value("${app.admission.maxPending:32}")
+    private int maxPending = 32;
+
+    private List<Subnet> allowList = List.of();
+    // ip -> instante (ms) en que deja de recordarse
+    private final Map<String, Long> remembered = new ConcurrentHashMap<>();
+    // diálogo abierto por IP; sólo se toca desde el hilo "admision"
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new HashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "admision");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        List<Subnet> parsed = new ArrayList<>();
+        if (allow != null) {
+            for (String s : allow.split(",")) {
+                if (s.isBlank()) continue;
+                try {
+                    parsed.add(Subnet.parse(s));
+                } catch (IllegalArgumentException e) {
+                    log.warn("app.admission.allow: '{}' no es una IP o subred válida; se ignora", s.trim());
+                }
+            }
+        }
+        allowList = List.copyOf(parsed);
+        if (!allowList.isEmpty()) log.info("Conexiones aprobadas sin diálogo desde {}", allowList);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Conexiones esperando decisión del operador. */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Decide si se admite el socket y, si es así, llama a handoff (en este hilo si se aprueba por regla,
+     * en el hilo "admision" si lo aprueba el operador). Un rechazo cierra el socket. No bloquea nunca.
+     */
+    public void admit(Socket socket, Handoff handoff) {
+        String rule = autoApproval(socket.getInetAddress());
+        if (rule != null) {
+            log.info("Conexión aprobada desde {} ({})", socket.getRemoteSocketAddress(), rule);
+            start(socket, handoff);
+            return;
+        }
+        int waiting = pending.incrementAndGet();
+        if (waiting > maxPending) {
+            pending.decrementAndGet();
+            log.warn("Conexión rechazada desde {}: ya hay {} esperando aprobación", socket.getRemoteSocketAddress(), maxPending);
+            close(socket);
+            return;
+        }
+        try {
+            executor.execute(() -> ask(socket, waiting, handoff));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            close(socket);
+        }
+    }
+
+    // motivo de la aprobación automática, o null si hay que preguntar
+    private String autoApproval(InetAddress addr) {
+        if (GraphicsEnvironment.isHeadless()) return "sin entorno gráfico";
+        if (addr == null) return null;
+        for (Subnet s : allowList) {
+            if (s.contains(addr)) return "subred " + s;
+        }
+        Long until = remembered.get(addr.getHostAddress());
+        if (until != null) {
+            if (until > System.currentTimeMillis()) return "IP recordada";
+            remembered.remove(addr.getHostAddress(), until);
+        }
+        return null;
+    }
+
+    // en el hilo "admision": la misma IP comparte el diálogo abierto
+    private void ask(Socket socket, int waiting, Handoff handoff) {
+        String ip = socket.getInetAddress().getHostAddress();
+        CompletableFuture<Boolean> decision = inFlight.get(ip);
+        if (decision == null) {
+            CompletableFuture<Boolean> asked = UiServerWindow.askApproval(socket, waiting)
+                    .orTimeout(timeoutSeconds, TimeUnit.SECONDS);
+            inFlight.put(ip, asked);
+            asked.whenCompleteAsync((approved, err) -> {
+                inFlight.remove(ip, asked);
+                if (Boolean.TRUE.equals(approved) && rememberMinutes > 0) {
+                    remembered.put(ip, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(rememberMinutes));
+                }
+            }, executor);
+            decision = asked;
+        }
+        decision.whenCompleteAsync((approved, err) -> {
+            pending.decrementAndGet();
+            if (err instanceof TimeoutException) {
+                log.warn("Conexión rechazada desde {}: sin respuesta en {} s", socket.getRemoteSocketAddress(), timeoutSeconds);
+                close(socket);
+            } else if (!Boolean.TRUE.equals(approved)) {
+                log.warn("Conexión rechazada manualmente desde {}", socket.getRemoteSocketAddress());
+                close(socket);
+            } else {
+                log.info("Conexión aprobada desde {}", socket.getRemoteSocketAddress());
+                start(socket, handoff);
+            }
+        }, executor);
+    }
+
+    private static void start(Socket socket, Handoff handoff) {
+        try {
+            handoff.start();
+        } catch (Exception e) {
+            log.error("Error preparando conexión {}: {}", socket.getRemoteSocketAddress(), e.toString(), e);
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    /**
+     * IP o subred en notación CIDR ("192.168.1.0/24", "fd00::/8"; sin prefijo = sólo esa IP).
+     */
+    static final class Subnet {
+        private final byte[] network;
+        private final int prefix;
+        private final String text;
+
+        private Subnet(byte[] network, int prefix, String text) {
+            this.network = network;
+            this.prefix = prefix;
+            this.text = text;
+        }
+
+        static Subnet parse(String s) {
+            String t = s.trim();
+            int slash = t.indexOf('/');
+            String host = slash < 0 ? t : t.substring(0, slash);
+            // sólo literales: nada de resolver nombres por DNS al arrancar
+            if (host.isEmpty() || !(host.indexOf(':') >= 0 || host.matches("[0-9.]+"))) {
+                throw new IllegalArgumentException(s);
+            }
+            byte[] net;
+            try {
+                net = InetAddress.getByName(host).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(s);
+            }
+            int bits = net.length * 8;
+            int prefix = bits;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(t.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(s);
+                }
+                if (prefix < 0 || prefix > bits) throw new IllegalArgumentException(s);
+            }
+            return new Subnet(net, prefix, t);
+        }
+
+        boolean contains(InetAddress addr) {
+            byte[] a = addr.getAddress();
+            if (a.length != network.length) return false;
+            int full = prefix / 8;
+            for (int i = 0; i < full; i++) {
+                if (a[i] != network[i]) return false;
+            }
+            int rest = prefix % 8;
+            if (rest == 0) return true;
+            int mask = (0xFF << (8 - rest)) & 0xFF;
+            return (a[full] & mask) == (network[full] & mask);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.dao.ArchivoDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Almacén de archivos direccionado por contenido: cada archivo se guarda una sola vez con su SHA-256
+ * como nombre, repartido en subdirectorios por los primeros bytes del hash (app.upload.storeDir/ab/cd/abcd...)
+ * para que ningún directorio acumule millones de entradas.
+ *
+ * Las filas de `archivos` apuntan a esa ruta, así que enviar el mismo contenido otra vez (o a ALL) sólo
+ * añade una fila más. Las filas no se borran nunca: un contenido con alguna fila se conserva para siempre.
+ * Lo único que se elimina es lo que se guardó y no llegó a tener fila (el envío falló tras guardarlo):
+ * mientras una subida tiene el contenido "en uso" (guardado pero aún sin fila) se cuenta en memoria, y en
+ * release() un contenido sin usos ni filas se borra.
+ */
+@Component
+public class ContentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentStore.class);
+
+    @Value("${app.upload.storeDir:Archivos_enviados/cas}")
+    private String storeDir = "Archivos_enviados/cas";
+
+    private final ArchivoDao archivoDao;
+    // usos en curso por hash (contenido guardado cuya fila en `archivos` aún no existe) y hashes que release()
+    // está comprobando o borrando: quien quiera usarlos espera a que termine. Todo con lock tomado; la consulta
+    // a la BD y el borrado se hacen fuera
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final Set<String> removing = new HashSet<>();
+
+    @Autowired
+    public ContentStore(ArchivoDao archivoDao) {
+        this.archivoDao = archivoDao;
+    }
+
+    ContentStore(ArchivoDao archivoDao, String storeDir) {
+        this.archivoDao = archivoDao;
+        this.storeDir = storeDir;
+    }
+
+    static boolean isSha256(String hash) {
+        return hash != null && hash.length() == 64 && hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Hash de una ruta del almacén (su nombre de archivo); "" para rutas antiguas fuera del almacén. */
+    static String hashOf(String storedPath) {
+        if (storedPath == null || storedPath.isBlank()) return "";
+        String name = Paths.get(storedPath).getFileName().toString();
+        return isSha256(name) ? name : "";
+    }
+
+    /** Ruta del contenido con ese hash (exista o no): root/ab/cd/hash. */
+    Path pathFor(String sha256) {
+        String h = sha256.toLowerCase();
+        if (!isSha256(h)) throw new IllegalArgumentException("sha256_invalido");
+        return Paths.get(storeDir).resolve(h.substring(0, 2)).resolve(h.substring(2, 4)).resolve(h);
+    }
+
+    /** Directorio de temporales de subida, en el mismo sistema de archivos que el almacén (el move es atómico). */
+    Path tempDir() throws IOException {
+        Path dir = Paths.get(storeDir).resolve("tmp");
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /**
+     * Contenido ya guardado con ese hash y tamaño, o null. Si existe queda en uso hasta release().
+     */
+    Path find(String sha256, long size) {
+        if (sha256 == null || !isSha256(sha256.trim().toLowerCase())) return null;
+        String hash = sha256.trim().toLowerCase();
+        Path p = pathFor(hash);
+        pin(hash);
+        try {
+            if (Files.isRegularFile(p) && Files.size(p) == size) return p;
+        } catch (IOException ignored) {}
+        unpin(hash);
+        return null;
+    }
+
+    /**
+     * Mueve un temporal ya verificado a su sitio; si el contenido ya estaba, se borra el temporal.
+     * El contenido queda en uso hasta release().
+     */
+    Path put(Path temp, String sha256) throws IOException {
+        String hash = sha256.toLowerCase();
+        Path target = pathFor(hash);
+        pin(hash);
+        try {
+            if (Files.isRegularFile(target)) {
+                Files.deleteIfExists(temp);
+                log.debug("Contenido {} ya almacenado: se descarta la copia subida", hash);
+                return target;
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return target;
+        } catch (IOException | RuntimeException e) {
+            unpin(hash);
+            throw e;
+        }
+    }
+
+    /** Guarda un contenido recibido de una vez (FILE / FILE_DATA). En uso hasta release(). */
+    Path put(byte[] data) throws IOException {
+        String hash = sha256(data);
+        Path existing = find(hash, data.length);
+        if (existing != null) return existing;
+        Path temp = tempDir().resolve(UUID.randomUUID() + ".part");
+        try {
+            Files.write(temp, data);
+            return put(temp, hash);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Fin del uso iniciado por find()/put(). referenced indica si se llegó a crear la fila en `archivos`;
+     * si no, y nadie más usa el contenido ni hay filas que apunten a él, se borra.
+     */
+    void release(Path stored, boolean referenced) {
+        String hash = stored.getFileName().toString();
+        lock.lock();
+        try {
+            Integer n = pins.get(hash);
+            int left = n == null ? 0 : n - 1;
+            if (left > 0) {
+                pins.put(hash, left);
+                return;
+            }
+            pins.remove(hash);
+            if (referenced) return;
+            // último uso sin fila: nadie puede volver a usarlo hasta saber si se borra
+            removing.add(hash);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (archivoDao.countByPath(stored.toString()) == 0) {
+                Files.deleteIfExists(stored);
+                log.info("Contenido {} sin referencias: eliminado", hash);
+            }
+        } catch (Exception e) {
+            // sin poder contar referencias se conserva
+            log.debug("No se pudieron contar las referencias de {}: {}", hash, e.toString());
+        } finally {
+            lock.lock();
+            try {
+                removing.remove(hash);
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // espera a que termine un release() que esté decidiendo si borra ese contenido
+    private void pin(String hash) {
+        lock.lock();
+        try {
+            while (removing.contains(hash)) released.awaitUninterruptibly();
+            pins.merge(hash, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unpin(String hash) {
+        lock.lock();
+        try {
+            pins.computeIfPresent(hash, (h, n) -> n <= 1 ? null : n - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
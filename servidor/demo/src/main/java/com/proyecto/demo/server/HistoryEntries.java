@@ -0,0 +1,80 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.auth.UserDao;
+import com.proyecto.demo.dao.ArchivoDao;
+import com.proyecto.demo.model.MessageRecord;
+import com.proyecto.demo.server.ProtocolMessage.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Convierte una página de historial (SYNC / HISTORY) en mensajes HIST_ENTRY
+ * "id|emisor|receptor|timestamp|archivoId|tamaño|sha256|contenido".
+ *
+ * Los nombres de emisor y receptor y los datos de los archivos se resuelven para toda la página con una
+ * consulta por tipo (UserDao.findUsernamesByIds, ArchivoDao.findByIds), no con una por fila: una página de
+ * 200 mensajes son 2 consultas en lugar de hasta 600.
+ */
+final class HistoryEntries {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryEntries.class);
+
+    private HistoryEntries() {}
+
+    static List<ProtocolMessage> build(List<MessageRecord> page, UserDao userDao, ArchivoDao archivoDao) {
+        if (page.isEmpty()) return Collections.emptyList();
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> archivoIds = new HashSet<>();
+        for (MessageRecord mr : page) {
+            if (mr.getEmisorId() != null) userIds.add(mr.getEmisorId());
+            if (mr.getReceptorId() != null) userIds.add(mr.getReceptorId());
+            if (isFile(mr)) archivoIds.add(mr.getArchivoId());
+        }
+        Map<Long, String> names = Collections.emptyMap();
+        try {
+            names = userDao.findUsernamesByIds(userIds);
+        } catch (Exception e) {
+            log.warn("No se pudieron resolver {} usuarios del historial: {}", userIds.size(), e.getMessage());
+        }
+        Map<Long, ArchivoDao.ArchivoInfo> files = Collections.emptyMap();
+        if (!archivoIds.isEmpty()) {
+            try {
+                files = archivoDao.findByIds(archivoIds);
+            } catch (Exception e) {
+                log.warn("No se pudieron leer {} archivos del historial: {}", archivoIds.size(), e.getMessage());
+            }
+        }
+        List<ProtocolMessage> out = new ArrayList<>(page.size());
+        for (MessageRecord mr : page) {
+            String sender = nameOf(names, mr.getEmisorId());
+            String receptor = nameOf(names, mr.getReceptorId());
+            String ts = mr.getCreadoEn() == null ? java.time.Instant.now().toString() : mr.getCreadoEn().toString();
+            ArchivoDao.ArchivoInfo ainfo = isFile(mr) ? files.get(mr.getArchivoId()) : null;
+            if (ainfo != null) {
+                out.add(ProtocolMessage.of(Verb.HIST_ENTRY, mr.getId(), sender, receptor, ts, ainfo.id, ainfo.size, ContentStore.hashOf(ainfo.path), ainfo.filename));
+            } else {
+                String content = mr.getContenido() == null ? "" : mr.getContenido();
+                out.add(ProtocolMessage.of(Verb.HIST_ENTRY, mr.getId(), sender, receptor, ts, "", "", "", content));
+            }
+        }
+        return out;
+    }
+
+    private static boolean isFile(MessageRecord mr) {
+        return "ARCHIVO".equalsIgnoreCase(mr.getTipoMensaje()) && mr.getArchivoId() != null;
+    }
+
+    // nombre de usuario para mostrar; el id si no se encuentra
+    private static String nameOf(Map<Long, String> names, Long userId) {
+        if (userId == null) return "";
+        String name = names.get(userId);
+        return name == null ? String.valueOf(userId) : name;
+    }
+}
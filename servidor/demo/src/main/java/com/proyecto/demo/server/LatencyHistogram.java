@@ -0,0 +1,100 @@
+package com.proyecto.demo.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos con cubos log-lineales: cada potencia de 2 se reparte en
+ * SUB_BUCKETS cubos iguales, así que un percentil se conoce con un error relativo de 1/SUB_BUCKETS
+ * (~6%) desde 1 µs hasta minutos. record() es un incremento atómico sin locks ni reservas de memoria;
+ * percentile() recorre los cubos (se llama al consultar, no en el camino del mensaje).
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // por debajo de 2^MIN_EXP ns (~1 µs) todo cae en el primer tramo
+    private static final int MIN_EXP = 10;
+    private static final int MAX_EXP = 40;
+    // primer tramo (< 2^MIN_EXP) + un tramo por exponente MIN_EXP..MAX_EXP
+    private static final int BUCKETS = (MAX_EXP - MIN_EXP + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        total.increment();
+        sumNanos.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < (1L << MIN_EXP)) return (int) (nanos >>> (MIN_EXP - SUB_BITS));
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) ((nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (exp - MIN_EXP + 1) * SUB_BUCKETS + sub;
+    }
+
+    // límite superior (exclusivo) del cubo, en ns
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return (long) (bucket + 1) << (MIN_EXP - SUB_BITS);
+        int exp = bucket / SUB_BUCKETS + MIN_EXP - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << exp) + ((long) (sub + 1) << (exp - SUB_BITS));
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long meanNanos() {
+        long n = total.sum();
+        return n == 0 ? 0 : sumNanos.sum() / n;
+    }
+
+    /** Valor por debajo del cual queda la fracción q (0..1) de las muestras; 0 sin muestras. */
+    public long percentile(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), maxNanos());
+        }
+        return maxNanos();
+    }
+
+    /** count y mean/p50/p99/p999/max en microsegundos (forma común de /api/commands y /api/metrics). */
+    public Map<String, Long> summaryMicros() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        m.put("count", count());
+        m.put("meanMicros", meanNanos() / 1000);
+        m.put("p50Micros", percentile(0.50) / 1000);
+        m.put("p99Micros", percentile(0.99) / 1000);
+        m.put("p999Micros", percentile(0.999) / 1000);
+        m.put("maxMicros", maxNanos() / 1000);
+        return m;
+    }
+}
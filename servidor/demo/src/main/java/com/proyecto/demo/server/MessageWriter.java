@@ -0,0 +1,286 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.dao.MessageDao;
+import com.proyecto.demo.model.MessageRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escritura diferida de mensajes: los hilos de cliente dejan sus filas en una cola acotada y uno o varios
+ * escritores las guardan en lotes (MessageDao.insertMessages: un INSERT multi-fila y un commit por lote).
+ * Un lote se cierra al llegar a app.persist.batchSize filas o al pasar app.persist.flushMillis desde la
+ * primera, lo que ocurra antes; con carga, varios envíos comparten commit.
+ *
+ * Durabilidad (app.persist.durability):
+ *  - commit: persist() espera al commit de su lote y devuelve los ids (van en MSGFROM / SENT).
+ *  - enqueue: persist() vuelve al encolar; los ids no se conocen y los clientes los reciben vacíos
+ *    (recuperan los mensajes por SYNC). Si el servidor cae se pierde lo que estaba en cola.
+ * Con la cola llena se espera hasta app.persist.enqueueTimeoutMs y después se guarda en el propio hilo del
+ * cliente: nunca se descarta un mensaje. Con app.persist.writers=0 todo se guarda en el hilo del cliente.
+ *
+ * Cada INSERT + commit (de un escritor o en el hilo del cliente) se hace bajo commitLock: el cursor de SYNC
+ * del cliente asume que los ids se hacen visibles en orden, y dos commits solapados pueden publicar un id
+ * mayor antes que uno menor, que el cursor ya no volvería a pedir. Con varios escritores los lotes se
+ * preparan en paralelo pero se confirman de uno en uno.
+ */
+@Component
+public class MessageWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriter.class);
+
+    @Value("${app.persist.durability:commit}")
+    private String durability = "commit";
+
+    @Value("${app.persist.writers:1}")
+    private int writers = 1;
+
+    @Value("${app.persist.batchSize:200}")
+    private int batchSize = 200;
+
+    @Value("${app.persist.flushMillis:2}")
+    private long flushMillis = 2;
+
+    @Value("${app.persist.queueCapacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${app.persist.enqueueTimeoutMs:1000}")
+    private long enqueueTimeoutMs = 1000;
+
+    // máximo que espera persist() en modo commit; después sigue sin ids (la fila se guardará igual)
+    @Value("${app.persist.commitTimeoutMs:5000}")
+    private long commitTimeoutMs = 5000;
+
+    private final MessageDao messageDao;
+
+    // filas de un mismo envío: se guardan en el mismo lote
+    private record Pending(List<MessageRecord> records, CompletableFuture<long[]> done) {}
+
+    private BlockingQueue<Pending> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    // serializa los commits para que los ids se hagan visibles en orden
+    private final java.util.concurrent.locks.ReentrantLock commitLock = new java.util.concurrent.locks.ReentrantLock();
+    private volatile boolean running;
+
+    // filas encoladas aún sin guardar
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    // envíos guardados en el hilo del cliente (cola llena, sin escritores o parados)
+    private final LongAdder callerWrites = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final LongAccumulator maxCommitNanos = new LongAccumulator(Math::max, 0L);
+
+    @Autowired
+    public MessageWriter(MessageDao messageDao) {
+        this.messageDao = messageDao;
+    }
+
+    MessageWriter(MessageDao messageDao, String durability, int writers, int batchSize, long flushMillis, int queueCapacity) {
+        this.messageDao = messageDao;
+        this.durability = durability;
+        this.writers = writers;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        running = true;
+        for (int i = 0; i < Math.max(0, writers); i++) {
+            Thread t = new Thread(this::drain, "mensajes-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        log.info("Persistencia de mensajes: {} escritores, durabilidad={}, lote={} filas / {} ms, cola={}",
+                threads.size(), enqueueMode() ? "enqueue" : "commit", batchSize, flushMillis, queueCapacity);
+    }
+
+    /**
+     * Guarda las filas de un envío. Devuelve sus ids en el mismo orden; -1 si no se conocen (modo enqueue,
+     * error o tiempo de espera agotado).
+     */
+    long[] persist(List<MessageRecord> records) {
+        long[] unknown = new long[records.size()];
+        Arrays.fill(unknown, -1L);
+        if (records.isEmpty()) return unknown;
+        if (threads.isEmpty() || !running) return insertInCaller(records);
+
+        Pending p = new Pending(records, new CompletableFuture<>());
+        depth.addAndGet(records.size());
+        boolean queued = false;
+        try {
+            queued = queue.offer(p, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queued) {
+            depth.addAndGet(-records.size());
+            overflows.increment();
+            log.warn("Cola de persistencia llena ({} filas pendientes): se guardan {} en el hilo del cliente", depth.get(), records.size());
+            return insertInCaller(records);
+        }
+        if (enqueueMode()) return unknown;
+        try {
+            return p.done().get(commitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Commit de {} mensajes sin confirmar tras {} ms: se continúa sin ids", records.size(), commitTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error guardando mensajes: {}", e.getCause().toString());
+        }
+        return unknown;
+    }
+
+    // fuera de los escritores, pero sin solaparse con sus commits
+    private long[] insertInCaller(List<MessageRecord> records) {
+        callerWrites.increment();
+        commitLock.lock();
+        try {
+            return messageDao.insertMessages(records);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private boolean enqueueMode() {
+        return "enqueue".equalsIgnoreCase(durability);
+    }
+
+    private void drain() {
+        List<Pending> group = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            Pending first;
+            try {
+                first = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) continue;
+            group.add(first);
+            int rows = first.records().size();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, flushMillis));
+            while (rows < batchSize) {
+                long wait = deadline - System.nanoTime();
+                Pending next;
+                try {
+                    next = wait <= 0 ? queue.poll() : queue.poll(wait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    next = null;
+                }
+                if (next == null) break;
+                group.add(next);
+                rows += next.records().size();
+            }
+            try {
+                write(group, rows);
+            } catch (Exception e) {
+                log.error("Error guardando lote de {} mensajes: {}", rows, e.toString(), e);
+            } finally {
+                // nadie se queda esperando un lote que no se llegó a escribir
+                for (Pending p : group) p.done().complete(failed(p.records().size()));
+                group.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> group, int rows) {
+        List<MessageRecord> all = new ArrayList<>(rows);
+        for (Pending p : group) all.addAll(p.records());
+        long[] ids;
+        commitLock.lock();
+        long t0 = System.nanoTime();
+        try {
+            ids = messageDao.insertMessages(all);
+        } finally {
+            commitLock.unlock();
+            long took = System.nanoTime() - t0;
+            commitNanos.add(took);
+            maxCommitNanos.accumulate(took);
+            batches.increment();
+            depth.addAndGet(-rows);
+        }
+        written.add(rows);
+        int from = 0;
+        for (Pending p : group) {
+            int n = p.records().size();
+            p.done().complete(Arrays.copyOfRange(ids, from, from + n));
+            from += n;
+        }
+        log.debug("Lote de {} mensajes ({} envíos) guardado en {} ms", rows, group.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+
+    private static long[] failed(int n) {
+        long[] ids = new long[n];
+        Arrays.fill(ids, -1L);
+        return ids;
+    }
+
+    @PreDestroy
+    public void stop() {
+        // los escritores vacían la cola antes de salir
+        running = false;
+        for (Thread t : threads) {
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (queue != null && !queue.isEmpty()) {
+            log.warn("Persistencia detenida con {} filas sin guardar", depth.get());
+        }
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public long getCallerWrites() {
+        return callerWrites.sum();
+    }
+
+    public long getAvgCommitMicros() {
+        long n = batches.sum();
+        return n == 0 ? 0 : commitNanos.sum() / n / 1000;
+    }
+
+    public long getMaxCommitMicros() {
+        return maxCommitNanos.get() / 1000;
+    }
+}
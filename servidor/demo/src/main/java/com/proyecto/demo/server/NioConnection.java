@@ -0,0 +1,410 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estado por conexión del modo NIO: buffers de lectura/escritura y el ClientWorker que procesa el protocolo.
+ *
+ * El reactor sólo hace E/S: separa las líneas ('\n'), o los frames si se negoció el protocolo v2,
+ * y los pasa, en orden, a un pool de workers
+ * (los handlers hacen JDBC y no pueden bloquear el Selector). Las respuestas que escriben los
+ * handlers (y los mensajes de otros usuarios) llegan por la OutboundQueue de la ClientSession y el
+ * reactor las vuelca con escrituras agrupadas (gathering write) cuando el socket admite datos.
+ */
+class NioConnection {
+
+    private static final Logger log = LoggerFactory.getLogger(NioConnection.class);
+
+    // máximo de comandos pendientes de procesar antes de dejar de leer del socket (backpressure); además
+    // de contarlos se cuentan sus bytes (maxPendingBytes): unas pocas líneas enormes también paran la lectura
+    private static final int MAX_PENDING_LINES = 256;
+    private static final int RESUME_PENDING_LINES = 32;
+    private static final int GATHER_MAX = 16;
+
+    private final SocketChannel channel;
+    private final NioReactor reactor;
+    private final ExecutorService workers;
+    // límite de una línea v1 según su verbo (ClientWorker.maxLineBytes(String))
+    private final java.util.function.ToIntFunction<String> maxLineBytes;
+    private final long maxPendingBytes;
+    // límite del payload de un frame v2 según su tipo (ClientWorker.maxFrameBytes(int))
+    private final java.util.function.IntUnaryOperator maxFrameBytes;
+    private ClientWorker worker;
+    private ClientSession session;
+    private SelectionKey key;
+    private final SocketAddress remote;
+
+    private final ByteBuffer readBuf = ByteBuffer.allocate(16 * 1024);
+    private byte[] lineBuf = new byte[256];
+    private int lineLen = 0;
+    // límite de la línea en curso: el de verbo null hasta ver el primer espacio
+    private int lineLimit;
+    private boolean lineVerbSeen = false;
+    private int linesSeen = 0;
+
+    // modo v2 (tras "PROTO 2"): frames [tipo][longitud][payload] en lugar de líneas
+    private boolean framed = false;
+    private final byte[] frameHeader = new byte[ProtocolMessage.V2_HEADER];
+    private int frameHeaderLen = 0;
+    private byte[] framePayload;
+    private int frameExpected = 0;
+    private int framePayloadLen = 0;
+
+    // tareas (líneas, conexión, desconexión) ejecutadas en serie sobre el pool de workers
+    private final ConcurrentLinkedQueue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicInteger pendingLines = new AtomicInteger();
+    private final java.util.concurrent.atomic.AtomicLong pendingBytes = new java.util.concurrent.atomic.AtomicLong();
+    private volatile boolean readPaused = false;
+    // lectura parada por el RateLimiter (FILE_CHUNK por encima de los bytes/s) hasta throttledUntil (nanoTime);
+    // sólo hilo del reactor
+    private boolean throttled = false;
+    private long throttledUntil;
+
+    // frames sacados de la cola de salida y aún no escritos del todo (sólo hilo del reactor)
+    private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>(GATHER_MAX);
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER_MAX];
+    private volatile boolean closeAfterFlush = false;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    NioConnection(SocketChannel channel, NioReactor reactor, ExecutorService workers, java.util.function.ToIntFunction<String> maxLineBytes,
+                  java.util.function.IntUnaryOperator maxFrameBytes, long maxPendingBytes) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.workers = workers;
+        this.maxLineBytes = maxLineBytes;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.lineLimit = maxLineBytes.applyAsInt(null);
+        SocketAddress ra = null;
+        try { ra = channel.getRemoteAddress(); } catch (IOException ignored) {}
+        this.remote = ra;
+    }
+
+    void setWorker(ClientWorker worker) {
+        this.worker = worker;
+    }
+
+    void setSession(ClientSession session) {
+        this.session = session;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    SocketAddress remoteAddress() {
+        return remote;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /** Llamado desde el reactor cuando el canal ya está registrado: enviar WELCOME. */
+    void onRegistered() {
+        submit(() -> {
+            try {
+                worker.onConnect();
+            } catch (IOException e) {
+                log.warn("No se pudo saludar a {}: {}", remote, e.toString());
+                close();
+            }
+        });
+    }
+
+    // ---- lectura (hilo del reactor) ----
+
+    void onReadable() throws IOException {
+        int n = channel.read(readBuf);
+        if (n < 0) {
+            close();
+            return;
+        }
+        worker.bytesRead(n);
+        readBuf.flip();
+        byte[] arr = readBuf.array();
+        int i = readBuf.position();
+        int lim = readBuf.limit();
+        while (i < lim) {
+            if (framed) {
+                i = appendToFrame(arr, i, lim);
+                continue;
+            }
+            int start = i;
+            while (i < lim && arr[i] != '\n') i++;
+            appendToLine(arr, start, i - start);
+            if (i < lim) {
+                i++;
+                // puede activar 'framed' (PROTO 2): el resto del buffer ya se interpreta como frames
+                emitLine();
+            }
+        }
+        readBuf.clear();
+    }
+
+    private void appendToLine(byte[] src, int off, int len) throws IOException {
+        if (len <= 0) return;
+        if (!lineVerbSeen) {
+            int sp = ProtocolInput.indexOf(src, off, off + len, (byte) ' ');
+            if (sp >= 0) {
+                lineVerbSeen = true;
+                String verb = new String(lineBuf, 0, lineLen, StandardCharsets.US_ASCII)
+                        + new String(src, off, sp - off, StandardCharsets.US_ASCII);
+                lineLimit = maxLineBytes.applyAsInt(verb);
+            }
+        }
+        if (lineLen + len > lineLimit) {
+            throw new IOException("línea demasiado larga (> " + lineLimit + " bytes)");
+        }
+        if (lineLen + len > lineBuf.length) {
+            int newCap = Math.min(lineLimit, Math.max(lineBuf.length * 2, lineLen + len));
+            lineBuf = java.util.Arrays.copyOf(lineBuf, newCap);
+        }
+        System.arraycopy(src, off, lineBuf, lineLen, len);
+        lineLen += len;
+    }
+
+    private void emitLine() {
+        int len = lineLen;
+        if (len > 0 && lineBuf[len - 1] == '\r') len--;
+        String line = new String(lineBuf, 0, len, StandardCharsets.UTF_8);
+        lineLen = 0;
+        lineVerbSeen = false;
+        lineLimit = maxLineBytes.applyAsInt(null);
+        // liberar buffers grandes (p.ej. tras un FILE_DATA) para no retener memoria por conexión ociosa
+        if (lineBuf.length > 64 * 1024) lineBuf = new byte[256];
+
+        // misma regla que ClientWorker.handle(): el worker contestará "PROTO 2" y pasará la sesión a v2
+        if (ClientWorker.isV2Request(line, linesSeen++ == 0, session)) framed = true;
+
+        dispatch(len, () -> worker.handleLine(line));
+    }
+
+    /**
+     * Acumula bytes de un frame v2 (cabecera de 5 bytes y payload de tamaño exacto). Devuelve la nueva posición.
+     * El buffer del payload crece a medida que llegan los bytes, como el de las líneas: la cabecera sola no
+     * reserva el tamaño que anuncia.
+     */
+    private int appendToFrame(byte[] src, int off, int lim) throws IOException {
+        if (framePayload == null) {
+            int n = Math.min(ProtocolMessage.V2_HEADER - frameHeaderLen, lim - off);
+            System.arraycopy(src, off, frameHeader, frameHeaderLen, n);
+            frameHeaderLen += n;
+            off += n;
+            if (frameHeaderLen < ProtocolMessage.V2_HEADER) return off;
+            int type = frameHeader[0] & 0xFF;
+            int len = ByteBuffer.wrap(frameHeader, 1, 4).getInt();
+            int max = maxFrameBytes.applyAsInt(type);
+            if (len < 0 || len > max) {
+                throw new IOException("frame v2 demasiado grande (" + len + " bytes, máximo " + max + " para el tipo " + type + ")");
+            }
+            frameExpected = len;
+            framePayload = new byte[Math.min(len, readBuf.capacity())];
+            framePayloadLen = 0;
+        }
+        int n = Math.min(frameExpected - framePayloadLen, lim - off);
+        if (framePayloadLen + n > framePayload.length) {
+            int newCap = (int) Math.min(frameExpected, Math.max(framePayload.length * 2L, framePayloadLen + n));
+            framePayload = java.util.Arrays.copyOf(framePayload, newCap);
+        }
+        System.arraycopy(src, off, framePayload, framePayloadLen, n);
+        framePayloadLen += n;
+        off += n;
+        if (framePayloadLen == frameExpected) {
+            int type = frameHeader[0] & 0xFF;
+            byte[] payload = framePayload;
+            framePayload = null;
+            frameHeaderLen = 0;
+            // la decodificación (copia de campos) se hace en el worker, no en el reactor
+            dispatch(payload.length, () -> worker.handle(ProtocolMessage.decodeV2(type, ByteBuffer.wrap(payload))));
+        }
+        return off;
+    }
+
+    private interface Command {
+        boolean run() throws Exception;
+    }
+
+    private void dispatch(int bytes, Command command) {
+        int lines = pendingLines.incrementAndGet();
+        long queued = pendingBytes.addAndGet(bytes);
+        if ((lines >= MAX_PENDING_LINES || queued >= maxPendingBytes) && !readPaused) {
+            readPaused = true;
+            updateReadInterest();
+        }
+        submit(() -> {
+            try {
+                if (!command.run()) {
+                    closeAfterFlush = true;
+                    reactor.execute(this::flushSafely);
+                }
+            } catch (Exception e) {
+                log.error("Error en worker para cliente {}: {}", remote, e.toString());
+                close();
+            } finally {
+                long left = pendingBytes.addAndGet(-bytes);
+                if (pendingLines.decrementAndGet() <= RESUME_PENDING_LINES && left <= maxPendingBytes / 4 && readPaused) {
+                    reactor.execute(this::resumeRead);
+                }
+            }
+        });
+    }
+
+    private void resumeRead() {
+        // otro comando llegó mientras tanto: lo reanudará el final de ese
+        if (!readPaused || pendingLines.get() > RESUME_PENDING_LINES || pendingBytes.get() > maxPendingBytes / 4) return;
+        readPaused = false;
+        updateReadInterest();
+    }
+
+    /**
+     * Deja de leer este socket durante ms (desde cualquier hilo): el worker no se queda dormido y TCP frena
+     * al cliente. Si ya estaba parado más tiempo no cambia nada.
+     */
+    void pauseReading(long ms) {
+        reactor.execute(() -> {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+            if (throttled && until - throttledUntil <= 0) return;
+            throttledUntil = until;
+            if (!throttled) {
+                throttled = true;
+                updateReadInterest();
+            }
+            reactor.schedule(this::endThrottle, ms);
+        });
+    }
+
+    private void endThrottle() {
+        // una pausa posterior la alargó: la reanuda su propio temporizador
+        if (!throttled || System.nanoTime() - throttledUntil < 0) return;
+        throttled = false;
+        updateReadInterest();
+    }
+
+    // OP_READ sólo si no lo para la cola de líneas ni el RateLimiter; sólo hilo del reactor
+    private void updateReadInterest() {
+        if (key == null || !key.isValid()) return;
+        int ops = key.interestOps();
+        key.interestOps(readPaused || throttled ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ);
+    }
+
+    // ---- ejecución serializada en el pool de workers ----
+
+    private void submit(Runnable task) {
+        inbound.add(task);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::drainInbound);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                if (workers.isShutdown()) {
+                    log.debug("No se pudo planificar trabajo para {}: {}", remote, e.toString());
+                } else if (!closed.get()) {
+                    // pool acotado lleno: sin drenar, lo encolado no se procesaría nunca
+                    log.warn("Sin hilo de worker para {}: se cierra la conexión", remote);
+                    inbound.clear();
+                    close(); // encola onDisconnect y vuelve aquí con la conexión ya cerrada
+                } else if (draining.compareAndSet(false, true)) {
+                    // la baja (onDisconnect) no puede perderse o el usuario seguiría en ConnectedClients
+                    Thread.ofVirtual().name("nio-baja").start(this::drainInbound);
+                }
+            }
+        }
+    }
+
+    private void drainInbound() {
+        try {
+            Runnable task;
+            while ((task = inbound.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            draining.set(false);
+            if (!inbound.isEmpty()) scheduleDrain();
+        }
+    }
+
+    // ---- escritura ----
+
+    /** Lo invoca la OutboundQueue (una vez por drenado) cuando hay frames nuevos. */
+    void requestFlush() {
+        reactor.execute(this::flushSafely);
+    }
+
+    private void flushSafely() {
+        try {
+            flushOutbound();
+        } catch (IOException e) {
+            log.debug("Error escribiendo a {}: {}", remote, e.toString());
+            close();
+        }
+    }
+
+    void onWritable() throws IOException {
+        flushOutbound();
+    }
+
+    /**
+     * Vuelca la cola de salida con escrituras agrupadas. Sólo se ejecuta en el hilo del reactor.
+     * Mientras se espera OP_WRITE el drenado sigue marcado como en curso, así que los productores
+     * sólo encolan (y se aplica la política de desborde si el cliente no lee).
+     */
+    private void flushOutbound() throws IOException {
+        if (closed.get() || key == null || !key.isValid()) return;
+        OutboundQueue queue = session.outbound();
+        while (true) {
+            if (writing.size() < GATHER_MAX) queue.drainTo(writing, GATHER_MAX - writing.size());
+            if (writing.isEmpty()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                // un productor pudo encolar entre el último drainTo y el fin del drenado
+                if (queue.finishDrain()) continue;
+                if (closeAfterFlush) close();
+                return;
+            }
+            int n = 0;
+            for (ByteBuffer b : writing) {
+                // un mensaje puede aportar varios buffers (p.ej. cabecera + región mapeada de un archivo)
+                if (n == GATHER_MAX) break;
+                gather[n++] = b;
+            }
+            channel.write(gather, 0, n);
+            boolean partial = gather[n - 1].hasRemaining();
+            java.util.Arrays.fill(gather, 0, n, null);
+            ByteBuffer head;
+            while ((head = writing.peekFirst()) != null && !head.hasRemaining()) writing.pollFirst();
+            if (partial) {
+                // el socket no admite más: esperar OP_WRITE
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try { if (key != null) key.cancel(); } catch (Exception ignored) {}
+        try { channel.close(); } catch (IOException ignored) {}
+        if (session != null) session.outbound().close();
+        if (worker != null) submit(worker::onDisconnect);
+    }
+}
@@ -0,0 +1,140 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo reactor del modo NIO: un Selector que atiende lecturas/escrituras de muchas conexiones.
+ * Las operaciones pedidas desde otros hilos (registro, escritura pendiente, reanudar lectura)
+ * se encolan y se ejecutan dentro del propio hilo del reactor tras un wakeup(). Las diferidas
+ * (schedule) esperan en una cola por instante y acortan el select() hasta la más próxima.
+ */
+class NioReactor implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(NioReactor.class);
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // tareas diferidas por instante (nanoTime); sólo hilo del reactor
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSeq = 0;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    NioReactor() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    void start(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo del reactor (inmediatamente si ya estamos en él).
+     */
+    void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo del reactor dentro de delayMs como pronto, sin ocupar ningún otro hilo.
+     */
+    void schedule(Runnable task, long delayMs) {
+        long at = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delayMs));
+        execute(() -> timers.add(new Timer(at, timerSeq++, task)));
+    }
+
+    void register(NioConnection conn) {
+        execute(() -> {
+            try {
+                SelectionKey key = conn.channel().register(selector, SelectionKey.OP_READ, conn);
+                conn.attach(key);
+                conn.onRegistered();
+            } catch (IOException e) {
+                log.warn("No se pudo registrar canal {}: {}", conn.remoteAddress(), e.toString());
+                conn.close();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Timer next = timers.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    // redondeo hacia arriba para no despertar antes de tiempo; select(0) esperaría sin límite
+                    long waitMs = (next.at - System.nanoTime() + 999_999L) / 1_000_000L;
+                    if (waitMs > 0) selector.select(waitMs); else selector.selectNow();
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try { task.run(); } catch (Exception e) { log.warn("Tarea de reactor fallida: {}", e.toString()); }
+                }
+                long now = System.nanoTime();
+                while ((next = timers.peek()) != null && next.at - now <= 0) {
+                    timers.poll();
+                    try { next.task.run(); } catch (Exception e) { log.warn("Tarea diferida de reactor fallida: {}", e.toString()); }
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.onWritable();
+                    } catch (CancelledKeyException cke) {
+                        conn.close();
+                    } catch (IOException ioe) {
+                        log.debug("Error de E/S en {}: {}", conn.remoteAddress(), ioe.toString());
+                        conn.close();
+                    }
+                }
+            } catch (IOException e) {
+                if (!running) break;
+                log.error("Error en reactor NIO: {}", e.toString(), e);
+            } catch (Exception e) {
+                log.error("Error inesperado en reactor NIO: {}", e.toString(), e);
+            }
+        }
+        try {
+            for (SelectionKey key : new java.util.ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof NioConnection c) c.close();
+            }
+            selector.close();
+        } catch (Exception ignored) {}
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    // seq desempata las del mismo instante en orden de llegada
+    private record Timer(long at, long seq, Runnable task) implements Comparable<Timer> {
+        @Override
+        public int compareTo(Timer o) {
+            int c = Long.compare(at - o.at, 0L);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
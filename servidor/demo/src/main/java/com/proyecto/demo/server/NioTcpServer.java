@@ -0,0 +1,181 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.auth.AuthService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servidor TCP no bloqueante (app.tcp.mode=nio).
+ *
+ * Un hilo acepta conexiones y las reparte en round-robin entre N reactores (un Selector por hilo,
+ * por defecto uno por núcleo). Las conexiones ociosas no consumen hilos: sólo las líneas recibidas
+ * se procesan en el ExecutorService compartido, usando el mismo ClientWorker y el mismo protocolo
+ * de líneas (LOGIN, MSG, FILE_HDR, ...) que el modo bloqueante de TcpServer.
+ */
+@Component
+@ConditionalOnProperty(name = "app.tcp.mode", havingValue = "nio")
+public class NioTcpServer implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(NioTcpServer.class);
+
+    @Value("${server.address:0.0.0.0}")
+    private String bindAddress;
+
+    @Value("${app.tcp.port:9001}")
+    private int port;
+
+    // 0 => un reactor por núcleo disponible
+    @Value("${app.tcp.nio.reactors:0}")
+    private int reactorCount;
+
+    @Value("${app.tcp.nio.backlog:1024}")
+    private int backlog;
+
+    private final AuthService authService;
+    private final org.springframework.jdbc.core.JdbcTemplate jdbcTemplate;
+    private final com.proyecto.demo.dao.MessageDao messageDao;
+    private final com.proyecto.demo.dao.ArchivoDao archivoDao;
+    private final com.proyecto.demo.auth.UserDao userDao;
+    private final com.proyecto.demo.dao.JdbcSesionDao sesionDao;
+    private final ExecutorService executorService;
+    private final ApplicationContext applicationContext;
+    private final ConnectedClients connectedClients;
+    private final ClientSessionFactory sessionFactory;
+    private final ConnectionAdmission admission;
+
+    private NioReactor[] reactors;
+    // el reparto lo hacen el hilo de accept y el de admisión (conexiones aprobadas en el diálogo)
+    private final java.util.concurrent.atomic.AtomicInteger nextReactor = new java.util.concurrent.atomic.AtomicInteger();
+    private Thread acceptThread;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    public NioTcpServer(AuthService authService,
+                        org.springframework.jdbc.core.JdbcTemplate jdbcTemplate,
+                        com.proyecto.demo.dao.MessageDao messageDao,
+                        com.proyecto.demo.dao.ArchivoDao archivoDao,
+                        com.proyecto.demo.auth.UserDao userDao,
+                        com.proyecto.demo.dao.JdbcSesionDao sesionDao,
+                        ExecutorService executorService,
+                        ApplicationContext applicationContext,
+                        ConnectedClients connectedClients,
+                        ClientSessionFactory sessionFactory,
+                        ConnectionAdmission admission) {
+        this.authService = authService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.messageDao = messageDao;
+        this.archivoDao = archivoDao;
+        this.userDao = userDao;
+        this.sesionDao = sesionDao;
+        this.executorService = executorService;
+        this.applicationContext = applicationContext;
+        this.connectedClients = connectedClients;
+        this.sessionFactory = sessionFactory;
+        this.admission = admission;
+    }
+
+    @PostConstruct
+    public void startServerThread() throws IOException {
+        int n = reactorCount > 0 ? reactorCount : Runtime.getRuntime().availableProcessors();
+        reactors = new NioReactor[n];
+        for (int i = 0; i < n; i++) {
+            reactors[i] = new NioReactor();
+            reactors[i].start("servidor-nio-reactor-" + i);
+        }
+        acceptThread = new Thread(this, "servidor-nio-accept");
+        acceptThread.setDaemon(false);
+        acceptThread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(bindAddress, port), backlog);
+            log.info("Servidor TCP (NIO, {} reactores) escuchando en {}:{}", reactors.length, bindAddress, port);
+
+            while (running && serverChannel.isOpen()) {
+                SocketChannel ch;
+                try {
+                    ch = serverChannel.accept();
+                } catch (IOException e) {
+                    if (!running) break;
+                    log.error("Error aceptando conexión: {}", e.toString(), e);
+                    continue;
+                }
+                try {
+                    accept(ch);
+                } catch (Exception e) {
+                    log.error("Error preparando conexión {}: {}", ch.getRemoteAddress(), e.toString(), e);
+                    try { ch.close(); } catch (IOException ignored) {}
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error en servidor TCP NIO al iniciar: {}", e.toString(), e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept(SocketChannel ch) throws IOException {
+        log.info("Nueva conexión entrante desde {}", ch.getRemoteAddress());
+        // la aprobación (reglas o diálogo) sigue aparte: este hilo vuelve enseguida a accept
+        admission.admit(ch.socket(), () -> register(ch));
+    }
+
+    private void register(SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        NioReactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+
+        ClientWorker worker = applicationContext.getBean(ClientWorker.class, ch.socket(), authService, jdbcTemplate, connectedClients, messageDao, archivoDao, userDao, sesionDao);
+        NioConnection conn = new NioConnection(ch, reactor, executorService, worker::maxLineBytes, worker::maxFrameBytes, worker.maxPendingBytes());
+        ClientSession session = sessionFactory.forNio(conn);
+        conn.setSession(session);
+        worker.setSession(session);
+        worker.setReadPause(conn::pauseReading);
+        conn.setWorker(worker);
+        reactor.register(conn);
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        shutdown();
+    }
+
+    private synchronized void shutdown() {
+        if (!running) return;
+        running = false;
+        log.info("Shutting down NioTcpServer...");
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+        if (reactors != null) {
+            for (NioReactor r : reactors) r.shutdown();
+        }
+        try {
+            executorService.shutdownNow();
+            if (!executorService.awaitTermination(2, TimeUnit.SECONDS)) {
+                log.warn("Executor pool did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("NioTcpServer shutdown complete");
+    }
+}
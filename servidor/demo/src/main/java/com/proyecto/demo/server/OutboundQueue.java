@@ -0,0 +1,201 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola de salida acotada de una conexión. Los productores (el propio ClientWorker o cualquier emisor de
+ * ConnectedClients) sólo encolan; un único drenador por conexión escribe los datos al socket agrupando
+ * todo lo pendiente en un solo flush / escritura agrupada.
+ *
+ * Cada elemento de la cola es un mensaje completo, que puede ocupar varios buffers (un frame v2 con un
+ * archivo va como cabecera + región mapeada + resto): así los buffers de un mensaje nunca se intercalan
+ * con los de otro productor.
+ *
+ * Cuando la cola está llena se aplica la política configurada (app.outbound.overflowPolicy):
+ * DROP descarta el mensaje, DISCONNECT cierra la conexión lenta, BLOCK espera hasta blockTimeoutMs
+ * y, si sigue llena, desconecta.
+ */
+public class OutboundQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+
+    public enum OverflowPolicy { DROP, DISCONNECT, BLOCK }
+
+    public enum Result { QUEUED, DROPPED, CLOSED }
+
+    private final ArrayBlockingQueue<ByteBuffer[]> queue;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMs;
+    private final String name;
+    // hay un drenado planificado o en curso
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+    private final LongAdder dropped = new LongAdder();
+
+    // lo asigna el dueño de la cola: arranca el drenado (tarea en executor o escritura en el reactor NIO)
+    private Runnable drainStarter;
+    // cierre de la conexión cuando la política de desborde lo exige
+    private Runnable overflowCloser;
+    // mensajes y bytes entregados al drenador (/api/metrics); null si nadie los cuenta
+    private ServerMetrics metrics;
+
+    public OutboundQueue(String name, int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.policy = policy == null ? OverflowPolicy.DISCONNECT : policy;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    void bind(Runnable drainStarter, Runnable overflowCloser) {
+        bind(drainStarter, overflowCloser, null);
+    }
+
+    void bind(Runnable drainStarter, Runnable overflowCloser, ServerMetrics metrics) {
+        this.drainStarter = drainStarter;
+        this.overflowCloser = overflowCloser;
+        this.metrics = metrics;
+    }
+
+    public static OverflowPolicy parsePolicy(String s) {
+        if (s == null || s.isBlank()) return OverflowPolicy.DISCONNECT;
+        try {
+            return OverflowPolicy.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("app.outbound.overflowPolicy='{}' no reconocida; usando DISCONNECT", s);
+            return OverflowPolicy.DISCONNECT;
+        }
+    }
+
+    /**
+     * Encola un frame ya codificado. Nunca bloquea salvo con la política BLOCK.
+     */
+    public Result offer(ByteBuffer frame) {
+        return offer(new ByteBuffer[]{frame});
+    }
+
+    /**
+     * Encola un mensaje formado por varios buffers que deben escribirse seguidos.
+     */
+    public Result offer(ByteBuffer[] frame) {
+        if (closed) return Result.CLOSED;
+        if (!queue.offer(frame)) {
+            switch (policy) {
+                case DROP:
+                    dropped.increment();
+                    log.debug("Cola de salida llena para {}: mensaje descartado (descartados={})", name, dropped.sum());
+                    return Result.DROPPED;
+                case BLOCK:
+                    boolean ok = false;
+                    try {
+                        ok = queue.offer(frame, blockTimeoutMs, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (ok) break;
+                    log.warn("Cola de salida de {} llena tras esperar {} ms: desconectando", name, blockTimeoutMs);
+                    overflow();
+                    return Result.CLOSED;
+                case DISCONNECT:
+                default:
+                    log.warn("Cola de salida de {} llena ({} frames): desconectando cliente lento", name, queue.size());
+                    overflow();
+                    return Result.CLOSED;
+            }
+        }
+        if (closed) {
+            // cerrada mientras encolábamos
+            queue.clear();
+            return Result.CLOSED;
+        }
+        signal();
+        return Result.QUEUED;
+    }
+
+    private void overflow() {
+        Runnable c = overflowCloser;
+        if (c != null) {
+            try { c.run(); } catch (Exception ignored) {}
+        } else {
+            close();
+        }
+    }
+
+    private void signal() {
+        if (scheduled.compareAndSet(false, true)) {
+            Runnable s = drainStarter;
+            if (s == null) {
+                scheduled.set(false);
+                return;
+            }
+            try {
+                s.run();
+            } catch (Exception e) {
+                scheduled.set(false);
+                log.debug("No se pudo iniciar drenado de {}: {}", name, e.toString());
+            }
+        }
+    }
+
+    /** Mueve los buffers de hasta max mensajes a 'into'. Sólo lo llama el drenador. */
+    int drainTo(Collection<ByteBuffer> into, int max) {
+        int n = 0;
+        long bytes = 0;
+        ByteBuffer[] msg;
+        while (n < max && (msg = queue.poll()) != null) {
+            for (ByteBuffer b : msg) {
+                into.add(b);
+                bytes += b.remaining();
+            }
+            n++;
+        }
+        if (n > 0 && metrics != null) metrics.sent(n, bytes);
+        return n;
+    }
+
+    /**
+     * El drenador terminó (cola vacía). Devuelve true si llegaron datos nuevos entre tanto y debe
+     * seguir drenando él mismo.
+     */
+    boolean finishDrain() {
+        scheduled.set(false);
+        return !queue.isEmpty() && !closed && scheduled.compareAndSet(false, true);
+    }
+
+    /** Espera (acotado) a que se vacíe la cola, p.ej. para que BYE salga antes de cerrar el socket. */
+    void awaitDrained(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while ((!queue.isEmpty() || scheduled.get()) && !closed && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
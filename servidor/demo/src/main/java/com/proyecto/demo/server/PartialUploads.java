@@ -0,0 +1,98 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subidas por trozos en curso de todo el servidor, por transferId (lo emite FILE_HDR_STATUS).
+ *
+ * No dependen de la conexión: si el cliente se cae a mitad de un archivo, al volver a enviar FILE_HDR
+ * con el mismo transferId retoma desde el último byte confirmado. Las subidas sin actividad durante
+ * app.upload.resumeTtlMinutes se descartan (con su temporal) la próxima vez que se consulta el registro.
+ * Viven sólo en memoria: un reinicio del servidor obliga a empezar de nuevo.
+ */
+@Component
+public class PartialUploads {
+
+    private static final Logger log = LoggerFactory.getLogger(PartialUploads.class);
+
+    @Value("${app.upload.resumeTtlMinutes:30}")
+    private long resumeTtlMinutes = 30;
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    /** Nueva subida; su temporal es tempDir/transferId.part. */
+    ChunkedUpload create(String owner, String recipient, String filename, long size, String sha256, Path tempDir) {
+        expire();
+        String id = UUID.randomUUID().toString().replace("-", "");
+        ChunkedUpload upload = new ChunkedUpload(id, owner, recipient, filename, size, sha256, tempDir.resolve(id + ".part"));
+        uploads.put(id, upload);
+        return upload;
+    }
+
+    /**
+     * Subida a retomar: debe existir, ser del mismo usuario y describir el mismo archivo.
+     */
+    ChunkedUpload resume(String transferId, String owner, String filename, long size, String sha256) {
+        expire();
+        ChunkedUpload u = uploads.get(transferId);
+        if (u == null || !u.owner().equals(owner) || !u.filename().equals(filename) || u.size() != size) return null;
+        if (sha256 != null && !sha256.isBlank() && !u.sha256().equalsIgnoreCase(sha256.trim())) return null;
+        return u;
+    }
+
+    ChunkedUpload get(String transferId, String owner) {
+        ChunkedUpload u = uploads.get(transferId);
+        return u != null && u.owner().equals(owner) ? u : null;
+    }
+
+    void remove(ChunkedUpload upload) {
+        uploads.remove(upload.transferId(), upload);
+    }
+
+    /** Quita y descarta (borra el temporal). */
+    void discard(ChunkedUpload upload) {
+        remove(upload);
+        upload.abort();
+    }
+
+    int size() {
+        return uploads.size();
+    }
+
+    /** Subidas por trozos sin terminar. */
+    public int getInFlight() {
+        return uploads.size();
+    }
+
+    /** Bytes ya recibidos (en temporales) de las subidas sin terminar. */
+    public long getBytesReceived() {
+        long n = 0;
+        for (ChunkedUpload u : uploads.values()) n += u.received();
+        return n;
+    }
+
+    /** Bytes declarados en FILE_HDR de las subidas sin terminar. */
+    public long getBytesExpected() {
+        long n = 0;
+        for (ChunkedUpload u : uploads.values()) n += u.size();
+        return n;
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - Math.max(1L, resumeTtlMinutes) * 60_000L;
+        for (ChunkedUpload u : uploads.values()) {
+            if (u.lastActivity() < cutoff && uploads.remove(u.transferId(), u)) {
+                log.info("Subida parcial caducada: {} de {} ({}/{} bytes)", u.filename(), u.owner(), u.received(), u.size());
+                u.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.proyecto.demo.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Lector de un socket bloqueante que sirve tanto líneas v1 como frames v2 sobre el mismo buffer,
+ * así el cambio de protocolo tras "PROTO 2" no pierde bytes ya leídos por adelantado.
+ */
+class ProtocolInput {
+
+    private final InputStream in;
+    // recibe los bytes de cada lectura del socket (ServerMetrics)
+    private final LongConsumer bytesRead;
+    private final byte[] buf = new byte[64 * 1024];
+    private int pos = 0;
+    private int lim = 0;
+
+    ProtocolInput(InputStream in) {
+        this(in, n -> {});
+    }
+
+    ProtocolInput(InputStream in, LongConsumer bytesRead) {
+        this.in = in;
+        this.bytesRead = bytesRead;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < lim) return true;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        bytesRead.accept(n);
+        pos = 0;
+        lim = n;
+        return true;
+    }
+
+    /**
+     * Lee una línea terminada en '\n' (sin '\r'). Devuelve null en fin de stream.
+     */
+    String readLine(int maxBytes) throws IOException {
+        return readLine(verb -> maxBytes);
+    }
+
+    /**
+     * Como readLine(int) con un máximo según el verbo (lo que va antes del primer espacio): hasta verlo se
+     * aplica el de verbo null, así una línea sin espacio no puede crecer hasta el tamaño de un archivo.
+     */
+    String readLine(ToIntFunction<String> maxBytesForVerb) throws IOException {
+        byte[] line = null;
+        int len = 0;
+        int maxBytes = maxBytesForVerb.applyAsInt(null);
+        boolean verbSeen = false;
+        while (true) {
+            if (!fill()) {
+                if (len == 0) return null;
+                break;
+            }
+            int start = pos;
+            int nl = -1;
+            for (int i = pos; i < lim; i++) {
+                if (buf[i] == '\n') { nl = i; break; }
+            }
+            int end = nl < 0 ? lim : nl;
+            int chunk = end - start;
+            if (!verbSeen) {
+                int sp = indexOf(buf, start, end, (byte) ' ');
+                if (sp >= 0) {
+                    verbSeen = true;
+                    String verb = (len > 0 ? new String(line, 0, len, StandardCharsets.US_ASCII) : "")
+                            + new String(buf, start, sp - start, StandardCharsets.US_ASCII);
+                    maxBytes = maxBytesForVerb.applyAsInt(verb);
+                }
+            }
+            if (len + chunk > maxBytes) throw new IOException("línea demasiado larga (> " + maxBytes + " bytes)");
+            if (line == null) line = new byte[Math.max(128, chunk)];
+            if (len + chunk > line.length) line = Arrays.copyOf(line, Math.min(maxBytes, Math.max(line.length * 2, len + chunk)));
+            System.arraycopy(buf, start, line, len, chunk);
+            len += chunk;
+            pos = nl < 0 ? lim : nl + 1;
+            if (nl >= 0) break;
+        }
+        if (len > 0 && line[len - 1] == '\r') len--;
+        return new String(line, 0, len, StandardCharsets.UTF_8);
+    }
+
+    static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Lee un frame v2 completo. Devuelve null en fin de stream.
+     */
+    ProtocolMessage readFrame(int maxBytes) throws IOException {
+        return readFrame(type -> maxBytes);
+    }
+
+    /**
+     * Lee un frame v2 completo con el límite de payload que corresponda a su tipo. El payload se reserva a
+     * medida que llega: una cabecera que anuncia muchos bytes no reserva nada que el cliente no envíe.
+     * Devuelve null en fin de stream.
+     */
+    ProtocolMessage readFrame(IntUnaryOperator maxBytesForType) throws IOException {
+        byte[] header = new byte[ProtocolMessage.V2_HEADER];
+        if (!readFully(header, true)) return null;
+        int type = header[0] & 0xFF;
+        int len = ByteBuffer.wrap(header, 1, 4).getInt();
+        int max = maxBytesForType.applyAsInt(type);
+        if (len < 0 || len > max) throw new IOException("frame v2 demasiado grande (" + len + " bytes, máximo " + max + " para el tipo " + type + ")");
+        byte[] payload = new byte[Math.min(len, buf.length)];
+        int off = 0;
+        while (off < len) {
+            if (!fill()) throw new java.io.EOFException("frame v2 truncado");
+            int n = Math.min(len - off, lim - pos);
+            if (off + n > payload.length) payload = Arrays.copyOf(payload, (int) Math.min(len, Math.max(payload.length * 2L, off + n)));
+            System.arraycopy(buf, pos, payload, off, n);
+            pos += n;
+            off += n;
+        }
+        return ProtocolMessage.decodeV2(type, ByteBuffer.wrap(payload));
+    }
+
+    private boolean readFully(byte[] dst, boolean eofAllowed) throws IOException {
+        int off = 0;
+        while (off < dst.length) {
+            if (!fill()) {
+                if (off == 0 && eofAllowed) return false;
+                throw new java.io.EOFException("frame v2 truncado");
+            }
+            int n = Math.min(dst.length - off, lim - pos);
+            System.arraycopy(buf, pos, dst, off, n);
+            pos += n;
+            off += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,288 @@
+package com.proyecto.demo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Límites de envío por usuario y por IP (cubos de fichas): mensajes por segundo, bytes por segundo y
+ * transferencias de archivo a la vez. ClientWorker los consulta antes de guardar o repartir nada; lo que
+ * se pasa del límite se contesta con SLOW_DOWN y no se procesa. Los FILE_CHUNK no se rechazan (el cliente
+ * los envía seguidos, sin esperar respuesta): se frenan, y la conexión deja de leer ese socket el tiempo
+ * que indique reserveBytes, así TCP frena al cliente.
+ *
+ * Cada cubo admite ráfagas de app.ratelimit.burstSeconds segundos de su tasa. Un envío de más bytes que
+ * la capacidad del cubo (un archivo grande en FILE_DATA) pasa si el cubo está lleno y lo deja en negativo:
+ * el remitente espera lo que corresponde a esos bytes antes del siguiente envío. Una tasa 0 desactiva
+ * ese límite.
+ */
+@Component
+public class RateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    // como mucho una limpieza de cubos inactivos por minuto
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** Envío rechazado: motivo ("mensajes" o "bytes") y espera sugerida al cliente. */
+    public record Denied(String reason, long retryAfterMs) {}
+
+    @Value("${app.ratelimit.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.ratelimit.burstSeconds:2}")
+    private double burstSeconds = 2;
+
+    @Value("${app.ratelimit.user.messagesPerSecond:20}")
+    private double userMessagesPerSecond = 20;
+    @Value("${app.ratelimit.user.bytesPerSecond:4194304}")
+    private double userBytesPerSecond = 4 * 1024 * 1024;
+    @Value("${app.ratelimit.user.maxFileTransfers:2}")
+    private int userMaxTransfers = 2;
+
+    @Value("${app.ratelimit.ip.messagesPerSecond:50}")
+    private double ipMessagesPerSecond = 50;
+    @Value("${app.ratelimit.ip.bytesPerSecond:8388608}")
+    private double ipBytesPerSecond = 8 * 1024 * 1024;
+    @Value("${app.ratelimit.ip.maxFileTransfers:4}")
+    private int ipMaxTransfers = 4;
+
+    private final Map<String, Limits> users = new ConcurrentHashMap<>();
+    private final Map<String, Limits> ips = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    // envíos rechazados y trozos frenados (/api/metrics); null fuera de Spring
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private ServerMetrics metrics;
+
+    public RateLimiter() {
+    }
+
+    // tests: mismos límites por usuario y por IP
+    RateLimiter(double messagesPerSecond, double bytesPerSecond, int maxTransfers, double burstSeconds) {
+        this.userMessagesPerSecond = this.ipMessagesPerSecond = messagesPerSecond;
+        this.userBytesPerSecond = this.ipBytesPerSecond = bytesPerSecond;
+        this.userMaxTransfers = this.ipMaxTransfers = maxTransfers;
+        this.burstSeconds = burstSeconds;
+    }
+
+    /**
+     * Un mensaje de chat o un archivo completo (FILE, FILE_DATA) de bytes bytes. Devuelve null si puede
+     * procesarse (y ya descuenta las fichas) o el motivo del rechazo.
+     */
+    public Denied tryMessage(String user, String ip, long bytes) {
+        return tryAcquire(user, ip, 1, bytes);
+    }
+
+    /**
+     * Descuenta bytes sin contar mensaje (cada FILE_CHUNK de una subida ya admitida) aunque no haya fichas,
+     * y devuelve los ms que hay que esperar antes de procesarlos (0 = ya).
+     */
+    public long reserveBytes(String user, String ip, long bytes) {
+        if (!enabled || bytes <= 0) return 0L;
+        long now = System.nanoTime();
+        sweep(now);
+        long wait = Math.max(limits(users, user, userMessagesPerSecond, userBytesPerSecond).reserve(bytes, now),
+                limits(ips, ip, ipMessagesPerSecond, ipBytesPerSecond).reserve(bytes, now));
+        if (wait > 0 && metrics != null) metrics.chunkPaced();
+        return wait;
+    }
+
+    /**
+     * Ocupa una transferencia por trozos del usuario y de su IP; false si alguno ya tiene el máximo. Cada
+     * true debe devolverse con endTransfer al terminar, fallar o cerrarse la conexión.
+     */
+    public boolean tryStartTransfer(String user, String ip) {
+        if (!enabled) return true;
+        Limits u = limits(users, user, userMessagesPerSecond, userBytesPerSecond);
+        Limits i = limits(ips, ip, ipMessagesPerSecond, ipBytesPerSecond);
+        boolean ok = u.startTransfer(userMaxTransfers);
+        if (ok && !i.startTransfer(ipMaxTransfers)) {
+            u.endTransfer();
+            ok = false;
+        }
+        if (!ok && metrics != null) metrics.throttled("transferencias");
+        return ok;
+    }
+
+    public void endTransfer(String user, String ip) {
+        if (!enabled) return;
+        Limits u = users.get(key(user));
+        if (u != null) u.endTransfer();
+        Limits i = ips.get(key(ip));
+        if (i != null) i.endTransfer();
+    }
+
+    private Denied tryAcquire(String user, String ip, int messages, long bytes) {
+        if (!enabled) return null;
+        long now = System.nanoTime();
+        sweep(now);
+        Limits u = limits(users, user, userMessagesPerSecond, userBytesPerSecond);
+        Denied denied = u.tryAcquire(messages, bytes, now);
+        if (denied == null) {
+            denied = limits(ips, ip, ipMessagesPerSecond, ipBytesPerSecond).tryAcquire(messages, bytes, now);
+            // la IP no deja pasar: se devuelven las fichas ya tomadas del usuario
+            if (denied != null) u.refund(messages, bytes);
+        }
+        if (denied != null) {
+            if (metrics != null) metrics.throttled(denied.reason());
+            log.debug("Límite de {} superado por {} desde {} (esperar {} ms)", denied.reason(), user, ip, denied.retryAfterMs());
+        }
+        return denied;
+    }
+
+    private Limits limits(Map<String, Limits> map, String key, double messagesPerSecond, double bytesPerSecond) {
+        return map.computeIfAbsent(key(key), k -> new Limits(messagesPerSecond, bytesPerSecond, burstSeconds));
+    }
+
+    private static String key(String s) {
+        return s == null ? "" : s;
+    }
+
+    // quita los cubos llenos y sin transferencias: recrearlos da el mismo resultado
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) return;
+        users.values().removeIf(l -> l.idle(now));
+        ips.values().removeIf(l -> l.idle(now));
+    }
+
+    /**
+     * Cubos de mensajes y de bytes de un usuario o de una IP, más sus transferencias en curso.
+     */
+    private static final class Limits {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Bucket messages;
+        private final Bucket bytes;
+        private int transfers;
+
+        Limits(double messagesPerSecond, double bytesPerSecond, double burstSeconds) {
+            long now = System.nanoTime();
+            this.messages = new Bucket(messagesPerSecond, burstSeconds, now);
+            this.bytes = new Bucket(bytesPerSecond, burstSeconds, now);
+        }
+
+        Denied tryAcquire(int n, long size, long now) {
+            lock.lock();
+            try {
+                messages.refill(now);
+                bytes.refill(now);
+                if (n > 0 && !messages.allows(n)) return new Denied("mensajes", messages.waitMillis(n));
+                if (size > 0 && !bytes.allows(size)) return new Denied("bytes", bytes.waitMillis(size));
+                messages.take(n);
+                bytes.take(size);
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long reserve(long size, long now) {
+            lock.lock();
+            try {
+                bytes.refill(now);
+                bytes.take(size);
+                return bytes.debtMillis();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void refund(int n, long size) {
+            lock.lock();
+            try {
+                messages.give(n);
+                bytes.give(size);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean startTransfer(int max) {
+            lock.lock();
+            try {
+                if (max > 0 && transfers >= max) return false;
+                transfers++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void endTransfer() {
+            lock.lock();
+            try {
+                if (transfers > 0) transfers--;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean idle(long now) {
+            lock.lock();
+            try {
+                messages.refill(now);
+                bytes.refill(now);
+                return transfers == 0 && messages.isFull() && bytes.isFull();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // sólo con el lock de su Limits tomado
+    private static final class Bucket {
+        private final double rate;
+        private final double capacity;
+        private double tokens;
+        private long updatedAt;
+
+        Bucket(double perSecond, double burstSeconds, long now) {
+            this.rate = perSecond;
+            this.capacity = Math.max(1.0, perSecond * Math.max(burstSeconds, 0.001));
+            this.tokens = capacity;
+            this.updatedAt = now;
+        }
+
+        void refill(long now) {
+            // now puede ser anterior a la creación del cubo (se toma antes de buscarlo)
+            if (rate <= 0 || now <= updatedAt) return;
+            tokens = Math.min(capacity, tokens + (now - updatedAt) / 1e9 * rate);
+            updatedAt = now;
+        }
+
+        // lo que no cabe en el cubo pasa sólo con el cubo lleno
+        boolean allows(double n) {
+            return rate <= 0 || tokens >= Math.min(n, capacity);
+        }
+
+        void take(double n) {
+            if (rate > 0) tokens -= n;
+        }
+
+        void give(double n) {
+            if (rate > 0) tokens = Math.min(capacity, tokens + n);
+        }
+
+        long waitMillis(double n) {
+            double missing = Math.min(n, capacity) - tokens;
+            return rate <= 0 || missing <= 0 ? 0L : (long) Math.ceil(missing / rate * 1000.0);
+        }
+
+        // tiempo hasta volver a cero si está en negativo
+        long debtMillis() {
+            return rate <= 0 || tokens >= 0 ? 0L : (long) Math.ceil(-tokens / rate * 1000.0);
+        }
+
+        boolean isFull() {
+            return rate <= 0 || tokens >= capacity;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.proyecto.demo.server;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Contadores de tráfico del servidor TCP: conexiones, mensajes y bytes en cada sentido y envíos de la
+ * lista de conectados. Los alimentan ClientWorker, ProtocolInput / NioConnection (bytes leídos),
+ * OutboundQueue (lo que sale al socket) y ConnectedClients. Son LongAdder: cada hilo suma en su propia
+ * celda, así que contar no añade contención al camino del mensaje. Se consultan en /api/metrics.
+ */
+@Component
+public class ServerMetrics {
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    // repartos de presencia (USER_JOIN/USER_LEAVE, o USERS en modo full) y copias entregadas a las sesiones
+    private final LongAdder presenceBroadcasts = new LongAdder();
+    private final LongAdder presenceDeliveries = new LongAdder();
+    // listas completas (USERS_SNAPSHOT) enviadas a una sola sesión: LOGIN o USERS_GET
+    private final LongAdder presenceSnapshots = new LongAdder();
+    // comandos rechazados con SLOW_DOWN por RateLimiter, por motivo, y FILE_CHUNK frenados
+    private final LongAdder throttledMessages = new LongAdder();
+    private final LongAdder throttledBytes = new LongAdder();
+    private final LongAdder throttledTransfers = new LongAdder();
+    private final LongAdder pacedChunks = new LongAdder();
+
+    // última muestra para calcular tasas por segundo; se rehace como mucho una vez por segundo al consultar
+    private final ReentrantLock rateLock = new ReentrantLock();
+    private long sampledAt = System.nanoTime();
+    private long[] sampled = new long[4];
+    private Map<String, Double> rates = Map.of();
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void messageIn() {
+        messagesIn.increment();
+    }
+
+    void bytesIn(long n) {
+        if (n > 0) bytesIn.add(n);
+    }
+
+    void sent(int messages, long bytes) {
+        messagesOut.add(messages);
+        bytesOut.add(bytes);
+    }
+
+    void presenceBroadcast(int recipients) {
+        presenceBroadcasts.increment();
+        presenceDeliveries.add(recipients);
+    }
+
+    void presenceSnapshot() {
+        presenceSnapshots.increment();
+    }
+
+    void throttled(String reason) {
+        switch (reason) {
+            case "bytes" -> throttledBytes.increment();
+            case "transferencias" -> throttledTransfers.increment();
+            default -> throttledMessages.increment();
+        }
+    }
+
+    void chunkPaced() {
+        pacedChunks.increment();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public long getActiveConnections() {
+        // closed primero: leído después, opened nunca queda por debajo
+        long closed = connectionsClosed.sum();
+        return Math.max(0L, connectionsOpened.sum() - closed);
+    }
+
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getPresenceBroadcasts() {
+        return presenceBroadcasts.sum();
+    }
+
+    public long getPresenceDeliveries() {
+        return presenceDeliveries.sum();
+    }
+
+    public long getPresenceSnapshots() {
+        return presenceSnapshots.sum();
+    }
+
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    public long getThrottledBytes() {
+        return throttledBytes.sum();
+    }
+
+    public long getThrottledTransfers() {
+        return throttledTransfers.sum();
+    }
+
+    public long getPacedChunks() {
+        return pacedChunks.sum();
+    }
+
+    /**
+     * Mensajes y bytes por segundo en cada sentido, medidos entre las dos últimas muestras (al menos un
+     * segundo entre ellas: varias consultas seguidas ven la misma tasa).
+     */
+    public Map<String, Double> rates() {
+        rateLock.lock();
+        try {
+            long now = System.nanoTime();
+            long elapsed = now - sampledAt;
+            if (elapsed >= 1_000_000_000L) {
+                long[] current = {getMessagesIn(), getMessagesOut(), getBytesIn(), getBytesOut()};
+                double secs = elapsed / 1e9;
+                Map<String, Double> m = new LinkedHashMap<>();
+                m.put("messagesInPerSec", (current[0] - sampled[0]) / secs);
+                m.put("messagesOutPerSec", (current[1] - sampled[1]) / secs);
+                m.put("bytesInPerSec", (current[2] - sampled[2]) / secs);
+                m.put("bytesOutPerSec", (current[3] - sampled[3]) / secs);
+                rates = m;
+                sampled = current;
+                sampledAt = now;
+            }
+            return rates;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.proyecto.demo.server;
 
-import com.proyecto.demo.ui.UiServerWindow;
 import com.proyecto.demo.auth.AuthService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
@@ -14,11 +14,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.awt.GraphicsEnvironment;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 @Component
+@ConditionalOnProperty(name = "app.tcp.mode", havingValue = "blocking", matchIfMissing = true)
 public class TcpServer implements Runnable {
 
     @Value("${server.address:0.0.0.0}")
@@ -39,6 +40,8 @@ public class TcpServer implements Runnable {
     private final ExecutorService executorService;
     private final ApplicationContext applicationContext;
     private final ConnectedClients connectedClients;
+    private final ClientSessionFactory sessionFactory;
+    private final ConnectionAdmission admission;
     private Thread serverThread;
     private volatile ServerSocket serverSocket;
     private volatile boolean running = true;
@@ -51,7 +54,9 @@ public class TcpServer implements Runnable {
                      com.proyecto.demo.dao.JdbcSesionDao sesionDao,
                      ExecutorService executorService,
                      ApplicationContext applicationContext,
-                     ConnectedClients connectedClients) {
+                     ConnectedClients connectedClients,
+                     ClientSessionFactory sessionFactory,
+                     ConnectionAdmission admission) {
         this.authService = authService;
         this.jdbcTemplate = jdbcTemplate;
         this.messageDao = messageDao;
@@ -61,6 +66,8 @@ public class TcpServer implements Runnable {
         this.executorService = executorService;
         this.applicationContext = applicationContext;
         this.connectedClients = connectedClients;
+        this.sessionFactory = sessionFactory;
+        this.admission = admission;
     }
 
     @PostConstruct
@@ -83,7 +90,9 @@ public class TcpServer implements Runnable {
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket();
+            // socket de un ServerSocketChannel (modo bloqueante): los sockets aceptados tienen canal y la
+            // cola de salida puede escribir con escrituras agrupadas y regiones mapeadas sin copiarlas al heap
+            serverSocket = java.nio.channels.ServerSocketChannel.open().socket();
             serverSocket.bind(new InetSocketAddress(bindAddress, port));
             log.info("Servidor TCP escuchando en {}:{}", bindAddress, port);
 
@@ -92,26 +101,12 @@ public class TcpServer implements Runnable {
                 try {
                     socket = serverSocket.accept();
                     log.info("Nueva conexión entrante desde {}", socket.getRemoteSocketAddress());
-
-                    boolean approved = true;
-
-                    // Solo pedir aprobación si hay entorno gráfico
-                    if (!GraphicsEnvironment.isHeadless()) {
-                        approved = UiServerWindow.requestApproval(socket);
-                    }
-
-                    if (!approved) {
-                        log.warn("Conexión rechazada manualmente desde {}", socket.getRemoteSocketAddress());
-                        try { socket.close(); } catch (IOException ignored) {}
-                        continue;
-                    }
-
-                    log.info("Conexión aprobada desde {}", socket.getRemoteSocketAddress());
-                    // Crear ClientWorker usando ApplicationContext para obtener un bean prototype
-                    ClientWorker worker = applicationContext.getBean(ClientWorker.class, socket, authService, jdbcTemplate, connectedClients, messageDao, archivoDao, userDao, sesionDao);
-                    executorService.submit(worker);
+                    // la aprobación (reglas o diálogo) sigue aparte: este hilo vuelve enseguida a accept
+                    Socket accepted = socket;
+                    admission.admit(accepted, () -> startWorker(accepted));
                 } catch (IOException e) {
                     if (!running) break; // shutdown in progres
+                    if (socket != null) { try { socket.close(); } catch (IOException ignored) {} }
                     log.error("Error aceptando conexión: {}", e.toString(), e);
                 }
             }
@@ -122,6 +117,20 @@ public class TcpServer implements Runnable {
         }
     }
 
+    private void startWorker(Socket socket) throws IOException {
+        // Crear ClientWorker usando ApplicationContext para obtener un bean prototype
+        ClientWorker worker = applicationContext.getBean(ClientWorker.class, socket, authService, jdbcTemplate, connectedClients, messageDao, archivoDao, userDao, sesionDao);
+        ClientSession session = sessionFactory.forSocket(socket);
+        worker.setSession(session);
+        try {
+            executorService.submit(worker);
+        } catch (RejectedExecutionException e) {
+            // app.tcp.executor=bounded sin hilo ni hueco en cola: mejor cerrar que dejarla sin atender
+            log.warn("Sin hilo para la conexión de {}: se cierra", socket.getRemoteSocketAddress());
+            session.close();
+        }
+    }
+
     @PreDestroy
     public void preDestroy() {
         shutdown();
@@ -2,59 +2,134 @@ package com.proyecto.demo.ui;
 
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Simple in-memory log buffer with SSE emitter support.
  * Stores the last N log lines and broadcasts new lines to connected SSE clients.
+ *
+ * Anillo de tamaño fijo sin locks: add() (llamado desde los ClientWorker) toma un número de secuencia,
+ * escribe su hueco y despierta a los suscriptores; nunca espera a un navegador. Cada suscriptor SSE
+ * tiene su propio hilo virtual y su propio cursor: un navegador lento sólo bloquea su send(), no a los
+ * demás ni a un hilo de plataforma. Si se queda más de CAPACITY líneas atrás salta a lo más antiguo que
+ * sigue en el anillo (y lo indica con una línea) en lugar de frenar a nadie.
  */
 public class LogBuffer {
 
     private static final int MAX_LINES = 2000;
-    private static final Deque<String> lines = new LinkedList<>();
-    private static final CopyOnWriteArrayList<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    // potencia de 2 >= MAX_LINES: el hueco de la secuencia s es s & MASK
+    private static final int CAPACITY = Integer.highestOneBit(MAX_LINES - 1) << 1;
+    private static final int MASK = CAPACITY - 1;
+    // líneas que un suscriptor envía antes de volver a mirar la secuencia
+    private static final int SEND_BATCH = 256;
 
-    public static synchronized void add(String line) {
+    // la secuencia viaja con la línea: quien lee sabe si el hueco aún no se escribió o ya se sobrescribió
+    private record Slot(long seq, String line) {}
+
+    private static final AtomicReferenceArray<Slot> ring = new AtomicReferenceArray<>(CAPACITY);
+    // siguiente secuencia a asignar
+    private static final AtomicLong next = new AtomicLong();
+    private static final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    public static void add(String line) {
         if (line == null) return;
-        lines.addLast(line);
-        if (lines.size() > MAX_LINES) {
-            lines.removeFirst();
-        }
-        // Broadcast to SSE clients
-        for (SseEmitter emitter : emitters) {
-            try {
-                emitter.send(SseEmitter.event().data(line));
-            } catch (IOException e) {
-                // remove broken emitter
-                emitters.remove(emitter);
-                try { emitter.complete(); } catch (Exception ignored) {}
-            }
-        }
+        long seq = next.getAndIncrement();
+        ring.set((int) (seq & MASK), new Slot(seq, line));
+        for (Subscriber s : subscribers) LockSupport.unpark(s.thread);
     }
 
-    public static synchronized List<String> getLast(int n) {
+    /** Las últimas n líneas (como mucho MAX_LINES), de la más antigua a la más nueva. */
+    public static List<String> getLast(int n) {
         if (n <= 0) return List.of();
-        List<String> out = new ArrayList<>(Math.min(n, lines.size()));
-        int skip = Math.max(0, lines.size() - n);
-        int i = 0;
-        for (String s : lines) {
-            if (i++ < skip) continue;
-            out.add(s);
+        long hi = next.get();
+        long lo = Math.max(0L, hi - Math.min(n, MAX_LINES));
+        List<String> out = new ArrayList<>((int) (hi - lo));
+        for (long seq = lo; seq < hi; seq++) {
+            Slot slot = ring.get((int) (seq & MASK));
+            // null / secuencia menor: aún escribiéndose; mayor: ya sobrescrita por una línea nueva
+            if (slot != null && slot.seq() == seq) out.add(slot.line());
         }
         return out;
     }
 
     public static SseEmitter createEmitter() {
         SseEmitter emitter = new SseEmitter(0L); // no timeout
-        emitters.add(emitter);
-        emitter.onCompletion(() -> emitters.remove(emitter));
-        emitter.onTimeout(() -> emitters.remove(emitter));
-        emitter.onError(e -> emitters.remove(emitter));
+        Subscriber s = new Subscriber(emitter, next.get());
+        emitter.onCompletion(s::stop);
+        emitter.onTimeout(s::stop);
+        emitter.onError(e -> s.stop());
+        subscribers.add(s);
+        s.thread.start();
         return emitter;
     }
+
+    private static final class Subscriber implements Runnable {
+        private final SseEmitter emitter;
+        private final Thread thread;
+        private volatile boolean active = true;
+        private long cursor;
+
+        Subscriber(SseEmitter emitter, long from) {
+            this.emitter = emitter;
+            this.cursor = from;
+            this.thread = Thread.ofVirtual().name("log-sse").unstarted(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active) {
+                    if (!drain()) LockSupport.parkNanos(500_000_000L);
+                }
+            } catch (Exception e) {
+                // navegador desconectado: se quita y se cierra
+                try { emitter.complete(); } catch (Exception ignored) {}
+            } finally {
+                stop();
+            }
+        }
+
+        // envía lo pendiente (como mucho SEND_BATCH); false si no pudo avanzar
+        private boolean drain() throws Exception {
+            long hi = next.get();
+            if (cursor >= hi) return false;
+            if (hi - cursor > CAPACITY) skipTo(hi - CAPACITY);
+            long start = cursor;
+            long end = Math.min(hi, cursor + SEND_BATCH);
+            while (cursor < end) {
+                Slot slot = ring.get((int) (cursor & MASK));
+                if (slot == null || slot.seq() < cursor) {
+                    // secuencia tomada pero la línea aún no está escrita: se reintenta enseguida
+                    if (cursor == start) LockSupport.parkNanos(1_000_000L);
+                    break;
+                }
+                if (slot.seq() > cursor) {
+                    // adelantado por los escritores mientras se enviaba
+                    skipTo(next.get() - CAPACITY);
+                    continue;
+                }
+                emitter.send(SseEmitter.event().data(slot.line()));
+                cursor++;
+            }
+            return true;
+        }
+
+        private void skipTo(long seq) throws Exception {
+            long skipped = seq - cursor;
+            if (skipped <= 0) return;
+            cursor = seq;
+            emitter.send(SseEmitter.event().data("... (" + skipped + " líneas omitidas)\n"));
+        }
+
+        void stop() {
+            active = false;
+            subscribers.remove(this);
+            LockSupport.unpark(thread);
+        }
+    }
 }
@@ -8,6 +8,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.net.Socket;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import com.proyecto.demo.server.ConnectedClients;
@@ -136,61 +137,53 @@ public class UiServerWindow {
     }
 
     /**
-     * Muestra diálogo de aprobación. Crea/trae la ventana principal y luego muestra
-     * JOptionPane en el EDT. Devuelve true si el usuario aprueba.
+     * Pide aprobación para una conexión con un diálogo NO modal y devuelve enseguida: el resultado llega
+     * por el future (true si el operador aprueba; false si rechaza o cierra el diálogo). Varias solicitudes
+     * pueden estar abiertas a la vez. Si quien llama completa el future antes (p. ej. por tiempo agotado)
+     * el diálogo se cierra solo.
      *
-     * Nota: Retorna false si ocurre algún error al mostrar el diálogo (fallback seguro).
+     * No llamar desde el EDT: la primera vez crea la ventana principal con invokeAndWait.
      */
-    public static boolean requestApproval(Socket socket) {
+    public static CompletableFuture<Boolean> askApproval(Socket socket, int pending) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
         // Si headless, no intentamos GUI
         if (GraphicsEnvironment.isHeadless()) {
             log.warn("Entorno headless detectado, aprobación automática habilitada.");
-            return true;
+            result.complete(true);
+            return result;
         }
 
         // Crear o mostrar la ventana principal
         ensureWindow();
 
-        final boolean[] resultHolder = new boolean[1];
-        try {
-            SwingUtilities.invokeAndWait(() -> {
+        SwingUtilities.invokeLater(() -> {
+            if (result.isDone()) return;
+            try {
                 String msg = "Nueva conexión desde: " + socket.getInetAddress().getHostAddress()
                         + "\nPuerto remoto: " + socket.getPort()
+                        + (pending > 1 ? "\n(" + pending + " conexiones esperando)" : "")
                         + "\n¿Aprobar conexión?";
-                // Llevar la ventana principal al frente para que el diálogo sea visible
-                if (frame != null) {
-                    try {
-                        frame.toFront();
-                        frame.requestFocus();
-                    } catch (Exception ignored) {}
-                }
-                appendLog("Solicitud de conexión desde " + socket.getRemoteSocketAddress());
                 Object[] options = new Object[]{"Si", "No"};
-                int answer = JOptionPane.showOptionDialog(
-                    frame,
-                    msg,
-                    "Solicitud de conexión",
-                    JOptionPane.YES_NO_OPTION,
-                    JOptionPane.QUESTION_MESSAGE,
-                    null,
-                    options,
-                    options[0]
-                );
-                // showOptionDialog returns the index of the selected option (0 -> "Si")
-                resultHolder[0] = answer == 0;
-                appendLog("Decisión: " + (resultHolder[0] ? "APROBADA" : "RECHAZADA") + " para " + socket.getRemoteSocketAddress());
-            });
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            log.warn("Solicitud de aprobación interrumpida para {}", socket.getRemoteSocketAddress());
-            return false;
-        } catch (InvocationTargetException ite) {
-            log.error("Error mostrando diálogo de aprobación: {}", ite.getCause() == null ? ite.toString() : ite.getCause().toString(), ite);
-            return false;
-        }
-
-        boolean approved = resultHolder[0];
-        log.info("Conexión {} desde {}", (approved ? "aprobada" : "rechazada"), socket.getRemoteSocketAddress());
-        return approved;
+                JOptionPane pane = new JOptionPane(msg, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION,
+                        null, options, options[0]);
+                JDialog dialog = pane.createDialog(frame, "Solicitud de conexión");
+                dialog.setModal(false);
+                // el valor cambia al pulsar un botón o al cerrar la ventana (null)
+                pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, e -> {
+                    boolean approved = options[0].equals(e.getNewValue());
+                    if (result.complete(approved)) {
+                        appendLog("Decisión: " + (approved ? "APROBADA" : "RECHAZADA") + " para " + socket.getRemoteSocketAddress());
+                    }
+                });
+                result.whenComplete((r, t) -> SwingUtilities.invokeLater(dialog::dispose));
+                appendLog("Solicitud de conexión desde " + socket.getRemoteSocketAddress());
+                dialog.setVisible(true);
+                dialog.toFront();
+            } catch (Exception e) {
+                log.error("Error mostrando diálogo de aprobación: {}", e.toString(), e);
+                result.complete(false);
+            }
+        });
+        return result;
     }
 }
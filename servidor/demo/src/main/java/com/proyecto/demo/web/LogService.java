@@ -5,26 +5,75 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+/**
+ * Lectura del archivo de log para el panel web sin recorrerlo entero: tail(n) lee hacia atrás desde el
+ * final en bloques de BLOCK bytes hasta juntar n líneas, y readAppended() lee con un FileChannel desde
+ * una posición dada sólo las líneas completas añadidas. Los suscriptores (subscribe) reciben lo nuevo
+ * empujado por un hilo que vigila la carpeta con un WatchService, con una posición persistente que
+ * vuelve a 0 cuando logback rota el archivo (otro fileKey o ENTRY_CREATE del mismo nombre).
+ */
 @Service
 public class LogService {
     private static final Logger log = LoggerFactory.getLogger(LogService.class);
+    // bytes por lectura, hacia atrás (tail) o hacia delante (readAppended)
+    private static final int BLOCK = 64 * 1024;
+    // tope de tail(n) para el panel: las mismas líneas que guarda LogBuffer
+    static final int MAX_TAIL_LINES = 2000;
+    // tope de bytes que tail lee hacia atrás, aunque las líneas sean muy largas
+    static final long MAX_TAIL_BYTES = 4L * 1024 * 1024;
     private final Environment env;
     // position in bytes at application startup; used to filter only current-execution logs
     private volatile long startPosition = 0L;
+    // se resuelve una vez: antes se recorría el árbol de directorios en cada consulta
+    private volatile Path logPath;
+
+    private final CopyOnWriteArrayList<Consumer<List<String>>> subscribers = new CopyOnWriteArrayList<>();
+    // protege logPath (resolución) y watcher (arranque del hilo)
+    private final ReentrantLock lock = new ReentrantLock();
+    private Thread watcher;
+    private volatile WatchService watchService;
 
     public LogService(Environment env) {
         this.env = env;
     }
 
     public Path getLogPath() {
+        Path p = logPath;
+        if (p == null) {
+            lock.lock();
+            try {
+                if (logPath == null) logPath = resolveLogPath();
+                p = logPath;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return p;
+    }
+
+    private Path resolveLogPath() {
         String fileName = env.getProperty("logging.file.name");
         if (fileName == null || fileName.isBlank()) fileName = "server_logs.txt";
 
@@ -68,52 +117,243 @@ public class LogService {
 
     public List<String> tail(int maxLines) {
         Path p = getLogPath();
-        List<String> out = new ArrayList<>();
-        try {
-            if (!Files.exists(p)) return out;
-            boolean includePast = Boolean.parseBoolean(env.getProperty("app.log.includePast", "true"));
-            if (includePast) {
-                List<String> all = Files.readAllLines(p, StandardCharsets.UTF_8);
-                int start = Math.max(0, all.size() - maxLines);
-                for (int i = start; i < all.size(); i++) out.add(all.get(i));
-            } else {
-                // read only appended lines since application start
-                TailResult tr = readAppended(startPosition);
-                List<String> lines = tr.lines;
-                int start = Math.max(0, lines.size() - maxLines);
-                for (int i = start; i < lines.size(); i++) out.add(lines.get(i));
-            }
+        if (maxLines <= 0) return new ArrayList<>();
+        maxLines = Math.min(maxLines, MAX_TAIL_LINES);
+        boolean includePast = Boolean.parseBoolean(env.getProperty("app.log.includePast", "true"));
+        // sin includePast no se mira más atrás del arranque
+        long floor = includePast ? 0L : startPosition;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            return tail(ch, maxLines, floor);
         } catch (IOException e) {
             log.warn("No se pudo leer log {}: {}", p, e.toString());
+            return new ArrayList<>();
         }
-        return out;
+    }
+
+    // últimas maxLines líneas entre floor y el final, leyendo bloques desde el final hacia atrás
+    // y nunca más de MAX_TAIL_BYTES
+    static List<String> tail(FileChannel ch, int maxLines, long floor) throws IOException {
+        long end = ch.size();
+        if (floor > end) floor = 0; // file rotated/truncated
+        // un salto de línea final no abre otra línea
+        if (end > floor && byteAt(ch, end - 1) == '\n') end--;
+        // si el tope corta una línea por la mitad, ese trozo no se devuelve
+        boolean capped = end - floor > MAX_TAIL_BYTES && byteAt(ch, end - MAX_TAIL_BYTES - 1) != '\n';
+        floor = Math.max(floor, end - MAX_TAIL_BYTES);
+        long from = end;
+        int newlines = 0;
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        outer:
+        while (from > floor) {
+            int n = (int) Math.min(BLOCK, from - floor);
+            buf.clear().limit(n);
+            long pos = from - n;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) break;
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n' && ++newlines == maxLines) {
+                    from = pos + i + 1;
+                    break outer;
+                }
+            }
+            from = pos;
+        }
+        List<String> lines = splitLines(read(ch, from, end));
+        if (capped && from == floor && !lines.isEmpty()) lines.remove(0);
+        return lines;
+    }
+
+    // fin de la última línea completa antes de end; si no hay '\n' en el último bloque, end
+    static long lastLineEnd(FileChannel ch, long end) throws IOException {
+        int n = (int) Math.min(BLOCK, end);
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        long pos = end - n;
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) break;
+        }
+        for (int i = buf.position() - 1; i >= 0; i--) {
+            if (buf.get(i) == '\n') return pos + i + 1;
+        }
+        return end;
+    }
+
+    private static byte byteAt(FileChannel ch, long pos) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        ch.read(one, pos);
+        return one.get(0);
+    }
+
+    private static byte[] read(FileChannel ch, long from, long to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, to - from));
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, from + buf.position()) < 0) break;
+        }
+        return buf.array();
+    }
+
+    // UTF-8 completo de una vez: '\n' nunca aparece dentro de un carácter multibyte
+    private static List<String> splitLines(byte[] bytes) {
+        List<String> lines = new ArrayList<>();
+        if (bytes.length == 0) return lines;
+        for (String s : new String(bytes, StandardCharsets.UTF_8).split("\n", -1)) {
+            lines.add(s.endsWith("\r") ? s.substring(0, s.length() - 1) : s);
+        }
+        return lines;
+    }
+
+    private static String decodeLine(byte[] bytes) {
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
     }
 
     /**
      * Read appended lines since position. Returns pair: newPosition and list of lines.
+     * Sólo líneas completas: una línea a medio escribir se devuelve en la siguiente llamada.
      */
     public TailResult readAppended(long position) {
         Path p = getLogPath();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            return readAppended(ch, position);
+        } catch (IOException e) {
+            log.warn("Error leyendo append log {}: {}", p, e.toString());
+            return new TailResult(position, new ArrayList<>());
+        }
+    }
+
+    static TailResult readAppended(FileChannel ch, long position) throws IOException {
+        long len = ch.size();
+        if (position > len) position = 0; // file rotated/truncated
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
         List<String> lines = new ArrayList<>();
-        long newPos = position;
+        long consumed = position;
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        long pos = position;
+        while (pos < len) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            byte[] chunk = buf.array();
+            int lineStart = 0;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    pending.write(chunk, lineStart, i - lineStart);
+                    lines.add(decodeLine(pending.toByteArray()));
+                    pending.reset();
+                    lineStart = i + 1;
+                    consumed = pos + i + 1;
+                }
+            }
+            pending.write(chunk, lineStart, n - lineStart);
+            pos += n;
+        }
+        return new TailResult(consumed, lines);
+    }
+
+    /**
+     * Recibe las líneas nuevas del archivo según se escriben. Devuelve la acción para darse de baja.
+     */
+    public Runnable subscribe(Consumer<List<String>> subscriber) {
+        subscribers.add(subscriber);
+        startWatcher();
+        return () -> subscribers.remove(subscriber);
+    }
+
+    private void startWatcher() {
+        lock.lock();
         try {
-            if (!Files.exists(p)) return new TailResult(newPos, lines);
-            try (RandomAccessFile raf = new RandomAccessFile(p.toFile(), "r")) {
-                long len = raf.length();
-                if (position > len) position = 0; // file rotated/truncated
-                raf.seek(position);
-                String s;
-                while ((s = raf.readLine()) != null) {
-                    // RandomAccessFile.readLine reads ISO-8859-1 bytes; convert properly
-                    byte[] bytes = s.getBytes("ISO-8859-1");
-                    lines.add(new String(bytes, StandardCharsets.UTF_8));
+            if (watcher != null) return;
+            watcher = new Thread(this::watch, "log-tailer");
+            watcher.setDaemon(true);
+            watcher.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void watch() {
+        Path p = getLogPath();
+        try (WatchService ws = p.getFileSystem().newWatchService()) {
+            watchService = ws;
+            p.getParent().register(ws, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            FileChannel ch = FileChannel.open(p, StandardOpenOption.READ);
+            try {
+                Object fileKey = fileKey(p);
+                long position = ch.size();
+                while (true) {
+                    // el aviso puede tardar o perderse (p.ej. en algunos sistemas de archivos): se mira igual cada segundo
+                    WatchKey key = ws.poll(1, TimeUnit.SECONDS);
+                    boolean created = false;
+                    if (key != null) {
+                        for (WatchEvent<?> ev : key.pollEvents()) {
+                            created |= ev.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                    && p.getFileName().equals(ev.context());
+                        }
+                        key.reset();
+                    }
+                    // rotación de logback: el nombre apunta a un archivo nuevo y el canal sigue en el viejo.
+                    // Con fileKey manda la identidad (el ENTRY_CREATE puede llegar después de haber reabierto);
+                    // sin ella, el aviso de creación
+                    Object currentKey = fileKey(p);
+                    if (currentKey != null ? !currentKey.equals(fileKey) : created) {
+                        if (!subscribers.isEmpty()) push(readAppended(ch, position).lines);
+                        ch.close();
+                        ch = FileChannel.open(p, StandardOpenOption.READ);
+                        fileKey = currentKey;
+                        position = 0L;
+                    }
+                    if (subscribers.isEmpty()) {
+                        // sin nadie escuchando no se acumula atraso: el siguiente suscriptor empieza en lo último
+                        position = lastLineEnd(ch, ch.size());
+                        continue;
+                    }
+                    TailResult tr = readAppended(ch, position);
+                    position = tr.position;
+                    push(tr.lines);
                 }
-                newPos = raf.getFilePointer();
+            } finally {
+                ch.close();
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // parada
         } catch (IOException e) {
-            log.warn("Error leyendo append log {}: {}", p, e.toString());
+            log.warn("Seguimiento del log {} detenido: {}", p, e.toString());
+        } finally {
+            lock.lock();
+            try {
+                watcher = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void push(List<String> lines) {
+        if (lines.isEmpty()) return;
+        for (Consumer<List<String>> s : subscribers) {
+            try {
+                s.accept(lines);
+            } catch (Exception e) {
+                subscribers.remove(s);
+            }
         }
-        return new TailResult(newPos, lines);
+    }
+
+    // identidad del archivo (inodo en Unix); null si el sistema de archivos no la da o aún no existe
+    private static Object fileKey(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void stopWatcher() {
+        try {
+            WatchService ws = watchService;
+            if (ws != null) ws.close();
+        } catch (IOException ignored) {}
     }
 
     /**
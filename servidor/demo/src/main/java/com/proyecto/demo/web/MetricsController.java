@@ -0,0 +1,266 @@
+package com.proyecto.demo.web;
+
+import com.proyecto.demo.auth.CachingUserDao;
+import com.proyecto.demo.auth.UserDao;
+import com.proyecto.demo.dao.DaoStats;
+import com.proyecto.demo.server.ClientSession;
+import com.proyecto.demo.server.CommandStats;
+import com.proyecto.demo.server.ConnectedClients;
+import com.proyecto.demo.server.LatencyHistogram;
+import com.proyecto.demo.server.MessageWriter;
+import com.proyecto.demo.server.PartialUploads;
+import com.proyecto.demo.server.ServerMetrics;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estado de carga del servidor: conexiones y sesiones, tráfico (mensajes y bytes en cada sentido),
+ * colas de salida por conexión, subidas en curso, persistencia diferida, caché de usuarios, pool de
+ * conexiones a la BD, latencias de DAO y de comandos y envíos de la lista de conectados.
+ *
+ * GET /api/metrics en JSON; GET /api/metrics/prometheus en formato de texto de Prometheus (ahí sólo los
+ * contadores acumulados: las tasas las calcula Prometheus con rate()).
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final ServerMetrics metrics;
+    private final ConnectedClients connectedClients;
+    private final PartialUploads partialUploads;
+    private final MessageWriter messageWriter;
+    private final UserDao userDao;
+    private final CommandStats commandStats;
+    private final DaoStats daoStats;
+    private final DataSource dataSource;
+
+    public MetricsController(ServerMetrics metrics, ConnectedClients connectedClients, PartialUploads partialUploads,
+                             MessageWriter messageWriter, UserDao userDao, CommandStats commandStats, DaoStats daoStats,
+                             DataSource dataSource) {
+        this.metrics = metrics;
+        this.connectedClients = connectedClients;
+        this.partialUploads = partialUploads;
+        this.messageWriter = messageWriter;
+        this.userDao = userDao;
+        this.commandStats = commandStats;
+        this.daoStats = daoStats;
+        this.dataSource = dataSource;
+    }
+
+    @GetMapping("")
+    public Map<String, Object> metrics() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        List<ClientSession> sessions = connectedClients.getSessions();
+
+        Map<String, Object> conns = new LinkedHashMap<>();
+        conns.put("active", metrics.getActiveConnections());
+        conns.put("opened", metrics.getConnectionsOpened());
+        conns.put("closed", metrics.getConnectionsClosed());
+        conns.put("authenticatedSessions", sessions.size());
+        conns.put("users", connectedClients.getConnectedUsers().size());
+        out.put("connections", conns);
+
+        Map<String, Object> traffic = new LinkedHashMap<>();
+        traffic.put("messagesIn", metrics.getMessagesIn());
+        traffic.put("messagesOut", metrics.getMessagesOut());
+        traffic.put("bytesIn", metrics.getBytesIn());
+        traffic.put("bytesOut", metrics.getBytesOut());
+        traffic.putAll(metrics.rates());
+        out.put("traffic", traffic);
+
+        long pending = 0;
+        long maxPending = 0;
+        long dropped = 0;
+        List<Map<String, Object>> perSession = new ArrayList<>();
+        for (ClientSession s : sessions) {
+            int n = s.outbound().size();
+            pending += n;
+            maxPending = Math.max(maxPending, n);
+            dropped += s.outbound().getDropped();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("user", s.user());
+            m.put("ip", s.ip());
+            m.put("pending", n);
+            m.put("dropped", s.outbound().getDropped());
+            perSession.add(m);
+        }
+        Map<String, Object> outbound = new LinkedHashMap<>();
+        outbound.put("pendingTotal", pending);
+        outbound.put("pendingMax", maxPending);
+        outbound.put("dropped", dropped);
+        outbound.put("sessions", perSession);
+        out.put("outbound", outbound);
+
+        Map<String, Object> uploads = new LinkedHashMap<>();
+        uploads.put("inFlight", partialUploads.getInFlight());
+        uploads.put("bytesReceived", partialUploads.getBytesReceived());
+        uploads.put("bytesExpected", partialUploads.getBytesExpected());
+        out.put("uploads", uploads);
+
+        Map<String, Object> persist = new LinkedHashMap<>();
+        persist.put("queueDepth", messageWriter.getQueueDepth());
+        persist.put("batches", messageWriter.getBatches());
+        persist.put("written", messageWriter.getWritten());
+        persist.put("overflows", messageWriter.getOverflows());
+        persist.put("callerWrites", messageWriter.getCallerWrites());
+        persist.put("avgCommitMicros", messageWriter.getAvgCommitMicros());
+        persist.put("maxCommitMicros", messageWriter.getMaxCommitMicros());
+        out.put("persistence", persist);
+
+        if (userDao instanceof CachingUserDao cache) {
+            Map<String, Object> users = new LinkedHashMap<>();
+            users.put("size", cache.size());
+            users.put("hits", cache.getHits());
+            users.put("misses", cache.getMisses());
+            users.put("negativeHits", cache.getNegativeHits());
+            users.put("evictions", cache.getEvictions());
+            users.put("invalidations", cache.getInvalidations());
+            out.put("userCache", users);
+        }
+
+        out.put("dbPool", dbPool());
+
+        Map<String, Object> dao = new LinkedHashMap<>();
+        for (var e : daoStats.histograms().entrySet()) dao.put(e.getKey(), e.getValue().summaryMicros());
+        out.put("dao", dao);
+        out.put("commands", commandStats.snapshot());
+
+        Map<String, Object> presence = new LinkedHashMap<>();
+        presence.put("broadcasts", metrics.getPresenceBroadcasts());
+        presence.put("deliveries", metrics.getPresenceDeliveries());
+        presence.put("snapshots", metrics.getPresenceSnapshots());
+        presence.put("version", connectedClients.getPresenceVersion());
+        out.put("presence", presence);
+
+        Map<String, Object> throttling = new LinkedHashMap<>();
+        throttling.put("messages", metrics.getThrottledMessages());
+        throttling.put("bytes", metrics.getThrottledBytes());
+        throttling.put("transfers", metrics.getThrottledTransfers());
+        throttling.put("pacedChunks", metrics.getPacedChunks());
+        out.put("throttling", throttling);
+        return out;
+    }
+
+    // active/idle/total/waiting/max del pool Hikari; vacío si el DataSource no es Hikari o aún no arrancó
+    private Map<String, Object> dbPool() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (!(dataSource instanceof HikariDataSource hikari)) return m;
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) return m;
+        m.put("name", hikari.getPoolName());
+        m.put("active", pool.getActiveConnections());
+        m.put("idle", pool.getIdleConnections());
+        m.put("total", pool.getTotalConnections());
+        m.put("waiting", pool.getThreadsAwaitingConnection());
+        m.put("max", hikari.getMaximumPoolSize());
+        return m;
+    }
+
+    @GetMapping(path = "/prometheus", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        List<ClientSession> sessions = connectedClients.getSessions();
+
+        gauge(sb, "chat_connections_active", "Conexiones TCP abiertas", metrics.getActiveConnections());
+        counter(sb, "chat_connections_opened_total", "Conexiones TCP aceptadas", metrics.getConnectionsOpened());
+        gauge(sb, "chat_sessions_authenticated", "Sesiones con LOGIN correcto", sessions.size());
+        gauge(sb, "chat_users_connected", "Usuarios distintos conectados", connectedClients.getConnectedUsers().size());
+
+        counter(sb, "chat_messages_in_total", "Comandos recibidos de los clientes", metrics.getMessagesIn());
+        counter(sb, "chat_messages_out_total", "Mensajes entregados a los sockets", metrics.getMessagesOut());
+        counter(sb, "chat_bytes_in_total", "Bytes leídos de los sockets", metrics.getBytesIn());
+        counter(sb, "chat_bytes_out_total", "Bytes entregados a los sockets", metrics.getBytesOut());
+
+        header(sb, "chat_outbound_queue_depth", "Mensajes pendientes en la cola de salida de cada sesión", "gauge");
+        for (ClientSession s : sessions) {
+            sb.append("chat_outbound_queue_depth{user=\"").append(escape(s.user())).append("\",ip=\"").append(escape(s.ip())).append("\"} ")
+                    .append(s.outbound().size()).append('\n');
+        }
+        long dropped = 0;
+        for (ClientSession s : sessions) dropped += s.outbound().getDropped();
+        gauge(sb, "chat_outbound_dropped", "Mensajes descartados por colas de salida llenas (sesiones actuales)", dropped);
+
+        gauge(sb, "chat_uploads_in_flight", "Subidas por trozos sin terminar", partialUploads.getInFlight());
+        gauge(sb, "chat_upload_bytes_in_flight", "Bytes recibidos de subidas sin terminar", partialUploads.getBytesReceived());
+
+        gauge(sb, "chat_persist_queue_depth", "Filas de mensajes en cola de escritura", messageWriter.getQueueDepth());
+        counter(sb, "chat_persist_batches_total", "Lotes de mensajes guardados", messageWriter.getBatches());
+        counter(sb, "chat_persist_rows_total", "Filas de mensajes guardadas en lote", messageWriter.getWritten());
+        counter(sb, "chat_persist_overflows_total", "Envíos guardados en el hilo del cliente por cola llena", messageWriter.getOverflows());
+        counter(sb, "chat_persist_caller_writes_total", "Envíos guardados en el hilo del cliente", messageWriter.getCallerWrites());
+
+        if (userDao instanceof CachingUserDao cache) {
+            gauge(sb, "chat_user_cache_size", "Usuarios en caché", cache.size());
+            counter(sb, "chat_user_cache_hits_total", "Aciertos de la caché de usuarios", cache.getHits());
+            counter(sb, "chat_user_cache_misses_total", "Fallos de la caché de usuarios", cache.getMisses());
+            counter(sb, "chat_user_cache_evictions_total", "Usuarios expulsados de la caché", cache.getEvictions());
+        }
+
+        Map<String, Object> pool = dbPool();
+        if (!pool.isEmpty()) {
+            gauge(sb, "chat_db_pool_active", "Conexiones a BD en uso", ((Number) pool.get("active")).longValue());
+            gauge(sb, "chat_db_pool_idle", "Conexiones a BD libres", ((Number) pool.get("idle")).longValue());
+            gauge(sb, "chat_db_pool_max", "Tamaño máximo del pool de BD", ((Number) pool.get("max")).longValue());
+            gauge(sb, "chat_db_pool_waiting", "Hilos esperando una conexión a BD", ((Number) pool.get("waiting")).longValue());
+        }
+
+        summary(sb, "chat_dao_latency_seconds", "Latencia de las operaciones de DAO", "op", daoStats.histograms());
+        summary(sb, "chat_command_latency_seconds", "Latencia de atención de cada comando", "verb", commandStats.histograms());
+
+        counter(sb, "chat_presence_broadcasts_total", "Repartos de presencia (USER_JOIN/USER_LEAVE o USERS)", metrics.getPresenceBroadcasts());
+        counter(sb, "chat_presence_deliveries_total", "Copias de presencia entregadas a sesiones", metrics.getPresenceDeliveries());
+        counter(sb, "chat_presence_snapshots_total", "Listas completas (USERS_SNAPSHOT) enviadas al entrar o por USERS_GET", metrics.getPresenceSnapshots());
+
+        header(sb, "chat_throttled_total", "Comandos rechazados con SLOW_DOWN por límite de envío", "counter");
+        sb.append("chat_throttled_total{reason=\"mensajes\"} ").append(metrics.getThrottledMessages()).append('\n');
+        sb.append("chat_throttled_total{reason=\"bytes\"} ").append(metrics.getThrottledBytes()).append('\n');
+        sb.append("chat_throttled_total{reason=\"transferencias\"} ").append(metrics.getThrottledTransfers()).append('\n');
+        counter(sb, "chat_paced_chunks_total", "FILE_CHUNK frenados por superar los bytes por segundo", metrics.getPacedChunks());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, String label, Map<String, LatencyHistogram> byKey) {
+        header(sb, name, help, "summary");
+        for (var e : byKey.entrySet()) {
+            String key = label + "=\"" + escape(e.getKey()) + "\"";
+            LatencyHistogram h = e.getValue();
+            for (double q : QUANTILES) {
+                sb.append(name).append('{').append(key).append(",quantile=\"").append(q).append("\"} ")
+                        .append(h.percentile(q) / 1e9).append('\n');
+            }
+            sb.append(name).append("_sum{").append(key).append("} ").append(h.sumNanos() / 1e9).append('\n');
+            sb.append(name).append("_count{").append(key).append("} ").append(h.count()).append('\n');
+        }
+    }
+
+    private static String escape(String v) {
+        if (v == null) return "";
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
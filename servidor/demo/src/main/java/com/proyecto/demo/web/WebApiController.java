@@ -4,6 +4,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.jdbc.core.JdbcTemplate;
+import com.proyecto.demo.server.CommandStats;
 import com.proyecto.demo.server.ConnectedClients;
 import org.springframework.beans.factory.annotation.Value;
 import com.proyecto.demo.db.DatabaseSelectorService;
@@ -20,6 +21,7 @@ public class WebApiController {
     private final JdbcTemplate jdbc;
     private final ConnectedClients connectedClients;
     private final DatabaseSelectorService selectorService;
+    private final CommandStats commandStats;
 
     @Value("${app.db.exposeCredentials:false}")
     private boolean exposeCredentials;
@@ -28,10 +30,11 @@ public class WebApiController {
     @Value("${spring.datasource.postgres.password:}")
     private String configuredPgPassword;
 
-    public WebApiController(JdbcTemplate jdbc, ConnectedClients connectedClients, DatabaseSelectorService selectorService) {
+    public WebApiController(JdbcTemplate jdbc, ConnectedClients connectedClients, DatabaseSelectorService selectorService, CommandStats commandStats) {
         this.jdbc = jdbc;
         this.connectedClients = connectedClients;
         this.selectorService = selectorService;
+        this.commandStats = commandStats;
     }
 
     @GetMapping("/dbinfo")
@@ -116,4 +119,13 @@ public class WebApiController {
             return m;
         }).collect(Collectors.toList());
     }
+
+    /**
+     * Latencia de atención por comando TCP (LOGIN, MSG, FILE_HDR, FILE_DATA, HISTORY...) desde el arranque:
+     * count y mean/p50/p99/p999/max en microsegundos.
+     */
+    @GetMapping("/commands")
+    public Map<String, Map<String, Long>> commands() {
+        return commandStats.snapshot();
+    }
 }
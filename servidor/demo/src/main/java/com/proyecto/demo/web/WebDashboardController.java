@@ -10,6 +10,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 /**
@@ -20,6 +22,11 @@ import java.util.List;
 @RequestMapping("/api/logs")
 public class WebDashboardController {
     private static final Logger log = LoggerFactory.getLogger(WebDashboardController.class);
+    private final LogService logService;
+
+    public WebDashboardController(LogService logService) {
+        this.logService = logService;
+    }
 
     @GetMapping("")
     public List<String> tail(@RequestParam(defaultValue = "200") int lines) {
@@ -30,4 +37,27 @@ public class WebDashboardController {
     public SseEmitter stream() {
         return LogBuffer.createEmitter();
     }
+
+    // el archivo de log (server_logs.txt): últimas líneas leídas desde el final, sin recorrerlo entero
+    @GetMapping("/file")
+    public List<String> fileTail(@RequestParam(defaultValue = "200") int lines) {
+        return logService.tail(lines);
+    }
+
+    @GetMapping(path = "/file/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter fileStream() {
+        SseEmitter emitter = new SseEmitter(0L);
+        Runnable unsubscribe = logService.subscribe(lines -> {
+            try {
+                for (String line : lines) emitter.send(SseEmitter.event().data(line));
+            } catch (IOException e) {
+                // navegador desconectado: LogService quita al suscriptor
+                throw new UncheckedIOException(e);
+            }
+        });
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+        return emitter;
+    }
 }
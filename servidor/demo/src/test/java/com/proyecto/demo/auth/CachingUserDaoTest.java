@@ -0,0 +1,120 @@
+package com.proyecto.demo.auth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingUserDaoTest {
+
+    // consultas que llegan a la "BD"
+    private final AtomicInteger queries = new AtomicInteger();
+    private final Map<Long, UserDto> rows = new ConcurrentHashMap<>();
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private final UserDao db = new UserDao() {
+        @Override
+        public Optional<UserDto> findByUsername(String username) {
+            queries.incrementAndGet();
+            return rows.values().stream().filter(u -> u.getUsername().equals(username)).findFirst();
+        }
+
+        @Override
+        public Optional<UserDto> findById(Long id) {
+            queries.incrementAndGet();
+            return Optional.ofNullable(rows.get(id));
+        }
+
+        @Override
+        public Map<Long, String> findUsernamesByIds(java.util.Collection<Long> ids) {
+            queries.incrementAndGet();
+            Map<Long, String> out = new java.util.HashMap<>();
+            for (Long id : ids) if (rows.containsKey(id)) out.put(id, rows.get(id).getUsername());
+            return out;
+        }
+
+        @Override
+        public boolean createUser(Long id, String username, String passwordHash) {
+            rows.put(id, new UserDto(id, username, passwordHash));
+            return true;
+        }
+    };
+
+    @Test
+    public void repeatedLookupsHitTheCacheInBothDirections() {
+        rows.put(1L, new UserDto(1L, "ana", "h1"));
+        CachingUserDao cache = new CachingUserDao(db, now::get, 100, 60, 5);
+
+        assertEquals(Long.valueOf(1L), cache.findByUsername("ana").orElseThrow().getId());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("ana", cache.findById(1L).orElseThrow().getUsername());
+            assertEquals("h1", cache.findByUsername("ana").orElseThrow().getPasswordHash());
+        }
+        assertEquals(Map.of(1L, "ana"), cache.findUsernamesByIds(List.of(1L)));
+        assertEquals(1, queries.get());
+        assertEquals(21, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // caducado: vuelve a la BD
+        now.addAndGet(61_000L);
+        cache.findById(1L);
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void unknownNamesAreRememberedUntilRegisterInvalidates() throws Exception {
+        CachingUserDao cache = new CachingUserDao(db, now::get, 100, 60, 5);
+        AuthDbService auth = new AuthDbService(cache);
+
+        assertTrue(cache.findByUsername("bob").isEmpty());
+        assertTrue(cache.findByUsername("bob").isEmpty());
+        assertTrue(cache.findById(7L).isEmpty());
+        assertTrue(cache.findById(7L).isEmpty());
+        assertEquals(2, queries.get());
+        assertEquals(2, cache.getNegativeHits());
+
+        assertTrue(auth.register("7", "bob", "secreto"));
+        assertEquals(Long.valueOf(7L), cache.findByUsername("bob").orElseThrow().getId());
+        assertTrue(auth.login("7", "bob", "secreto"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedWithItsNames() {
+        for (long id = 1; id <= 3; id++) rows.put(id, new UserDto(id, "u" + id, "h"));
+        CachingUserDao cache = new CachingUserDao(db, now::get, 2, 60, 5);
+
+        cache.findByUsername("u1");
+        cache.findByUsername("u2");
+        cache.findById(1L);
+        cache.findByUsername("u3");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        int before = queries.get();
+        cache.findByUsername("u1");
+        cache.findByUsername("u3");
+        assertEquals(before, queries.get());
+        cache.findByUsername("u2");
+        assertEquals(before + 1, queries.get());
+    }
+
+    @Test
+    public void namesFromBatchLookupDoNotServeLogin() {
+        rows.put(1L, new UserDto(1L, "ana", "h1"));
+        rows.put(2L, new UserDto(2L, "bea", "h2"));
+        CachingUserDao cache = new CachingUserDao(db, now::get, 100, 60, 5);
+
+        assertEquals(Map.of(1L, "ana", 2L, "bea"), cache.findUsernamesByIds(List.of(1L, 2L, 1L)));
+        assertEquals(Map.of(1L, "ana", 2L, "bea"), cache.findUsernamesByIds(List.of(1L, 2L)));
+        assertEquals(1, queries.get());
+        // sólo se conocía el nombre: el hash se pide a la BD
+        assertEquals("h2", cache.findById(2L).orElseThrow().getPasswordHash());
+        assertEquals(2, queries.get());
+    }
+}
@@ -0,0 +1,58 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedUploadTest {
+
+    private static long crc(byte[] b) {
+        CRC32C c = new CRC32C();
+        c.update(b);
+        return c.getValue();
+    }
+
+    @Test
+    public void rejectedChunkKeepsCommittedOffsetAndCommitVerifiesSha256() throws Exception {
+        Path dir = Files.createTempDirectory("chunked");
+        byte[] a = "hola ".getBytes();
+        byte[] b = "mundo".getBytes();
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest("hola mundo".getBytes()));
+        ContentStore store = new ContentStore(null, dir.resolve("cas").toString());
+        ChunkedUpload u = new ChunkedUpload("id", "ana", "bob", "x.txt", 10, sha, store.tempDir().resolve("id.part"));
+
+        u.write(0, a, crc(a));
+        IllegalArgumentException bad = assertThrows(IllegalArgumentException.class, () -> u.write(5, b, crc(b) + 1));
+        assertEquals("crc_invalido", bad.getMessage());
+        assertEquals("offset_invalido", assertThrows(IllegalArgumentException.class, () -> u.write(0, a, crc(a))).getMessage());
+        assertEquals(5, u.received());
+
+        u.write(5, b, crc(b));
+        assertTrue(u.isComplete());
+        Path target = u.commit(store);
+        assertEquals("hola mundo", Files.readString(target));
+        assertEquals(store.pathFor(sha), target);
+        try (var files = Files.list(store.tempDir())) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void sha256MismatchIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("chunked");
+        byte[] a = "abc".getBytes();
+        ContentStore store = new ContentStore(null, dir.toString());
+        ChunkedUpload u = new ChunkedUpload("id", "ana", "bob", "y.txt", 3, "00", store.tempDir().resolve("id.part"));
+        u.write(0, a, crc(a));
+        assertEquals("sha256_invalido", assertThrows(IllegalArgumentException.class, () -> u.commit(store)).getMessage());
+        u.abort();
+        assertFalse(Files.exists(store.pathFor(ContentStore.sha256(a))));
+        assertFalse(Files.exists(store.tempDir().resolve("id.part")));
+    }
+}
@@ -0,0 +1,133 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectedClientsTest {
+
+    // sesión v1 cuya cola no se vacía sola: lo encolado se lee con lines()
+    private static OutboundQueue queue(String name) {
+        OutboundQueue q = new OutboundQueue(name, 64, OutboundQueue.OverflowPolicy.DROP, 0);
+        q.bind(() -> {}, q::close);
+        return q;
+    }
+
+    private static List<String> lines(OutboundQueue q) {
+        List<ByteBuffer> frames = new ArrayList<>();
+        q.drainTo(frames, 64);
+        q.finishDrain();
+        List<String> out = new ArrayList<>();
+        for (ByteBuffer b : frames) {
+            byte[] raw = new byte[b.remaining()];
+            b.duplicate().get(raw);
+            out.add(new String(raw, StandardCharsets.UTF_8).trim());
+        }
+        return out;
+    }
+
+    @Test
+    public void loginGetsSnapshotAndOthersGetDeltas() {
+        ConnectedClients clients = new ConnectedClients("delta", 0);
+        OutboundQueue ana = queue("ana");
+        clients.register("ana", 1L, new ClientSession("ana", ana, ana::close, false), "10.0.0.1");
+        assertEquals(List.of("USERS_SNAPSHOT 0|", "USER_JOIN 1|ana"), lines(ana));
+
+        OutboundQueue luis = queue("luis");
+        clients.register("luis", 2L, new ClientSession("luis", luis, luis::close, false), "10.0.0.2");
+        assertEquals(List.of("USERS_SNAPSHOT 1|ana", "USER_JOIN 2|luis"), lines(luis));
+        assertEquals(List.of("USER_JOIN 2|luis"), lines(ana));
+
+        clients.unregister("luis", "10.0.0.2");
+        assertEquals(List.of("USER_LEAVE 3|luis"), lines(ana));
+        assertEquals(3, clients.getPresenceVersion());
+    }
+
+    @Test
+    public void changesInsideTheWindowAreCoalesced() {
+        ConnectedClients clients = new ConnectedClients("delta", 60_000);
+        try {
+            OutboundQueue ana = queue("ana");
+            clients.register("ana", 1L, new ClientSession("ana", ana, ana::close, false), "10.0.0.1");
+            clients.flushPresence();
+            lines(ana);
+
+            OutboundQueue q2 = queue("luis");
+            OutboundQueue q3 = queue("eva");
+            clients.register("luis", 2L, new ClientSession("luis", q2, q2::close, false), "10.0.0.2");
+            clients.register("eva", 3L, new ClientSession("eva", q3, q3::close, false), "10.0.0.3");
+            clients.unregister("luis", "10.0.0.2");
+            clients.flushPresence();
+            // luis entró y salió dentro de la ventana: no se publica
+            assertEquals(List.of("USER_JOIN 2|eva"), lines(ana));
+            assertEquals(List.of("USERS_SNAPSHOT 1|ana", "USER_JOIN 2|eva"), lines(q3));
+        } finally {
+            clients.stopPresenceTimer();
+        }
+    }
+
+    @Test
+    public void presenceIsQueuedOutsideThePresenceLock() throws Exception {
+        ConnectedClients clients = new ConnectedClients("delta", 0);
+        OutboundQueue ana = queue("ana");
+        clients.register("ana", 1L, new ClientSession("ana", ana, ana::close, false), "10.0.0.1");
+        lines(ana);
+        // al encolar a eva su USERS_SNAPSHOT, otro hilo consulta la presencia: no debe esperar al reparto
+        java.util.concurrent.atomic.AtomicLong seen = new java.util.concurrent.atomic.AtomicLong(-1);
+        OutboundQueue slow = new OutboundQueue("ana2", 64, OutboundQueue.OverflowPolicy.DROP, 0);
+        slow.bind(() -> {
+            Thread t = new Thread(() -> seen.set(clients.getPresenceVersion()));
+            t.start();
+            try { t.join(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }, slow::close);
+        clients.register("eva", 2L, new ClientSession("eva", slow, slow::close, false), "10.0.0.2");
+        // -1 = la consulta seguía bloqueada al agotarse la espera
+        assertEquals(1, seen.get());
+        assertEquals(List.of("USER_JOIN 2|eva"), lines(ana));
+        assertEquals(List.of("USERS_SNAPSHOT 1|ana", "USER_JOIN 2|eva"), lines(slow));
+    }
+
+    @Test
+    public void broadcastMessageUsesEachSessionFormat() {
+        ConnectedClients clients = new ConnectedClients("full", 0);
+        OutboundQueue ana = queue("ana");
+        ClientSession anaSession = new ClientSession("ana", ana, ana::close, false);
+        anaSession.setMessageIds(true);
+        clients.register("ana", 1L, anaSession, "10.0.0.1");
+        OutboundQueue luis = queue("luis");
+        ClientSession luisSession = new ClientSession("luis", luis, luis::close, false);
+        luisSession.setMessageIds(true);
+        clients.register("luis", 2L, luisSession, "10.0.0.2");
+        OutboundQueue eva = queue("eva");
+        clients.register("eva", 3L, new ClientSession("eva", eva, eva::close, false), "10.0.0.3");
+        lines(ana);
+        lines(luis);
+        lines(eva);
+
+        assertTrue(clients.broadcastMessage("ana", "hola", 42L));
+        // ana lo pidió con msgid: sin eco; eva no tiene cursor: formato de siempre
+        assertEquals(List.of(), lines(ana));
+        assertEquals(List.of("MSGFROM 42|ana|hola"), lines(luis));
+        assertEquals(List.of("MSGFROM ana|hola"), lines(eva));
+
+        clients.broadcastMessage("eva", "buenas", null);
+        assertEquals(List.of("MSGFROM eva|buenas"), lines(eva));
+        assertEquals(List.of("MSGFROM |eva|buenas"), lines(ana));
+    }
+
+    @Test
+    public void fullModeKeepsLegacyUsersList() {
+        ConnectedClients clients = new ConnectedClients("full", 0);
+        OutboundQueue ana = queue("ana");
+        clients.register("ana", 1L, new ClientSession("ana", ana, ana::close, false), "10.0.0.1");
+        OutboundQueue luis = queue("luis");
+        clients.register("luis", 2L, new ClientSession("luis", luis, luis::close, false), "10.0.0.2");
+        assertEquals(List.of("USERS ana", "USERS ana,luis"), lines(ana));
+        assertEquals(List.of("USERS ana,luis"), lines(luis));
+    }
+}
@@ -0,0 +1,45 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionAdmissionTest {
+
+    private static InetAddress ip(String s) throws Exception {
+        return InetAddress.getByName(s);
+    }
+
+    @Test
+    public void subnetMatchesByPrefix() throws Exception {
+        ConnectionAdmission.Subnet lan = ConnectionAdmission.Subnet.parse("192.168.1.0/24");
+        assertTrue(lan.contains(ip("192.168.1.77")));
+        assertFalse(lan.contains(ip("192.168.2.1")));
+
+        ConnectionAdmission.Subnet odd = ConnectionAdmission.Subnet.parse("10.0.0.128/25");
+        assertTrue(odd.contains(ip("10.0.0.200")));
+        assertFalse(odd.contains(ip("10.0.0.127")));
+
+        assertTrue(ConnectionAdmission.Subnet.parse("0.0.0.0/0").contains(ip("8.8.8.8")));
+    }
+
+    @Test
+    public void singleAddressAndIpv6() throws Exception {
+        ConnectionAdmission.Subnet one = ConnectionAdmission.Subnet.parse(" 10.0.0.5 ");
+        assertTrue(one.contains(ip("10.0.0.5")));
+        assertFalse(one.contains(ip("10.0.0.6")));
+
+        ConnectionAdmission.Subnet ula = ConnectionAdmission.Subnet.parse("fd00::/8");
+        assertTrue(ula.contains(ip("fd12:3456::1")));
+        assertFalse(ula.contains(ip("10.0.0.5")));
+    }
+
+    @Test
+    public void rejectsInvalidEntries() {
+        assertThrows(IllegalArgumentException.class, () -> ConnectionAdmission.Subnet.parse("192.168.1.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionAdmission.Subnet.parse("192.168.1.0/x"));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionAdmission.Subnet.parse("servidor.local"));
+    }
+}
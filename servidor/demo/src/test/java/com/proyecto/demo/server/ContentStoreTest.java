@@ -0,0 +1,118 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.dao.ArchivoDao;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentStoreTest {
+
+    // filas de `archivos` que apuntan al contenido
+    private final AtomicLong rows = new AtomicLong();
+
+    private final ArchivoDao dao = new ArchivoDao() {
+        @Override
+        public long insertArchivo(String filename, String path, long size, Long propietarioId) {
+            return rows.incrementAndGet();
+        }
+
+        @Override
+        public ArchivoInfo findById(long id) {
+            return null;
+        }
+
+        @Override
+        public long countByPath(String path) {
+            return rows.get();
+        }
+    };
+
+    @Test
+    public void identicalContentIsStoredOnceInShardedPath() throws Exception {
+        Path dir = Files.createTempDirectory("cas");
+        ContentStore store = new ContentStore(dao, dir.toString());
+        byte[] data = "mismo contenido".getBytes();
+        String hash = ContentStore.sha256(data);
+
+        Path first = store.put(data);
+        assertEquals(dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash), first);
+        store.release(first, true);
+        rows.incrementAndGet();
+
+        Path second = store.put(data);
+        assertEquals(first, second);
+        store.release(second, true);
+        rows.incrementAndGet();
+
+        assertEquals(first, store.find(hash.toUpperCase(), data.length));
+        store.release(first, true);
+        assertNull(store.find(hash, data.length + 1));
+        try (var files = Files.list(store.tempDir())) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void unreferencedContentIsRemovedOnlyWhenNotInUse() throws Exception {
+        Path dir = Files.createTempDirectory("cas");
+        ContentStore store = new ContentStore(dao, dir.toString());
+        byte[] data = "sin filas".getBytes();
+
+        Path a = store.put(data);
+        Path b = store.find(ContentStore.sha256(data), data.length);
+        assertNotNull(b);
+        // otra subida sigue usándolo: no se borra aunque no haya filas
+        store.release(a, false);
+        assertTrue(Files.exists(b));
+        store.release(b, false);
+        assertFalse(Files.exists(b));
+    }
+
+    @Test
+    public void findWaitsWhileReleaseDecidesRemoval() throws Exception {
+        java.util.concurrent.CountDownLatch counting = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch answer = new java.util.concurrent.CountDownLatch(1);
+        ArchivoDao slow = new ArchivoDao() {
+            @Override
+            public long insertArchivo(String filename, String path, long size, Long propietarioId) {
+                return 1L;
+            }
+
+            @Override
+            public ArchivoInfo findById(long id) {
+                return null;
+            }
+
+            @Override
+            public long countByPath(String path) {
+                counting.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0L;
+            }
+        };
+        Path dir = Files.createTempDirectory("cas");
+        ContentStore store = new ContentStore(slow, dir.toString());
+        byte[] data = "se borra".getBytes();
+        Path stored = store.put(data);
+
+        Thread releaser = new Thread(() -> store.release(stored, false));
+        releaser.start();
+        counting.await();
+        // la consulta va fuera del lock, pero el contenido no puede volver a usarse hasta que se decida
+        var found = java.util.concurrent.CompletableFuture.supplyAsync(() -> store.find(ContentStore.sha256(data), data.length));
+        Thread.sleep(100);
+        assertFalse(found.isDone());
+        answer.countDown();
+        releaser.join(5000);
+        assertNull(found.get(5, java.util.concurrent.TimeUnit.SECONDS));
+        assertFalse(Files.exists(stored));
+    }
+}
@@ -0,0 +1,128 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.auth.UserDao;
+import com.proyecto.demo.auth.UserDto;
+import com.proyecto.demo.dao.ArchivoDao;
+import com.proyecto.demo.model.MessageRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryEntriesTest {
+
+    private final AtomicInteger singleLookups = new AtomicInteger();
+    private final AtomicInteger batchLookups = new AtomicInteger();
+
+    private final UserDao users = new UserDao() {
+        @Override
+        public Optional<UserDto> findByUsername(String username) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<UserDto> findById(Long id) {
+            singleLookups.incrementAndGet();
+            return Optional.of(new UserDto(id, "u" + id, ""));
+        }
+
+        @Override
+        public Map<Long, String> findUsernamesByIds(Collection<Long> ids) {
+            batchLookups.incrementAndGet();
+            Map<Long, String> out = new HashMap<>();
+            for (Long id : ids) if (id != 3L) out.put(id, "u" + id);
+            return out;
+        }
+
+        @Override
+        public boolean createUser(Long id, String username, String passwordHash) {
+            return false;
+        }
+    };
+
+    private final ArchivoDao archivos = new ArchivoDao() {
+        @Override
+        public long insertArchivo(String filename, String path, long size, Long propietarioId) {
+            return 0;
+        }
+
+        @Override
+        public ArchivoInfo findById(long id) {
+            singleLookups.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public Map<Long, ArchivoInfo> findByIds(Collection<Long> ids) {
+            batchLookups.incrementAndGet();
+            Map<Long, ArchivoInfo> out = new HashMap<>();
+            for (Long id : ids) {
+                if (id % 2 != 0) continue;
+                ArchivoInfo a = new ArchivoInfo();
+                a.id = id;
+                a.filename = "f" + id + ".txt";
+                a.path = "cas/ab/cd/" + "a".repeat(64);
+                a.size = 10;
+                out.put(id, a);
+            }
+            return out;
+        }
+
+        @Override
+        public long countByPath(String path) {
+            return 0;
+        }
+    };
+
+    private static MessageRecord record(long id, long emisor, long receptor, Long archivoId) {
+        MessageRecord mr = new MessageRecord();
+        mr.setId(id);
+        mr.setEmisorId(emisor);
+        mr.setReceptorId(receptor);
+        mr.setTipoMensaje(archivoId == null ? "TEXTO" : "ARCHIVO");
+        mr.setContenido(archivoId == null ? "hola " + id : "f" + archivoId + ".txt");
+        mr.setArchivoId(archivoId);
+        mr.setCreadoEn(LocalDateTime.of(2024, 1, 1, 12, 0));
+        return mr;
+    }
+
+    @Test
+    public void pageIsResolvedWithOneLookupPerEntityType() {
+        List<MessageRecord> page = new ArrayList<>();
+        for (long i = 1; i <= 200; i++) {
+            page.add(record(i, 1 + i % 3, 1 + (i + 1) % 3, i % 4 == 0 ? i : null));
+        }
+
+        List<ProtocolMessage> entries = HistoryEntries.build(page, users, archivos);
+
+        assertEquals(200, entries.size());
+        assertEquals(2, batchLookups.get());
+        assertEquals(0, singleLookups.get());
+        ProtocolMessage text = entries.get(0);
+        assertEquals(ProtocolMessage.Verb.HIST_ENTRY, text.verb());
+        assertEquals("1", text.arg(0));
+        assertEquals("u2", text.arg(1));
+        assertEquals("3", text.arg(2)); // usuario sin nombre: se muestra el id
+        assertEquals("", text.arg(4));
+        assertEquals("hola 1", text.arg(7));
+        ProtocolMessage file = entries.get(3);
+        assertEquals("4", file.arg(4));
+        assertEquals("10", file.arg(5));
+        assertEquals("a".repeat(64), file.arg(6));
+        assertEquals("f4.txt", file.arg(7));
+    }
+
+    @Test
+    public void emptyPageDoesNotQuery() {
+        assertTrue(HistoryEntries.build(List.of(), users, archivos).isEmpty());
+        assertEquals(0, batchLookups.get());
+    }
+}
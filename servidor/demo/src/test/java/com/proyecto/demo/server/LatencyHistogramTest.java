@@ -0,0 +1,41 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        // 1..1000 µs, una muestra de cada
+        for (int us = 1; us <= 1000; us++) h.record(us * 1000L);
+
+        assertEquals(1000, h.count());
+        assertEquals(1_000_000L, h.maxNanos());
+        assertNear(500_000L, h.percentile(0.50));
+        assertNear(990_000L, h.percentile(0.99));
+        assertNear(999_000L, h.percentile(0.999));
+        assertEquals(1_000_000L, h.percentile(1.0));
+    }
+
+    @Test
+    public void bucketsCoverTheWholeRange() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(3, h.count());
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+        for (long v = 1; v > 0 && v < (1L << 40); v = v * 3 + 1) {
+            int b = LatencyHistogram.bucketOf(v);
+            assertTrue(v < LatencyHistogram.upperBound(b), "valor " + v + " fuera de su cubo");
+            assertTrue(b == 0 || v >= LatencyHistogram.upperBound(b - 1), "valor " + v + " en un cubo superior");
+        }
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16 + 1000, "esperado ~" + expected + " y fue " + actual);
+    }
+}
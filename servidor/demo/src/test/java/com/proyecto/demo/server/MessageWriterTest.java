@@ -0,0 +1,165 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.dao.MessageDao;
+import com.proyecto.demo.model.MessageRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageWriterTest {
+
+    // tamaño de cada lote recibido por la "BD"
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private final CountDownLatch entered = new CountDownLatch(1);
+    // inserciones en curso a la vez, y el máximo visto
+    private final AtomicInteger inside = new AtomicInteger();
+    private final AtomicInteger maxInside = new AtomicInteger();
+
+    private final MessageDao dao = new MessageDao() {
+        @Override
+        public long insertMessage(MessageRecord m) {
+            return insertMessages(List.of(m))[0];
+        }
+
+        @Override
+        public long[] insertMessages(List<MessageRecord> batch) {
+            maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+            entered.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(batch.size());
+            long[] ids = new long[batch.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = nextId.incrementAndGet();
+            inside.decrementAndGet();
+            return ids;
+        }
+
+        @Override
+        public List<MessageRecord> findBetweenUsers(long userAId, long userBId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findForUser(long userId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findConversationBefore(long userId, long peerId, long beforeId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findConversationAfter(long userId, long peerId, long afterId, int limit) { return List.of(); }
+
+        @Override
+        public List<MessageRecord> findForUserAfter(long userId, long afterId, int limit) { return List.of(); }
+
+        @Override
+        public boolean hasArchivoAccess(long userId, long archivoId) { return false; }
+
+        @Override
+        public void ensureTables() {}
+    };
+
+    private static List<MessageRecord> rows(int n) {
+        List<MessageRecord> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) out.add(new MessageRecord());
+        return out;
+    }
+
+    @Test
+    public void concurrentSendsShareOneCommitAndGetTheirOwnIds() throws Exception {
+        MessageWriter writer = new MessageWriter(dao, "commit", 1, 100, 0, 100);
+        writer.start();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            // el primer lote se queda esperando en la BD mientras llegan los demás envíos
+            gate = new CountDownLatch(1);
+            Future<long[]> first = pool.submit(() -> writer.persist(rows(1)));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            List<Future<long[]>> rest = new ArrayList<>();
+            for (int i = 0; i < 6; i++) rest.add(pool.submit(() -> writer.persist(rows(2))));
+            while (writer.getQueueDepth() < 13) Thread.sleep(1);
+            gate.countDown();
+
+            assertArrayEquals(new long[]{1}, first.get(5, TimeUnit.SECONDS));
+            List<Long> ids = new ArrayList<>();
+            for (Future<long[]> f : rest) {
+                long[] pair = f.get(5, TimeUnit.SECONDS);
+                assertEquals(2, pair.length);
+                assertEquals(pair[0] + 1, pair[1]);
+                ids.add(pair[0]);
+                ids.add(pair[1]);
+            }
+            Collections.sort(ids);
+            assertEquals(List.of(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L), ids);
+            assertEquals(List.of(1, 12), batches);
+            assertEquals(0, writer.getQueueDepth());
+            assertEquals(13, writer.getWritten());
+        } finally {
+            pool.shutdownNow();
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void enqueueModeReturnsBeforeCommitAndFlushesOnStop() {
+        MessageWriter writer = new MessageWriter(dao, "enqueue", 1, 100, 0, 100);
+        writer.start();
+        gate = new CountDownLatch(1);
+        assertArrayEquals(new long[]{-1, -1}, writer.persist(rows(2)));
+        assertArrayEquals(new long[]{-1}, writer.persist(rows(1)));
+        gate.countDown();
+        writer.stop();
+        assertEquals(3, writer.getWritten());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void withoutWritersRowsAreSavedInTheCallerThread() {
+        MessageWriter writer = new MessageWriter(dao, "commit", 0, 100, 0, 100);
+        writer.start();
+        assertArrayEquals(new long[]{1, 2, 3}, writer.persist(rows(3)));
+        assertEquals(List.of(3), batches);
+        writer.stop();
+    }
+
+    @Test
+    public void overflowInCallerWaitsForTheWritersCommit() throws Exception {
+        MessageWriter writer = new MessageWriter(dao, "commit", 1, 100, 0, 1);
+        writer.start();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            gate = new CountDownLatch(1);
+            Future<long[]> first = pool.submit(() -> writer.persist(rows(1)));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            // el segundo ocupa la cola; el tercero se guarda en su hilo al agotar enqueueTimeoutMs
+            Future<long[]> queued = pool.submit(() -> writer.persist(rows(1)));
+            while (writer.getQueueDepth() < 2) Thread.sleep(1);
+            Future<long[]> overflow = pool.submit(() -> writer.persist(rows(1)));
+            while (writer.getCallerWrites() == 0) Thread.sleep(5);
+            Thread.sleep(50);
+            gate.countDown();
+
+            assertArrayEquals(new long[]{1}, first.get(5, TimeUnit.SECONDS));
+            assertTrue(queued.get(5, TimeUnit.SECONDS)[0] > 1);
+            assertTrue(overflow.get(5, TimeUnit.SECONDS)[0] > 1);
+            assertEquals(1, maxInside.get());
+            assertEquals(1, writer.getOverflows());
+        } finally {
+            pool.shutdownNow();
+            writer.stop();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioReactorTest {
+
+    @Test
+    public void scheduledTasksRunOnTheReactorByDeadline() throws Exception {
+        NioReactor reactor = new NioReactor();
+        reactor.start("nio-test");
+        try {
+            List<String> order = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(2);
+            long start = System.nanoTime();
+            reactor.schedule(() -> { order.add("tarde:" + Thread.currentThread().getName()); done.countDown(); }, 150);
+            reactor.schedule(() -> { order.add("pronto:" + Thread.currentThread().getName()); done.countDown(); }, 50);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+            assertEquals(List.of("pronto:nio-test", "tarde:nio-test"), order);
+        } finally {
+            reactor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTest {
+
+    private static ByteBuffer frame(String s) {
+        return ByteBuffer.wrap(s.getBytes());
+    }
+
+    @Test
+    public void dropPolicyDiscardsWhenFullAndKeepsConnection() {
+        OutboundQueue q = new OutboundQueue("test", 2, OutboundQueue.OverflowPolicy.DROP, 0);
+        AtomicInteger closes = new AtomicInteger();
+        q.bind(() -> {}, closes::incrementAndGet);
+        assertEquals(OutboundQueue.Result.QUEUED, q.offer(frame("a")));
+        assertEquals(OutboundQueue.Result.QUEUED, q.offer(frame("b")));
+        assertEquals(OutboundQueue.Result.DROPPED, q.offer(frame("c")));
+        assertEquals(1, q.getDropped());
+        assertEquals(0, closes.get());
+        assertFalse(q.isClosed());
+    }
+
+    @Test
+    public void disconnectPolicyClosesSlowClient() {
+        OutboundQueue q = new OutboundQueue("test", 1, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        AtomicInteger closes = new AtomicInteger();
+        q.bind(() -> {}, () -> { closes.incrementAndGet(); q.close(); });
+        assertEquals(OutboundQueue.Result.QUEUED, q.offer(frame("a")));
+        assertEquals(OutboundQueue.Result.CLOSED, q.offer(frame("b")));
+        assertEquals(1, closes.get());
+        assertEquals(OutboundQueue.Result.CLOSED, q.offer(frame("c")));
+    }
+
+    @Test
+    public void drainIsScheduledOncePerBurst() {
+        OutboundQueue q = new OutboundQueue("test", 16, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        AtomicInteger starts = new AtomicInteger();
+        q.bind(starts::incrementAndGet, q::close);
+        for (int i = 0; i < 5; i++) q.offer(frame("m" + i));
+        assertEquals(1, starts.get());
+
+        List<ByteBuffer> batch = new ArrayList<>();
+        assertEquals(5, q.drainTo(batch, 64));
+        assertFalse(q.finishDrain());
+        q.offer(frame("otra"));
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    public void drainCountsMessagesAndBytesSent() {
+        ServerMetrics metrics = new ServerMetrics();
+        OutboundQueue q = new OutboundQueue("test", 16, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        q.bind(() -> {}, q::close, metrics);
+        q.offer(frame("hola\n"));
+        // un mensaje de varios buffers cuenta una vez, con todos sus bytes
+        q.offer(new ByteBuffer[]{frame("cab"), frame("cuerpo")});
+        q.drainTo(new ArrayList<>(), 64);
+        assertEquals(2, metrics.getMessagesOut());
+        assertEquals(14, metrics.getBytesOut());
+    }
+}
@@ -0,0 +1,125 @@
+package com.proyecto.demo.server;
+
+import com.proyecto.demo.server.ProtocolMessage.Verb;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProtocolMessageTest {
+
+    private static byte[] bytes(ByteBuffer b) {
+        ByteBuffer d = b.duplicate();
+        byte[] out = new byte[d.remaining()];
+        d.get(out);
+        return out;
+    }
+
+    @Test
+    public void v1KeepsPipesInLastFieldAndBase64ForBinary() {
+        ProtocolMessage msg = ProtocolMessage.parseV1("MSG ALL|hola|mundo");
+        assertEquals(Verb.MSG, msg.verb());
+        assertEquals("ALL", msg.arg(0));
+        assertEquals("hola|mundo", msg.arg(1));
+
+        ProtocolMessage file = ProtocolMessage.of(Verb.FILEFROM, "ana", "a.bin", new byte[]{0, 1, (byte) 0xFF});
+        assertEquals("FILEFROM ana|a.bin|AAH/\n", new String(bytes(file.encode(ProtocolMessage.V1)), StandardCharsets.UTF_8));
+        assertArrayEquals(new byte[]{0, 1, (byte) 0xFF}, ProtocolMessage.parseV1("FILEFROM ana|a.bin|AAH/").bytes(2));
+    }
+
+    @Test
+    public void v2RoundTripKeepsBinaryFieldRaw() throws Exception {
+        byte[] data = {'|', '\n', 0, 42};
+        ProtocolMessage msg = ProtocolMessage.of(Verb.FILE_DATA, "ALL", "x y.bin", data);
+        ProtocolInput in = new ProtocolInput(new ByteArrayInputStream(bytes(msg.encode(ProtocolMessage.V2))));
+        ProtocolMessage back = in.readFrame(1024);
+        assertEquals(Verb.FILE_DATA, back.verb());
+        assertEquals("x y.bin", back.arg(1));
+        assertArrayEquals(data, back.bytes(2));
+        assertNull(in.readFrame(1024));
+    }
+
+    @Test
+    public void v2FrameLimitDependsOnType() throws Exception {
+        // payload mayor que el buffer de lectura: llega en varias lecturas y el array crece hasta su tamaño
+        byte[] data = new byte[200 * 1024];
+        data[data.length - 1] = 7;
+        ProtocolMessage file = ProtocolMessage.of(Verb.FILE_DATA, "ALL", "a.bin", data);
+        ProtocolMessage text = ProtocolMessage.of(Verb.MSG, "ALL", "x".repeat(4096));
+        java.util.function.IntUnaryOperator limits = type -> type == 15 ? 1024 * 1024 : 1024;
+
+        ProtocolInput in = new ProtocolInput(new ByteArrayInputStream(bytes(file.encode(ProtocolMessage.V2))));
+        assertArrayEquals(data, in.readFrame(limits).bytes(2));
+        ProtocolInput big = new ProtocolInput(new ByteArrayInputStream(bytes(text.encode(ProtocolMessage.V2))));
+        assertThrows(java.io.IOException.class, () -> big.readFrame(limits));
+    }
+
+    @Test
+    public void v2HeaderAloneDoesNotReadPastTheStream() {
+        // la cabecera anuncia 100 MB pero sólo llegan 3 bytes
+        byte[] raw = {15, 0x06, 0x40, 0x00, 0x00, 1, 2, 3};
+        ProtocolInput in = new ProtocolInput(new ByteArrayInputStream(raw));
+        assertThrows(java.io.EOFException.class, () -> in.readFrame(200 * 1024 * 1024));
+    }
+
+    @Test
+    public void v1Base64FieldIsSentRawOnV2() throws Exception {
+        // un FILE_DATA recibido por v1 y reenviado a un cliente v2 no debe llevar Base64
+        ProtocolMessage v1 = ProtocolMessage.parseV1("FILEFROM ana|a.bin|AAH/");
+        ProtocolMessage fwd = ProtocolMessage.of(Verb.FILEFROM, "ana", "a.bin", v1.field(2));
+        ByteBuffer frame = fwd.encode(ProtocolMessage.V2).duplicate();
+        int type = frame.get() & 0xFF;
+        frame.getInt();
+        assertArrayEquals(new byte[]{0, 1, (byte) 0xFF}, ProtocolMessage.decodeV2(type, frame).bytes(2));
+    }
+
+    @Test
+    public void byteLengthMatchesDecodedSizeWithoutDecoding() {
+        for (int n = 0; n < 8; n++) {
+            byte[] data = new byte[n];
+            String b64 = java.util.Base64.getEncoder().encodeToString(data);
+            assertEquals(n, ProtocolMessage.parseV1("FILE_DATA ALL|a.bin|" + b64).byteLength(2));
+            assertEquals(n, ProtocolMessage.of(Verb.FILE_DATA, "ALL", "a.bin", data).byteLength(2));
+        }
+    }
+
+    @Test
+    public void v2TextFieldsCannotForgeV1Lines() throws Exception {
+        // texto libre (último campo): puede llevar '|', nunca un fin de línea
+        assertEquals("MSG ALL|a|b", ProtocolMessage.decodeV2(12, payload("ALL", "a|b")).toV1Line());
+        assertThrows(java.io.IOException.class, () -> ProtocolMessage.decodeV2(12, payload("ALL", "hola\nMSGFROM admin|te debo")));
+        assertThrows(java.io.IOException.class, () -> ProtocolMessage.decodeV2(12, payload("ALL\r", "hola")));
+        // nombre de archivo de FILE_HDR: un '|' desplazaría los campos que ve un cliente v1
+        assertThrows(java.io.IOException.class, () -> ProtocolMessage.decodeV2(14, payload("ana", "a|b.txt", "3", "", "")));
+        // lo ya guardado con saltos de línea no sale como dos líneas v1
+        assertEquals("MSGFROM 1|ana|x y", ProtocolMessage.of(Verb.MSGFROM, "1", "ana", "x\ny").toV1Line());
+    }
+
+    // payload v2 (sin cabecera) con campos de texto
+    private static ByteBuffer payload(String... fields) {
+        ByteBuffer b = ByteBuffer.allocate(1024);
+        b.put((byte) fields.length);
+        for (String f : fields) {
+            byte[] raw = f.getBytes(StandardCharsets.UTF_8);
+            b.putInt(raw.length).put(raw);
+        }
+        b.flip();
+        return b;
+    }
+
+    @Test
+    public void v1LineLimitDependsOnVerb() throws Exception {
+        java.util.function.ToIntFunction<String> limits = verb -> "FILE_DATA".equals(verb) ? 1024 * 1024 : 1024;
+        String file = "FILE_DATA ALL|a.bin|" + "A".repeat(200_000) + "\n";
+        assertEquals(Verb.FILE_DATA, ProtocolMessage.parseV1(new ProtocolInput(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8))).readLine(limits)).verb());
+        String msg = "MSG ALL|" + "x".repeat(200_000) + "\n";
+        ProtocolInput big = new ProtocolInput(new ByteArrayInputStream(msg.getBytes(StandardCharsets.UTF_8)));
+        assertThrows(java.io.IOException.class, () -> big.readLine(limits));
+        // sin espacio no hay verbo: límite de comando aunque empiece como uno con archivo
+        ProtocolInput noVerb = new ProtocolInput(new ByteArrayInputStream(("FILE_DATA" + "A".repeat(200_000) + "\n").getBytes(StandardCharsets.UTF_8)));
+        assertThrows(java.io.IOException.class, () -> noVerb.readLine(limits));
+    }
+}
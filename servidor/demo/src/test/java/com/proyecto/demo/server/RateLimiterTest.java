@@ -0,0 +1,60 @@
+package com.proyecto.demo.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void burstPassesThenSlowDown() {
+        // 1 mensaje/s con ráfaga de 3 s: pasan 3 seguidos
+        RateLimiter limiter = new RateLimiter(1, 0, 0, 3);
+        for (int i = 0; i < 3; i++) assertNull(limiter.tryMessage("ana", "10.0.0.1", 10));
+        RateLimiter.Denied denied = limiter.tryMessage("ana", "10.0.0.1", 10);
+        assertNotNull(denied);
+        assertEquals("mensajes", denied.reason());
+        assertTrue(denied.retryAfterMs() > 0 && denied.retryAfterMs() <= 1000, "espera " + denied.retryAfterMs());
+    }
+
+    @Test
+    public void ipLimitIsSharedByItsUsers() {
+        RateLimiter limiter = new RateLimiter(1, 0, 0, 2);
+        assertNull(limiter.tryMessage("ana", "10.0.0.1", 1));
+        assertNull(limiter.tryMessage("luis", "10.0.0.1", 1));
+        // eva tiene fichas propias pero la IP ya gastó su ráfaga; desde otra IP sí pasa
+        assertNotNull(limiter.tryMessage("eva", "10.0.0.1", 1));
+        assertNull(limiter.tryMessage("eva", "10.0.0.2", 1));
+        // el rechazo por IP no le gastó fichas a eva
+        assertNull(limiter.tryMessage("eva", "10.0.0.3", 1));
+    }
+
+    @Test
+    public void oversizedPayloadNeedsFullBucketAndLeavesDebt() {
+        // 1000 B/s, capacidad 1000 B
+        RateLimiter limiter = new RateLimiter(0, 1000, 0, 1);
+        assertNull(limiter.tryMessage("ana", "10.0.0.1", 5000));
+        RateLimiter.Denied denied = limiter.tryMessage("ana", "10.0.0.1", 10);
+        assertNotNull(denied);
+        assertEquals("bytes", denied.reason());
+        assertTrue(denied.retryAfterMs() > 3000, "espera " + denied.retryAfterMs());
+    }
+
+    @Test
+    public void chunksArePacedNotRejected() {
+        RateLimiter limiter = new RateLimiter(0, 1000, 0, 1);
+        assertEquals(0L, limiter.reserveBytes("ana", "10.0.0.1", 1000));
+        long wait = limiter.reserveBytes("ana", "10.0.0.1", 500);
+        assertTrue(wait > 400 && wait <= 500, "espera " + wait);
+    }
+
+    @Test
+    public void concurrentTransfersPerUser() {
+        RateLimiter limiter = new RateLimiter(0, 0, 2, 1);
+        assertTrue(limiter.tryStartTransfer("ana", "10.0.0.1"));
+        assertTrue(limiter.tryStartTransfer("ana", "10.0.0.1"));
+        assertFalse(limiter.tryStartTransfer("ana", "10.0.0.1"));
+        limiter.endTransfer("ana", "10.0.0.1");
+        assertTrue(limiter.tryStartTransfer("ana", "10.0.0.1"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.proyecto.demo.ui;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogBufferTest {
+
+    @Test
+    public void getLastReturnsNewestLinesInOrderAfterWrapping() {
+        for (int i = 0; i < 5000; i++) LogBuffer.add("orden " + i);
+        List<String> last = LogBuffer.getLast(3);
+        assertEquals(List.of("orden 4997", "orden 4998", "orden 4999"), last);
+        assertEquals(2000, LogBuffer.getLast(10_000).size());
+        assertEquals("orden 3000", LogBuffer.getLast(2000).get(0));
+    }
+
+    @Test
+    public void concurrentWritersNeverLoseTheLatestWindow() throws Exception {
+        Thread[] writers = new Thread[8];
+        for (int t = 0; t < writers.length; t++) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) LogBuffer.add("w" + id + " " + i);
+            });
+            writers[t].start();
+        }
+        for (Thread w : writers) w.join();
+        List<String> last = LogBuffer.getLast(2000);
+        assertEquals(2000, last.size());
+        assertEquals(2000, new HashSet<>(last).size());
+    }
+}
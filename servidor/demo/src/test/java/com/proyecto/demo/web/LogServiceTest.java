@@ -0,0 +1,74 @@
+package com.proyecto.demo.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogServiceTest {
+
+    @Test
+    public void tailReadsLastLinesAcrossBlocks() throws Exception {
+        Path f = Files.createTempFile("log-tail", ".txt");
+        try {
+            StringBuilder sb = new StringBuilder();
+            // ~1,3 MB: varias lecturas hacia atrás de 64 KB
+            for (int i = 0; i < 50_000; i++) sb.append("línea número ").append(i).append('\n');
+            Files.writeString(f, sb.toString(), StandardCharsets.UTF_8);
+            try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+                assertEquals(List.of("línea número 49998", "línea número 49999"), LogService.tail(ch, 2, 0L));
+                List<String> many = LogService.tail(ch, 20_000, 0L);
+                assertEquals(20_000, many.size());
+                assertEquals("línea número 30000", many.get(0));
+                assertEquals(50_000, LogService.tail(ch, 100_000, 0L).size());
+                // desde el arranque: nada anterior a floor
+                long floor = Files.size(f) - "línea número 49999\n".getBytes(StandardCharsets.UTF_8).length;
+                assertEquals(List.of("línea número 49999"), LogService.tail(ch, 10, floor));
+            }
+        } finally {
+            Files.deleteIfExists(f);
+        }
+    }
+
+    @Test
+    public void tailStopsAtByteCapWithoutPartialLines() throws Exception {
+        Path f = Files.createTempFile("log-cap", ".txt");
+        try {
+            // una línea más larga que el tope y dos cortas detrás
+            Files.writeString(f, "x".repeat((int) LogService.MAX_TAIL_BYTES + 10) + "\na\nb\n", StandardCharsets.UTF_8);
+            try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+                assertEquals(List.of("a", "b"), LogService.tail(ch, 10, 0L));
+                assertEquals(Files.size(f), LogService.lastLineEnd(ch, ch.size()));
+                Files.writeString(f, "medio", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                assertEquals(Files.size(f) - 5, LogService.lastLineEnd(ch, ch.size()));
+            }
+        } finally {
+            Files.deleteIfExists(f);
+        }
+    }
+
+    @Test
+    public void readAppendedReturnsOnlyCompleteLines() throws Exception {
+        Path f = Files.createTempFile("log-append", ".txt");
+        try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+            Files.writeString(f, "uno\n\ndós\ntr", StandardCharsets.UTF_8);
+            LogService.TailResult r = LogService.readAppended(ch, 0L);
+            assertEquals(List.of("uno", "", "dós"), r.lines);
+            Files.writeString(f, "es\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            LogService.TailResult r2 = LogService.readAppended(ch, r.position);
+            assertEquals(List.of("tres"), r2.lines);
+            assertEquals(Files.size(f), r2.position);
+            // truncado: vuelve al principio
+            Files.writeString(f, "nuevo\n", StandardCharsets.UTF_8);
+            assertEquals(List.of("nuevo"), LogService.readAppended(ch, r2.position).lines);
+        } finally {
+            Files.deleteIfExists(f);
+        }
+    }
+}
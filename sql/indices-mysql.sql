@@ -0,0 +1,19 @@
+-- Índices añadidos después del esquema inicial, para bases ya existentes (init-mysql.sql borra y recrea
+-- las tablas). MySQL no admite CREATE INDEX IF NOT EXISTS: cada uno se crea sólo si no aparece en
+-- information_schema.statistics. El servidor hace lo mismo al arrancar (MySQLDatabaseAdapter.ensureIndexes).
+
+SET @s = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'archivos' AND index_name = 'idx_archivos_ruta') = 0,
+  'CREATE INDEX idx_archivos_ruta ON archivos (ruta(255))', 'DO 0');
+PREPARE st FROM @s; EXECUTE st; DEALLOCATE PREPARE st;
+
+SET @s = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'mensajes' AND index_name = 'idx_mensajes_emisor_receptor_id') = 0,
+  'CREATE INDEX idx_mensajes_emisor_receptor_id ON mensajes (emisor_id, receptor_id, id)', 'DO 0');
+PREPARE st FROM @s; EXECUTE st; DEALLOCATE PREPARE st;
+
+SET @s = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'mensajes' AND index_name = 'idx_mensajes_receptor_id') = 0,
+  'CREATE INDEX idx_mensajes_receptor_id ON mensajes (receptor_id, id)', 'DO 0');
+PREPARE st FROM @s; EXECUTE st; DEALLOCATE PREPARE st;
+
+SET @s = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'mensajes' AND index_name = 'idx_mensajes_emisor_id') = 0,
+  'CREATE INDEX idx_mensajes_emisor_id ON mensajes (emisor_id, id)', 'DO 0');
+PREPARE st FROM @s; EXECUTE st; DEALLOCATE PREPARE st;
@@ -30,6 +30,7 @@ CREATE TABLE IF NOT EXISTS archivos (
   tamano BIGINT,
   creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
   INDEX idx_archivos_propietario (propietario_id),
+  INDEX idx_archivos_ruta (ruta(255)),
   CONSTRAINT fk_archivos_propietario FOREIGN KEY (propietario_id) REFERENCES usuarios(id) ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
@@ -43,7 +44,10 @@ CREATE TABLE IF NOT EXISTS mensajes (
   sesion_id CHAR(36),
   creado_en DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
   INDEX idx_mensajes_emisor_receptor_creado (emisor_id, receptor_id, creado_en),
+  INDEX idx_mensajes_emisor_receptor_id (emisor_id, receptor_id, id),
   INDEX idx_mensajes_receptor_creado (receptor_id, creado_en),
+  INDEX idx_mensajes_receptor_id (receptor_id, id),
+  INDEX idx_mensajes_emisor_id (emisor_id, id),
   INDEX idx_mensajes_sesion (sesion_id),
   CONSTRAINT fk_mensajes_emisor FOREIGN KEY (emisor_id) REFERENCES usuarios(id) ON DELETE CASCADE,
   CONSTRAINT fk_mensajes_receptor FOREIGN KEY (receptor_id) REFERENCES usuarios(id) ON DELETE CASCADE,
@@ -32,6 +32,8 @@ CREATE TABLE IF NOT EXISTS archivos (
   CONSTRAINT fk_archivos_propietario FOREIGN KEY (propietario_id) REFERENCES usuarios(id) ON DELETE SET NULL
 );
 
+CREATE INDEX IF NOT EXISTS idx_archivos_ruta ON archivos (ruta);
+
 CREATE TABLE IF NOT EXISTS mensajes (
   id BIGSERIAL PRIMARY KEY,
   emisor_id BIGINT NOT NULL,
@@ -47,6 +49,10 @@ CREATE TABLE IF NOT EXISTS mensajes (
   CONSTRAINT fk_mensajes_sesion FOREIGN KEY (sesion_id) REFERENCES sesiones(id) ON DELETE SET NULL
 );
 
+CREATE INDEX IF NOT EXISTS idx_mensajes_emisor_receptor_id ON mensajes (emisor_id, receptor_id, id);
+CREATE INDEX IF NOT EXISTS idx_mensajes_receptor_id ON mensajes (receptor_id, id);
+CREATE INDEX IF NOT EXISTS idx_mensajes_emisor_id ON mensajes (emisor_id, id);
+
 
 SELECT * FROM usuarios;
 SELECT * FROM sesiones;